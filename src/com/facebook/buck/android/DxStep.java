@@ -18,6 +18,7 @@ package com.facebook.buck.android;
 
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.ResourceProfile;
 import com.facebook.buck.util.AndroidPlatformTarget;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.facebook.buck.util.Verbosity;
@@ -161,4 +162,14 @@ public class DxStep extends ShellStep {
     return "dx";
   }
 
+  /** {@code dx} keeps a core busy, and its script gives the JVM a 1GB heap by default. */
+  @Override
+  public ResourceProfile getResourceProfile() {
+    return new ResourceProfile(
+        /* cores */ 1,
+        /* memoryMegabytes */ 1024,
+        /* heapMegabytes */ 0,
+        /* subprocesses */ 1);
+  }
+
 }
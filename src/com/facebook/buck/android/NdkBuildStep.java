@@ -18,6 +18,7 @@ package com.facebook.buck.android;
 
 import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.ResourceProfile;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.facebook.buck.util.Verbosity;
@@ -57,6 +58,16 @@ public class NdkBuildStep extends ShellStep {
     return "ndk_build";
   }
 
+  /** {@code ndk-build} runs up to {@link #maxJobCount} compilers at once. */
+  @Override
+  public ResourceProfile getResourceProfile() {
+    return new ResourceProfile(
+        maxJobCount,
+        /* memoryMegabytes */ 0,
+        /* heapMegabytes */ 0,
+        /* subprocesses */ 1);
+  }
+
   @Override
   protected boolean shouldPrintStderr(Verbosity verbosity) {
     return verbosity.shouldPrintStandardInformation();
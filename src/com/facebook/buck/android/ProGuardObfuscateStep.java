@@ -21,6 +21,7 @@ import com.facebook.buck.shell.ShellStep;
 import com.facebook.buck.step.AbstractExecutionStep;
 import com.facebook.buck.step.CompositeStep;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.ResourceProfile;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.util.AndroidPlatformTarget;
 import com.facebook.buck.zip.CustomZipOutputStream;
@@ -108,6 +109,16 @@ public final class ProGuardObfuscateStep extends ShellStep {
     return "proguard_obfuscation";
   }
 
+  /** ProGuard is run with {@code -Xmx1024M}. */
+  @Override
+  public ResourceProfile getResourceProfile() {
+    return new ResourceProfile(
+        /* cores */ 1,
+        /* memoryMegabytes */ 1024,
+        /* heapMegabytes */ 0,
+        /* subprocesses */ 1);
+  }
+
   @Override
   protected ImmutableList<String> getShellCommandInternal(ExecutionContext context) {
     // Run ProGuard as a standalone executable JAR file.
@@ -61,7 +61,8 @@ public class AuditCommandRunner implements CommandRunner {
         "input",     new AuditInputCommand(params),
         "classpath", new AuditClasspathCommand(params),
         "owner",     new AuditOwnerCommand(params),
-        "rules",     new AuditRulesCommand(params));
+        "rules",     new AuditRulesCommand(params),
+        "timings",   new AuditTimingsCommand(params));
   }
 
   private void printUsage() {
@@ -0,0 +1,196 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.cli;
+
+import com.facebook.buck.event.listener.BuildTimeHistory;
+import com.facebook.buck.event.listener.BuildTimeRecord;
+import com.facebook.buck.util.HumanReadableException;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Strings;
+import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Longs;
+
+import java.io.IOException;
+import java.io.PrintStream;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+/**
+ * Reports which rules, or which kinds of steps, have taken the most time in past builds, as
+ * recorded in the {@link BuildTimeHistory} of the project.
+ */
+public class AuditTimingsCommand extends AbstractCommandRunner<AuditTimingsOptions> {
+
+  protected AuditTimingsCommand(CommandRunnerParams params) {
+    super(params);
+  }
+
+  @Override
+  AuditTimingsOptions createOptions(BuckConfig buckConfig) {
+    return new AuditTimingsOptions(buckConfig);
+  }
+
+  @Override
+  String getUsageIntro() {
+    return "List the rules or steps that took the most time in past builds.";
+  }
+
+  @Override
+  int runCommandWithOptionsInternal(AuditTimingsOptions options) throws IOException {
+    if (options.getLimit() < 1) {
+      throw new HumanReadableException("--limit must be at least 1.");
+    }
+
+    BuildTimeHistory history = BuildTimeHistory.forProject(getProjectFilesystem());
+    final BuildTimeRecord.Kind kind = options.isSteps()
+        ? BuildTimeRecord.Kind.STEP
+        : BuildTimeRecord.Kind.RULE;
+    final Set<String> targets = options.getTargets();
+    List<BuildTimeRecord> records = history.read(new Predicate<BuildTimeRecord>() {
+      @Override
+      public boolean apply(BuildTimeRecord record) {
+        return record.getKind() == kind &&
+            (targets.isEmpty() || targets.contains(record.getTarget()));
+      }
+    });
+
+    if (records.isEmpty()) {
+      console.printErrorText("No timings have been recorded for the given targets yet.");
+      return 1;
+    }
+
+    PrintStream out = console.getStdOut();
+    out.printf("%-60s %6s %10s %10s %12s %-10s %12s\n",
+        options.isSteps() ? "STEP" : "RULE",
+        "COUNT",
+        "MEDIAN",
+        "AVERAGE",
+        "TOTAL",
+        "CACHE",
+        "OUTPUT");
+    for (Timing timing : Iterables.limit(summarize(records), options.getLimit())) {
+      out.printf("%-60s %6d %8dms %8dms %10dms %-10s %12s\n",
+          timing.getName(),
+          timing.getCount(),
+          timing.getMedianMillis(),
+          timing.getAverageMillis(),
+          timing.getTotalMillis(),
+          Strings.nullToEmpty(timing.getLastCacheResult()),
+          timing.getLastOutputSizeBytes() == null ? "" : timing.getLastOutputSizeBytes());
+    }
+    return 0;
+  }
+
+  /**
+   * @param records the records to summarize, oldest first.
+   * @return a {@link Timing} for each distinct name in {@code records}, the one that took the most
+   *     time in total first.
+   */
+  @VisibleForTesting
+  static ImmutableList<Timing> summarize(Iterable<BuildTimeRecord> records) {
+    ListMultimap<String, BuildTimeRecord> recordsByName = ArrayListMultimap.create();
+    for (BuildTimeRecord record : records) {
+      recordsByName.put(record.getName(), record);
+    }
+
+    List<Timing> timings = Lists.newArrayList();
+    for (Map.Entry<String, Collection<BuildTimeRecord>> entry :
+        recordsByName.asMap().entrySet()) {
+      timings.add(new Timing(entry.getKey(), ImmutableList.copyOf(entry.getValue())));
+    }
+    return Ordering.from(new Comparator<Timing>() {
+      @Override
+      public int compare(Timing a, Timing b) {
+        return Longs.compare(b.getTotalMillis(), a.getTotalMillis());
+      }
+    }).immutableSortedCopy(timings);
+  }
+
+  @VisibleForTesting
+  static class Timing {
+    private final String name;
+    private final int count;
+    private final long medianMillis;
+    private final long totalMillis;
+    @Nullable private final String lastCacheResult;
+    @Nullable private final Long lastOutputSizeBytes;
+
+    private Timing(String name, ImmutableList<BuildTimeRecord> records) {
+      Preconditions.checkArgument(!records.isEmpty());
+      this.name = Preconditions.checkNotNull(name);
+      this.count = records.size();
+
+      List<Long> durations = Lists.newArrayListWithCapacity(count);
+      long total = 0;
+      for (BuildTimeRecord record : records) {
+        durations.add(record.getDurationMillis());
+        total += record.getDurationMillis();
+      }
+      Collections.sort(durations);
+      this.medianMillis = durations.get(count / 2);
+      this.totalMillis = total;
+
+      BuildTimeRecord last = records.get(count - 1);
+      this.lastCacheResult = last.getCacheResult();
+      this.lastOutputSizeBytes = last.getOutputSizeBytes();
+    }
+
+    public String getName() {
+      return name;
+    }
+
+    public int getCount() {
+      return count;
+    }
+
+    public long getMedianMillis() {
+      return medianMillis;
+    }
+
+    public long getAverageMillis() {
+      return totalMillis / count;
+    }
+
+    public long getTotalMillis() {
+      return totalMillis;
+    }
+
+    @Nullable
+    public String getLastCacheResult() {
+      return lastCacheResult;
+    }
+
+    @Nullable
+    public Long getLastOutputSizeBytes() {
+      return lastOutputSizeBytes;
+    }
+  }
+}
@@ -0,0 +1,62 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.cli;
+
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+
+import org.kohsuke.args4j.Argument;
+import org.kohsuke.args4j.Option;
+
+import java.util.List;
+
+public class AuditTimingsOptions extends AbstractCommandOptions {
+
+  private static final int DEFAULT_LIMIT = 20;
+
+  @Option(name = "--steps",
+      usage = "Report the time taken by each kind of step, rather than by each rule")
+  private boolean steps = false;
+
+  @Option(name = "--limit",
+      usage = "The number of entries to report, starting with the most expensive")
+  private int limit = DEFAULT_LIMIT;
+
+  @Argument
+  private List<String> arguments = Lists.newArrayList();
+
+  AuditTimingsOptions(BuckConfig buckConfig) {
+    super(buckConfig);
+  }
+
+  public boolean isSteps() {
+    return steps;
+  }
+
+  public int getLimit() {
+    return limit;
+  }
+
+  /**
+   * @return the fully qualified names of the targets to report on, if only some of them, after
+   *     resolving aliases and shorthands such as {@code foo/bar} the way the other commands do.
+   */
+  public ImmutableSet<String> getTargets() {
+    return ImmutableSet.copyOf(getCommandLineBuildTargetNormalizer().normalizeAll(arguments));
+  }
+}
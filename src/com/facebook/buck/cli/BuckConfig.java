@@ -24,9 +24,13 @@ import com.facebook.buck.parser.BuildTargetParser;
 import com.facebook.buck.parser.NoSuchBuildTargetException;
 import com.facebook.buck.parser.ParseContext;
 import com.facebook.buck.rules.ArtifactCache;
+import com.facebook.buck.rules.ArtifactCodec;
+import com.facebook.buck.rules.ArtifactEncoding;
 import com.facebook.buck.rules.BuildDependencies;
 import com.facebook.buck.rules.CassandraArtifactCache;
+import com.facebook.buck.rules.ContentAddressedDirArtifactCache;
 import com.facebook.buck.rules.DirArtifactCache;
+import com.facebook.buck.rules.HttpArtifactCache;
 import com.facebook.buck.rules.MultiArtifactCache;
 import com.facebook.buck.rules.NoopArtifactCache;
 import com.facebook.buck.util.Ansi;
@@ -62,6 +66,8 @@ import java.io.File;
 import java.io.IOException;
 import java.io.Reader;
 import java.io.StringReader;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.LinkedHashMap;
@@ -91,9 +97,17 @@ public class BuckConfig {
 
   private static final String DEFAULT_CACHE_DIR = "buck-cache";
   private static final String DEFAULT_DIR_CACHE_MODE = CacheMode.readwrite.name();
+  private static final String DEFAULT_DIR_CACHE_LAYOUT = DirCacheLayout.zip.name();
+  private static final String DEFAULT_CACHE_UPLOAD_MAX_INFLIGHT_BYTES = "256mb";
+  private static final String DEFAULT_CACHE_PREFETCH_THREADS = "0";
+  private static final String DEFAULT_CACHE_PREFETCH_MAX_SIZE = "256mb";
+  private static final String DEFAULT_CACHE_CODEC = "none";
   private static final String DEFAULT_CASSANDRA_PORT = "9160";
   private static final String DEFAULT_CASSANDRA_MODE = CacheMode.readwrite.name();
   private static final String DEFAULT_CASSANDRA_TIMEOUT_SECONDS = "10";
+  private static final String DEFAULT_HTTP_CACHE_MODE = CacheMode.readwrite.name();
+  private static final String DEFAULT_HTTP_CACHE_THREADS = "4";
+  private static final String DEFAULT_HTTP_CACHE_TIMEOUT_SECONDS = "10";
   private static final String DEFAULT_MAX_TRACES = "25";
 
   // Prefer "python2" where available (Linux), but fall back to "python" (Mac).
@@ -114,7 +128,8 @@ public class BuckConfig {
 
   private enum ArtifactCacheNames {
     dir,
-    cassandra
+    cassandra,
+    http,
   }
 
   private enum CacheMode {
@@ -129,6 +144,13 @@ public class BuckConfig {
     }
   }
 
+  private enum DirCacheLayout {
+    /** One zip file per {@link com.facebook.buck.rules.RuleKey}. */
+    zip,
+    /** Files are stored once under their SHA-1, plus a manifest per RuleKey. */
+    cas,
+  }
+
   @VisibleForTesting
   BuckConfig(Map<String, Map<String, String>> sectionsToEntries,
       ProjectFilesystem projectFilesystem,
@@ -327,6 +349,36 @@ public class BuckConfig {
     return Splitter.on(' ').trimResults().omitEmptyStrings().split(includes);
   }
 
+  /**
+   * @return the number of buck.py processes used to parse all of the build files in the project at
+   *     once, as set by {@code buildfile.parser_threads}. The default is the number of processors.
+   */
+  public int getNumParserThreads() {
+    Optional<String> value = getValue("buildfile", "parser_threads");
+    if (!value.isPresent()) {
+      return Runtime.getRuntime().availableProcessors();
+    }
+    int threads;
+    try {
+      threads = Integer.parseInt(value.get());
+    } catch (NumberFormatException e) {
+      threads = 0;
+    }
+    if (threads <= 0) {
+      throw new HumanReadableException("Unusable buildfile.parser_threads: '%s'", value.get());
+    }
+    return threads;
+  }
+
+  /**
+   * @return whether the rules read from build files are kept under buck-out, so that a new Buck
+   *     process only has to evaluate the build files that have changed, as set by
+   *     {@code buildfile.persistent_cache}. The default is true.
+   */
+  public boolean isPersistentBuildFileCacheEnabled() {
+    return getBooleanValue("buildfile", "persistent_cache", true);
+  }
+
   /**
    * A set of paths to subtrees that do not contain source files, build files or files that could
    * affect either (buck-out, .idea, .buckd, buck-cache, .git, etc.).  May return absolute paths
@@ -465,6 +517,10 @@ public class BuckConfig {
     return Integer.parseInt(getValue("log", "max_traces").or(DEFAULT_MAX_TRACES));
   }
 
+  public boolean getCompressTraces() {
+    return getBooleanValue("log", "compress_traces", false);
+  }
+
   public boolean getRestartAdbOnFailure() {
     return Boolean.parseBoolean(getValue("adb", "adb_restart_on_failure").or("true"));
   }
@@ -515,6 +571,62 @@ public class BuckConfig {
     }
   }
 
+  /**
+   * @return whether the rules that are ready to build are started in order of their estimated
+   *     remaining critical path, rather than in the order in which they became ready.
+   */
+  public boolean isCriticalPathSchedulingEnabled() {
+    return getBooleanValue("build", "critical_path_scheduling", true);
+  }
+
+  /** @return the number of cores that the steps of a build may keep busy at once, if limited. */
+  public Optional<Integer> getStepCores() {
+    return getPositiveInteger("build", "step_cores");
+  }
+
+  /** @return the amount of memory that the steps of a build may use at once, if limited. */
+  public Optional<Long> getStepMemoryMegabytes() {
+    Optional<String> value = getValue("build", "step_memory");
+    if (!value.isPresent()) {
+      return Optional.absent();
+    }
+    long bytes;
+    try {
+      bytes = SizeUnit.parseBytes(value.get());
+    } catch (NumberFormatException e) {
+      bytes = 0;
+    }
+    if (bytes <= 0) {
+      throw new HumanReadableException("Unusable build.step_memory: '%s'", value.get());
+    }
+    return Optional.of(bytes / (1024 * 1024));
+  }
+
+  /** @return the number of subprocesses that the steps of a build may run at once, if limited. */
+  public Optional<Integer> getStepSubprocesses() {
+    return getPositiveInteger("build", "step_subprocesses");
+  }
+
+  private Optional<Integer> getPositiveInteger(String sectionName, String propertyName) {
+    Optional<String> value = getValue(sectionName, propertyName);
+    if (!value.isPresent()) {
+      return Optional.absent();
+    }
+    int number;
+    try {
+      number = Integer.parseInt(value.get());
+    } catch (NumberFormatException e) {
+      number = 0;
+    }
+    if (number <= 0) {
+      throw new HumanReadableException("Unusable %s.%s: '%s'",
+          sectionName,
+          propertyName,
+          value.get());
+    }
+    return Optional.of(number);
+  }
+
   @Beta
   Optional<BuildDependencies> getBuildDependencies() {
     Optional<String> buildDependenciesOptional = getValue("build", "build_dependencies");
@@ -579,6 +691,9 @@ public class BuckConfig {
             builder.add(cassandraArtifactCache);
           }
           break;
+        case http:
+          builder.add(createHttpArtifactCache(buckEventBus));
+          break;
         }
       }
     } catch (IllegalArgumentException e) {
@@ -616,12 +731,128 @@ public class BuckConfig {
     });
   }
 
+  /**
+   * @return the number of threads used to upload the output of locally built rules to the artifact
+   *     cache, if {@code cache.upload_threads} is set.
+   */
+  public Optional<Integer> getCacheUploadThreads() {
+    Optional<String> value = getValue("cache", "upload_threads");
+    if (!value.isPresent()) {
+      return Optional.absent();
+    }
+    int threads;
+    try {
+      threads = Integer.parseInt(value.get());
+    } catch (NumberFormatException e) {
+      threads = 0;
+    }
+    if (threads <= 0) {
+      throw new HumanReadableException("Unusable cache.upload_threads: '%s'", value.get());
+    }
+    return Optional.of(threads);
+  }
+
+  /**
+   * @return the maximum number of bytes of build output that may be waiting to be uploaded to the
+   *     artifact cache before builds wait for uploads to catch up.
+   */
+  public long getCacheUploadMaxInFlightBytes() {
+    String value = getValue("cache", "upload_max_inflight_size")
+        .or(DEFAULT_CACHE_UPLOAD_MAX_INFLIGHT_BYTES);
+    try {
+      return SizeUnit.parseBytes(value);
+    } catch (NumberFormatException e) {
+      throw new HumanReadableException("Unusable cache.upload_max_inflight_size: '%s'", value);
+    }
+  }
+
+  /**
+   * @return the number of threads used to fetch artifacts before the build needs them, or zero if
+   *     artifacts should only be fetched on demand.
+   */
+  public int getCachePrefetchThreads() {
+    String value = getValue("cache", "prefetch_threads").or(DEFAULT_CACHE_PREFETCH_THREADS);
+    int threads;
+    try {
+      threads = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      threads = -1;
+    }
+    if (threads < 0) {
+      throw new HumanReadableException("Unusable cache.prefetch_threads: '%s'", value);
+    }
+    return threads;
+  }
+
+  /**
+   * @return the maximum number of bytes of prefetched artifacts that may be waiting to be used by
+   *     the build before prefetching stops.
+   */
+  public long getCachePrefetchMaxSizeBytes() {
+    String value = getValue("cache", "prefetch_max_size").or(DEFAULT_CACHE_PREFETCH_MAX_SIZE);
+    try {
+      return SizeUnit.parseBytes(value);
+    } catch (NumberFormatException e) {
+      throw new HumanReadableException("Unusable cache.prefetch_max_size: '%s'", value);
+    }
+  }
+
+  /**
+   * @return how artifacts that are worth compressing are compressed on their way to a remote
+   *     cache, or {@link Optional#absent()} if they are sent as they are, in the format that every
+   *     version of Buck can read.
+   */
+  @VisibleForTesting
+  Optional<ArtifactEncoding> getRemoteCacheEncoding() {
+    String codecName = getValue("cache", "codec").or(DEFAULT_CACHE_CODEC);
+    if (codecName.equals(DEFAULT_CACHE_CODEC)) {
+      return Optional.absent();
+    }
+    ArtifactCodec codec;
+    try {
+      codec = ArtifactCodec.valueOf(codecName.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new HumanReadableException("Unusable cache.codec: '%s'", codecName);
+    }
+
+    Optional<String> levelValue = getValue("cache", "codec_level");
+    int level = codec.getDefaultLevel();
+    if (levelValue.isPresent()) {
+      try {
+        level = Integer.parseInt(levelValue.get());
+      } catch (NumberFormatException e) {
+        level = -1;
+      }
+      if (level < ArtifactCodec.MIN_LEVEL || level > ArtifactCodec.MAX_LEVEL) {
+        throw new HumanReadableException("Unusable cache.codec_level: '%s'", levelValue.get());
+      }
+    }
+    return Optional.of(new ArtifactEncoding(codec, level));
+  }
+
+  /**
+   * @return the dir cache, if the daemon's web server should serve it to the {@code http} caches of
+   *     other clients, as set by {@code httpserver.serve_cache}.
+   */
+  public Optional<ArtifactCache> createServedArtifactCache() {
+    if (!getBooleanValue("httpserver", "serve_cache", false)) {
+      return Optional.absent();
+    }
+    return Optional.of(createDirArtifactCache());
+  }
+
   private ArtifactCache createDirArtifactCache() {
     Path cacheDir = getCacheDir();
     File dir = cacheDir.toFile();
     boolean doStore = readCacheMode("dir_mode", DEFAULT_DIR_CACHE_MODE);
     try {
-      return new DirArtifactCache(dir, doStore, getCacheDirMaxSizeBytes());
+      switch (getDirCacheLayout()) {
+        case cas:
+          return new ContentAddressedDirArtifactCache(dir, doStore, getCacheDirMaxSizeBytes());
+        case zip:
+        default:
+          return new DirArtifactCache(dir, doStore, getCacheDirMaxSizeBytes());
+      }
     } catch (IOException e) {
       throw new HumanReadableException("Failure initializing artifact cache directory: %s", dir);
     }
@@ -659,13 +890,74 @@ public class BuckConfig {
         getValue("cache", "connection_timeout_seconds").or(DEFAULT_CASSANDRA_TIMEOUT_SECONDS));
 
     try {
-      return new CassandraArtifactCache(cacheHosts, port, timeoutSeconds, doStore, buckEventBus);
+      return new CassandraArtifactCache(
+          cacheHosts,
+          port,
+          timeoutSeconds,
+          doStore,
+          getRemoteCacheEncoding(),
+          buckEventBus);
     } catch (ConnectionException e) {
       buckEventBus.post(ThrowableLogEvent.create(e, "Cassandra cache connection failure."));
       return null;
     }
   }
 
+  @VisibleForTesting
+  HttpArtifactCache createHttpArtifactCache(BuckEventBus buckEventBus) {
+    // cache.http_url
+    Optional<String> urlValue = getValue("cache", "http_url");
+    if (!urlValue.isPresent()) {
+      throw new HumanReadableException("cache.http_url must be set to use the http cache.");
+    }
+    URL url;
+    try {
+      // Artifacts are resolved relative to the URL, so make sure that it names a directory.
+      url = new URL(urlValue.get().endsWith("/") ? urlValue.get() : urlValue.get() + "/");
+    } catch (MalformedURLException e) {
+      throw new HumanReadableException("Unusable cache.http_url: '%s'", urlValue.get());
+    }
+
+    // cache.http_mode
+    boolean doStore = readCacheMode("http_mode", DEFAULT_HTTP_CACHE_MODE);
+    // cache.http_threads
+    int numThreads = readPositiveInt("http_threads", DEFAULT_HTTP_CACHE_THREADS);
+    // cache.http_timeout_seconds
+    int timeoutSeconds =
+        readPositiveInt("http_timeout_seconds", DEFAULT_HTTP_CACHE_TIMEOUT_SECONDS);
+
+    return new HttpArtifactCache(
+        url,
+        timeoutSeconds,
+        numThreads,
+        doStore,
+        getRemoteCacheEncoding(),
+        buckEventBus);
+  }
+
+  private int readPositiveInt(String fieldName, String defaultValue) {
+    String value = getValue("cache", fieldName).or(defaultValue);
+    int intValue;
+    try {
+      intValue = Integer.parseInt(value);
+    } catch (NumberFormatException e) {
+      intValue = 0;
+    }
+    if (intValue <= 0) {
+      throw new HumanReadableException("Unusable cache.%s: '%s'", fieldName, value);
+    }
+    return intValue;
+  }
+
+  private DirCacheLayout getDirCacheLayout() {
+    String layout = getValue("cache", "dir_layout").or(DEFAULT_DIR_CACHE_LAYOUT);
+    try {
+      return DirCacheLayout.valueOf(layout);
+    } catch (IllegalArgumentException e) {
+      throw new HumanReadableException("Unusable cache.dir_layout: '%s'", layout);
+    }
+  }
+
   private boolean readCacheMode(String fieldName, String defaultValue) {
     String cacheMode = getValue("cache", fieldName).or(defaultValue);
     final boolean doStore;
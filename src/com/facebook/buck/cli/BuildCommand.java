@@ -137,6 +137,7 @@ public class BuildCommand extends AbstractCommandRunner<BuildCommandOptions> {
         getAndroidDirectoryResolver(),
         getBuildEngine(),
         artifactCache,
+        getParser().getRuleKeyCache(),
         console,
         getBuckEventBus(),
         Optional.<TargetDevice>absent(),
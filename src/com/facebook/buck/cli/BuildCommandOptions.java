@@ -22,12 +22,17 @@ import com.facebook.buck.rules.ArtifactCache;
 import com.facebook.buck.rules.BuildDependencies;
 import com.facebook.buck.rules.BuildEngine;
 import com.facebook.buck.rules.DependencyGraph;
+import com.facebook.buck.rules.RuleKeyCache;
+import com.facebook.buck.step.ResourceProfile;
 import com.facebook.buck.step.TargetDevice;
 import com.facebook.buck.util.AndroidDirectoryResolver;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.facebook.buck.util.Verbosity;
+import com.facebook.buck.util.environment.DefaultExecutionEnvironment;
+import com.facebook.buck.util.environment.ExecutionEnvironment;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
@@ -126,6 +131,7 @@ public class BuildCommandOptions extends AbstractCommandOptions {
       AndroidDirectoryResolver androidDirectoryResolver,
       BuildEngine buildEngine,
       ArtifactCache artifactCache,
+      RuleKeyCache ruleKeyCache,
       Console console,
       BuckEventBus eventBus,
       Optional<TargetDevice> targetDevice,
@@ -134,6 +140,13 @@ public class BuildCommandOptions extends AbstractCommandOptions {
     if (console.getVerbosity() == Verbosity.ALL) {
       console.getStdErr().printf("Creating a build with %d threads.\n", numThreads);
     }
+    ExecutionEnvironment executionEnvironment =
+        new DefaultExecutionEnvironment(new ProcessExecutor(console));
+    ResourceProfile stepResources = new ResourceProfile(
+        buckConfig.getStepCores().or(executionEnvironment.getAvailableCores()),
+        buckConfig.getStepMemoryMegabytes().or(executionEnvironment.getTotalMemoryInMb()),
+        getStepHeapMegabytes(),
+        buckConfig.getStepSubprocesses().or(executionEnvironment.getAvailableCores()));
     return new Build(graph,
         targetDevice,
         projectFilesystem,
@@ -141,6 +154,12 @@ public class BuildCommandOptions extends AbstractCommandOptions {
         buildEngine,
         artifactCache,
         getNumThreads(),
+        stepResources,
+        buckConfig.getCacheUploadThreads().or(getNumThreads()),
+        buckConfig.getCacheUploadMaxInFlightBytes(),
+        buckConfig.getCachePrefetchThreads(),
+        buckConfig.getCachePrefetchMaxSizeBytes(),
+        ruleKeyCache,
         getBuckConfig().createDefaultJavaPackageFinder(),
         console,
         buckConfig.getDefaultTestTimeoutMillis(),
@@ -148,8 +167,17 @@ public class BuildCommandOptions extends AbstractCommandOptions {
         isJacocoEnabled(),
         isDebugEnabled(),
         getBuildDependencies(),
+        buckConfig.isCriticalPathSchedulingEnabled(),
         eventBus,
         platform,
         environment);
   }
+
+  /**
+   * Steps that run in-process share the heap of this process, half of which is left to the rest
+   * of the build, such as the action graph and the caches.
+   */
+  private static long getStepHeapMegabytes() {
+    return Runtime.getRuntime().maxMemory() / 2 / (1024 * 1024);
+  }
 }
@@ -17,6 +17,7 @@
 package com.facebook.buck.cli;
 
 import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.json.PersistentBuildFileCache;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.rules.BuildEngine;
 import com.facebook.buck.rules.BuildRule;
@@ -33,6 +34,7 @@ import com.facebook.buck.util.ProjectFilesystem;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
@@ -84,7 +86,9 @@ class CommandRunnerParams {
               public Builder newInstance(BuildRule buildRule) {
                 return RuleKey.builder(buildRule, new NullFileHashCache());
               }
-            }),
+            },
+            /* numParserThreads */ 1,
+            Optional.<PersistentBuildFileCache>absent()),
         platform,
         environment);
   }
@@ -19,7 +19,10 @@ package com.facebook.buck.cli;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventListener;
 import com.facebook.buck.event.LogEvent;
+import com.facebook.buck.event.ThrowableLogEvent;
 import com.facebook.buck.event.listener.AbstractConsoleEventBusListener;
+import com.facebook.buck.event.listener.BuildTimeHistory;
+import com.facebook.buck.event.listener.BuildTimeHistoryListener;
 import com.facebook.buck.event.listener.ChromeTraceBuildListener;
 import com.facebook.buck.event.listener.JavaUtilsLoggingBuildListener;
 import com.facebook.buck.event.listener.SimpleConsoleEventBusListener;
@@ -27,6 +30,7 @@ import com.facebook.buck.event.listener.SuperConsoleEventBusListener;
 import com.facebook.buck.httpserver.WebServer;
 import com.facebook.buck.java.JavaBuckConfig;
 import com.facebook.buck.java.JavaCompilerEnvironment;
+import com.facebook.buck.json.PersistentBuildFileCache;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.parser.Parser;
 import com.facebook.buck.rules.BuildRule;
@@ -39,12 +43,14 @@ import com.facebook.buck.timing.Clock;
 import com.facebook.buck.timing.DefaultClock;
 import com.facebook.buck.util.AndroidDirectoryResolver;
 import com.facebook.buck.util.Ansi;
+import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.DefaultAndroidDirectoryResolver;
 import com.facebook.buck.util.DefaultFileHashCache;
 import com.facebook.buck.util.DefaultPropertyFinder;
 import com.facebook.buck.util.FileHashCache;
 import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.PersistentFileHashIndex;
 import com.facebook.buck.util.ProcessExecutor;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.facebook.buck.util.ProjectFilesystemWatcher;
@@ -52,6 +58,7 @@ import com.facebook.buck.util.PropertyFinder;
 import com.facebook.buck.util.ShutdownException;
 import com.facebook.buck.util.Verbosity;
 import com.facebook.buck.util.WatchServiceWatcher;
+import com.facebook.buck.util.WatchmanSubscriptionWatcher;
 import com.facebook.buck.util.WatchmanWatcher;
 import com.facebook.buck.util.WatchmanWatcherException;
 import com.facebook.buck.util.concurrent.TimeSpan;
@@ -110,6 +117,9 @@ public final class Main {
 
   private static final int ARTIFACT_CACHE_TIMEOUT_IN_SECONDS = 15;
 
+  private static final String FILE_HASH_INDEX_NAME = "file_hashes";
+  private static final String BUILD_FILE_CACHE_NAME = "build_files";
+
   private static final TimeSpan DAEMON_SLAYER_TIMEOUT = new TimeSpan(45, TimeUnit.MINUTES);
 
   private static final TimeSpan SUPER_CONSOLE_REFRESH_RATE =
@@ -137,6 +147,7 @@ public final class Main {
 
     private final Parser parser;
     private final AndroidDirectoryResolver androidDirectoryResolver;
+    private final PersistentFileHashIndex fileHashIndex;
     private final DefaultFileHashCache hashCache;
     private final EventBus fileEventBus;
     private final ProjectFilesystemWatcher filesystemWatcher;
@@ -151,18 +162,24 @@ public final class Main {
                   Console console) throws IOException {
       this.config = Preconditions.checkNotNull(config);
       this.console = Preconditions.checkNotNull(console);
-      this.hashCache = new DefaultFileHashCache(projectFilesystem, console);
+      this.fileHashIndex = loadFileHashIndex(projectFilesystem);
+      this.hashCache = new DefaultFileHashCache(projectFilesystem,
+          console,
+          Optional.of(fileHashIndex));
       this.parser = new Parser(projectFilesystem,
           knownBuildRuleTypes,
           console,
           config.getPythonInterpreter(),
           config.getTempFilePatterns(),
-          createRuleKeyBuilderFactory(hashCache));
+          createRuleKeyBuilderFactory(hashCache),
+          config.getNumParserThreads(),
+          createBuildFileCache(projectFilesystem, config, hashCache));
       this.androidDirectoryResolver = Preconditions.checkNotNull(androidDirectoryResolver);
 
       this.fileEventBus = new EventBus("file-change-events");
       this.filesystemWatcher = createWatcher(projectFilesystem);
       fileEventBus.register(parser);
+      fileEventBus.register(parser.getRuleKeyCache());
       fileEventBus.register(hashCache);
       webServer = createWebServer(config, console, projectFilesystem);
       JavaUtilsLoggingBuildListener.ensureLogFileIsWritten(projectFilesystem);
@@ -170,7 +187,13 @@ public final class Main {
 
     private ProjectFilesystemWatcher createWatcher(ProjectFilesystem projectFilesystem)
         throws IOException {
-      if (System.getProperty("buck.buckd_watcher", "WatchService").equals("Watchman")) {
+      String watcher = System.getProperty("buck.buckd_watcher", "WatchService");
+      if (watcher.equals("Watchman")) {
+        return new WatchmanSubscriptionWatcher(
+            projectFilesystem,
+            fileEventBus);
+      }
+      if (watcher.equals("WatchmanQuery")) {
         return new WatchmanWatcher(
             projectFilesystem,
             fileEventBus);
@@ -197,7 +220,10 @@ public final class Main {
         String rawPort = serverPort.get();
         try {
           int port = Integer.parseInt(rawPort, 10);
-          webServer = Optional.of(new WebServer(port, projectFilesystem, STATIC_CONTENT_DIRECTORY));
+          webServer = Optional.of(new WebServer(port,
+              projectFilesystem,
+              STATIC_CONTENT_DIRECTORY,
+              config.createServedArtifactCache()));
         } catch (NumberFormatException e) {
           console.printErrorText(
               String.format("Could not parse port for httpserver: %s.", rawPort));
@@ -217,6 +243,10 @@ public final class Main {
       return parser;
     }
 
+    private PersistentFileHashIndex getFileHashIndex() {
+      return fileHashIndex;
+    }
+
     private AndroidDirectoryResolver getAndroidDirectoryResolver() {
       return androidDirectoryResolver;
     }
@@ -516,12 +546,18 @@ public final class Main {
       // running commands such as `buck clean`.
       artifactCacheFactory = new LoggingArtifactCacheFactory(executionEnvironment, buildEventBus);
 
-      Optional<WebServer> webServer = getWebServerIfDaemon(context,
-          projectFilesystem,
-          config,
-          buildRuleTypes,
-          androidDirectoryResolver,
-          console);
+      // The daemon is looked up once per command, as doing so may replace it with a new one.
+      Optional<Daemon> currentDaemon = isDaemon
+          ? Optional.of(getDaemon(
+              projectFilesystem,
+              config,
+              buildRuleTypes,
+              androidDirectoryResolver,
+              console))
+          : Optional.<Daemon>absent();
+      Optional<WebServer> webServer = currentDaemon.isPresent()
+          ? currentDaemon.get().getWebServer()
+          : Optional.<WebServer>absent();
       eventListeners = addEventListeners(buildEventBus,
           projectFilesystem,
           config,
@@ -539,18 +575,17 @@ public final class Main {
 
       // Create or get Parser and invalidate cached command parameters.
       Parser parser = null;
+      PersistentFileHashIndex fileHashIndex = null;
 
-      if (isDaemon) {
+      if (currentDaemon.isPresent()) {
         try {
           parser = getParserFromDaemon(
+              currentDaemon.get(),
               context,
-              projectFilesystem,
-              config,
-              buildRuleTypes,
-              androidDirectoryResolver,
               console,
               commandEvent,
               buildEventBus);
+          fileHashIndex = currentDaemon.get().getFileHashIndex();
         } catch (WatchmanWatcherException e) {
           buildEventBus.post(LogEvent.warning(
                   "Watchman threw an exception while parsing file changes, resetting daemon.\n%s",
@@ -560,12 +595,19 @@ public final class Main {
       }
 
       if (parser == null) {
+        fileHashIndex = loadFileHashIndex(projectFilesystem);
+        DefaultFileHashCache hashCache = new DefaultFileHashCache(
+            projectFilesystem,
+            console,
+            Optional.of(fileHashIndex));
         parser = new Parser(projectFilesystem,
             buildRuleTypes,
             console,
             config.getPythonInterpreter(),
             config.getTempFilePatterns(),
-            createRuleKeyBuilderFactory(new DefaultFileHashCache(projectFilesystem, console)));
+            createRuleKeyBuilderFactory(hashCache),
+            config.getNumParserThreads(),
+            createBuildFileCache(projectFilesystem, config, hashCache));
       }
       JavaUtilsLoggingBuildListener.ensureLogFileIsWritten(projectFilesystem);
 
@@ -584,6 +626,8 @@ public final class Main {
               platform,
               clientEnvironment));
 
+      saveFileHashIndex(fileHashIndex, buildEventBus);
+
       // If the Daemon is running and serving web traffic, print the URL to the Chrome Trace.
       if (webServer.isPresent()) {
         int port = webServer.get().getPort();
@@ -628,6 +672,41 @@ public final class Main {
     return ImmutableMap.copyOf(System.getenv());
   }
 
+  private static Optional<PersistentBuildFileCache> createBuildFileCache(
+      ProjectFilesystem projectFilesystem,
+      BuckConfig config,
+      FileHashCache hashCache) {
+    if (!config.isPersistentBuildFileCacheEnabled()) {
+      return Optional.absent();
+    }
+    return Optional.of(new PersistentBuildFileCache(
+        projectFilesystem,
+        BuckConstant.CACHE_PATH.resolve(BUILD_FILE_CACHE_NAME),
+        hashCache));
+  }
+
+  private static PersistentFileHashIndex loadFileHashIndex(ProjectFilesystem projectFilesystem) {
+    return PersistentFileHashIndex.load(
+        projectFilesystem.resolve(BuckConstant.CACHE_PATH.resolve(FILE_HASH_INDEX_NAME)));
+  }
+
+  /**
+   * Persists the hashes computed by this command so that the next one, possibly in a new process,
+   * does not have to compute them again.
+   */
+  private static void saveFileHashIndex(
+      @Nullable PersistentFileHashIndex fileHashIndex,
+      BuckEventBus eventBus) {
+    if (fileHashIndex == null) {
+      return;
+    }
+    try {
+      fileHashIndex.save();
+    } catch (IOException e) {
+      eventBus.post(ThrowableLogEvent.create(e, "Failed to save the file hash index."));
+    }
+  }
+
   private static void closeCreatedArtifactCaches(ArtifactCacheFactory artifactCacheFactory) {
     if (null != artifactCacheFactory) {
       artifactCacheFactory.closeCreatedArtifactCaches(ARTIFACT_CACHE_TIMEOUT_IN_SECONDS);
@@ -635,46 +714,18 @@ public final class Main {
   }
 
   private Parser getParserFromDaemon(
+      Daemon daemon,
       Optional<NGContext> context,
-      ProjectFilesystem projectFilesystem,
-      BuckConfig config,
-      KnownBuildRuleTypes knownBuildRuleTypes,
-      AndroidDirectoryResolver androidDirectoryResolver,
       Console console,
       CommandEvent commandEvent,
       BuckEventBus eventBus) throws IOException {
     // Wire up daemon to new client and console and get cached Parser.
-    Daemon daemon = getDaemon(
-        projectFilesystem,
-        config,
-        knownBuildRuleTypes,
-        androidDirectoryResolver,
-        console);
     daemon.watchClient(context.get());
     daemon.watchFileSystem(console, commandEvent, eventBus);
     daemon.initWebServer();
     return daemon.getParser();
   }
 
-  private Optional<WebServer> getWebServerIfDaemon(
-      Optional<NGContext> context,
-      ProjectFilesystem projectFilesystem,
-      BuckConfig config,
-      KnownBuildRuleTypes knownBuildRuleTypes,
-      AndroidDirectoryResolver androidDirectoryResolver,
-      Console console) throws IOException {
-    if (context.isPresent()) {
-      Daemon daemon = getDaemon(
-          projectFilesystem,
-          config,
-          knownBuildRuleTypes,
-          androidDirectoryResolver,
-          console);
-      return daemon.getWebServer();
-    }
-    return Optional.absent();
-  }
-
   private void loadListenersFromBuckConfig(
       ImmutableList.Builder<BuckEventListener> eventListeners,
       ProjectFilesystem projectFilesystem,
@@ -736,7 +787,12 @@ public final class Main {
     ImmutableList.Builder<BuckEventListener> eventListenersBuilder =
         ImmutableList.<BuckEventListener>builder()
             .add(new JavaUtilsLoggingBuildListener())
-            .add(new ChromeTraceBuildListener(projectFilesystem, config.getMaxTraces()))
+            .add(new ChromeTraceBuildListener(projectFilesystem,
+                config.getMaxTraces(),
+                config.getCompressTraces()))
+            .add(new BuildTimeHistoryListener(
+                BuildTimeHistory.forProject(projectFilesystem),
+                projectFilesystem))
             .add(consoleEventBusListener);
 
     if (webServer.isPresent()) {
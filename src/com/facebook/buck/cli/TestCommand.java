@@ -17,7 +17,7 @@
 package com.facebook.buck.cli;
 
 import com.facebook.buck.command.Build;
-import com.facebook.buck.graph.AbstractBottomUpTraversal;
+import com.facebook.buck.graph.AbstractParallelBottomUpTraversal;
 import com.facebook.buck.java.DefaultJavaPackageFinder;
 import com.facebook.buck.java.GenerateCodeCoverageReportStep;
 import com.facebook.buck.java.InstrumentStep;
@@ -330,6 +330,7 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
         getAndroidDirectoryResolver(),
         getBuildEngine(),
         artifactCache,
+        getParser().getRuleKeyCache(),
         console,
         getBuckEventBus(),
         options.getTargetDeviceOptional(),
@@ -369,31 +370,26 @@ public class TestCommand extends AbstractCommandRunner<TestCommandOptions> {
   @VisibleForTesting
   static Iterable<TestRule> getCandidateRules(
       DependencyGraph graph) {
-    AbstractBottomUpTraversal<BuildRule, List<TestRule>> traversal =
-        new AbstractBottomUpTraversal<BuildRule, List<TestRule>>(graph) {
-
-      private final List<TestRule> results = Lists.newArrayList();
+    AbstractParallelBottomUpTraversal<BuildRule, List<TestRule>> traversal =
+        new AbstractParallelBottomUpTraversal<BuildRule, List<TestRule>>(graph) {
 
       @Override
-      public void visit(BuildRule buildRule) {
-        TestRule testRule = null;
+      public List<TestRule> visit(BuildRule buildRule) {
         if (buildRule instanceof TestRule) {
-          testRule = (TestRule) buildRule;
+          return ImmutableList.of((TestRule) buildRule);
         } else if (buildRule.getBuildable() instanceof TestRule) {
-          testRule = (TestRule) buildRule.getBuildable();
-        }
-        if (testRule != null) {
-          results.add(testRule);
+          return ImmutableList.of((TestRule) buildRule.getBuildable());
         }
+        return ImmutableList.of();
       }
 
       @Override
-      public List<TestRule> getResult() {
-        return results;
+      public List<TestRule> merge(List<TestRule> accumulated, List<TestRule> result) {
+        accumulated.addAll(result);
+        return accumulated;
       }
     };
-    traversal.traverse();
-    return traversal.getResult();
+    return traversal.traverse(Lists.<TestRule>newArrayList());
   }
 
   @VisibleForTesting
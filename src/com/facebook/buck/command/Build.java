@@ -17,35 +17,48 @@
 package com.facebook.buck.command;
 
 import static com.facebook.buck.rules.BuildableProperties.Kind.ANDROID;
+import static com.facebook.buck.util.concurrent.MoreExecutors.newMultiThreadExecutor;
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
 
 import com.facebook.buck.android.HasAndroidPlatformTarget;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.LogEvent;
-import com.facebook.buck.graph.AbstractBottomUpTraversal;
-import com.facebook.buck.graph.TraversableGraph;
+import com.facebook.buck.graph.AbstractParallelBottomUpTraversal;
+import com.facebook.buck.graph.TopologicalSort;
+import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.rules.ArtifactCache;
+import com.facebook.buck.rules.ArtifactUploader;
 import com.facebook.buck.rules.BuildContext;
 import com.facebook.buck.rules.BuildDependencies;
 import com.facebook.buck.rules.BuildEngine;
 import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleDurations;
 import com.facebook.buck.rules.BuildRuleSuccess;
 import com.facebook.buck.rules.Buildable;
 import com.facebook.buck.rules.Builder;
 import com.facebook.buck.rules.DependencyGraph;
 import com.facebook.buck.rules.JavaPackageFinder;
+import com.facebook.buck.rules.ParallelRuleKeyCalculator;
+import com.facebook.buck.rules.RuleKeyCache;
+import com.facebook.buck.rules.PrefetchingArtifactCache;
 import com.facebook.buck.step.DefaultStepRunner;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.ResourcePool;
+import com.facebook.buck.step.ResourceProfile;
 import com.facebook.buck.step.StepFailedException;
 import com.facebook.buck.step.TargetDevice;
 import com.facebook.buck.util.AndroidDirectoryResolver;
 import com.facebook.buck.util.AndroidPlatformTarget;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.ProjectFilesystem;
+import com.facebook.buck.util.concurrent.PriorityExecutorService;
 import com.facebook.buck.util.environment.Platform;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -63,14 +76,23 @@ public class Build implements Closeable {
 
   private final ArtifactCache artifactCache;
 
+  private final Optional<PrefetchingArtifactCache> prefetchingArtifactCache;
+
   private final BuildEngine buildEngine;
 
   private final DefaultStepRunner stepRunner;
 
+  private final ParallelRuleKeyCalculator ruleKeyCalculator;
+
+  private final ArtifactUploader artifactUploader;
+
   private final JavaPackageFinder javaPackageFinder;
 
   private final BuildDependencies buildDependencies;
 
+  /** Present if the rules are to be scheduled by their critical paths. */
+  private final Optional<BuildRuleDurations> buildRuleDurations;
+
   /** Not set until {@link #executeBuild(Set)} is invoked. */
   @Nullable
   private BuildContext buildContext;
@@ -87,6 +109,12 @@ public class Build implements Closeable {
       BuildEngine buildEngine,
       ArtifactCache artifactCache,
       int numThreads,
+      ResourceProfile stepResources,
+      int numUploadThreads,
+      long maxInFlightUploadBytes,
+      int numPrefetchThreads,
+      long maxPrefetchedBytes,
+      RuleKeyCache ruleKeyCache,
       JavaPackageFinder javaPackageFinder,
       Console console,
       long defaultTestTimeoutMillis,
@@ -94,6 +122,7 @@ public class Build implements Closeable {
       boolean isJacocoEnabled,
       boolean isDebugEnabled,
       BuildDependencies buildDependencies,
+      boolean isCriticalPathSchedulingEnabled,
       BuckEventBus eventBus,
       Platform platform,
       ImmutableMap<String, String> environment) {
@@ -113,10 +142,37 @@ public class Build implements Closeable {
         .setEventBus(eventBus)
         .setPlatform(platform)
         .setEnvironment(environment)
+        .setResourcePool(new ResourcePool(stepResources))
         .build();
-    this.artifactCache = Preconditions.checkNotNull(artifactCache);
+    Preconditions.checkNotNull(artifactCache);
+    if (numPrefetchThreads > 0) {
+      this.prefetchingArtifactCache = Optional.of(new PrefetchingArtifactCache(artifactCache,
+          numPrefetchThreads,
+          maxPrefetchedBytes,
+          eventBus));
+      this.artifactCache = prefetchingArtifactCache.get();
+    } else {
+      this.prefetchingArtifactCache = Optional.absent();
+      this.artifactCache = artifactCache;
+    }
     this.buildEngine = Preconditions.checkNotNull(buildEngine);
-    this.stepRunner = new DefaultStepRunner(executionContext, numThreads);
+    // RuleKeys are computed up front on the same threads that go on to build the rules.
+    ListeningExecutorService buildExecutorService;
+    if (isCriticalPathSchedulingEnabled) {
+      buildExecutorService = new PriorityExecutorService("DefaultStepRunner", numThreads);
+      // The build time history keeps the durations up to date as it records each build.
+      this.buildRuleDurations = Optional.of(BuildRuleDurations.load(
+          projectFilesystem.resolve(BuildRuleDurations.DURATIONS_PATH)));
+    } else {
+      buildExecutorService =
+          listeningDecorator(newMultiThreadExecutor("DefaultStepRunner", numThreads));
+      this.buildRuleDurations = Optional.absent();
+    }
+    this.stepRunner = new DefaultStepRunner(executionContext, buildExecutorService);
+    this.ruleKeyCalculator = new ParallelRuleKeyCalculator(buildExecutorService,
+        ruleKeyCache,
+        eventBus);
+    this.artifactUploader = new ArtifactUploader(numUploadThreads, maxInFlightUploadBytes);
     this.javaPackageFinder = Preconditions.checkNotNull(javaPackageFinder);
     this.buildDependencies = Preconditions.checkNotNull(buildDependencies);
   }
@@ -146,85 +202,137 @@ public class Build implements Closeable {
     }
 
     // Traverse the dependency graph to determine androidPlatformTarget.
-    TraversableGraph<BuildRule> graph = dependencyGraph;
-    AbstractBottomUpTraversal<BuildRule, Optional<AndroidPlatformTarget>> traversal =
-        new AbstractBottomUpTraversal<BuildRule, Optional<AndroidPlatformTarget>>(graph) {
-
-      private String androidPlatformTargetId = null;
-
-      private boolean isEncounteredAndroidRuleInTraversal = false;
+    AbstractParallelBottomUpTraversal<BuildRule, AndroidPlatformTargetUsage> traversal =
+        new AbstractParallelBottomUpTraversal<BuildRule, AndroidPlatformTargetUsage>(
+            dependencyGraph) {
 
       @Override
-      public void visit(BuildRule rule) {
-        if (rule.getProperties().is(ANDROID)) {
-          isEncounteredAndroidRuleInTraversal = true;
-        }
-
+      public AndroidPlatformTargetUsage visit(BuildRule rule) {
+        String androidPlatformTargetId = null;
         Buildable buildable = rule.getBuildable();
-        if (buildable != null && buildable instanceof HasAndroidPlatformTarget) {
-          String target = ((HasAndroidPlatformTarget) buildable).getAndroidPlatformTarget();
-          if (androidPlatformTargetId == null) {
-            androidPlatformTargetId = target;
-          } else if (!target.equals(androidPlatformTargetId)) {
-            throw new RuntimeException(
-                String.format("More than one android platform targeted: %s and %s",
-                    target,
-                    androidPlatformTargetId));
-          }
+        if (buildable instanceof HasAndroidPlatformTarget) {
+          androidPlatformTargetId =
+              ((HasAndroidPlatformTarget) buildable).getAndroidPlatformTarget();
         }
+        boolean isAndroidRule = rule.getProperties().is(ANDROID);
+        if (androidPlatformTargetId == null && !isAndroidRule) {
+          return AndroidPlatformTargetUsage.NONE;
+        }
+        return new AndroidPlatformTargetUsage(androidPlatformTargetId, isAndroidRule);
       }
 
       @Override
-      public Optional<AndroidPlatformTarget> getResult() {
-        // Find an appropriate AndroidPlatformTarget for the target attribute specified in one of
-        // the transitively included android_binary() build rules. If no such target has been
-        // specified, then use a default AndroidPlatformTarget so that it is possible to build
-        // non-Android Java code, as well.
-        Optional<AndroidPlatformTarget> result;
-        if (androidPlatformTargetId != null) {
-          Optional<AndroidPlatformTarget> target = AndroidPlatformTarget.getTargetForId(
-              androidPlatformTargetId, androidDirectoryResolver);
-          if (target.isPresent()) {
-            result = target;
-          } else {
-            throw new RuntimeException("No target found with id: " + androidPlatformTargetId);
-          }
-        } else if (isEncounteredAndroidRuleInTraversal) {
-          AndroidPlatformTarget androidPlatformTarget = AndroidPlatformTarget
-              .getDefaultPlatformTarget(androidDirectoryResolver);
-          eventBus.post(LogEvent.warning("No Android platform target specified. Using default: %s",
-              androidPlatformTarget.getName()));
-          result = Optional.of(androidPlatformTarget);
-        } else {
-          result = Optional.absent();
-        }
-        return result;
+      public AndroidPlatformTargetUsage merge(
+          AndroidPlatformTargetUsage accumulated,
+          AndroidPlatformTargetUsage result) {
+        return accumulated.merge(result);
       }
     };
-    traversal.traverse();
-    return traversal.getResult();
+    AndroidPlatformTargetUsage usage = traversal.traverse(AndroidPlatformTargetUsage.NONE);
+
+    // Find an appropriate AndroidPlatformTarget for the target attribute specified in one of
+    // the transitively included android_binary() build rules. If no such target has been
+    // specified, then use a default AndroidPlatformTarget so that it is possible to build
+    // non-Android Java code, as well.
+    Optional<AndroidPlatformTarget> result;
+    if (usage.androidPlatformTargetId != null) {
+      Optional<AndroidPlatformTarget> target = AndroidPlatformTarget.getTargetForId(
+          usage.androidPlatformTargetId, androidDirectoryResolver);
+      if (target.isPresent()) {
+        result = target;
+      } else {
+        throw new RuntimeException("No target found with id: " + usage.androidPlatformTargetId);
+      }
+    } else if (usage.isEncounteredAndroidRule) {
+      AndroidPlatformTarget androidPlatformTarget = AndroidPlatformTarget
+          .getDefaultPlatformTarget(androidDirectoryResolver);
+      eventBus.post(LogEvent.warning("No Android platform target specified. Using default: %s",
+          androidPlatformTarget.getName()));
+      result = Optional.of(androidPlatformTarget);
+    } else {
+      result = Optional.absent();
+    }
+    return result;
+  }
+
+  /** What the rules visited so far say about the Android platform to target. */
+  private static class AndroidPlatformTargetUsage {
+    private static final AndroidPlatformTargetUsage NONE =
+        new AndroidPlatformTargetUsage(null, false);
+
+    @Nullable private final String androidPlatformTargetId;
+    private final boolean isEncounteredAndroidRule;
+
+    private AndroidPlatformTargetUsage(
+        @Nullable String androidPlatformTargetId,
+        boolean isEncounteredAndroidRule) {
+      this.androidPlatformTargetId = androidPlatformTargetId;
+      this.isEncounteredAndroidRule = isEncounteredAndroidRule;
+    }
+
+    /** @param next the usage of rules that come after these in topological order. */
+    private AndroidPlatformTargetUsage merge(AndroidPlatformTargetUsage next) {
+      if (next == NONE) {
+        return this;
+      }
+      String target = androidPlatformTargetId;
+      if (target == null) {
+        target = next.androidPlatformTargetId;
+      } else if (next.androidPlatformTargetId != null &&
+          !next.androidPlatformTargetId.equals(target)) {
+        throw new RuntimeException(
+            String.format("More than one android platform targeted: %s and %s",
+                next.androidPlatformTargetId,
+                target));
+      }
+      return new AndroidPlatformTargetUsage(
+          target,
+          isEncounteredAndroidRule || next.isEncounteredAndroidRule);
+    }
   }
 
   public ListenableFuture<List<BuildRuleSuccess>> executeBuild(
       Set<BuildRule> rulesToBuild)
       throws IOException, StepFailedException {
+    ImmutableMap<BuildTarget, Long> priorities = ImmutableMap.of();
+    if (buildRuleDurations.isPresent()) {
+      priorities = buildRuleDurations.get().getCriticalPathLengths(dependencyGraph);
+    }
     buildContext = BuildContext.builder()
         .setDependencyGraph(dependencyGraph)
         .setStepRunner(stepRunner)
         .setProjectFilesystem(executionContext.getProjectFilesystem())
         .setArtifactCache(artifactCache)
+        .setArtifactUploader(artifactUploader)
         .setJavaPackageFinder(javaPackageFinder)
         .setEventBus(executionContext.getBuckEventBus())
         .setAndroidBootclasspathForAndroidPlatformTarget(
             executionContext.getAndroidPlatformTargetOptional())
         .setBuildDependencies(buildDependencies)
+        .setPriorities(priorities)
         .build();
 
+    ruleKeyCalculator.calculate(dependencyGraph);
+
+    // Start fetching artifacts in the order in which the build will need them, so that they are
+    // likely to be available by the time each rule's deps have been built.
+    if (prefetchingArtifactCache.isPresent()) {
+      prefetchingArtifactCache.get().prefetch(
+          TopologicalSort.sort(dependencyGraph, Predicates.<BuildRule>alwaysTrue()),
+          buildContext);
+    }
+
     return Builder.getInstance().buildRules(buildEngine, rulesToBuild, buildContext);
   }
 
   @Override
   public void close() throws IOException {
+    // Rules schedule their uploads from the step runner's threads after they finish, so those
+    // threads must be done before the remaining uploads are drained.
     stepRunner.close();
+    artifactUploader.close();
+    if (prefetchingArtifactCache.isPresent()) {
+      prefetchingArtifactCache.get().close();
+    }
   }
 }
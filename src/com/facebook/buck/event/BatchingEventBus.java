@@ -0,0 +1,264 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.event;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSetMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.reflect.TypeToken;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+/**
+ * Delivers events to the {@link Subscribe}-annotated methods of registered objects on an
+ * {@link Executor}, like Guava's {@link com.google.common.eventbus.AsyncEventBus}, but with much
+ * less work on the thread that posts an event and on the thread that delivers it:
+ * <ul>
+ *   <li>Posting an event adds it to a lock-free queue. A task to deliver the queued events is only
+ *       handed to the executor if none is running already, so a thread that posts an event never
+ *       waits for a lock that the delivering thread holds.
+ *   <li>That task delivers every event that is queued by the time it gets to it, in the order in
+ *       which they were posted, rather than one task per event.
+ *   <li>The subscribers of each class of event are resolved the first time that an event of that
+ *       class is delivered, and looked up in a table indexed by class after that. Registering or
+ *       unregistering an object replaces the table, so delivering an event takes no lock either.
+ * </ul>
+ * An exception thrown by a subscriber is logged, and does not stop the event from being delivered
+ * to the other subscribers.
+ */
+public class BatchingEventBus {
+
+  private static final Logger LOG = Logger.getLogger(BatchingEventBus.class.getName());
+
+  private final Executor executor;
+  private final Queue<Object> events;
+  private final AtomicBoolean isDeliveryScheduled;
+  private final Runnable deliverEvents;
+
+  private final Object registrationLock;
+  private volatile SubscriberTable subscriberTable;
+
+  public BatchingEventBus(Executor executor) {
+    this.executor = Preconditions.checkNotNull(executor);
+    this.events = new ConcurrentLinkedQueue<>();
+    this.isDeliveryScheduled = new AtomicBoolean();
+    this.deliverEvents = new Runnable() {
+      @Override
+      public void run() {
+        deliverQueuedEvents();
+      }
+    };
+    this.registrationLock = new Object();
+    this.subscriberTable = new SubscriberTable(ImmutableSetMultimap.<Class<?>, Subscriber>of());
+  }
+
+  /**
+   * Queues {@code event} to be delivered to the subscribers that are registered by the time it is
+   * delivered.
+   */
+  public void post(Object event) {
+    events.add(Preconditions.checkNotNull(event));
+    scheduleDelivery();
+  }
+
+  /**
+   * Registers the public methods of {@code object} that are annotated with {@link Subscribe}, and
+   * take a single argument, to receive the events that are instances of the type of the argument.
+   */
+  public void register(Object object) {
+    ImmutableSetMultimap<Class<?>, Subscriber> subscribers = findSubscribers(object);
+    synchronized (registrationLock) {
+      subscriberTable = new SubscriberTable(
+          ImmutableSetMultimap.<Class<?>, Subscriber>builder()
+              .putAll(subscriberTable.subscribersByArgumentType)
+              .putAll(subscribers)
+              .build());
+    }
+  }
+
+  /**
+   * Stops delivering events to {@code object}.
+   * @throws IllegalArgumentException if {@code object} is not registered.
+   */
+  public void unregister(Object object) {
+    synchronized (registrationLock) {
+      ImmutableSetMultimap.Builder<Class<?>, Subscriber> subscribers =
+          ImmutableSetMultimap.builder();
+      boolean isRegistered = false;
+      for (Map.Entry<Class<?>, Subscriber> entry :
+          subscriberTable.subscribersByArgumentType.entries()) {
+        if (entry.getValue().target == object) {
+          isRegistered = true;
+        } else {
+          subscribers.put(entry);
+        }
+      }
+      if (!isRegistered) {
+        throw new IllegalArgumentException(
+            "missing event subscriber for an annotated method. Is " + object + " registered?");
+      }
+      subscriberTable = new SubscriberTable(subscribers.build());
+    }
+  }
+
+  private void scheduleDelivery() {
+    if (!isDeliveryScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    try {
+      executor.execute(deliverEvents);
+    } catch (RejectedExecutionException e) {
+      isDeliveryScheduled.set(false);
+      throw e;
+    }
+  }
+
+  private void deliverQueuedEvents() {
+    do {
+      try {
+        for (Object event = events.poll(); event != null; event = events.poll()) {
+          deliver(event);
+        }
+      } finally {
+        isDeliveryScheduled.set(false);
+      }
+      // An event that was queued after the last poll, but before the flag was cleared, did not
+      // schedule another delivery, so deliver it now unless another post has done so since.
+    } while (!events.isEmpty() && isDeliveryScheduled.compareAndSet(false, true));
+  }
+
+  private void deliver(Object event) {
+    for (Subscriber subscriber : subscriberTable.getSubscribers(event.getClass())) {
+      try {
+        subscriber.method.invoke(subscriber.target, event);
+      } catch (IllegalAccessException e) {
+        throw new AssertionError(e);
+      } catch (InvocationTargetException e) {
+        if (e.getCause() instanceof Error) {
+          throw (Error) e.getCause();
+        }
+        LOG.log(Level.SEVERE,
+            "Could not dispatch event: " + event + " to subscriber " + subscriber.method,
+            e.getCause());
+      }
+    }
+  }
+
+  private static ImmutableSetMultimap<Class<?>, Subscriber> findSubscribers(Object object) {
+    Class<?> clazz = object.getClass();
+    ImmutableSetMultimap.Builder<Class<?>, Subscriber> subscribers = ImmutableSetMultimap.builder();
+    for (Method method : clazz.getMethods()) {
+      if (!isSubscriber(clazz, method)) {
+        continue;
+      }
+      Class<?>[] argumentTypes = method.getParameterTypes();
+      if (argumentTypes.length != 1) {
+        throw new IllegalArgumentException(String.format(
+            "Method %s has @Subscribe annotation, but requires %d arguments. " +
+                "Event subscriber methods must require a single argument.",
+            method,
+            argumentTypes.length));
+      }
+      // The class that declares the method need not be public.
+      method.setAccessible(true);
+      subscribers.put(argumentTypes[0], new Subscriber(object, method));
+    }
+    return subscribers.build();
+  }
+
+  /** @return whether {@code method}, or a method that it overrides, is annotated. */
+  private static boolean isSubscriber(Class<?> clazz, Method method) {
+    for (Class<?> type : TypeToken.of(clazz).getTypes().rawTypes()) {
+      try {
+        if (type.getMethod(method.getName(), method.getParameterTypes())
+            .isAnnotationPresent(Subscribe.class)) {
+          return true;
+        }
+      } catch (NoSuchMethodException e) {
+        continue;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * The subscribers that were registered at one point in time. A table is replaced, rather than
+   * changed, when an object is registered, so it can be read without a lock.
+   */
+  private static class SubscriberTable {
+    private final ImmutableSetMultimap<Class<?>, Subscriber> subscribersByArgumentType;
+    private final ConcurrentMap<Class<?>, ImmutableList<Subscriber>> subscribersByEventClass;
+
+    public SubscriberTable(ImmutableSetMultimap<Class<?>, Subscriber> subscribersByArgumentType) {
+      this.subscribersByArgumentType = subscribersByArgumentType;
+      this.subscribersByEventClass = Maps.newConcurrentMap();
+    }
+
+    /** @return the subscribers that an event of class {@code eventClass} is delivered to. */
+    public ImmutableList<Subscriber> getSubscribers(Class<?> eventClass) {
+      ImmutableList<Subscriber> subscribers = subscribersByEventClass.get(eventClass);
+      if (subscribers == null) {
+        ImmutableList.Builder<Subscriber> builder = ImmutableList.builder();
+        for (Class<?> type : TypeToken.of(eventClass).getTypes().rawTypes()) {
+          builder.addAll(subscribersByArgumentType.get(type));
+        }
+        subscribers = builder.build();
+        subscribersByEventClass.putIfAbsent(eventClass, subscribers);
+      }
+      return subscribers;
+    }
+  }
+
+  /** A method to deliver events to, and the object to call it on. */
+  private static class Subscriber {
+    private final Object target;
+    private final Method method;
+
+    private Subscriber(Object target, Method method) {
+      this.target = Preconditions.checkNotNull(target);
+      this.method = Preconditions.checkNotNull(method);
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Subscriber)) {
+        return false;
+      }
+      Subscriber that = (Subscriber) obj;
+      // Registering the same object twice does not deliver events to it twice.
+      return this.target == that.target && this.method.equals(that.method);
+    }
+
+    @Override
+    public int hashCode() {
+      return 31 * System.identityHashCode(target) + method.hashCode();
+    }
+  }
+}
@@ -23,7 +23,6 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Joiner;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
-import com.google.common.eventbus.AsyncEventBus;
 
 import java.io.Closeable;
 import java.io.IOException;
@@ -31,7 +30,8 @@ import java.util.concurrent.ExecutorService;
 import java.util.concurrent.TimeUnit;
 
 /**
- * Thin wrapper around guava event bus.
+ * Posts {@link BuckEvent}s, stamped with the time, thread and build they came from, to a
+ * {@link BatchingEventBus} that delivers them on a single thread.
  */
 public class BuckEventBus implements Closeable {
 
@@ -46,7 +46,7 @@ public class BuckEventBus implements Closeable {
 
   private final Clock clock;
   private final ExecutorService executorService;
-  private final AsyncEventBus eventBus;
+  private final BatchingEventBus eventBus;
   private final Supplier<Long> threadIdSupplier;
   private final BuildId buildId;
   private final int shutdownTimeoutMillis;
@@ -65,7 +65,7 @@ public class BuckEventBus implements Closeable {
                int shutdownTimeoutMillis) {
     this.clock = Preconditions.checkNotNull(clock);
     this.executorService = Preconditions.checkNotNull(executorService);
-    this.eventBus = new AsyncEventBus("buck-build-events", executorService);
+    this.eventBus = new BatchingEventBus(executorService);
     this.threadIdSupplier = DEFAULT_THREAD_ID_SUPPLIER;
     this.buildId = Preconditions.checkNotNull(buildId);
     this.shutdownTimeoutMillis = shutdownTimeoutMillis;
@@ -93,7 +93,7 @@ public class BuckEventBus implements Closeable {
   }
 
   @VisibleForTesting
-  AsyncEventBus getEventBus() {
+  BatchingEventBus getEventBus() {
     return eventBus;
   }
 
@@ -121,7 +121,7 @@ public class BuckEventBus implements Closeable {
   /**
    * {@link ExecutorService#awaitTermination(long, java.util.concurrent.TimeUnit)} is called
    * to wait for events which have been posted, but which have been queued by the
-   * {@link AsyncEventBus}, to be delivered. This allows listeners to record or report as much
+   * {@link BatchingEventBus}, to be delivered. This allows listeners to record or report as much
    * information as possible. This aids debugging when close is called during exception processing.
    */
   @Override
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.rules.BuildRuleDurations;
+import com.facebook.buck.rules.BuildRuleSuccess;
+import com.facebook.buck.util.BuckConstant;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+/**
+ * How long each rule and step took in past builds, kept in a file under {@code buck-out/log} so
+ * that reports and schedulers can use real costs rather than guesses.
+ * <p>
+ * Records are only ever appended to the file, one JSON object per line, in a single write per
+ * build. A line that cannot be read, such as the last line of an interrupted write, is skipped.
+ * Once the file grows past its maximum size, the oldest half of its records are dropped. Buck
+ * processes that finish at the same time take turns by locking a file next to the history, so
+ * that none of them drops the records that another one is appending.
+ * <p>
+ * The history also keeps the {@link BuildRuleDurations} that the build reads to schedule rules up
+ * to date, so that they are never recorded by anything else.
+ */
+public class BuildTimeHistory {
+
+  /** Where the history of a project is kept, relative to its root. */
+  public static final Path HISTORY_PATH = BuckConstant.LOG_PATH.resolve("build_times");
+
+  private static final long DEFAULT_MAX_SIZE_BYTES = 32 * 1024 * 1024;
+
+  private static final String BUILT_LOCALLY = BuildRuleSuccess.Type.BUILT_LOCALLY.toString();
+
+  /**
+   * A {@link FileLock} is held on behalf of the whole process, and trying to take a second one on
+   * the same file from within it fails, so the threads of this process take turns first.
+   */
+  private static final Object PROCESS_LOCK = new Object();
+
+  private final Path historyFile;
+  private final Path lockFile;
+  private final Path ruleDurationsFile;
+  private final long maxSizeBytes;
+  private final ObjectMapper objectMapper;
+
+  /**
+   * @param ruleDurationsFile where the {@link BuildRuleDurations} of the rules that were built
+   *     locally are kept.
+   */
+  public BuildTimeHistory(Path historyFile, Path ruleDurationsFile) {
+    this(historyFile, ruleDurationsFile, DEFAULT_MAX_SIZE_BYTES);
+  }
+
+  @VisibleForTesting
+  BuildTimeHistory(Path historyFile, Path ruleDurationsFile, long maxSizeBytes) {
+    this.historyFile = Preconditions.checkNotNull(historyFile);
+    this.lockFile = historyFile.resolveSibling(historyFile.getFileName() + ".lock");
+    this.ruleDurationsFile = Preconditions.checkNotNull(ruleDurationsFile);
+    this.maxSizeBytes = maxSizeBytes;
+    this.objectMapper = new ObjectMapper();
+  }
+
+  /** @return the history of the project whose files are in {@code projectFilesystem}. */
+  public static BuildTimeHistory forProject(ProjectFilesystem projectFilesystem) {
+    return new BuildTimeHistory(
+        projectFilesystem.resolve(HISTORY_PATH),
+        projectFilesystem.resolve(BuildRuleDurations.DURATIONS_PATH));
+  }
+
+  public Path getPath() {
+    return historyFile;
+  }
+
+  public void append(Iterable<BuildTimeRecord> records) throws IOException {
+    StringBuilder lines = new StringBuilder();
+    for (BuildTimeRecord record : records) {
+      lines.append(objectMapper.writeValueAsString(record)).append('\n');
+    }
+    if (lines.length() == 0) {
+      return;
+    }
+
+    Files.createDirectories(historyFile.getParent());
+    synchronized (PROCESS_LOCK) {
+      try (FileChannel lockChannel = FileChannel.open(lockFile,
+          StandardOpenOption.CREATE,
+          StandardOpenOption.WRITE)) {
+        // Closing the channel releases the lock.
+        lockChannel.lock();
+
+        try (OutputStream output = Files.newOutputStream(historyFile,
+            StandardOpenOption.CREATE,
+            StandardOpenOption.WRITE,
+            StandardOpenOption.APPEND)) {
+          output.write(lines.toString().getBytes(Charsets.UTF_8));
+        }
+        updateRuleDurations(records);
+        if (Files.size(historyFile) > maxSizeBytes) {
+          dropOldestRecords();
+        }
+      }
+    }
+  }
+
+  private void updateRuleDurations(Iterable<BuildTimeRecord> records) throws IOException {
+    BuildRuleDurations durations = null;
+    for (BuildTimeRecord record : records) {
+      if (record.getKind() == BuildTimeRecord.Kind.RULE &&
+          BUILT_LOCALLY.equals(record.getSuccessType())) {
+        if (durations == null) {
+          durations = BuildRuleDurations.load(ruleDurationsFile);
+        }
+        durations.recordDurationMillis(record.getName(), record.getDurationMillis());
+      }
+    }
+    if (durations != null) {
+      durations.save();
+    }
+  }
+
+  /** @return every record that can be read, oldest first. */
+  public ImmutableList<BuildTimeRecord> read() throws IOException {
+    return read(Predicates.alwaysTrue());
+  }
+
+  /** @return the records that match {@code filter}, oldest first. */
+  public ImmutableList<BuildTimeRecord> read(Predicate<? super BuildTimeRecord> filter)
+      throws IOException {
+    ImmutableList.Builder<BuildTimeRecord> records = ImmutableList.builder();
+    if (!Files.isRegularFile(historyFile)) {
+      return records.build();
+    }
+
+    try (BufferedReader reader = Files.newBufferedReader(historyFile, Charsets.UTF_8)) {
+      for (String line = reader.readLine(); line != null; line = reader.readLine()) {
+        BuildTimeRecord record;
+        try {
+          record = objectMapper.readValue(line, BuildTimeRecord.class);
+        } catch (JsonProcessingException e) {
+          continue;
+        }
+        if (filter.apply(record)) {
+          records.add(record);
+        }
+      }
+    }
+    return records.build();
+  }
+
+  /** Must only be called while {@link #lockFile} is locked. */
+  private void dropOldestRecords() throws IOException {
+    List<String> lines = Files.readAllLines(historyFile, Charsets.UTF_8);
+    List<String> newestLines = lines.subList(lines.size() / 2, lines.size());
+
+    Path tempFile = Files.createTempFile(historyFile.getParent(),
+        historyFile.getFileName().toString(),
+        ".tmp");
+    try {
+      Files.write(tempFile, newestLines, Charsets.UTF_8);
+      Files.move(tempFile, historyFile,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Files.deleteIfExists(tempFile);
+      throw e;
+    }
+  }
+}
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.event.BuckEventListener;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.rules.BuildRule;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.BuildRuleStatus;
+import com.facebook.buck.rules.Buildable;
+import com.facebook.buck.step.Step;
+import com.facebook.buck.step.StepEvent;
+import com.facebook.buck.util.HumanReadableException;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Functions;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.MapMaker;
+import com.google.common.collect.Maps;
+import com.google.common.eventbus.Subscribe;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Records how long each rule and each step took, along with what became of each rule, and appends
+ * the records to the {@link BuildTimeHistory} once the command is done.
+ */
+public class BuildTimeHistoryListener implements BuckEventListener {
+
+  private final BuildTimeHistory history;
+  private final ProjectFilesystem projectFilesystem;
+  private final ConcurrentMap<BuildTarget, BuildRuleEvent.Started> startedRules;
+  /** The rule that each thread is building, to attribute the steps that it runs to. */
+  private final ConcurrentMap<Long, BuildTarget> targetsByThread;
+  /** Identity-keyed, as steps need not implement {@link Object#equals(Object)}. */
+  private final ConcurrentMap<Step, StepEvent.Started> startedSteps;
+  private final ConcurrentLinkedQueue<BuildTimeRecord> records;
+
+  public BuildTimeHistoryListener(BuildTimeHistory history, ProjectFilesystem projectFilesystem) {
+    this.history = Preconditions.checkNotNull(history);
+    this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
+    this.startedRules = Maps.newConcurrentMap();
+    this.targetsByThread = Maps.newConcurrentMap();
+    this.startedSteps = new MapMaker().weakKeys().makeMap();
+    this.records = new ConcurrentLinkedQueue<>();
+  }
+
+  @Subscribe
+  public void ruleStarted(BuildRuleEvent.Started started) {
+    BuildTarget target = started.getBuildRule().getBuildTarget();
+    startedRules.put(target, started);
+    targetsByThread.put(started.getThreadId(), target);
+  }
+
+  @Subscribe
+  public void ruleFinished(BuildRuleEvent.Finished finished) {
+    BuildRule rule = finished.getBuildRule();
+    BuildRuleEvent.Started started = startedRules.remove(rule.getBuildTarget());
+    if (started == null) {
+      return;
+    }
+    targetsByThread.remove(started.getThreadId(), rule.getBuildTarget());
+
+    boolean isSuccess = finished.getStatus() == BuildRuleStatus.SUCCESS;
+    records.add(BuildTimeRecord.forRule(
+        finished.getBuildId().toString(),
+        rule.getFullyQualifiedName(),
+        started.getTimestamp(),
+        finished.getTimestamp() - started.getTimestamp(),
+        isSuccess ? finished.getRuleKeySafe() : null,
+        finished.getCacheResult().toString().toLowerCase(),
+        finished.getSuccessType().transform(Functions.toStringFunction()).orNull(),
+        isSuccess ? getOutputSizeBytes(rule) : null));
+  }
+
+  @Subscribe
+  public void stepStarted(StepEvent.Started started) {
+    startedSteps.put(started.getStep(), started);
+  }
+
+  @Subscribe
+  public void stepFinished(StepEvent.Finished finished) {
+    StepEvent.Started started = startedSteps.remove(finished.getStep());
+    if (started == null) {
+      return;
+    }
+
+    BuildTarget target = targetsByThread.get(started.getThreadId());
+    records.add(BuildTimeRecord.forStep(
+        finished.getBuildId().toString(),
+        finished.getStep().getShortName(),
+        target == null ? null : target.getFullyQualifiedName(),
+        started.getTimestamp(),
+        finished.getTimestamp() - started.getTimestamp(),
+        finished.getExitCode()));
+  }
+
+  @Override
+  public void outputTrace(BuildId buildId) {
+    List<BuildTimeRecord> recordsToAppend = Lists.newArrayList();
+    for (BuildTimeRecord record = records.poll(); record != null; record = records.poll()) {
+      recordsToAppend.add(record);
+    }
+
+    try {
+      history.append(ImmutableList.copyOf(recordsToAppend));
+    } catch (IOException e) {
+      throw new HumanReadableException(e, "Unable to write build time history.");
+    }
+  }
+
+  @Nullable
+  private Long getOutputSizeBytes(BuildRule rule) {
+    Buildable buildable = rule.getBuildable();
+    Path output = buildable == null ? null : buildable.getPathToOutputFile();
+    if (output == null) {
+      return null;
+    }
+    File file = projectFilesystem.getFileForRelativePath(output);
+    return file.isFile() ? file.length() : null;
+  }
+}
@@ -0,0 +1,195 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.event.listener;
+
+import com.fasterxml.jackson.annotation.JsonCreator;
+import com.fasterxml.jackson.annotation.JsonInclude;
+import com.fasterxml.jackson.annotation.JsonInclude.Include;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicate;
+
+import javax.annotation.Nullable;
+
+/**
+ * How long a rule or a step took in one build, as kept in the {@link BuildTimeHistory}. The
+ * properties that do not apply to the kind of record, or that were not known, are {@code null}.
+ */
+@JsonInclude(Include.NON_NULL)
+public class BuildTimeRecord {
+
+  public static enum Kind {
+    RULE,
+    STEP,
+  }
+
+  private final Kind kind;
+  private final String buildId;
+  private final String name;
+  @Nullable private final String target;
+  private final long startTimeMillis;
+  private final long durationMillis;
+  @Nullable private final String ruleKey;
+  @Nullable private final String cacheResult;
+  @Nullable private final String successType;
+  @Nullable private final Long outputSizeBytes;
+  @Nullable private final Integer exitCode;
+
+  /**
+   * @param name the fully qualified name of the target of a rule, or the short name of a step.
+   * @param target the fully qualified name of the target that a step was run for, if any.
+   */
+  @JsonCreator
+  public BuildTimeRecord(
+      @JsonProperty("kind") Kind kind,
+      @JsonProperty("build_id") String buildId,
+      @JsonProperty("name") String name,
+      @JsonProperty("target") @Nullable String target,
+      @JsonProperty("start") long startTimeMillis,
+      @JsonProperty("duration") long durationMillis,
+      @JsonProperty("rule_key") @Nullable String ruleKey,
+      @JsonProperty("cache_result") @Nullable String cacheResult,
+      @JsonProperty("success_type") @Nullable String successType,
+      @JsonProperty("output_size") @Nullable Long outputSizeBytes,
+      @JsonProperty("exit_code") @Nullable Integer exitCode) {
+    this.kind = Preconditions.checkNotNull(kind);
+    this.buildId = Preconditions.checkNotNull(buildId);
+    this.name = Preconditions.checkNotNull(name);
+    this.target = target;
+    this.startTimeMillis = startTimeMillis;
+    this.durationMillis = durationMillis;
+    this.ruleKey = ruleKey;
+    this.cacheResult = cacheResult;
+    this.successType = successType;
+    this.outputSizeBytes = outputSizeBytes;
+    this.exitCode = exitCode;
+  }
+
+  public static BuildTimeRecord forRule(
+      String buildId,
+      String target,
+      long startTimeMillis,
+      long durationMillis,
+      @Nullable String ruleKey,
+      String cacheResult,
+      @Nullable String successType,
+      @Nullable Long outputSizeBytes) {
+    return new BuildTimeRecord(Kind.RULE,
+        buildId,
+        target,
+        target,
+        startTimeMillis,
+        durationMillis,
+        ruleKey,
+        cacheResult,
+        successType,
+        outputSizeBytes,
+        /* exitCode */ null);
+  }
+
+  public static BuildTimeRecord forStep(
+      String buildId,
+      String shortName,
+      @Nullable String target,
+      long startTimeMillis,
+      long durationMillis,
+      int exitCode) {
+    return new BuildTimeRecord(Kind.STEP,
+        buildId,
+        shortName,
+        target,
+        startTimeMillis,
+        durationMillis,
+        /* ruleKey */ null,
+        /* cacheResult */ null,
+        /* successType */ null,
+        /* outputSizeBytes */ null,
+        exitCode);
+  }
+
+  /** @return a predicate that matches the records of the given kind. */
+  public static Predicate<BuildTimeRecord> ofKind(final Kind kind) {
+    return new Predicate<BuildTimeRecord>() {
+      @Override
+      public boolean apply(BuildTimeRecord record) {
+        return record.getKind() == kind;
+      }
+    };
+  }
+
+  @JsonProperty("kind")
+  public Kind getKind() {
+    return kind;
+  }
+
+  @JsonProperty("build_id")
+  public String getBuildId() {
+    return buildId;
+  }
+
+  @JsonProperty("name")
+  public String getName() {
+    return name;
+  }
+
+  @JsonProperty("target")
+  @Nullable
+  public String getTarget() {
+    return target;
+  }
+
+  @JsonProperty("start")
+  public long getStartTimeMillis() {
+    return startTimeMillis;
+  }
+
+  @JsonProperty("duration")
+  public long getDurationMillis() {
+    return durationMillis;
+  }
+
+  @JsonProperty("rule_key")
+  @Nullable
+  public String getRuleKey() {
+    return ruleKey;
+  }
+
+  @JsonProperty("cache_result")
+  @Nullable
+  public String getCacheResult() {
+    return cacheResult;
+  }
+
+  @JsonProperty("success_type")
+  @Nullable
+  public String getSuccessType() {
+    return successType;
+  }
+
+  @JsonProperty("output_size")
+  @Nullable
+  public Long getOutputSizeBytes() {
+    return outputSizeBytes;
+  }
+
+  @JsonProperty("exit_code")
+  @Nullable
+  public Integer getExitCode() {
+    return exitCode;
+  }
+}
@@ -26,17 +26,19 @@ import com.facebook.buck.event.ChromeTraceEvent;
 import com.facebook.buck.event.TraceEvent;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.parser.ParseEvent;
+import com.facebook.buck.rules.ArtifactCacheBatchEvent;
 import com.facebook.buck.rules.ArtifactCacheConnectEvent;
 import com.facebook.buck.rules.ArtifactCacheEvent;
 import com.facebook.buck.rules.BuildEvent;
 import com.facebook.buck.rules.BuildRule;
 import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.CacheResult;
+import com.facebook.buck.rules.RuleKeyCalculationEvent;
 import com.facebook.buck.step.StepEvent;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.HumanReadableException;
 import com.facebook.buck.util.Optionals;
 import com.facebook.buck.util.ProjectFilesystem;
-import com.fasterxml.jackson.databind.ObjectMapper;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Functions;
 import com.google.common.base.Joiner;
@@ -45,30 +47,60 @@ import com.google.common.base.Predicate;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Multiset;
 import com.google.common.eventbus.Subscribe;
 
 import java.io.File;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Paths;
 import java.util.Arrays;
 import java.util.Comparator;
-import java.util.concurrent.ConcurrentLinkedQueue;
 import java.util.concurrent.TimeUnit;
 
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
 /**
  * Logs events to a json file formatted to be viewed in Chrome Trace View (chrome://tracing).
+ * <p>
+ * Events are written to the file as they happen, through a {@link ChromeTraceWriter}, so the trace
+ * of a build can be looked at while the build is still running.
  */
 public class ChromeTraceBuildListener implements BuckEventListener {
   private static final String TRACE_FILE_PATTERN = "build\\.\\d*\\.trace";
 
   private final ProjectFilesystem projectFilesystem;
   private final int tracesToKeep;
-  private ConcurrentLinkedQueue<ChromeTraceEvent> eventList =
-      new ConcurrentLinkedQueue<ChromeTraceEvent>();
+  private final boolean compressTraces;
+
+  @GuardedBy("this")
+  @Nullable
+  private File traceFile;
+  @GuardedBy("this")
+  @Nullable
+  private ChromeTraceWriter traceWriter;
+  /** The first error writing the trace, which is reported once the trace is done. */
+  @GuardedBy("this")
+  @Nullable
+  private IOException writeFailure;
+  @GuardedBy("this")
+  private boolean isFinished;
 
   public ChromeTraceBuildListener(ProjectFilesystem projectFilesystem, int tracesToKeep) {
+    this(projectFilesystem, tracesToKeep, /* compressTraces */ false);
+  }
+
+  /**
+   * @param compressTraces whether to compress the traces with gzip. The Chrome trace viewer and
+   *     the web server read compressed traces as well.
+   */
+  public ChromeTraceBuildListener(ProjectFilesystem projectFilesystem,
+      int tracesToKeep,
+      boolean compressTraces) {
     this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
     this.tracesToKeep = tracesToKeep;
+    this.compressTraces = compressTraces;
   }
 
   @VisibleForTesting
@@ -102,37 +134,26 @@ public class ChromeTraceBuildListener implements BuckEventListener {
   }
 
   @Override
-  public void outputTrace(BuildId buildId) {
+  public synchronized void outputTrace(BuildId buildId) {
     Preconditions.checkNotNull(buildId);
+    isFinished = true;
     try {
-      String tracePath = String.format("%s/build.%s.trace",
-          BuckConstant.BUCK_TRACE_DIR,
-          buildId);
-      File traceOutput = projectFilesystem.getFileForRelativePath(tracePath);
-      projectFilesystem.createParentDirs(tracePath);
-
-      ImmutableList<ChromeTraceEvent> tsSortedEvents = FluentIterable.
-          from(eventList).
-          toSortedList(new Comparator<ChromeTraceEvent>() {
-            @Override
-            public int compare(ChromeTraceEvent a, ChromeTraceEvent b) {
-              return Long.signum(a.getMicroTime() - b.getMicroTime());
-            }
-          });
-
-      ObjectMapper mapper = new ObjectMapper();
-      mapper.writeValue(traceOutput, tsSortedEvents);
+      // If nothing has been traced, this writes an empty trace.
+      getTraceWriter(buildId).close();
+      if (writeFailure != null) {
+        throw writeFailure;
+      }
 
       String symlinkPath = String.format("%s/build.trace",
           BuckConstant.BUCK_TRACE_DIR);
       File symlinkFile = projectFilesystem.getFileForRelativePath(symlinkPath);
-      projectFilesystem.createSymLink(Paths.get(traceOutput.toURI()),
+      projectFilesystem.createSymLink(Paths.get(traceFile.toURI()),
           Paths.get(symlinkFile.toURI()),
           true);
 
       deleteOldTraces();
     } catch (IOException e) {
-      throw new HumanReadableException("Unable to write trace file.");
+      throw new HumanReadableException(e, "Unable to write trace file.");
     }
   }
 
@@ -200,6 +221,25 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         finished);
   }
 
+  @Subscribe
+  public void ruleKeyCalculationStarted(RuleKeyCalculationEvent.Started started) {
+    writeChromeTraceEvent("buck",
+        started.getCategory(),
+        ChromeTraceEvent.Phase.BEGIN,
+        ImmutableMap.<String, String>of(),
+        started);
+  }
+
+  @Subscribe
+  public void ruleKeyCalculationFinished(RuleKeyCalculationEvent.Finished finished) {
+    writeChromeTraceEvent("buck",
+        finished.getCategory(),
+        ChromeTraceEvent.Phase.END,
+        ImmutableMap.<String, String>of(
+            "rules", Integer.toString(finished.getNumRules())),
+        finished);
+  }
+
   @Subscribe
   public void stepStarted(StepEvent.Started started) {
     writeChromeTraceEvent("buck",
@@ -326,6 +366,35 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         finished);
   }
 
+  @Subscribe
+  public void artifactBatchStarted(ArtifactCacheBatchEvent.Started started) {
+    writeChromeTraceEvent("buck",
+        started.getCategory(),
+        ChromeTraceEvent.Phase.BEGIN,
+        ImmutableMap.of("artifacts", Integer.toString(started.getNumArtifacts())),
+        started);
+  }
+
+  @Subscribe
+  public void artifactBatchFinished(ArtifactCacheBatchEvent.Finished finished) {
+    ImmutableMap.Builder<String, String> argumentsBuilder = ImmutableMap.<String, String>builder()
+        .put("artifacts", Integer.toString(finished.getNumArtifacts()));
+    if (finished.getOperation() == ArtifactCacheEvent.Operation.FETCH) {
+      argumentsBuilder.put("hits", Integer.toString(finished.getNumHits()));
+      for (Multiset.Entry<CacheResult> entry : finished.getCacheResults().entrySet()) {
+        argumentsBuilder.put(
+            entry.getElement().toString().toLowerCase(),
+            Integer.toString(entry.getCount()));
+      }
+    }
+
+    writeChromeTraceEvent("buck",
+        finished.getCategory(),
+        ChromeTraceEvent.Phase.END,
+        argumentsBuilder.build(),
+        finished);
+  }
+
   @Subscribe
   public void artifactConnectStarted(ArtifactCacheConnectEvent.Started started) {
     writeChromeTraceEvent("buck",
@@ -353,17 +422,37 @@ public class ChromeTraceBuildListener implements BuckEventListener {
         event);
   }
 
-  private void writeChromeTraceEvent(String category,
+  private synchronized void writeChromeTraceEvent(String category,
       String name,
       ChromeTraceEvent.Phase phase,
       ImmutableMap<String, String> arguments,
       BuckEvent event) {
-    eventList.add(new ChromeTraceEvent(category,
-        name,
-        phase,
-        0,
-        event.getThreadId(),
-        TimeUnit.NANOSECONDS.toMicros(event.getNanoTime()),
-        arguments));
+    if (isFinished || writeFailure != null) {
+      return;
+    }
+    try {
+      getTraceWriter(event.getBuildId()).write(new ChromeTraceEvent(category,
+          name,
+          phase,
+          0,
+          event.getThreadId(),
+          TimeUnit.NANOSECONDS.toMicros(event.getNanoTime()),
+          arguments));
+    } catch (IOException e) {
+      writeFailure = e;
+    }
+  }
+
+  /** Opens the trace file the first time that it is needed. */
+  private synchronized ChromeTraceWriter getTraceWriter(BuildId buildId) throws IOException {
+    if (traceWriter == null) {
+      String tracePath = String.format("%s/build.%s.trace",
+          BuckConstant.BUCK_TRACE_DIR,
+          buildId);
+      projectFilesystem.createParentDirs(tracePath);
+      traceFile = projectFilesystem.getFileForRelativePath(tracePath);
+      traceWriter = new ChromeTraceWriter(new FileOutputStream(traceFile), compressTraces);
+    }
+    return traceWriter;
   }
 }
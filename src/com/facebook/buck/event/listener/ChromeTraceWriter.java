@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.event.listener;
+
+import com.facebook.buck.event.ChromeTraceEvent;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.Longs;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Writes {@link ChromeTraceEvent}s to a trace file as a JSON array, one event at a time, rather
+ * than holding onto all of them until the command is done.
+ * <p>
+ * Events do not always arrive in the order of their timestamps, so each event is held back until
+ * an event that is a second newer arrives, or until too many events are held back, and the events
+ * that are held back are written in order. The file is flushed every second, so that a trace can
+ * be read while it is still being written: it is then missing the {@code ]} that ends the array,
+ * and the events that are still held back.
+ */
+class ChromeTraceWriter implements Closeable {
+
+  private static final long REORDER_WINDOW_MICROS = TimeUnit.SECONDS.toMicros(1);
+  private static final int MAX_HELD_BACK_EVENTS = 4096;
+  private static final long FLUSH_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+  private final ObjectMapper objectMapper;
+  private final JsonGenerator generator;
+  private final PriorityQueue<ChromeTraceEvent> heldBackEvents;
+  private long newestMicroTime;
+  private long lastFlushNanoTime;
+
+  /**
+   * @param output where to write the trace, which is closed along with this writer.
+   * @param compress whether to compress the trace with gzip. A compressed trace can still be read
+   *     while it is being written, up to the last flush.
+   */
+  ChromeTraceWriter(OutputStream output, boolean compress) throws IOException {
+    this.objectMapper = new ObjectMapper();
+    this.objectMapper.configure(SerializationFeature.FLUSH_AFTER_WRITE_VALUE, false);
+    this.generator = objectMapper.getJsonFactory().createJsonGenerator(
+        compress ? new GZIPOutputStream(output, /* syncFlush */ true) : output,
+        JsonEncoding.UTF8);
+    this.heldBackEvents = new PriorityQueue<>(MAX_HELD_BACK_EVENTS,
+        new Comparator<ChromeTraceEvent>() {
+          @Override
+          public int compare(ChromeTraceEvent a, ChromeTraceEvent b) {
+            return Longs.compare(a.getMicroTime(), b.getMicroTime());
+          }
+        });
+    this.newestMicroTime = Long.MIN_VALUE;
+    this.lastFlushNanoTime = System.nanoTime();
+
+    generator.writeStartArray();
+  }
+
+  public synchronized void write(ChromeTraceEvent event) throws IOException {
+    Preconditions.checkNotNull(event);
+    heldBackEvents.add(event);
+    newestMicroTime = Math.max(newestMicroTime, event.getMicroTime());
+
+    while (!heldBackEvents.isEmpty() &&
+        (heldBackEvents.size() > MAX_HELD_BACK_EVENTS ||
+            heldBackEvents.peek().getMicroTime() < newestMicroTime - REORDER_WINDOW_MICROS)) {
+      objectMapper.writeValue(generator, heldBackEvents.poll());
+    }
+
+    long now = System.nanoTime();
+    if (now - lastFlushNanoTime >= FLUSH_INTERVAL_NANOS) {
+      generator.flush();
+      lastFlushNanoTime = now;
+    }
+  }
+
+  /** Writes the events that are held back, ends the array and closes the file. */
+  @Override
+  public synchronized void close() throws IOException {
+    try {
+      for (ChromeTraceEvent event = heldBackEvents.poll();
+           event != null;
+           event = heldBackEvents.poll()) {
+        objectMapper.writeValue(generator, event);
+      }
+      generator.writeEndArray();
+    } finally {
+      generator.close();
+    }
+  }
+}
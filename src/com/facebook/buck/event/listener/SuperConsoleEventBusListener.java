@@ -23,6 +23,7 @@ import com.facebook.buck.rules.BuildRuleEvent;
 import com.facebook.buck.rules.IndividualTestEvent;
 import com.facebook.buck.rules.TestRunEvent;
 import com.facebook.buck.step.StepEvent;
+import com.facebook.buck.step.StepResourcesEvent;
 import com.facebook.buck.timing.Clock;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.environment.ExecutionEnvironment;
@@ -60,6 +61,7 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
 
   private final ConcurrentMap<Long, Optional<? extends BuildRuleEvent>> threadsToRunningEvent;
   private final ConcurrentMap<Long, Optional<? extends LeafEvent>> threadsToRunningStep;
+  private final ConcurrentMap<Long, Optional<StepResourcesEvent.Waiting>> threadsToWaitingStep;
 
   private final ConcurrentLinkedQueue<LogEvent> logEvents;
 
@@ -76,6 +78,7 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
 
     this.threadsToRunningEvent = new ConcurrentHashMap<>(executionEnvironment.getAvailableCores());
     this.threadsToRunningStep = new ConcurrentHashMap<>(executionEnvironment.getAvailableCores());
+    this.threadsToWaitingStep = new ConcurrentHashMap<>(executionEnvironment.getAvailableCores());
 
     this.logEvents = new ConcurrentLinkedQueue<>();
 
@@ -202,6 +205,8 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
       } else {
         long elapsedTimeMs = currentMillis - startedEvent.get().getTimestamp();
         Optional<? extends LeafEvent> leafEvent = threadsToRunningStep.get(entry.getKey());
+        Optional<StepResourcesEvent.Waiting> waitingEvent =
+            threadsToWaitingStep.get(entry.getKey());
 
         threadLine += String.format("%s...  %s",
             startedEvent.get().getBuildRule().getFullyQualifiedName(),
@@ -219,6 +224,13 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
               threadLine = ansi.asWarningText(threadLine);
             }
           }
+        } else if (waitingEvent != null && waitingEvent.isPresent()) {
+          // The next step cannot start until other steps release the resources that it needs.
+          threadLine += String.format(" (%s waiting for %s[%s])",
+              waitingEvent.get().getStep().getShortName(),
+              Joiner.on(", ").join(waitingEvent.get().getSaturatedResources()).toLowerCase(),
+              formatElapsedTime(currentMillis - waitingEvent.get().getTimestamp()));
+          threadLine = ansi.asWarningText(threadLine);
         } else {
           // If a rule is scheduled on a thread but no steps have been scheduled yet, we are still
           // in the code checking to see if the rule has been cached locally.
@@ -264,6 +276,17 @@ public class SuperConsoleEventBusListener extends AbstractConsoleEventBusListene
     threadsToRunningStep.put(finished.getThreadId(), Optional.<StepEvent>absent());
   }
 
+  @Subscribe
+  public void stepResourcesWaiting(StepResourcesEvent.Waiting waiting) {
+    threadsToWaitingStep.put(waiting.getThreadId(), Optional.of(waiting));
+  }
+
+  @Subscribe
+  public void stepResourcesAcquired(StepResourcesEvent.Acquired acquired) {
+    threadsToWaitingStep.put(acquired.getThreadId(),
+        Optional.<StepResourcesEvent.Waiting>absent());
+  }
+
   @Subscribe
   public void artifactStarted(ArtifactCacheEvent.Started started) {
     threadsToRunningStep.put(started.getThreadId(), Optional.of(started));
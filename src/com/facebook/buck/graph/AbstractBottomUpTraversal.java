@@ -50,6 +50,15 @@ public abstract class AbstractBottomUpTraversal<T, V> {
   }
 
   public final void traverse() {
+    if (graph instanceof DefaultImmutableDirectedAcyclicGraph) {
+      // Its nodes are already numbered in the order in which they would be visited.
+      for (T node :
+          ((DefaultImmutableDirectedAcyclicGraph<T>) graph).getNodesInTopologicalOrder()) {
+        visit(node);
+      }
+      return;
+    }
+
     Iterables.addAll(nodesToExplore, graph.getNodesWithNoOutgoingEdges());
     while (!nodesToExplore.isEmpty()) {
       T node = nodesToExplore.remove();
@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Performs a "bottom-up" traversal of a DAG on many threads at once. As with
+ * {@link AbstractBottomUpTraversal}, every node to which a given node has an outgoing edge is
+ * visited before the given node, but nodes whose dependencies have all been visited may be visited
+ * concurrently. A node is scheduled as soon as the last of them finishes, on a work-stealing
+ * {@link ForkJoinPool}.
+ * <p>
+ * Each visit returns a result for its node. Once every node has been visited, the results are
+ * merged on the calling thread in the order in which {@link AbstractBottomUpTraversal} would have
+ * visited the nodes, so the outcome does not depend on how the visits were scheduled.
+ */
+public abstract class AbstractParallelBottomUpTraversal<T, V> {
+
+  /** Its threads are daemon threads, so they do not keep Buck from exiting. */
+  private static final ForkJoinPool DEFAULT_POOL = new ForkJoinPool();
+
+  private final DefaultImmutableDirectedAcyclicGraph<T> graph;
+  private final ForkJoinPool pool;
+
+  public AbstractParallelBottomUpTraversal(DefaultImmutableDirectedAcyclicGraph<T> graph) {
+    this(graph, DEFAULT_POOL);
+  }
+
+  public AbstractParallelBottomUpTraversal(
+      DefaultImmutableDirectedAcyclicGraph<T> graph,
+      ForkJoinPool pool) {
+    this.graph = Preconditions.checkNotNull(graph);
+    this.pool = Preconditions.checkNotNull(pool);
+  }
+
+  /**
+   * Visits the nodes of the graph, and merges their results into {@code initial}.
+   * @return the merged result, or {@code initial} if the graph has no nodes.
+   * @throws RuntimeException the first exception that a visit threw, after which no further nodes
+   *     are visited.
+   */
+  public final V traverse(V initial) {
+    int numNodes = graph.getNodeCount();
+    if (numNodes == 0) {
+      return initial;
+    }
+
+    Run run = new Run(numNodes);
+    for (int id = 0; id < numNodes; id++) {
+      if (graph.getOutgoingEdgeCount(id) == 0) {
+        pool.execute(run.new VisitTask(id));
+      }
+    }
+    Uninterruptibles.awaitUninterruptibly(run.done);
+
+    Throwable failure = run.failure.get();
+    if (failure != null) {
+      throw Throwables.propagate(failure);
+    }
+    V result = initial;
+    for (int id = 0; id < numNodes; id++) {
+      result = merge(result, run.results.get(id));
+    }
+    return result;
+  }
+
+  /**
+   * Called once for each node, after it has been called for every node to which this node has an
+   * outgoing edge. It may be called for several nodes at once, from different threads.
+   */
+  public abstract V visit(T node);
+
+  /**
+   * Combines the results accumulated so far with the result of visiting the next node. Either may
+   * be modified and returned.
+   */
+  public abstract V merge(V accumulated, V result);
+
+  /** The state of one call to {@link #traverse(Object)}. */
+  private class Run {
+    private final AtomicReferenceArray<V> results;
+    private final AtomicIntegerArray remainingOutDegrees;
+    private final AtomicInteger remainingNodes;
+    private final AtomicReference<Throwable> failure;
+    private final CountDownLatch done;
+
+    private Run(int numNodes) {
+      this.results = new AtomicReferenceArray<>(numNodes);
+      this.remainingOutDegrees = new AtomicIntegerArray(numNodes);
+      for (int id = 0; id < numNodes; id++) {
+        remainingOutDegrees.set(id, graph.getOutgoingEdgeCount(id));
+      }
+      this.remainingNodes = new AtomicInteger(numNodes);
+      this.failure = new AtomicReference<>();
+      this.done = new CountDownLatch(1);
+    }
+
+    @SuppressWarnings("serial")
+    private class VisitTask extends RecursiveAction {
+      private final int id;
+
+      private VisitTask(int id) {
+        this.id = id;
+      }
+
+      @Override
+      protected void compute() {
+        if (failure.get() != null) {
+          return;
+        }
+        try {
+          results.set(id, visit(graph.getNode(id)));
+        } catch (RuntimeException | Error e) {
+          // The nodes that depend on this one will never be ready, so stop waiting for them.
+          failure.compareAndSet(null, e);
+          done.countDown();
+          return;
+        }
+
+        // Fork each node that was only waiting for this one onto this worker's queue, from which
+        // idle workers steal.
+        for (int i = 0; i < graph.getIncomingEdgeCount(id); i++) {
+          int source = graph.getIncomingNodeId(id, i);
+          if (remainingOutDegrees.decrementAndGet(source) == 0) {
+            new VisitTask(source).fork();
+          }
+        }
+        if (remainingNodes.decrementAndGet() == 0) {
+          done.countDown();
+        }
+      }
+    }
+  }
+}
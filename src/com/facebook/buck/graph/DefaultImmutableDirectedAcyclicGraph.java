@@ -17,46 +17,293 @@
 package com.facebook.buck.graph;
 
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSetMultimap;
-import com.google.common.collect.Sets;
 
+import java.util.BitSet;
+
+/**
+ * An immutable DAG whose nodes are numbered densely, in the order in which an
+ * {@link AbstractBottomUpTraversal} visits them, and whose edges are stored as arrays of those
+ * numbers: the sinks of the edges out of node {@code i} are
+ * {@code outgoingIds[outgoingOffsets[i]]} up to, but not including,
+ * {@code outgoingIds[outgoingOffsets[i + 1]]}, and likewise for the edges into it.
+ * <p>
+ * A traversal therefore needs no hash lookups, and a topological sort needs no work at all. The
+ * edges of each node are also kept as sets of nodes, which is what most callers ask for.
+ */
 public class DefaultImmutableDirectedAcyclicGraph<T> implements ImmutableDirectedAcyclicGraph<T> {
 
-  private final ImmutableSet<T> nodes;
-  private final ImmutableSetMultimap<T, T> outgoingEdges;
-  private final ImmutableSetMultimap<T, T> incomingEdges;
+  /** The id of each node, iterated over in the order in which the nodes were added. */
+  private final ImmutableMap<T, Integer> ids;
+  private final ImmutableList<T> nodesById;
+  private final int[] outgoingOffsets;
+  private final int[] outgoingIds;
+  private final int[] incomingOffsets;
+  private final int[] incomingIds;
+  private final ImmutableList<ImmutableSet<T>> outgoingNodesById;
+  private final ImmutableList<ImmutableSet<T>> incomingNodesById;
 
   public DefaultImmutableDirectedAcyclicGraph(MutableDirectedGraph<T> graph) {
     Preconditions.checkNotNull(graph);
-    Preconditions.checkArgument(graph.isAcyclic());
-    this.nodes = graph.createImmutableCopyOfNodes();
-    this.outgoingEdges = graph.createImmutableCopyOfOutgoingEdges();
-    this.incomingEdges = graph.createImmutableCopyOfIncomingEdges();
+    ImmutableSet<T> nodes = graph.createImmutableCopyOfNodes();
+    int numNodes = nodes.size();
+
+    // Number the nodes in the order in which they were added first, so that the edges can be
+    // walked without looking up the nodes at each end.
+    ImmutableMap.Builder<T, Integer> positionsBuilder = ImmutableMap.builder();
+    int position = 0;
+    for (T node : nodes) {
+      positionsBuilder.put(node, position++);
+    }
+    ImmutableMap<T, Integer> positions = positionsBuilder.build();
+    int[] outgoingOffsetsByPosition = new int[numNodes + 1];
+    int[] outgoingByPosition = toIdArrays(
+        nodes, graph.createImmutableCopyOfOutgoingEdges(), positions, outgoingOffsetsByPosition);
+    int[] incomingOffsetsByPosition = new int[numNodes + 1];
+    int[] incomingByPosition = toIdArrays(
+        nodes, graph.createImmutableCopyOfIncomingEdges(), positions, incomingOffsetsByPosition);
+
+    // Order the nodes as AbstractBottomUpTraversal would: starting from the nodes with no outgoing
+    // edges, each node comes after all of the nodes that it has edges to, and the nodes that become
+    // ready at the same time keep the order in which they were found.
+    int[] order = new int[numNodes];
+    int[] remainingOutDegrees = new int[numNodes];
+    int orderSize = 0;
+    for (int i = 0; i < numNodes; i++) {
+      remainingOutDegrees[i] = outgoingOffsetsByPosition[i + 1] - outgoingOffsetsByPosition[i];
+      if (remainingOutDegrees[i] == 0) {
+        order[orderSize++] = i;
+      }
+    }
+    for (int next = 0; next < orderSize; next++) {
+      int node = order[next];
+      for (int j = incomingOffsetsByPosition[node]; j < incomingOffsetsByPosition[node + 1]; j++) {
+        int source = incomingByPosition[j];
+        if (--remainingOutDegrees[source] == 0) {
+          order[orderSize++] = source;
+        }
+      }
+    }
+    // A node on a cycle never runs out of edges to nodes that have not been ordered yet.
+    Preconditions.checkArgument(orderSize == numNodes, "The graph is not acyclic.");
+
+    int[] idsByPosition = new int[numNodes];
+    for (int i = 0; i < numNodes; i++) {
+      idsByPosition[order[i]] = i;
+    }
+    ImmutableMap.Builder<T, Integer> idsBuilder = ImmutableMap.builder();
+    for (T node : nodes) {
+      idsBuilder.put(node, idsByPosition[positions.get(node)]);
+    }
+    this.ids = idsBuilder.build();
+    ImmutableList<T> nodesByPosition = nodes.asList();
+    ImmutableList.Builder<T> nodesByIdBuilder = ImmutableList.builder();
+    for (int i = 0; i < numNodes; i++) {
+      nodesByIdBuilder.add(nodesByPosition.get(order[i]));
+    }
+    this.nodesById = nodesByIdBuilder.build();
+
+    this.outgoingOffsets = new int[numNodes + 1];
+    this.outgoingIds = renumber(
+        order, idsByPosition, outgoingOffsetsByPosition, outgoingByPosition, outgoingOffsets);
+    this.incomingOffsets = new int[numNodes + 1];
+    this.incomingIds = renumber(
+        order, idsByPosition, incomingOffsetsByPosition, incomingByPosition, incomingOffsets);
+    this.outgoingNodesById = toNodeSets(nodesById, outgoingOffsets, outgoingIds);
+    this.incomingNodesById = toNodeSets(nodesById, incomingOffsets, incomingIds);
+  }
+
+  /**
+   * Flattens {@code edges} into an array of the positions of their sinks, grouped by source.
+   * @param offsets filled in with the index of the first edge of each source.
+   */
+  private static <T> int[] toIdArrays(
+      ImmutableSet<T> nodes,
+      ImmutableSetMultimap<T, T> edges,
+      ImmutableMap<T, Integer> positions,
+      int[] offsets) {
+    int[] sinks = new int[edges.size()];
+    int index = 0;
+    int position = 0;
+    for (T node : nodes) {
+      offsets[position++] = index;
+      for (T sink : edges.get(node)) {
+        sinks[index++] = positions.get(sink);
+      }
+    }
+    offsets[position] = index;
+    return sinks;
+  }
+
+  /** Rewrites edges between positions into edges between ids, grouped by source id. */
+  private static int[] renumber(
+      int[] order,
+      int[] idsByPosition,
+      int[] offsetsByPosition,
+      int[] edgesByPosition,
+      int[] offsets) {
+    int[] edges = new int[edgesByPosition.length];
+    int index = 0;
+    for (int id = 0; id < order.length; id++) {
+      offsets[id] = index;
+      int position = order[id];
+      for (int j = offsetsByPosition[position]; j < offsetsByPosition[position + 1]; j++) {
+        edges[index++] = idsByPosition[edgesByPosition[j]];
+      }
+    }
+    offsets[order.length] = index;
+    return edges;
+  }
+
+  /** @return the nodes at the other end of the edges of each node, by id. */
+  private static <T> ImmutableList<ImmutableSet<T>> toNodeSets(
+      ImmutableList<T> nodesById,
+      int[] offsets,
+      int[] edges) {
+    ImmutableList.Builder<ImmutableSet<T>> nodeSets = ImmutableList.builder();
+    for (int id = 0; id < nodesById.size(); id++) {
+      ImmutableSet.Builder<T> builder = ImmutableSet.builder();
+      for (int j = offsets[id]; j < offsets[id + 1]; j++) {
+        builder.add(nodesById.get(edges[j]));
+      }
+      nodeSets.add(builder.build());
+    }
+    return nodeSets.build();
   }
 
   @Override
   public ImmutableSet<T> getOutgoingNodesFor(T source) {
-    return outgoingEdges.get(source);
+    return getNodes(outgoingNodesById, source);
   }
 
   @Override
   public ImmutableSet<T> getIncomingNodesFor(T sink) {
-    return incomingEdges.get(sink);
+    return getNodes(incomingNodesById, sink);
+  }
+
+  private ImmutableSet<T> getNodes(ImmutableList<ImmutableSet<T>> nodeSetsById, T node) {
+    Integer id = ids.get(node);
+    return id == null ? ImmutableSet.<T>of() : nodeSetsById.get(id);
   }
 
   @Override
   public ImmutableSet<T> getNodesWithNoOutgoingEdges() {
-    return ImmutableSet.copyOf(Sets.difference(nodes, outgoingEdges.keySet()));
+    return getNodesWithNoEdges(outgoingOffsets);
   }
 
   @Override
   public ImmutableSet<T> getNodesWithNoIncomingEdges() {
-    return ImmutableSet.copyOf(Sets.difference(nodes, incomingEdges.keySet()));
+    return getNodesWithNoEdges(incomingOffsets);
+  }
+
+  private ImmutableSet<T> getNodesWithNoEdges(int[] offsets) {
+    ImmutableSet.Builder<T> builder = ImmutableSet.builder();
+    for (int id : ids.values()) {
+      if (offsets[id] == offsets[id + 1]) {
+        builder.add(nodesById.get(id));
+      }
+    }
+    return builder.build();
   }
 
   /** @return an unmodifiable view of the nodes in this graph */
   public Iterable<T> getNodes() {
-    return nodes;
+    return ids.keySet();
+  }
+
+  public int getNodeCount() {
+    return nodesById.size();
+  }
+
+  /** @return the node whose id is {@code id}. */
+  T getNode(int id) {
+    return nodesById.get(id);
+  }
+
+  /** @return the number of edges out of the node whose id is {@code id}. */
+  int getOutgoingEdgeCount(int id) {
+    return outgoingOffsets[id + 1] - outgoingOffsets[id];
+  }
+
+  /** @return the number of edges into the node whose id is {@code id}. */
+  int getIncomingEdgeCount(int id) {
+    return incomingOffsets[id + 1] - incomingOffsets[id];
+  }
+
+  /** @return the id of the source of the {@code index}th edge into the node {@code id}. */
+  int getIncomingNodeId(int id, int index) {
+    return incomingIds[incomingOffsets[id] + index];
+  }
+
+  /**
+   * @return the nodes of this graph in the order in which an {@link AbstractBottomUpTraversal}
+   *     visits them, in which every node comes after all of the nodes that it has edges to.
+   */
+  public ImmutableList<T> getNodesInTopologicalOrder() {
+    return nodesById;
+  }
+
+  /**
+   * @return {@code roots}, and every node that can be reached from them by following outgoing
+   *     edges, in topological order.
+   */
+  public ImmutableList<T> getReachableNodes(Iterable<? extends T> roots) {
+    BitSet reachable = new BitSet(nodesById.size());
+    int[] stack = new int[nodesById.size()];
+    int stackSize = 0;
+    for (T root : roots) {
+      Integer id = ids.get(root);
+      Preconditions.checkArgument(id != null, "%s is not in the graph.", root);
+      if (!reachable.get(id)) {
+        reachable.set(id);
+        stack[stackSize++] = id;
+      }
+    }
+    while (stackSize > 0) {
+      int id = stack[--stackSize];
+      for (int j = outgoingOffsets[id]; j < outgoingOffsets[id + 1]; j++) {
+        int sink = outgoingIds[j];
+        if (!reachable.get(sink)) {
+          reachable.set(sink);
+          stack[stackSize++] = sink;
+        }
+      }
+    }
+
+    ImmutableList.Builder<T> builder = ImmutableList.builder();
+    for (int id = reachable.nextSetBit(0); id >= 0; id = reachable.nextSetBit(id + 1)) {
+      builder.add(nodesById.get(id));
+    }
+    return builder.build();
+  }
+
+  /** @return whether {@code sink} can be reached from {@code source} by following edges. */
+  public boolean isReachable(T source, T sink) {
+    int sourceId = Preconditions.checkNotNull(ids.get(source));
+    int sinkId = Preconditions.checkNotNull(ids.get(sink));
+    BitSet visited = new BitSet(nodesById.size());
+    int[] stack = new int[nodesById.size()];
+    int stackSize = 0;
+    stack[stackSize++] = sourceId;
+    visited.set(sourceId);
+    while (stackSize > 0) {
+      int id = stack[--stackSize];
+      if (id == sinkId) {
+        return true;
+      }
+      for (int j = outgoingOffsets[id]; j < outgoingOffsets[id + 1]; j++) {
+        int next = outgoingIds[j];
+        // A node only has edges to nodes that come before it in topological order, so nothing
+        // before the sink can lead to it.
+        if (next >= sinkId && !visited.get(next)) {
+          visited.set(next);
+          stack[stackSize++] = next;
+        }
+      }
+    }
+    return false;
   }
 }
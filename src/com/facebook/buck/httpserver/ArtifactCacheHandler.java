@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.httpserver;
+
+import com.facebook.buck.rules.ArtifactCache;
+import com.facebook.buck.rules.ArtifactEncoding;
+import com.facebook.buck.rules.CachedArtifactInputStream;
+import com.facebook.buck.rules.RuleKey;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+import com.google.common.net.MediaType;
+
+import org.eclipse.jetty.server.Request;
+import org.eclipse.jetty.server.handler.AbstractHandler;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import javax.servlet.ServletException;
+import javax.servlet.http.HttpServletRequest;
+import javax.servlet.http.HttpServletResponse;
+
+/**
+ * HTTP handler for requests to the {@code /artifacts} path, which serves an {@link ArtifactCache}
+ * to the {@link com.facebook.buck.rules.HttpArtifactCache} of other Buck clients:
+ * <ul>
+ *   <li>{@code GET /artifacts/<RuleKey>} responds with the artifact, or with a 404 if the cache
+ *       does not have it.
+ *   <li>{@code PUT /artifacts/<RuleKey>} stores the body of the request as the artifact, or
+ *       responds with a 403 if the cache is read-only, or a 400 if the body cannot be decoded.
+ * </ul>
+ * Clients may encode the artifacts that they store with an
+ * {@link com.facebook.buck.rules.ArtifactEncoding}, but the cache behind this handler expects
+ * artifacts as they were built, so they are decoded before they are stored. Artifacts are served
+ * without encoding, which clients read as they would an artifact stored before encoding existed.
+ */
+class ArtifactCacheHandler extends AbstractHandler {
+
+  private static final Pattern RULE_KEY_PATTERN = Pattern.compile("/([0-9a-f]{40})");
+
+  private final ArtifactCache artifactCache;
+
+  ArtifactCacheHandler(ArtifactCache artifactCache) {
+    this.artifactCache = Preconditions.checkNotNull(artifactCache);
+  }
+
+  @Override
+  public void handle(String target,
+      Request baseRequest,
+      HttpServletRequest request,
+      HttpServletResponse response)
+      throws IOException, ServletException {
+    Matcher matcher = RULE_KEY_PATTERN.matcher(target);
+    if (!matcher.matches()) {
+      writeStatus(HttpServletResponse.SC_BAD_REQUEST, baseRequest, response);
+      return;
+    }
+
+    RuleKey ruleKey = new RuleKey(matcher.group(1));
+    if ("GET".equals(baseRequest.getMethod())) {
+      doGet(ruleKey, baseRequest, response);
+    } else if ("PUT".equals(baseRequest.getMethod())) {
+      doPut(ruleKey, baseRequest, response);
+    } else {
+      writeStatus(HttpServletResponse.SC_METHOD_NOT_ALLOWED, baseRequest, response);
+    }
+  }
+
+  private void doGet(RuleKey ruleKey, Request baseRequest, HttpServletResponse response)
+      throws IOException {
+    Optional<CachedArtifactInputStream> artifact = artifactCache.fetchStream(ruleKey);
+    if (!artifact.isPresent()) {
+      writeStatus(HttpServletResponse.SC_NOT_FOUND, baseRequest, response);
+      return;
+    }
+
+    response.setContentType(MediaType.OCTET_STREAM.toString());
+    response.setStatus(HttpServletResponse.SC_OK);
+    try (InputStream input = artifact.get()) {
+      ByteStreams.copy(input, response.getOutputStream());
+    }
+    response.flushBuffer();
+    baseRequest.setHandled(true);
+  }
+
+  private void doPut(RuleKey ruleKey, Request baseRequest, HttpServletResponse response)
+      throws IOException {
+    if (!artifactCache.isStoreSupported()) {
+      writeStatus(HttpServletResponse.SC_FORBIDDEN, baseRequest, response);
+      return;
+    }
+
+    // ArtifactCache stores files, so the artifact is spooled to disk first.
+    File artifact = File.createTempFile("artifact", ruleKey.toString());
+    try {
+      try (InputStream input = ArtifactEncoding.decode(baseRequest.getInputStream());
+           OutputStream output = new FileOutputStream(artifact)) {
+        ByteStreams.copy(input, output);
+      } catch (IOException e) {
+        // The artifact is corrupt, or was encoded by a newer version of Buck.
+        writeStatus(HttpServletResponse.SC_BAD_REQUEST, baseRequest, response);
+        return;
+      }
+      artifactCache.store(ruleKey, artifact);
+    } finally {
+      artifact.delete();
+    }
+    writeStatus(HttpServletResponse.SC_OK, baseRequest, response);
+  }
+
+  private static void writeStatus(int status, Request baseRequest, HttpServletResponse response)
+      throws IOException {
+    response.setStatus(status);
+    response.flushBuffer();
+    baseRequest.setHandled(true);
+  }
+}
@@ -18,16 +18,17 @@ package com.facebook.buck.httpserver;
 
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Preconditions;
-import com.google.common.io.CharStreams;
 import com.google.common.io.InputSupplier;
 import com.google.common.net.MediaType;
 
 import org.eclipse.jetty.server.Request;
 import org.eclipse.jetty.server.handler.AbstractHandler;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.Reader;
 import java.io.Writer;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
@@ -46,6 +47,8 @@ class TraceDataHandler extends AbstractHandler {
   @VisibleForTesting
   static final Pattern CALLBACK_PATTERN = Pattern.compile("[\\w\\.]+");
 
+  private static final int COPY_BUFFER_SIZE = 8192;
+
   private final TracesHelper tracesHelper;
 
   TraceDataHandler(TracesHelper tracesHelper) {
@@ -94,7 +97,7 @@ class TraceDataHandler extends AbstractHandler {
 
     InputSupplier<? extends InputStream> inputSupplier = tracesHelper.getInputForTrace(id);
     try (InputStreamReader inputStreamReader = new InputStreamReader(inputSupplier.getInput())) {
-      CharStreams.copy(inputStreamReader, responseWriter);
+      copyTrace(inputStreamReader, responseWriter);
     }
 
     if (hasValidCallbackParam) {
@@ -104,4 +107,103 @@ class TraceDataHandler extends AbstractHandler {
     response.flushBuffer();
     baseRequest.setHandled(true);
   }
+
+  /**
+   * Copies a trace to {@code writer}. A trace that is still being written has not ended its array
+   * yet, and usually ends part of the way through an event or just after the comma that follows
+   * one, so this copies only the events that are complete and then ends the array.
+   */
+  @VisibleForTesting
+  static void copyTrace(Reader reader, Writer writer) throws IOException {
+    TraceCopier copier = new TraceCopier(writer);
+    char[] buffer = new char[COPY_BUFFER_SIZE];
+    while (true) {
+      int read;
+      try {
+        read = reader.read(buffer);
+      } catch (EOFException e) {
+        // A compressed trace that is still being written ends part of the way through a block.
+        break;
+      }
+      if (read == -1) {
+        break;
+      }
+      copier.write(buffer, read);
+    }
+    copier.finish();
+  }
+
+  /**
+   * Copies a trace that is an array of events, holding back what follows the last complete event
+   * until the next one is complete, so that a trace that ends early can still be cut back to
+   * valid JSON. Anything that is not an array is copied as it is.
+   */
+  private static class TraceCopier {
+    private final Writer writer;
+    private final StringBuilder pending;
+    private boolean isArray;
+    private boolean isStarted;
+    private boolean isEnded;
+    private int depth;
+    private boolean isInString;
+    private boolean isEscaped;
+
+    private TraceCopier(Writer writer) {
+      this.writer = Preconditions.checkNotNull(writer);
+      this.pending = new StringBuilder();
+    }
+
+    private void write(char[] buffer, int length) throws IOException {
+      for (int i = 0; i < length; i++) {
+        char c = buffer[i];
+        if (!isStarted && !Character.isWhitespace(c)) {
+          isStarted = true;
+          isArray = c == '[';
+        }
+        if (!isArray || isEnded) {
+          writer.write(c);
+          continue;
+        }
+
+        pending.append(c);
+        if (isInString) {
+          if (isEscaped) {
+            isEscaped = false;
+          } else if (c == '\\') {
+            isEscaped = true;
+          } else if (c == '"') {
+            isInString = false;
+          }
+        } else if (c == '"') {
+          isInString = true;
+        } else if (c == '[' || c == '{') {
+          depth++;
+          if (depth == 1) {
+            // The array of events has begun.
+            flushPending();
+          }
+        } else if (c == ']' || c == '}') {
+          depth--;
+          if (depth <= 1) {
+            // Either an event or the whole trace is complete.
+            isEnded = depth == 0;
+            flushPending();
+          }
+        }
+      }
+    }
+
+    private void flushPending() throws IOException {
+      writer.append(pending);
+      pending.setLength(0);
+    }
+
+    private void finish() throws IOException {
+      if (!isStarted) {
+        writer.write("[]");
+      } else if (isArray && !isEnded) {
+        writer.write("]");
+      }
+    }
+  }
 }
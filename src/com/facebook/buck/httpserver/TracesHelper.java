@@ -18,8 +18,10 @@ package com.facebook.buck.httpserver;
 
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.InputSupplier;
 import com.google.gson.Gson;
 import com.google.gson.JsonElement;
@@ -30,16 +32,21 @@ import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.io.PushbackInputStream;
 import java.nio.file.Path;
 import java.text.DateFormat;
 import java.text.SimpleDateFormat;
+import java.util.Arrays;
 import java.util.Date;
+import java.util.zip.GZIPInputStream;
 
 /**
  * Utility to help with reading data from build trace files.
  */
 public class TracesHelper {
 
+  private static final byte[] GZIP_MAGIC = {(byte) 0x1f, (byte) 0x8b};
+
   private final ProjectFilesystem projectFilesystem;
 
   TracesHelper(ProjectFilesystem projectFilesystem) {
@@ -86,7 +93,7 @@ public class TracesHelper {
   InputSupplier<? extends InputStream> getInputForTrace(String id) {
     Preconditions.checkNotNull(id);
     Path pathToTrace = getPathToTrace(id);
-    return projectFilesystem.getInputSupplierForRelativePath(pathToTrace);
+    return getInputForTrace(pathToTrace);
   }
 
   TraceAttributes getTraceAttributesFor(String id) {
@@ -108,8 +115,7 @@ public class TracesHelper {
   }
 
   private Optional<String> parseCommandFrom(Path pathToTrace) {
-    InputSupplier<? extends InputStream> inputSupplier = projectFilesystem
-        .getInputSupplierForRelativePath(pathToTrace);
+    InputSupplier<? extends InputStream> inputSupplier = getInputForTrace(pathToTrace);
     try (JsonReader jsonReader = new JsonReader(new InputStreamReader(inputSupplier.getInput()))) {
       jsonReader.beginArray();
       Gson gson = new Gson();
@@ -137,6 +143,32 @@ public class TracesHelper {
     }
   }
 
+  /**
+   * A trace may have been compressed with gzip, in which case it is decompressed as it is read.
+   * A trace keeps the same name either way, as the Chrome trace viewer reads both.
+   */
+  private InputSupplier<InputStream> getInputForTrace(Path pathToTrace) {
+    final InputSupplier<? extends InputStream> inputSupplier =
+        projectFilesystem.getInputSupplierForRelativePath(pathToTrace);
+    return new InputSupplier<InputStream>() {
+      @Override
+      public InputStream getInput() throws IOException {
+        return decompressIfGzipped(inputSupplier.getInput());
+      }
+    };
+  }
+
+  @VisibleForTesting
+  static InputStream decompressIfGzipped(InputStream input) throws IOException {
+    PushbackInputStream pushbackInput = new PushbackInputStream(input, GZIP_MAGIC.length);
+    byte[] header = new byte[GZIP_MAGIC.length];
+    int read = ByteStreams.read(pushbackInput, header, 0, header.length);
+    pushbackInput.unread(header, 0, read);
+    return Arrays.equals(header, GZIP_MAGIC)
+        ? new GZIPInputStream(pushbackInput)
+        : pushbackInput;
+  }
+
   private static Path getPathToTrace(String id) {
     return BuckConstant.BUCK_TRACE_DIR.resolve(String.format("build.%s.trace", id));
   }
@@ -16,8 +16,10 @@
 
 package com.facebook.buck.httpserver;
 
+import com.facebook.buck.rules.ArtifactCache;
 import com.facebook.buck.util.ProjectFilesystem;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.Maps;
@@ -43,19 +45,33 @@ public class WebServer {
   private static final String TRACE_CONTEXT_PATH = "/trace";
   private static final String TRACES_CONTEXT_PATH = "/traces";
   private static final String TRACE_DATA_CONTEXT_PATH = "/tracedata";
+  private static final String ARTIFACTS_CONTEXT_PATH = "/artifacts";
 
   private final int port;
   private final ProjectFilesystem projectFilesystem;
   private final String staticContentDirectory;
+  private final Optional<ArtifactCache> artifactCache;
   private final Server server;
   private final StreamingWebSocketServlet streamingWebSocketServlet;
 
   public WebServer(int port,
       ProjectFilesystem projectFilesystem,
       String staticContentDirectory) {
+    this(port, projectFilesystem, staticContentDirectory, Optional.<ArtifactCache>absent());
+  }
+
+  /**
+   * @param artifactCache if present, is served under {@code /artifacts} to the http caches of other
+   *     clients.
+   */
+  public WebServer(int port,
+      ProjectFilesystem projectFilesystem,
+      String staticContentDirectory,
+      Optional<ArtifactCache> artifactCache) {
     this.port = port;
     this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
     this.staticContentDirectory = Preconditions.checkNotNull(staticContentDirectory);
+    this.artifactCache = Preconditions.checkNotNull(artifactCache);
     this.server = new Server(port);
     this.streamingWebSocketServlet = new StreamingWebSocketServlet();
   }
@@ -109,6 +125,11 @@ public class WebServer {
         new TracesHandlerDelegate(tracesHelper)));
     contextPathToHandler.put(TRACE_DATA_CONTEXT_PATH, new TraceDataHandler(tracesHelper));
 
+    if (artifactCache.isPresent()) {
+      contextPathToHandler.put(ARTIFACTS_CONTEXT_PATH,
+          new ArtifactCacheHandler(artifactCache.get()));
+    }
+
     ImmutableList.Builder<ContextHandler> handlers = ImmutableList.builder();
     for (Map.Entry<String, Handler> entry : contextPathToHandler.entrySet()) {
       String contextPath = entry.getKey();
@@ -22,6 +22,8 @@ import com.facebook.buck.rules.BuildDependencies;
 import com.facebook.buck.rules.Sha1HashCode;
 import com.facebook.buck.rules.SourcePath;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.HasResourceProfile;
+import com.facebook.buck.step.ResourceProfile;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Functions;
@@ -62,7 +64,7 @@ import javax.tools.ToolProvider;
  * {@code transitiveClasspathEntries} but warn the developer about which dependencies were in
  * the transitive classpath but not in the declared classpath.
  */
-public class JavacInMemoryStep extends JavacStep {
+public class JavacInMemoryStep extends JavacStep implements HasResourceProfile {
 
   public JavacInMemoryStep(
       Path outputDirectory,
@@ -107,6 +109,19 @@ public class JavacInMemoryStep extends JavacStep {
     return "javac";
   }
 
+  /**
+   * The compiler runs on a core of this process, and on a share of its heap rather than of the
+   * physical memory that subprocesses such as {@code dx} use.
+   */
+  @Override
+  public ResourceProfile getResourceProfile() {
+    return new ResourceProfile(
+        /* cores */ 1,
+        /* memoryMegabytes */ 0,
+        /* heapMegabytes */ 256,
+        /* subprocesses */ 0);
+  }
+
   @Override
   protected int buildWithClasspath(ExecutionContext context, Set<Path> buildClasspathEntries) {
     JavaCompiler compiler = ToolProvider.getSystemJavaCompiler();
@@ -0,0 +1,222 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Reads the binary output of buck.py's {@code --binary} mode, which is much cheaper to produce and
+ * to consume than JSON for large projects.
+ * <p>
+ * The output starts with {@link #MAGIC} and {@link #VERSION}. It is followed, in server mode, by a
+ * list value for each build file or, otherwise, by a map value for each rule. Each value is a tag
+ * byte followed by its payload, with big-endian integers:
+ * <ul>
+ *   <li>{@code N}, {@code T} and {@code F}: null, true and false, with no payload.
+ *   <li>{@code I}: a 64-bit integer. {@code D}: a 64-bit floating point number.
+ *   <li>{@code S}: a string, as a 32-bit length followed by that many bytes of UTF-8. The string
+ *       is also added to a table that lives as long as the output.
+ *   <li>{@code R}: a string that has been sent before, as its 32-bit index in that table. As the
+ *       keys of the rules and many of their values, such as deps, recur, most strings are sent as
+ *       references, and are decoded to the same String instance every time.
+ *   <li>{@code L}: a list, as a 32-bit count followed by that many values.
+ *   <li>{@code M}: a map, as a 32-bit count followed by that many pairs of a string value for the
+ *       key and a value.
+ * </ul>
+ * In server mode, buck.py may also ask Buck to evaluate a {@code glob()} while it parses a build
+ * file: a {@code G} tag followed by a map value with the arguments of the glob, which is handed
+ * to the {@link GlobRequestHandler}. buck.py waits for the answer on its stdin.
+ * The values that are produced are the same as those of {@link BuildFileToJsonParser}, except that
+ * numbers that are not integers are Doubles.
+ */
+class BuildFileToBinaryParser implements BuildFileOutputParser {
+
+  static final int MAGIC = 0x4255434B; // "BUCK"
+  static final int VERSION = 1;
+
+  static final byte NULL = 'N';
+  static final byte TRUE = 'T';
+  static final byte FALSE = 'F';
+  static final byte LONG = 'I';
+  static final byte DOUBLE = 'D';
+  static final byte STRING = 'S';
+  static final byte STRING_REFERENCE = 'R';
+  static final byte LIST = 'L';
+  static final byte MAP = 'M';
+  static final byte GLOB_REQUEST = 'G';
+
+  /** Answers the {@code glob()}s that buck.py asks Buck to evaluate. */
+  interface GlobRequestHandler {
+    /**
+     * @param request the {@code base} directory, {@code includes}, {@code excludes} and
+     *     {@code include_dotfiles} arguments of the glob.
+     */
+    void handleGlobRequest(Map<String, Object> request) throws IOException;
+  }
+
+  private final DataInputStream input;
+  private final boolean isServerMode;
+  private final Optional<GlobRequestHandler> globRequestHandler;
+  private final List<String> strings;
+  private boolean isHeaderRead;
+
+  public BuildFileToBinaryParser(InputStream input, boolean isServerMode) {
+    this(input, isServerMode, Optional.<GlobRequestHandler>absent());
+  }
+
+  public BuildFileToBinaryParser(
+      InputStream input,
+      boolean isServerMode,
+      Optional<GlobRequestHandler> globRequestHandler) {
+    this.input = new DataInputStream(new BufferedInputStream(input));
+    this.isServerMode = isServerMode;
+    this.globRequestHandler = Preconditions.checkNotNull(globRequestHandler);
+    this.strings = Lists.newArrayList();
+  }
+
+  @Override
+  public List<Map<String, Object>> nextRules() throws IOException {
+    if (!isHeaderRead) {
+      if (input.readInt() != MAGIC || input.readUnsignedByte() != VERSION) {
+        throw new IOException("buck.py did not produce the expected binary output.");
+      }
+      isHeaderRead = true;
+    }
+
+    List<Map<String, Object>> items = Lists.newArrayList();
+    if (isServerMode) {
+      byte tag;
+      while ((tag = input.readByte()) == GLOB_REQUEST) {
+        handleGlobRequest();
+      }
+      expectTag(LIST, tag);
+      int count = readCount();
+      for (int i = 0; i < count; i++) {
+        expectTag(MAP, input.readByte());
+        items.add(readMap());
+      }
+    } else {
+      int tag;
+      while ((tag = input.read()) != -1) {
+        expectTag(MAP, (byte) tag);
+        items.add(readMap());
+      }
+    }
+    return items;
+  }
+
+  private void handleGlobRequest() throws IOException {
+    if (!globRequestHandler.isPresent()) {
+      throw new IOException("buck.py asked for a glob, but Buck did not offer to evaluate globs.");
+    }
+    expectTag(MAP, input.readByte());
+    globRequestHandler.get().handleGlobRequest(readMap());
+  }
+
+  private Object readValue() throws IOException {
+    byte tag = input.readByte();
+    switch (tag) {
+      case NULL:
+        return null;
+      case TRUE:
+        return Boolean.TRUE;
+      case FALSE:
+        return Boolean.FALSE;
+      case LONG:
+        return input.readLong();
+      case DOUBLE:
+        return input.readDouble();
+      case STRING:
+      case STRING_REFERENCE:
+        return readString(tag, /* isKey */ false);
+      case LIST:
+        int count = readCount();
+        List<Object> list = Lists.newArrayListWithCapacity(count);
+        for (int i = 0; i < count; i++) {
+          list.add(readValue());
+        }
+        return list;
+      case MAP:
+        return readMap();
+      default:
+        throw new IOException(String.format("Unknown tag in buck.py output: 0x%02x", tag));
+    }
+  }
+
+  private Map<String, Object> readMap() throws IOException {
+    int count = readCount();
+    Map<String, Object> map = Maps.newHashMapWithExpectedSize(count);
+    for (int i = 0; i < count; i++) {
+      String key = readString(input.readByte(), /* isKey */ true);
+      map.put(key, readValue());
+    }
+    return map;
+  }
+
+  private String readString(byte tag, boolean isKey) throws IOException {
+    if (tag == STRING_REFERENCE) {
+      int index = input.readInt();
+      if (index < 0 || index >= strings.size()) {
+        throw new IOException("Unknown string reference in buck.py output: " + index);
+      }
+      return strings.get(index);
+    }
+    expectTag(STRING, tag);
+
+    byte[] bytes = new byte[readCount()];
+    input.readFully(bytes);
+    String value = new String(bytes, Charsets.UTF_8);
+    // Like BuildFileToJsonParser, intern keys: there are few of them, and many rules.
+    if (isKey) {
+      value = value.intern();
+    }
+    strings.add(value);
+    return value;
+  }
+
+  private int readCount() throws IOException {
+    int count = input.readInt();
+    if (count < 0) {
+      throw new IOException("Negative length in buck.py output: " + count);
+    }
+    return count;
+  }
+
+  private static void expectTag(byte expected, byte tag) throws IOException {
+    if (tag != expected) {
+      throw new IOException(String.format("Expected tag 0x%02x in buck.py output but found 0x%02x",
+          expected,
+          tag));
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    input.close();
+  }
+}
@@ -39,7 +39,7 @@ import java.util.Map;
  * sort of nested arrays or objects are allowed in the output as Parser is implemented
  * today. This simplification makes it easier to leverage Jackson's streaming JSON API.
  */
-public class BuildFileToJsonParser implements AutoCloseable {
+public class BuildFileToJsonParser implements BuildFileOutputParser {
 
   private final Gson gson;
   private final JsonReader reader;
@@ -88,8 +88,9 @@ public class BuildFileToJsonParser implements AutoCloseable {
    *     bear in mind that using the Java collections decouples clients of this method from the JSON
    *     parser that we use.
    */
+  @Override
   @SuppressWarnings("unchecked")
-  List<Map<String, Object>> nextRules() throws IOException {
+  public List<Map<String, Object>> nextRules() throws IOException {
     try {
       List<Map<String, Object>> items = Lists.newArrayList();
       if (isServerMode) {
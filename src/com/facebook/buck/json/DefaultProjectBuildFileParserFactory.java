@@ -19,6 +19,7 @@ package com.facebook.buck.json;
 import com.facebook.buck.rules.Description;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableSet;
 
@@ -28,14 +29,31 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
   private final ProjectFilesystem projectFilesystem;
   private final String pythonInterpreter;
   private final ImmutableSet<Description<?>> descriptions;
+  private final Optional<PersistentBuildFileCache> buildFileCache;
+  private final Optional<DirectoryListingCache> directoryListingCache;
 
   public DefaultProjectBuildFileParserFactory(
       ProjectFilesystem projectFilesystem,
       String pythonInterpreter,
       ImmutableSet<Description<?>> descriptions) {
+    this(projectFilesystem,
+        pythonInterpreter,
+        descriptions,
+        Optional.<PersistentBuildFileCache>absent(),
+        Optional.<DirectoryListingCache>absent());
+  }
+
+  public DefaultProjectBuildFileParserFactory(
+      ProjectFilesystem projectFilesystem,
+      String pythonInterpreter,
+      ImmutableSet<Description<?>> descriptions,
+      Optional<PersistentBuildFileCache> buildFileCache,
+      Optional<DirectoryListingCache> directoryListingCache) {
     this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
     this.pythonInterpreter = Preconditions.checkNotNull(pythonInterpreter);
     this.descriptions = Preconditions.checkNotNull(descriptions);
+    this.buildFileCache = Preconditions.checkNotNull(buildFileCache);
+    this.directoryListingCache = Preconditions.checkNotNull(directoryListingCache);
   }
 
   @Override
@@ -49,6 +67,8 @@ public class DefaultProjectBuildFileParserFactory implements ProjectBuildFilePar
         pythonInterpreter,
         descriptions,
         parseOptions,
-        console);
+        console,
+        buildFileCache,
+        directoryListingCache);
   }
 }
@@ -0,0 +1,402 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+
+import java.io.IOException;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.NotDirectoryException;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentNavigableMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Evaluates the {@code glob()}s of build files from directory listings that are shared by all of
+ * the buck.py processes, rather than having each process walk the file tree again.
+ * <p>
+ * Listings are kept for the directories in the project that Buck does not ignore, until a file
+ * change event says that an entry was added to or removed from the directory, so this cache must
+ * be registered with the file change EventBus.
+ */
+public class DirectoryListingCache {
+
+  private static final String RECURSIVE_WILDCARD = "**";
+
+  private final Path projectRoot;
+  private final ImmutableSet<Path> ignorePaths;
+
+  /**
+   * Listings by the real path of the directory, as a symlink may lead to the same directory. They
+   * are sorted so that the listings below a directory can be found without looking at the others.
+   */
+  private final ConcurrentNavigableMap<Path, ImmutableSortedMap<String, Entry>> listings;
+
+  /** The real path of the project root, once a listing has needed it. */
+  @Nullable
+  private volatile Path realProjectRoot;
+
+  public DirectoryListingCache(ProjectFilesystem projectFilesystem) {
+    this.projectRoot = projectFilesystem.getRootPath().toAbsolutePath().normalize();
+    this.ignorePaths = projectFilesystem.getIgnorePaths();
+    this.listings = new ConcurrentSkipListMap<>();
+  }
+
+  /**
+   * Evaluates {@code glob} the way that {@code glob()} in buck.py does.
+   * @param searchBase the absolute path of the directory that the patterns are relative to.
+   * @return the sorted paths of the matching files, relative to {@code searchBase}.
+   */
+  public ImmutableSortedSet<String> glob(Path searchBase, Glob glob) throws IOException {
+    return glob(searchBase, glob, Sets.<Path>newHashSet());
+  }
+
+  /**
+   * Like {@link #glob(Path, Glob)}.
+   * @param listedDirectories the real paths of the directories whose listings the result depends
+   *     on are added to this.
+   */
+  ImmutableSortedSet<String> glob(Path searchBase, Glob glob, Set<Path> listedDirectories)
+      throws IOException {
+    Set<String> paths = Sets.newTreeSet();
+    for (List<String> include : glob.getIncludes()) {
+      walk(new Walk(include, glob.isIncludeDotfiles(), paths, listedDirectories),
+          searchBase,
+          /* relativePath */ null,
+          searchBase.toRealPath(),
+          /* isFile */ false,
+          /* index */ 0);
+    }
+
+    ImmutableSortedSet.Builder<String> results = ImmutableSortedSet.naturalOrder();
+    for (String path : paths) {
+      if (!glob.isExcluded(ImmutableList.copyOf(path.split("/")))) {
+        results.add(path);
+      }
+    }
+    return results.build();
+  }
+
+  /**
+   * Follows the tokens of a pattern from {@code walk.tokens[index]} on down from {@code path}, as
+   * {@code glob_walk} in buck.py does.
+   * @param realPath {@code path} with the symlinks along the way resolved, used to avoid following
+   *     a symlink to one of its own ancestors over and over.
+   */
+  private void walk(
+      Walk walk,
+      Path path,
+      @Nullable String relativePath,
+      Path realPath,
+      boolean isFile,
+      int index) throws IOException {
+    if (!walk.visited.add(index + ":" + realPath)) {
+      return;
+    }
+    if (index == walk.tokens.size()) {
+      if (relativePath != null && isFile) {
+        walk.results.add(relativePath);
+      }
+      return;
+    }
+
+    String token = walk.tokens.get(index);
+    if (token.equals(".") || token.equals("..")) {
+      Path child = path.resolve(token);
+      if (Files.exists(child, LinkOption.NOFOLLOW_LINKS)) {
+        walk(walk,
+            child,
+            join(relativePath, token),
+            realPath.resolve(token),
+            Files.isRegularFile(child),
+            index + 1);
+      }
+      return;
+    }
+
+    Map<String, Entry> listing = getListing(path, walk.listedDirectories);
+    if (!Glob.hasMagic(token)) {
+      Entry entry = listing.get(token);
+      if (entry != null) {
+        walkChild(walk, path, relativePath, realPath, token, entry, index + 1);
+      }
+    } else if (token.equals(RECURSIVE_WILDCARD)) {
+      walk(walk, path, relativePath, realPath, isFile, index + 1);
+      for (Map.Entry<String, Entry> child : listing.entrySet()) {
+        if (walk.includeDotfiles || !child.getKey().startsWith(".")) {
+          walkChild(walk, path, relativePath, realPath, child.getKey(), child.getValue(), index);
+        }
+      }
+    } else {
+      for (Map.Entry<String, Entry> child : listing.entrySet()) {
+        if (Glob.matchesName(token, child.getKey(), walk.includeDotfiles)) {
+          walkChild(walk,
+              path,
+              relativePath,
+              realPath,
+              child.getKey(),
+              child.getValue(),
+              index + 1);
+        }
+      }
+    }
+  }
+
+  private void walkChild(
+      Walk walk,
+      Path parent,
+      @Nullable String parentRelativePath,
+      Path parentRealPath,
+      String name,
+      Entry entry,
+      int index) throws IOException {
+    Path child = parent.resolve(name);
+    Path childRealPath = parentRealPath.resolve(name);
+    if (entry.isSymlink) {
+      try {
+        childRealPath = child.toRealPath();
+      } catch (IOException e) {
+        // A dangling symlink matches nothing, but still counts as an entry, as it does in buck.py.
+        childRealPath = parentRealPath.resolve(name);
+      }
+    }
+    walk(walk, child, join(parentRelativePath, name), childRealPath, entry.isFile, index);
+  }
+
+  private static String join(@Nullable String parent, String name) {
+    return parent == null ? name : parent + '/' + name;
+  }
+
+  /**
+   * @param listedDirectories the real path of {@code directory} is added to this if it is listed.
+   * @return the entries of {@code directory} by name, or an empty listing if it is not a
+   *     directory.
+   */
+  private Map<String, Entry> getListing(Path directory, Set<Path> listedDirectories)
+      throws IOException {
+    Path realDirectory;
+    try {
+      realDirectory = directory.toRealPath();
+    } catch (NoSuchFileException e) {
+      return ImmutableSortedMap.of();
+    }
+
+    ImmutableSortedMap<String, Entry> listing = listings.get(realDirectory);
+    if (listing != null) {
+      listedDirectories.add(realDirectory);
+      return listing;
+    }
+
+    ImmutableSortedMap.Builder<String, Entry> builder = ImmutableSortedMap.naturalOrder();
+    try (DirectoryStream<Path> children = Files.newDirectoryStream(realDirectory)) {
+      for (Path child : children) {
+        builder.put(child.getFileName().toString(), Entry.of(child));
+      }
+    } catch (NotDirectoryException | NoSuchFileException e) {
+      return ImmutableSortedMap.of();
+    }
+    listing = builder.build();
+    listedDirectories.add(realDirectory);
+
+    // No events are posted for the paths that Buck ignores, so their listings could not be trusted
+    // later on.
+    if (isWatched(realDirectory)) {
+      listings.put(realDirectory, listing);
+    }
+    return listing;
+  }
+
+  private boolean isWatched(Path realPath) throws IOException {
+    if (realProjectRoot == null) {
+      realProjectRoot = projectRoot.toRealPath();
+    }
+    if (!realPath.startsWith(realProjectRoot)) {
+      return false;
+    }
+    Path relativePath = realProjectRoot.relativize(realPath);
+    for (Path ignorePath : ignorePaths) {
+      if (relativePath.startsWith(ignorePath)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param path relative to the project root.
+   * @return whether {@code path} is, or was when it was last listed, a directory. A path that does
+   *     not exist, and was never listed, may have been a directory.
+   */
+  public boolean mayBeDirectory(Path path) {
+    Path root = realProjectRoot;
+    Path absolutePath = (root == null ? projectRoot : root).resolve(path).normalize();
+    Path parent = absolutePath.getParent();
+    if (parent != null) {
+      Map<String, Entry> listing = listings.get(parent);
+      if (listing != null) {
+        Entry entry = listing.get(absolutePath.getFileName().toString());
+        if (entry != null) {
+          return entry.isDirectory;
+        }
+      }
+    }
+    return !Files.exists(absolutePath) || Files.isDirectory(absolutePath);
+  }
+
+  /**
+   * Called when file change events are posted to the file change EventBus. {@link Path}s contained
+   * within events must all be relative to the project root.
+   */
+  @Subscribe
+  public void onFileSystemChange(WatchEvent<?> event) {
+    if (!(event.context() instanceof Path)) {
+      // Non-path change event, likely an overflow due to many change events: invalidate everything.
+      invalidateAll();
+      return;
+    }
+    if (event.kind() != StandardWatchEventKinds.ENTRY_CREATE &&
+        event.kind() != StandardWatchEventKinds.ENTRY_DELETE) {
+      // A modified file is still in the same listings.
+      return;
+    }
+
+    Path root = realProjectRoot;
+    if (root == null) {
+      // Nothing has been listed yet.
+      return;
+    }
+    Path path = root.resolve((Path) event.context()).normalize();
+    Path parent = path.getParent();
+    if (parent != null) {
+      listings.remove(parent);
+    }
+    // A directory that was deleted, or deleted and created again, takes everything below with it.
+    Path fileName = path.getFileName();
+    if (fileName == null) {
+      invalidateAll();
+      return;
+    }
+    List<Path> stale = Lists.newArrayList();
+    for (Path directory : listings.subMap(path, true, getEndOfPathsBelow(path), false).keySet()) {
+      if (directory.startsWith(path)) {
+        stale.add(directory);
+      }
+    }
+    for (Path directory : stale) {
+      listings.remove(directory);
+    }
+  }
+
+  /**
+   * Paths are ordered by their names, so the paths below {@code path} all come before its sibling
+   * whose name has the character after the separator appended. A few siblings whose names start
+   * with the name of {@code path} may be in between.
+   * @return that sibling of {@code path}.
+   */
+  private static Path getEndOfPathsBelow(Path path) {
+    char afterSeparator = (char) (path.getFileSystem().getSeparator().charAt(0) + 1);
+    return path.resolveSibling(path.getFileName().toString() + afterSeparator);
+  }
+
+  public void invalidateAll() {
+    listings.clear();
+  }
+
+  @VisibleForTesting
+  int size() {
+    return listings.size();
+  }
+
+  /** The state of a walk for one of the includes of a {@link Glob}. */
+  private static class Walk {
+    private final List<String> tokens;
+    private final boolean includeDotfiles;
+    private final Set<String> results;
+    private final Set<Path> listedDirectories;
+    private final Set<String> visited;
+
+    private Walk(
+        List<String> tokens,
+        boolean includeDotfiles,
+        Set<String> results,
+        Set<Path> listedDirectories) {
+      this.tokens = Preconditions.checkNotNull(tokens);
+      this.includeDotfiles = includeDotfiles;
+      this.results = Preconditions.checkNotNull(results);
+      this.listedDirectories = Preconditions.checkNotNull(listedDirectories);
+      this.visited = Sets.newHashSet();
+    }
+  }
+
+  /** An entry of a listing: whether it is a file or a directory, following symlinks. */
+  private static class Entry {
+    private static final Entry OTHER = new Entry(false, false, false);
+    private static final Entry DANGLING_SYMLINK = new Entry(false, false, true);
+
+    private final boolean isFile;
+    private final boolean isDirectory;
+    private final boolean isSymlink;
+
+    private Entry(boolean isFile, boolean isDirectory, boolean isSymlink) {
+      this.isFile = isFile;
+      this.isDirectory = isDirectory;
+      this.isSymlink = isSymlink;
+    }
+
+    private static Entry of(Path path) throws IOException {
+      BasicFileAttributes attributes;
+      try {
+        attributes = Files.readAttributes(
+            path,
+            BasicFileAttributes.class,
+            LinkOption.NOFOLLOW_LINKS);
+      } catch (NoSuchFileException e) {
+        // Deleted since the directory was listed.
+        return OTHER;
+      }
+      if (!attributes.isSymbolicLink()) {
+        return new Entry(attributes.isRegularFile(), attributes.isDirectory(), false);
+      }
+      try {
+        attributes = Files.readAttributes(path, BasicFileAttributes.class);
+      } catch (IOException e) {
+        return DANGLING_SYMLINK;
+      }
+      return new Entry(attributes.isRegularFile(), attributes.isDirectory(), true);
+    }
+  }
+}
@@ -0,0 +1,287 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Pattern;
+
+/**
+ * The arguments of a call to {@code glob()} in a build file, along with the rules that buck.py
+ * uses to match paths against its patterns. Paths and patterns are split into elements at '/'.
+ * <ul>
+ *   <li>An element of a pattern without any of {@code *?[} must equal the element of the path.
+ *   <li>{@code **} matches zero or more elements.
+ *   <li>Any other element of a pattern is matched like {@code fnmatch} does.
+ *   <li>Names that start with a dot are only matched by {@code *}, {@code ?} and {@code **} if
+ *       {@code include_dotfiles} is set.
+ * </ul>
+ */
+public class Glob {
+
+  private static final String RECURSIVE_WILDCARD = "**";
+
+  private static final Splitter PATH_SPLITTER = Splitter.on('/');
+
+  /** Build files use few distinct patterns, so the compiled patterns are kept for good. */
+  private static final ConcurrentMap<String, Pattern> FNMATCH_PATTERNS = Maps.newConcurrentMap();
+
+  private final ImmutableList<ImmutableList<String>> includes;
+  private final ImmutableList<ImmutableList<String>> excludes;
+  private final boolean includeDotfiles;
+
+  /**
+   * @throws IllegalArgumentException if one of the {@code includes} is empty, starts or ends with
+   *     a slash, or contains consecutive slashes, as buck.py rejects those.
+   */
+  public Glob(Iterable<String> includes, Iterable<String> excludes, boolean includeDotfiles) {
+    this.includes = split(includes, /* isInclude */ true);
+    this.excludes = split(excludes, /* isInclude */ false);
+    this.includeDotfiles = includeDotfiles;
+  }
+
+  /**
+   * @param args the arguments of {@code glob()} as buck.py records them: {@code includes},
+   *     {@code excludes} and {@code include_dotfiles}.
+   */
+  @SuppressWarnings("unchecked")
+  public static Glob fromRawArgs(Map<String, Object> args) {
+    return new Glob(
+        (List<String>) Preconditions.checkNotNull(args.get("includes")),
+        (List<String>) Preconditions.checkNotNull(args.get("excludes")),
+        Boolean.TRUE.equals(args.get("include_dotfiles")));
+  }
+
+  /**
+   * @param metaRule the {@code __includes} meta rule of a build file.
+   * @return the globs that the build file evaluated, or absent if buck.py did not record them.
+   */
+  @SuppressWarnings("unchecked")
+  public static Optional<ImmutableList<Glob>> fromMetaRule(Map<String, Object> metaRule) {
+    Object globs = metaRule.get("__globs");
+    if (!(globs instanceof List)) {
+      return Optional.absent();
+    }
+    ImmutableList.Builder<Glob> builder = ImmutableList.builder();
+    for (Object args : (List<?>) globs) {
+      builder.add(fromRawArgs((Map<String, Object>) args));
+    }
+    return Optional.of(builder.build());
+  }
+
+  ImmutableList<ImmutableList<String>> getIncludes() {
+    return includes;
+  }
+
+  boolean isIncludeDotfiles() {
+    return includeDotfiles;
+  }
+
+  /**
+   * @return whether every path that this glob can match is below the directory it is evaluated in,
+   *     which is not the case for a pattern with a {@code ..} element.
+   */
+  public boolean isConfinedToBaseDirectory() {
+    for (List<String> include : includes) {
+      if (include.contains("..")) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * @param path a path relative to the directory that this glob is evaluated in.
+   * @param isDirectory whether {@code path} is, or may be, a directory, in which case a path below
+   *     it that would be matched counts as well.
+   * @return whether adding or removing {@code path} could change the result of this glob.
+   */
+  public boolean couldMatch(Path path, boolean isDirectory) {
+    List<String> chunks = Lists.newArrayList();
+    for (Path name : path) {
+      chunks.add(name.toString());
+    }
+    for (List<String> include : includes) {
+      // Excludes only apply to the paths that they match, not to those below them.
+      if (match(include, chunks, includeDotfiles, /* matchAncestors */ isDirectory) &&
+          (isDirectory || !isExcluded(chunks))) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /** @return whether {@code chunks}, the elements of a path, match one of the excludes. */
+  boolean isExcluded(List<String> chunks) {
+    for (List<String> exclude : excludes) {
+      if (match(exclude, chunks, includeDotfiles, /* matchAncestors */ false)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Matches the elements of a path against those of a pattern, as {@code glob_match} in buck.py
+   * does.
+   * @param matchAncestors if true, a path is also matched if a path below it would be.
+   */
+  static boolean match(
+      List<String> tokens,
+      List<String> chunks,
+      boolean includeDotfiles,
+      boolean matchAncestors) {
+    if (tokens.isEmpty()) {
+      return chunks.isEmpty();
+    }
+    String token = tokens.get(0);
+    List<String> nextTokens = tokens.subList(1, tokens.size());
+    if (chunks.isEmpty()) {
+      return matchAncestors ||
+          (token.equals(RECURSIVE_WILDCARD) &&
+              match(nextTokens, chunks, includeDotfiles, matchAncestors));
+    }
+    String chunk = chunks.get(0);
+    List<String> nextChunks = chunks.subList(1, chunks.size());
+
+    if (!hasMagic(token)) {
+      return token.equals(chunk) && match(nextTokens, nextChunks, includeDotfiles, matchAncestors);
+    } else if (token.equals(RECURSIVE_WILDCARD)) {
+      if (match(nextTokens, chunks, includeDotfiles, matchAncestors)) {
+        return true;
+      }
+      if (!includeDotfiles && chunk.startsWith(".")) {
+        return false;
+      }
+      return match(tokens, nextChunks, includeDotfiles, matchAncestors);
+    } else {
+      return matchesName(token, chunk, includeDotfiles) &&
+          match(nextTokens, nextChunks, includeDotfiles, matchAncestors);
+    }
+  }
+
+  /** @return whether the file {@code name} matches {@code token}, which has magic characters. */
+  static boolean matchesName(String token, String name, boolean includeDotfiles) {
+    if (!includeDotfiles && !token.startsWith(".") && name.startsWith(".")) {
+      return false;
+    }
+    Pattern pattern = FNMATCH_PATTERNS.get(token);
+    if (pattern == null) {
+      pattern = Pattern.compile(translate(token), Pattern.DOTALL);
+      FNMATCH_PATTERNS.put(token, pattern);
+    }
+    return pattern.matcher(name).matches();
+  }
+
+  static boolean hasMagic(String token) {
+    return token.indexOf('*') != -1 || token.indexOf('?') != -1 || token.indexOf('[') != -1;
+  }
+
+  /** Translates a shell pattern to a regular expression, as Python's fnmatch.translate does. */
+  private static String translate(String token) {
+    StringBuilder regex = new StringBuilder();
+    int i = 0;
+    int n = token.length();
+    while (i < n) {
+      char c = token.charAt(i++);
+      if (c == '*') {
+        regex.append(".*");
+      } else if (c == '?') {
+        regex.append('.');
+      } else if (c == '[') {
+        int j = i;
+        if (j < n && token.charAt(j) == '!') {
+          j++;
+        }
+        if (j < n && token.charAt(j) == ']') {
+          j++;
+        }
+        while (j < n && token.charAt(j) != ']') {
+          j++;
+        }
+        if (j >= n) {
+          regex.append("\\[");
+        } else {
+          String set = token.substring(i, j);
+          i = j + 1;
+          regex.append('[');
+          int start = 0;
+          if (set.charAt(0) == '!') {
+            regex.append('^');
+            start = 1;
+          } else if (set.charAt(0) == '^') {
+            regex.append("\\^");
+            start = 1;
+          }
+          for (char setChar : set.substring(start).toCharArray()) {
+            // Unlike Python, Java gives these a meaning inside a character class.
+            if (setChar == '\\' || setChar == '[' || setChar == '&') {
+              regex.append('\\');
+            }
+            regex.append(setChar);
+          }
+          regex.append(']');
+        }
+      } else {
+        regex.append(Pattern.quote(String.valueOf(c)));
+      }
+    }
+    return regex.toString();
+  }
+
+  private static ImmutableList<ImmutableList<String>> split(
+      Iterable<String> patterns,
+      boolean isInclude) {
+    ImmutableList.Builder<ImmutableList<String>> builder = ImmutableList.builder();
+    for (String pattern : patterns) {
+      ImmutableList<String> tokens = ImmutableList.copyOf(PATH_SPLITTER.split(pattern));
+      if (isInclude && tokens.contains("")) {
+        throw new IllegalArgumentException(
+            "Glob patterns cannot be empty, start or end with a slash, or contain consecutive " +
+            "slashes.");
+      }
+      builder.add(tokens);
+    }
+    return builder.build();
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof Glob)) {
+      return false;
+    }
+    Glob that = (Glob) obj;
+    return includes.equals(that.includes) &&
+        excludes.equals(that.excludes) &&
+        includeDotfiles == that.includeDotfiles;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(includes, excludes, includeDotfiles);
+  }
+}
@@ -0,0 +1,297 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static java.nio.charset.StandardCharsets.UTF_8;
+
+import com.facebook.buck.util.FileHashCache;
+import com.facebook.buck.util.MoreFiles;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Keeps the rules that buck.py read from each build file on disk, so that a new Buck process does
+ * not have to run buck.py again for the build files that have not changed since they were parsed.
+ * <p>
+ * The rules of a build file, including its meta rule, are stored in a file of their own along with
+ * a key. The key is a hash of the configuration of the buck.py process that produced the rules, of
+ * the contents of the build file and of every file listed by its {@code __includes} meta rule, as
+ * hashed by a {@link FileHashCache} so that a file that many build files include is read once, and
+ * of the result of each {@code glob()} listed by its {@code __globs} meta rule, evaluated from a
+ * {@link DirectoryListingCache}. The rules are only returned if the key computed from the files on
+ * disk now is the same.
+ * <p>
+ * Rules are not recorded if one of those files, or one of the directories that the globs listed,
+ * was modified within the last {@link #RACY_MODIFICATION_WINDOW_MILLIS} milliseconds, as a later
+ * change within the granularity of the file system's timestamps would go unnoticed.
+ * <p>
+ * The first time that an instance records rules, it prunes the entries that have not been accessed
+ * for {@link #MAX_ENTRY_AGE_MILLIS} milliseconds, and then the least recently accessed entries
+ * beyond the first {@link #MAX_ENTRIES}.
+ */
+public class PersistentBuildFileCache {
+
+  private static final int VERSION = 3;
+
+  @VisibleForTesting
+  static final long RACY_MODIFICATION_WINDOW_MILLIS = 2000;
+
+  private static final int MAX_ENTRIES = 50000;
+  private static final long MAX_ENTRY_AGE_MILLIS = TimeUnit.DAYS.toMillis(30);
+
+  private static final String INCLUDES_META_RULE = "__includes";
+
+  private final Path projectRoot;
+  private final Path cacheDirectory;
+  private final FileHashCache fileHashCache;
+  private final Gson gson;
+  private final AtomicBoolean isPruned;
+
+  /**
+   * @param cacheDirectory the directory, relative to the project root, that the rules are stored
+   *     in.
+   * @param fileHashCache hashes the files that build files include.
+   */
+  public PersistentBuildFileCache(
+      ProjectFilesystem projectFilesystem,
+      Path cacheDirectory,
+      FileHashCache fileHashCache) {
+    this.projectRoot = projectFilesystem.getRootPath().toAbsolutePath().normalize();
+    this.cacheDirectory = projectFilesystem.resolve(cacheDirectory);
+    this.fileHashCache = Preconditions.checkNotNull(fileHashCache);
+    // Nulls must be kept for the rules to read back exactly as buck.py printed them.
+    this.gson = new GsonBuilder().serializeNulls().create();
+    this.isPruned = new AtomicBoolean(false);
+  }
+
+  /**
+   * @param buildFile the absolute path of the build file.
+   * @param parserKey identifies the configuration of the buck.py process that would parse it.
+   * @param listings the listings that the globs of {@code buildFile} are evaluated from.
+   * @return the rules and meta rules recorded for {@code buildFile}, if neither it nor the files
+   *     that they were read from have changed since.
+   */
+  public Optional<List<Map<String, Object>>> get(
+      Path buildFile,
+      HashCode parserKey,
+      DirectoryListingCache listings) {
+    Path entryFile = getEntryFile(buildFile);
+    if (!Files.isRegularFile(entryFile)) {
+      return Optional.absent();
+    }
+
+    try (BufferedReader reader = Files.newBufferedReader(entryFile, UTF_8)) {
+      String recordedKey = reader.readLine();
+      List<Map<String, Object>> rules =
+          new BuildFileToJsonParser(reader, /* isServerMode */ true).nextRules();
+      Optional<HashCode> key =
+          computeKey(buildFile, parserKey, rules, listings, /* isForWrite */ false);
+      if (!key.isPresent() || !key.get().toString().equals(recordedKey)) {
+        return Optional.absent();
+      }
+      return Optional.of(rules);
+    } catch (IOException | RuntimeException e) {
+      // The cache is only an optimization: an entry that cannot be read is parsed again.
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * Records {@code rules}, which buck.py has just read from {@code buildFile}.
+   * @param rules the rules followed by the meta rules, as returned by
+   *     {@link ProjectBuildFileParser#getAllRulesAndMetaRules(Path)}.
+   * @param listings the listings that the globs of {@code buildFile} are evaluated from.
+   */
+  public void put(
+      Path buildFile,
+      HashCode parserKey,
+      List<Map<String, Object>> rules,
+      DirectoryListingCache listings) throws IOException {
+    Optional<HashCode> key =
+        computeKey(buildFile, parserKey, rules, listings, /* isForWrite */ true);
+    if (!key.isPresent()) {
+      return;
+    }
+    if (isPruned.compareAndSet(false, true)) {
+      prune(MAX_ENTRIES, MAX_ENTRY_AGE_MILLIS);
+    }
+
+    Files.createDirectories(cacheDirectory);
+    Path entryFile = getEntryFile(buildFile);
+    Path tempFile = Files.createTempFile(cacheDirectory,
+        entryFile.getFileName().toString(),
+        ".tmp");
+    try {
+      try (Writer writer = Files.newBufferedWriter(tempFile, UTF_8)) {
+        writer.write(key.get().toString());
+        writer.write('\n');
+        gson.toJson(rules, writer);
+      }
+      // Another process parsing the same build file writes the same rules, so either one may win.
+      Files.move(tempFile, entryFile,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      Files.deleteIfExists(tempFile);
+      throw e;
+    }
+  }
+
+  /**
+   * Deletes the entries that have not been accessed for {@code maxEntryAgeMillis}, and then the
+   * least recently accessed entries beyond the first {@code maxEntries}.
+   */
+  @VisibleForTesting
+  void prune(int maxEntries, long maxEntryAgeMillis) throws IOException {
+    File[] entryFiles = cacheDirectory.toFile().listFiles();
+    if (entryFiles == null) {
+      return;
+    }
+    MoreFiles.sortFilesByAccessTime(entryFiles);
+
+    long oldestAccessMillis = System.currentTimeMillis() - maxEntryAgeMillis;
+    int numEntries = 0;
+    for (File entryFile : entryFiles) {
+      if (entryFile.getName().endsWith(".tmp")) {
+        // Belongs to a put() that is still in progress.
+        continue;
+      }
+      numEntries++;
+      if (numEntries > maxEntries || getLastAccessMillis(entryFile) < oldestAccessMillis) {
+        Files.deleteIfExists(entryFile.toPath());
+      }
+    }
+  }
+
+  private static long getLastAccessMillis(File file) {
+    try {
+      return Files.readAttributes(file.toPath(), BasicFileAttributes.class)
+          .lastAccessTime()
+          .toMillis();
+    } catch (IOException e) {
+      // Like MoreFiles.sortFilesByAccessTime(), which is 0 if another process deleted the file.
+      return file.lastModified();
+    }
+  }
+
+  @VisibleForTesting
+  Path getEntryFile(Path buildFile) {
+    return cacheDirectory.resolve(
+        Hashing.sha1().hashString(buildFile.normalize().toString(), UTF_8).toString());
+  }
+
+  /**
+   * @param isForWrite whether the key is about to be recorded, in which case it is not computed if
+   *     one of the files that it depends on has been modified too recently.
+   * @return the key of {@code rules}, or absent if it cannot be computed.
+   */
+  private Optional<HashCode> computeKey(
+      Path buildFile,
+      HashCode parserKey,
+      List<Map<String, Object>> rules,
+      DirectoryListingCache listings,
+      boolean isForWrite) throws IOException {
+    if (rules.isEmpty()) {
+      return Optional.absent();
+    }
+    Map<String, Object> metaRule = rules.get(rules.size() - 1);
+    Object includes = metaRule.get(INCLUDES_META_RULE);
+    // Build files parsed by an older buck.py do not say which globs they evaluated.
+    Optional<ImmutableList<Glob>> globs = Glob.fromMetaRule(metaRule);
+    if (!(includes instanceof List) || !globs.isPresent()) {
+      return Optional.absent();
+    }
+
+    Hasher hasher = Hashing.sha1().newHasher()
+        .putInt(VERSION)
+        .putBytes(parserKey.asBytes())
+        .putString(buildFile.normalize().toString(), UTF_8);
+
+    // The head of the list is the build file itself.
+    for (Object include : (List<?>) includes) {
+      Path includeFile = Paths.get((String) include);
+      if (!Files.isRegularFile(includeFile) ||
+          (isForWrite && isRacy(Files.getLastModifiedTime(includeFile)))) {
+        return Optional.absent();
+      }
+      hasher.putString(includeFile.toString(), UTF_8);
+      hasher.putBytes(hashInclude(includeFile).asBytes());
+    }
+
+    // Only the directories that the globs walk are listed, and listings are shared by build files.
+    Path searchBase = buildFile.getParent();
+    Set<Path> listedDirectories = Sets.newHashSet();
+    for (Glob glob : globs.get()) {
+      Set<String> paths = listings.glob(searchBase, glob, listedDirectories);
+      hasher.putInt(paths.size());
+      for (String path : paths) {
+        hasher.putString(path, UTF_8);
+      }
+    }
+    if (isForWrite) {
+      // A directory is modified when an entry is added to or removed from it.
+      for (Path directory : listedDirectories) {
+        if (isRacy(Files.getLastModifiedTime(directory))) {
+          return Optional.absent();
+        }
+      }
+    }
+    return Optional.of(hasher.hash());
+  }
+
+  /**
+   * Files outside the project are not watched, so they are hashed every time.
+   */
+  private HashCode hashInclude(Path includeFile) throws IOException {
+    Path absoluteFile = includeFile.toAbsolutePath().normalize();
+    if (!absoluteFile.startsWith(projectRoot)) {
+      return com.google.common.io.Files.hash(includeFile.toFile(), Hashing.sha1());
+    }
+    // The hash cache is told of changes to files by their paths relative to the project root.
+    return fileHashCache.get(projectRoot.relativize(absoluteFile));
+  }
+
+  private static boolean isRacy(FileTime lastModifiedTime) {
+    return System.currentTimeMillis() - lastModifiedTime.toMillis() <
+        RACY_MODIFICATION_WINDOW_MILLIS;
+  }
+}
@@ -32,8 +32,12 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Throwables;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
 import com.google.common.io.CharStreams;
+import com.google.gson.Gson;
 
 import java.io.BufferedWriter;
 import java.io.File;
@@ -43,6 +47,7 @@ import java.io.InputStreamReader;
 import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
+import java.io.StringWriter;
 import java.io.Writer;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -68,11 +73,19 @@ public class ProjectBuildFileParser implements AutoCloseable {
   private static final String PATH_TO_BUCK_PY = System.getProperty("buck.path_to_buck_py",
       "src/com/facebook/buck/parser/buck.py");
 
+  /**
+   * Whether buck.py prints the rules in its compact binary format, read by
+   * {@link BuildFileToBinaryParser}. Setting {@code buck.build_file_output} to {@code json} falls
+   * back to JSON, which is slower but can be read by a person.
+   */
+  private static final boolean USE_BINARY_OUTPUT =
+      !"json".equals(System.getProperty("buck.build_file_output", "binary"));
+
   private Optional<Path> pathToBuckPy;
 
   private Process buckPyProcess;
 
-  private BuildFileToJsonParser buckPyStdoutParser;
+  private BuildFileOutputParser buckPyStdoutParser;
   private BufferedWriter buckPyStdinWriter;
 
   private final File projectRoot;
@@ -82,6 +95,11 @@ public class ProjectBuildFileParser implements AutoCloseable {
   private final String pythonInterpreter;
   private final EnumSet<Option> parseOptions;
   private final Console console;
+  private final Optional<PersistentBuildFileCache> buildFileCache;
+  private final Optional<DirectoryListingCache> directoryListingCache;
+
+  /** Identifies the configuration of buck.py in {@link #buildFileCache}, once it is computed. */
+  private Optional<HashCode> parserKey;
 
   private boolean isServerMode;
 
@@ -95,6 +113,33 @@ public class ProjectBuildFileParser implements AutoCloseable {
       ImmutableSet<Description<?>> descriptions,
       EnumSet<Option> parseOptions,
       Console console) {
+    this(projectFilesystem,
+        commonIncludes,
+        pythonInterpreter,
+        descriptions,
+        parseOptions,
+        console,
+        Optional.<PersistentBuildFileCache>absent(),
+        Optional.<DirectoryListingCache>absent());
+  }
+
+  /**
+   * @param buildFileCache if present, the rules of a build file are looked up in it before buck.py
+   *     is asked to parse the build file, and are recorded in it afterwards. The globs that the
+   *     rules depend on are evaluated from {@code directoryListingCache}, which must be present.
+   * @param directoryListingCache if present, and buck.py runs as a server with binary output,
+   *     buck.py asks for its {@code glob()}s to be evaluated from this cache rather than walking
+   *     the file tree itself.
+   */
+  protected ProjectBuildFileParser(
+      ProjectFilesystem projectFilesystem,
+      Iterable<String> commonIncludes,
+      String pythonInterpreter,
+      ImmutableSet<Description<?>> descriptions,
+      EnumSet<Option> parseOptions,
+      Console console,
+      Optional<PersistentBuildFileCache> buildFileCache,
+      Optional<DirectoryListingCache> directoryListingCache) {
     this.projectRoot = projectFilesystem.getProjectRoot();
     this.descriptions = Preconditions.checkNotNull(descriptions);
     this.ignorePaths = projectFilesystem.getIgnorePaths();
@@ -103,6 +148,11 @@ public class ProjectBuildFileParser implements AutoCloseable {
     this.parseOptions = parseOptions;
     this.pathToBuckPy = Optional.absent();
     this.console = Preconditions.checkNotNull(console);
+    this.buildFileCache = Preconditions.checkNotNull(buildFileCache);
+    this.directoryListingCache = Preconditions.checkNotNull(directoryListingCache);
+    Preconditions.checkArgument(!buildFileCache.isPresent() || directoryListingCache.isPresent(),
+        "A build file cache needs directory listings to evaluate globs from.");
+    this.parserKey = Optional.absent();
 
     // Default to server mode unless explicitly unset internally.
     setServerMode(true);
@@ -165,12 +215,57 @@ public class ProjectBuildFileParser implements AutoCloseable {
 
     buckPyStdinWriter = new BufferedWriter(new OutputStreamWriter(stdin));
 
-    Reader reader = new InputStreamReader(buckPyProcess.getInputStream(), Charsets.UTF_8);
-    buckPyStdoutParser = new BuildFileToJsonParser(reader, isServerMode);
+    if (USE_BINARY_OUTPUT) {
+      Optional<BuildFileToBinaryParser.GlobRequestHandler> globRequestHandler = Optional.absent();
+      if (isGlobServiceEnabled()) {
+        globRequestHandler = Optional.<BuildFileToBinaryParser.GlobRequestHandler>of(
+            new BuildFileToBinaryParser.GlobRequestHandler() {
+              @Override
+              public void handleGlobRequest(Map<String, Object> request) throws IOException {
+                answerGlobRequest(request);
+              }
+            });
+      }
+      buckPyStdoutParser = new BuildFileToBinaryParser(
+          buckPyProcess.getInputStream(),
+          isServerMode,
+          globRequestHandler);
+    } else {
+      Reader reader = new InputStreamReader(buckPyProcess.getInputStream(), Charsets.UTF_8);
+      buckPyStdoutParser = new BuildFileToJsonParser(reader, isServerMode);
+    }
+  }
+
+  /**
+   * buck.py can only wait for an answer to a glob between the build files that it is sent on
+   * stdin, and can only ask for one in its binary output.
+   */
+  private boolean isGlobServiceEnabled() {
+    return USE_BINARY_OUTPUT && isServerMode && directoryListingCache.isPresent();
+  }
+
+  /**
+   * Evaluates a {@code glob()} for buck.py, which waits for the sorted paths, or an error, on its
+   * stdin as a line of JSON.
+   */
+  private void answerGlobRequest(Map<String, Object> request) throws IOException {
+    Map<String, Object> response;
+    try {
+      Glob glob = Glob.fromRawArgs(request);
+      Path searchBase = Paths.get((String) Preconditions.checkNotNull(request.get("base")));
+      response = ImmutableMap.<String, Object>of(
+          "paths",
+          directoryListingCache.get().glob(searchBase, glob));
+    } catch (IllegalArgumentException | IOException e) {
+      response = ImmutableMap.<String, Object>of("error", String.valueOf(e.getMessage()));
+    }
+    buckPyStdinWriter.write(new Gson().toJson(response));
+    buckPyStdinWriter.newLine();
+    buckPyStdinWriter.flush();
   }
 
   private ImmutableList<String> buildArgs() throws IOException {
-    // Invoking buck.py and read JSON-formatted build rules from its stdout.
+    // Invoking buck.py and read the build rules from its stdout.
     ImmutableList.Builder<String> argBuilder = ImmutableList.builder();
 
     argBuilder.add(pythonInterpreter);
@@ -190,6 +285,14 @@ public class ProjectBuildFileParser implements AutoCloseable {
       argBuilder.add("--strip_none");
     }
 
+    if (USE_BINARY_OUTPUT) {
+      argBuilder.add("--binary");
+    }
+
+    if (isGlobServiceEnabled()) {
+      argBuilder.add("--glob_service");
+    }
+
     argBuilder.add("--project_root", projectRoot.getAbsolutePath());
 
     // Add the --include flags.
@@ -246,11 +349,50 @@ public class ProjectBuildFileParser implements AutoCloseable {
    */
   public List<Map<String, Object>> getAllRulesAndMetaRules(Path buildFile)
       throws BuildFileParseException {
+    List<Map<String, Object>> rules;
     try {
-      return getAllRulesInternal(Optional.of(buildFile));
+      if (buildFileCache.isPresent()) {
+        // A hit does not start buck.py at all.
+        Optional<List<Map<String, Object>>> cachedRules =
+            buildFileCache.get().get(buildFile, getParserKey(), directoryListingCache.get());
+        if (cachedRules.isPresent()) {
+          return cachedRules.get();
+        }
+      }
+      rules = getAllRulesInternal(Optional.of(buildFile));
     } catch (IOException e) {
       throw BuildFileParseException.createForBuildFileParseError(buildFile, e);
     }
+
+    if (buildFileCache.isPresent()) {
+      try {
+        buildFileCache.get().put(buildFile, getParserKey(), rules, directoryListingCache.get());
+      } catch (IOException e) {
+        console.printErrorText(
+            String.format("Failed to cache the rules of %s: %s", buildFile, e.getMessage()));
+      }
+    }
+    return rules;
+  }
+
+  /**
+   * @return a hash of everything besides the build files themselves that the output of buck.py
+   *     depends on: the generated buck.py and its arguments.
+   */
+  private synchronized HashCode getParserKey() throws IOException {
+    if (!parserKey.isPresent()) {
+      StringWriter buckPy = new StringWriter();
+      writeBuckPy(buckPy, descriptions);
+      parserKey = Optional.of(Hashing.sha1().newHasher()
+          .putString(buckPy.toString(), UTF_8)
+          .putString(pythonInterpreter, UTF_8)
+          .putString(projectRoot.getAbsolutePath(), UTF_8)
+          .putString(parseOptions.toString(), UTF_8)
+          .putString(commonIncludes.toString(), UTF_8)
+          .putString(ignorePaths.toString(), UTF_8)
+          .hash());
+    }
+    return parserKey.get();
   }
 
   @VisibleForTesting
@@ -344,28 +486,33 @@ public class ProjectBuildFileParser implements AutoCloseable {
     Files.createDirectories(buckDotPy.getParent());
 
     try (Writer out = Files.newBufferedWriter(buckDotPy, UTF_8)) {
-      Path original = Paths.get(PATH_TO_BUCK_PY);
-      CharStreams.copy(Files.newBufferedReader(original, UTF_8), out);
-      out.write("\n\n");
-
-      // The base path doesn't matter, but should be set.
-      ConstructorArgMarshaller inspector = new ConstructorArgMarshaller(projectRoot.toPath());
-      BuckPyFunction function = new BuckPyFunction(inspector);
-      for (Description<?> description : descriptions) {
-        out.write(function.toPythonFunction(
-            description.getBuildRuleType(),
-            description.createUnpopulatedConstructorArg()));
-        out.write('\n');
-      }
-
-      out.write(Joiner.on("\n").join(
-          "if __name__ == '__main__':",
-          "  try:",
-          "    main()",
-          "  except KeyboardInterrupt:",
-          "    print >> sys.stderr, 'Killed by User'",
-          ""));
+      writeBuckPy(out, descriptions);
     }
     pathToBuckPy = Optional.of(buckDotPy.normalize());
   }
+
+  private void writeBuckPy(Writer out, ImmutableSet<Description<?>> descriptions)
+      throws IOException {
+    Path original = Paths.get(PATH_TO_BUCK_PY);
+    CharStreams.copy(Files.newBufferedReader(original, UTF_8), out);
+    out.write("\n\n");
+
+    // The base path doesn't matter, but should be set.
+    ConstructorArgMarshaller inspector = new ConstructorArgMarshaller(projectRoot.toPath());
+    BuckPyFunction function = new BuckPyFunction(inspector);
+    for (Description<?> description : descriptions) {
+      out.write(function.toPythonFunction(
+          description.getBuildRuleType(),
+          description.createUnpopulatedConstructorArg()));
+      out.write('\n');
+    }
+
+    out.write(Joiner.on("\n").join(
+        "if __name__ == '__main__':",
+        "  try:",
+        "    main()",
+        "  except KeyboardInterrupt:",
+        "    print >> sys.stderr, 'Killed by User'",
+        ""));
+  }
 }
@@ -0,0 +1,160 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.facebook.buck.util.Console;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Queues;
+
+import java.nio.file.Path;
+import java.util.Deque;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A pool of up to a fixed number of {@link ProjectBuildFileParser}s, each of which drives its own
+ * buck.py process, so that several build files can be parsed at once. Parsers are created as they
+ * are needed, and each one stays warm for the life of the pool: its interpreter is started and the
+ * common includes are evaluated only once, however many build files it goes on to parse.
+ * <p>
+ * {@link #getAllRulesAndMetaRules(Path)} may be called from any number of threads. Parsers that are
+ * busy when the pool is closed are closed as soon as they finish their build file.
+ */
+public class ProjectBuildFileParserPool implements AutoCloseable {
+
+  private final ProjectBuildFileParserFactory factory;
+  private final ImmutableList<String> commonIncludes;
+  private final EnumSet<ProjectBuildFileParser.Option> parseOptions;
+  private final Console console;
+  private final int maxParsers;
+
+  /** Parsers that are not parsing a build file at the moment. Guarded by {@code this}. */
+  private final Deque<ProjectBuildFileParser> idleParsers;
+
+  /** The number of parsers that are alive, idle or not. Guarded by {@code this}. */
+  private int numParsers;
+  private boolean isClosed;
+
+  public ProjectBuildFileParserPool(
+      ProjectBuildFileParserFactory factory,
+      Iterable<String> commonIncludes,
+      EnumSet<ProjectBuildFileParser.Option> parseOptions,
+      Console console,
+      int maxParsers) {
+    Preconditions.checkArgument(maxParsers > 0, "A pool needs at least one parser.");
+    this.factory = Preconditions.checkNotNull(factory);
+    this.commonIncludes = ImmutableList.copyOf(commonIncludes);
+    this.parseOptions = Preconditions.checkNotNull(parseOptions);
+    this.console = Preconditions.checkNotNull(console);
+    this.maxParsers = maxParsers;
+    this.idleParsers = Queues.newArrayDeque();
+  }
+
+  /**
+   * Parses {@code buildFile} with an idle parser, starting a new one if all of them are busy and
+   * there is room for another, or waiting for one to become idle otherwise.
+   *
+   * @see ProjectBuildFileParser#getAllRulesAndMetaRules(Path)
+   */
+  public List<Map<String, Object>> getAllRulesAndMetaRules(Path buildFile)
+      throws BuildFileParseException, InterruptedException {
+    ProjectBuildFileParser parser = acquireParser();
+    List<Map<String, Object>> rules;
+    try {
+      rules = parser.getAllRulesAndMetaRules(buildFile);
+    } catch (BuildFileParseException | RuntimeException e) {
+      // The parser may be part way through its output for the build file, so it cannot be trusted
+      // with another one.
+      discardParser(parser);
+      throw e;
+    }
+    releaseParser(parser);
+    return rules;
+  }
+
+  private synchronized ProjectBuildFileParser acquireParser() throws InterruptedException {
+    while (true) {
+      Preconditions.checkState(!isClosed);
+      if (!idleParsers.isEmpty()) {
+        return idleParsers.removeLast();
+      }
+      if (numParsers < maxParsers) {
+        numParsers++;
+        return factory.createParser(commonIncludes, parseOptions, console);
+      }
+      wait();
+    }
+  }
+
+  private void releaseParser(ProjectBuildFileParser parser) throws BuildFileParseException {
+    synchronized (this) {
+      if (!isClosed) {
+        idleParsers.addLast(parser);
+        notifyAll();
+        return;
+      }
+    }
+    // The pool was closed while this parser was busy, so it has to be closed on its own.
+    parser.close();
+  }
+
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  private void discardParser(ProjectBuildFileParser parser) {
+    synchronized (this) {
+      // Another parser may be started in its place.
+      numParsers--;
+      notifyAll();
+    }
+    try {
+      parser.close();
+    } catch (BuildFileParseException e) {
+      // The build file that broke the parser is reported instead.
+    }
+  }
+
+  /**
+   * Closes every parser in the pool. This must only be called once no more build files are being
+   * parsed.
+   *
+   * @throws BuildFileParseException if any of the parsers did not exit cleanly.
+   */
+  @Override
+  public void close() throws BuildFileParseException {
+    ImmutableList<ProjectBuildFileParser> parsers;
+    synchronized (this) {
+      isClosed = true;
+      parsers = ImmutableList.copyOf(idleParsers);
+      idleParsers.clear();
+    }
+
+    BuildFileParseException firstException = null;
+    for (ProjectBuildFileParser parser : parsers) {
+      try {
+        parser.close();
+      } catch (BuildFileParseException e) {
+        if (firstException == null) {
+          firstException = e;
+        }
+      }
+    }
+    if (firstException != null) {
+      throw firstException;
+    }
+  }
+}
@@ -24,10 +24,14 @@ import com.fasterxml.jackson.annotation.JsonProperty;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+import com.google.common.collect.MapMaker;
 
 import java.io.File;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.util.concurrent.ConcurrentMap;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
@@ -41,10 +45,21 @@ public final class BuildTarget implements Comparable<BuildTarget>, HasBuildTarge
 
   private static final Pattern VALID_FLAVOR_PATTERN = Pattern.compile("[-a-zA-Z_]+");
 
+  /** Every target in a package has the same base name, so interned targets share one copy. */
+  private static final Interner<String> BASE_NAMES = Interners.newWeakInterner();
+
+  /**
+   * The canonical instances returned by {@link #intern()}, by fully qualified name. They are only
+   * held onto for as long as something else refers to them.
+   */
+  private static final ConcurrentMap<String, BuildTarget> INTERNED =
+      new MapMaker().weakValues().makeMap();
+
   private final String baseName;
   private final String shortName;
   private final Optional<Flavor> flavor;
   private final String fullyQualifiedName;
+  private final boolean isInterned;
 
   public BuildTarget(String baseName, String shortName) {
     this(baseName, shortName, Optional.<Flavor>absent());
@@ -93,6 +108,38 @@ public final class BuildTarget implements Comparable<BuildTarget>, HasBuildTarge
     this.flavor = flavor;
     this.fullyQualifiedName =
         baseName + ":" + shortName + (flavor.isPresent() ? "#" + flavor.get() : "");
+    this.isInterned = false;
+  }
+
+  /** Creates the canonical instance for {@code target}. */
+  private BuildTarget(BuildTarget target) {
+    this.baseName = BASE_NAMES.intern(target.baseName);
+    this.shortName = target.shortName;
+    this.flavor = target.flavor;
+    this.fullyQualifiedName = target.fullyQualifiedName;
+    this.isInterned = true;
+  }
+
+  /**
+   * A daemon holds onto every target of the project, and most of them are referred to from many
+   * places, such as the deps of other rules, each of which is parsed into a target of its own.
+   * Interning them means that only one instance is kept for each, and that two interned targets
+   * can be compared by identity.
+   * @return the canonical instance that is equal to this target.
+   */
+  public BuildTarget intern() {
+    if (isInterned) {
+      return this;
+    }
+    BuildTarget interned = INTERNED.get(fullyQualifiedName);
+    if (interned == null) {
+      BuildTarget canonical = new BuildTarget(this);
+      interned = INTERNED.putIfAbsent(fullyQualifiedName, canonical);
+      if (interned == null) {
+        interned = canonical;
+      }
+    }
+    return interned;
   }
 
   /**
@@ -208,10 +255,17 @@ public final class BuildTarget implements Comparable<BuildTarget>, HasBuildTarge
 
   @Override
   public boolean equals(Object o) {
+    if (this == o) {
+      return true;
+    }
     if (!(o instanceof BuildTarget)) {
       return false;
     }
     BuildTarget that = (BuildTarget) o;
+    // There is only one interned instance of each target.
+    if (this.isInterned && that.isInterned) {
+      return false;
+    }
     return this.fullyQualifiedName.equals(that.fullyQualifiedName);
   }
 
@@ -229,6 +283,9 @@ public final class BuildTarget implements Comparable<BuildTarget>, HasBuildTarge
   @Override
   public int compareTo(BuildTarget target) {
     Preconditions.checkNotNull(target);
+    if (this == target) {
+      return 0;
+    }
     return getFullyQualifiedName().compareTo(target.getFullyQualifiedName());
   }
 
@@ -82,6 +82,6 @@ public class BuildTargets {
         "Cannot add flavor %s to %s.",
         flavor,
         buildTarget);
-    return new BuildTarget(buildTarget.getBaseName(), buildTarget.getShortName(), flavor);
+    return new BuildTarget(buildTarget.getBaseName(), buildTarget.getShortName(), flavor).intern();
   }
 }
@@ -116,6 +116,6 @@ public class BuildTargetParser {
       }
     }
 
-    return new BuildTarget(baseName, shortName);
+    return new BuildTarget(baseName, shortName).intern();
   }
 }
@@ -16,6 +16,10 @@
 
 package com.facebook.buck.parser;
 
+import static com.facebook.buck.util.concurrent.MoreExecutors.newMultiThreadExecutor;
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
+import static com.google.common.util.concurrent.MoreExecutors.sameThreadExecutor;
+
 import com.facebook.buck.event.AbstractBuckEvent;
 import com.facebook.buck.event.BuckEvent;
 import com.facebook.buck.event.BuckEventBus;
@@ -23,8 +27,12 @@ import com.facebook.buck.graph.AbstractAcyclicDepthFirstPostOrderTraversal;
 import com.facebook.buck.graph.MutableDirectedGraph;
 import com.facebook.buck.json.BuildFileParseException;
 import com.facebook.buck.json.DefaultProjectBuildFileParserFactory;
+import com.facebook.buck.json.DirectoryListingCache;
+import com.facebook.buck.json.Glob;
+import com.facebook.buck.json.PersistentBuildFileCache;
 import com.facebook.buck.json.ProjectBuildFileParser;
 import com.facebook.buck.json.ProjectBuildFileParserFactory;
+import com.facebook.buck.json.ProjectBuildFileParserPool;
 import com.facebook.buck.model.BuildFileTree;
 import com.facebook.buck.model.BuildId;
 import com.facebook.buck.model.BuildTarget;
@@ -40,6 +48,7 @@ import com.facebook.buck.rules.BuildRuleType;
 import com.facebook.buck.rules.DependencyGraph;
 import com.facebook.buck.rules.KnownBuildRuleTypes;
 import com.facebook.buck.rules.RuleKeyBuilderFactory;
+import com.facebook.buck.rules.RuleKeyCache;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.Console;
 import com.facebook.buck.util.HumanReadableException;
@@ -49,27 +58,44 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Predicate;
+import com.google.common.base.Throwables;
 import com.google.common.collect.ArrayListMultimap;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.Iterators;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.Lists;
 import com.google.common.collect.Maps;
+import com.google.common.collect.Ordering;
+import com.google.common.collect.Queues;
+import com.google.common.collect.SetMultimap;
 import com.google.common.collect.Sets;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.io.InputSupplier;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileSystemLoopException;
+import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
 import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Deque;
 import java.util.EnumSet;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
 import java.util.regex.Pattern;
 
 import javax.annotation.Nullable;
@@ -79,7 +105,9 @@ import javax.annotation.Nullable;
  * {@link DependencyGraph} based on a set of targets.  Also exposes some low-level facilities to
  * parse individual build files. Caches build rules to minimise the number of calls to python and
  * processes filesystem WatchEvents to invalidate the cache as files change. Expected to be used
- * from a single thread, so methods are not synchronized or thread safe.
+ * from a single thread, so methods are not synchronized or thread safe. When every build file in
+ * the project is parsed, the build files are evaluated by a pool of buck.py processes at once, but
+ * their rules are still added to the cache from the calling thread.
  */
 public class Parser {
 
@@ -117,6 +145,15 @@ public class Parser {
   private final KnownBuildRuleTypes buildRuleTypes;
   private final ProjectBuildFileParserFactory buildFileParserFactory;
   private final RuleKeyBuilderFactory ruleKeyBuilderFactory;
+
+  /** The number of buck.py processes used to parse all of the build files in the project. */
+  private final int numParserThreads;
+
+  /**
+   * Remembers the keys of the rules created from {@link #knownBuildTargets}, which are reused for
+   * as long as the {@link BuildRuleBuilder} that a rule was created from is.
+   */
+  private final RuleKeyCache ruleKeyCache;
   private Console console;
 
   /**
@@ -132,6 +169,27 @@ public class Parser {
    */
   private final ListMultimap<Path, Path> buildFileDependents;
 
+  /**
+   * The {@code glob()}s evaluated by each build file, as recorded in its meta rule, so that adding
+   * or removing a file only invalidates the build files with a glob that could match it.
+   */
+  private final Map<Path, ImmutableList<Glob>> buildFileGlobs;
+
+  /**
+   * The build files in {@link #buildFileGlobs} by their directory, as a glob that is confined to
+   * its base directory can only match a path if its build file is in one of the path's ancestors.
+   */
+  private final SetMultimap<Path, Path> globbingBuildFilesByDirectory;
+
+  /** The build files in {@link #buildFileGlobs} with a glob that can match paths anywhere. */
+  private final Set<Path> buildFilesWithUnconfinedGlobs;
+
+  /**
+   * The directory listings that the {@code glob()}s of all of the buck.py processes are evaluated
+   * from. They are kept up to date by the file change events that this parser receives.
+   */
+  private final DirectoryListingCache directoryListingCache;
+
   /**
    * A BuckEvent used to record the parse start time, which should include the WatchEvent
    * processing that occurs before the BuildTargets required to build a full ParseStart event are
@@ -207,7 +265,29 @@ public class Parser {
       Console console,
       String pythonInterpreter,
       ImmutableSet<Pattern> tempFilePatterns,
-      RuleKeyBuilderFactory ruleKeyBuilderFactory) {
+      RuleKeyBuilderFactory ruleKeyBuilderFactory,
+      int numParserThreads,
+      Optional<PersistentBuildFileCache> buildFileCache) {
+    this(projectFilesystem,
+        buildRuleTypes,
+        console,
+        pythonInterpreter,
+        tempFilePatterns,
+        ruleKeyBuilderFactory,
+        numParserThreads,
+        buildFileCache,
+        new DirectoryListingCache(projectFilesystem));
+  }
+
+  private Parser(final ProjectFilesystem projectFilesystem,
+      KnownBuildRuleTypes buildRuleTypes,
+      Console console,
+      String pythonInterpreter,
+      ImmutableSet<Pattern> tempFilePatterns,
+      RuleKeyBuilderFactory ruleKeyBuilderFactory,
+      int numParserThreads,
+      Optional<PersistentBuildFileCache> buildFileCache,
+      DirectoryListingCache directoryListingCache) {
     this(projectFilesystem,
         buildRuleTypes,
         console,
@@ -223,9 +303,13 @@ public class Parser {
         new DefaultProjectBuildFileParserFactory(
             projectFilesystem,
             pythonInterpreter,
-            buildRuleTypes.getAllDescriptions()),
+            buildRuleTypes.getAllDescriptions(),
+            buildFileCache,
+            Optional.of(directoryListingCache)),
         tempFilePatterns,
-        ruleKeyBuilderFactory);
+        ruleKeyBuilderFactory,
+        numParserThreads,
+        directoryListingCache);
   }
 
   /**
@@ -241,7 +325,38 @@ public class Parser {
          Map<BuildTarget, BuildRuleBuilder<?>> knownBuildTargets,
          ProjectBuildFileParserFactory buildFileParserFactory,
          ImmutableSet<Pattern> tempFilePatterns,
-         RuleKeyBuilderFactory ruleKeyBuilderFactory) {
+         RuleKeyBuilderFactory ruleKeyBuilderFactory,
+         int numParserThreads) {
+    this(projectFilesystem,
+        buildRuleTypes,
+        console,
+        buildFileTreeSupplier,
+        buildTargetParser,
+        knownBuildTargets,
+        buildFileParserFactory,
+        tempFilePatterns,
+        ruleKeyBuilderFactory,
+        numParserThreads,
+        new DirectoryListingCache(projectFilesystem));
+  }
+
+  /**
+   * @param directoryListingCache the listings that {@code buildFileParserFactory} evaluates globs
+   *     from, if it does, which this parser keeps up to date.
+   */
+  @VisibleForTesting
+  Parser(ProjectFilesystem projectFilesystem,
+         KnownBuildRuleTypes buildRuleTypes,
+         Console console,
+         InputSupplier<BuildFileTree> buildFileTreeSupplier,
+         BuildTargetParser buildTargetParser,
+         Map<BuildTarget, BuildRuleBuilder<?>> knownBuildTargets,
+         ProjectBuildFileParserFactory buildFileParserFactory,
+         ImmutableSet<Pattern> tempFilePatterns,
+         RuleKeyBuilderFactory ruleKeyBuilderFactory,
+         int numParserThreads,
+         DirectoryListingCache directoryListingCache) {
+    Preconditions.checkArgument(numParserThreads > 0);
     this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
     this.buildRuleTypes = Preconditions.checkNotNull(buildRuleTypes);
     this.console = Preconditions.checkNotNull(console);
@@ -251,16 +366,30 @@ public class Parser {
     this.buildTargetParser = Preconditions.checkNotNull(buildTargetParser);
     this.buildFileParserFactory = Preconditions.checkNotNull(buildFileParserFactory);
     this.ruleKeyBuilderFactory = Preconditions.checkNotNull(ruleKeyBuilderFactory);
+    this.ruleKeyCache = new RuleKeyCache();
     this.parsedBuildFiles = ArrayListMultimap.create();
     this.targetsToFile = Maps.newHashMap();
     this.buildFileDependents = ArrayListMultimap.create();
+    this.buildFileGlobs = Maps.newHashMap();
+    this.globbingBuildFilesByDirectory = HashMultimap.create();
+    this.buildFilesWithUnconfinedGlobs = Sets.newHashSet();
+    this.directoryListingCache = Preconditions.checkNotNull(directoryListingCache);
     this.tempFilePatterns = tempFilePatterns;
+    this.numParserThreads = numParserThreads;
   }
 
   public BuildTargetParser getBuildTargetParser() {
     return buildTargetParser;
   }
 
+  /**
+   * @return the cache of the keys of the rules created by this parser. Like the parser itself, it
+   *     must be registered with the file change EventBus if it is reused between commands.
+   */
+  public RuleKeyCache getRuleKeyCache() {
+    return ruleKeyCache;
+  }
+
   public File getProjectRoot() {
     return projectFilesystem.getProjectRoot();
   }
@@ -313,6 +442,10 @@ public class Parser {
     }
     parsedBuildFiles.clear();
     knownBuildTargets.clear();
+    buildFileDependents.clear();
+    buildFileGlobs.clear();
+    globbingBuildFilesByDirectory.clear();
+    buildFilesWithUnconfinedGlobs.clear();
     allBuildFilesParsed = false;
   }
 
@@ -337,6 +470,10 @@ public class Parser {
                  EnumSet.of(ProjectBuildFileParser.Option.STRIP_NULL),
                  console)) {
       if (!isCacheComplete(defaultIncludes)) {
+        if (numParserThreads > 1) {
+          loadBuildFilesInParallel(buildTargets, defaultIncludes);
+        }
+
         Set<File> buildTargetFiles = Sets.newHashSet();
         for (BuildTarget buildTarget : buildTargets) {
           File buildFile = buildTarget.getBuildFile(projectFilesystem);
@@ -354,6 +491,111 @@ public class Parser {
     }
   }
 
+  /**
+   * Parses the build files of {@code buildTargets} and of their transitive deps ahead of
+   * {@link #findAllTransitiveDependencies}, with a {@link ProjectBuildFileParserPool} of
+   * {@link #numParserThreads} buck.py processes. As soon as the rules of a build file have been
+   * added to the cache, the build files of their deps are scheduled to be parsed, so one slow build
+   * file only holds up the build files that are only reachable through it.
+   * <p>
+   * This only populates {@link #knownBuildTargets}: the graph is still assembled by the traversal,
+   * once every build file has been parsed, so cycles are reported as before. A build file that
+   * cannot be found or parsed here is left for the traversal to parse, which reports the error in
+   * the usual way.
+   */
+  private void loadBuildFilesInParallel(
+      Iterable<BuildTarget> buildTargets,
+      Iterable<String> defaultIncludes)
+      throws BuildFileParseException, BuildTargetException, IOException {
+    ListeningExecutorService executorService = listeningDecorator(
+        newMultiThreadExecutor(getClass().getSimpleName(), numParserThreads));
+    try (final ProjectBuildFileParserPool parserPool = new ProjectBuildFileParserPool(
+             buildFileParserFactory,
+             defaultIncludes,
+             EnumSet.of(ProjectBuildFileParser.Option.STRIP_NULL),
+             console,
+             numParserThreads)) {
+      final BlockingQueue<ParsedBuildFile> parsedQueue = Queues.newLinkedBlockingQueue();
+      ListMultimap<Path, BuildTarget> targetsByPendingBuildFile = ArrayListMultimap.create();
+      Set<BuildTarget> visitedTargets = Sets.newHashSet();
+      Deque<BuildTarget> targetsToVisit = Queues.newArrayDeque(buildTargets);
+
+      while (true) {
+        while (!targetsToVisit.isEmpty()) {
+          BuildTarget target = targetsToVisit.removeFirst();
+          BuildRuleBuilder<?> buildRuleBuilder = knownBuildTargets.get(target);
+          if (buildRuleBuilder != null) {
+            if (visitedTargets.add(target)) {
+              targetsToVisit.addAll(buildRuleBuilder.getDeps());
+            }
+            continue;
+          }
+
+          final Path buildFile;
+          try {
+            buildFile = normalize(target.getBuildFile(projectFilesystem).toPath());
+          } catch (BuildTarget.MissingBuildFileException e) {
+            continue;
+          }
+          if (parsedBuildFiles.containsKey(buildFile)) {
+            // The target is missing from its build file, which the traversal will report.
+            continue;
+          }
+          boolean isPending = targetsByPendingBuildFile.containsKey(buildFile);
+          targetsByPendingBuildFile.put(buildFile, target);
+          if (!isPending) {
+            if (console.getVerbosity().shouldPrintCommand()) {
+              console.getStdErr().printf("Parsing %s file: %s\n",
+                  BuckConstant.BUILD_RULES_FILE_NAME,
+                  buildFile);
+            }
+            final ListenableFuture<List<Map<String, Object>>> rules = executorService.submit(
+                new Callable<List<Map<String, Object>>>() {
+                  @Override
+                  public List<Map<String, Object>> call()
+                      throws BuildFileParseException, InterruptedException {
+                    return parserPool.getAllRulesAndMetaRules(buildFile);
+                  }
+                });
+            rules.addListener(new Runnable() {
+              @Override
+              public void run() {
+                parsedQueue.add(new ParsedBuildFile(buildFile, rules));
+              }
+            }, sameThreadExecutor());
+          }
+        }
+
+        if (targetsByPendingBuildFile.isEmpty()) {
+          break;
+        }
+
+        // Rules are added to the cache on this thread only, as each build file is parsed.
+        ParsedBuildFile parsed = Uninterruptibles.takeUninterruptibly(parsedQueue);
+        List<BuildTarget> waitingTargets = targetsByPendingBuildFile.removeAll(parsed.buildFile);
+        try {
+          parseRawRulesInternal(Uninterruptibles.getUninterruptibly(parsed.rules));
+        } catch (ExecutionException e) {
+          continue;
+        }
+        targetsToVisit.addAll(waitingTargets);
+      }
+    } finally {
+      executorService.shutdownNow();
+    }
+  }
+
+  /** A build file whose rules have been read by buck.py, or that failed to be read. */
+  private static class ParsedBuildFile {
+    private final Path buildFile;
+    private final ListenableFuture<List<Map<String, Object>>> rules;
+
+    public ParsedBuildFile(Path buildFile, ListenableFuture<List<Map<String, Object>>> rules) {
+      this.buildFile = buildFile;
+      this.rules = rules;
+    }
+  }
+
   @VisibleForTesting
   DependencyGraph onlyUseThisWhenTestingToFindAllTransitiveDependencies(
       Iterable<BuildTarget> toExplore,
@@ -416,6 +658,7 @@ public class Parser {
           protected void onNodeExplored(BuildTarget buildTarget) {
             BuildRuleBuilder<?> builderForTarget = knownBuildTargets.get(buildTarget);
             BuildRule buildRule = ruleResolver.buildAndAddToIndex(builderForTarget);
+            ruleKeyCache.recordDefinition(buildRule, builderForTarget);
 
             // If the rule has any flavored deps, then add the appropriate edges to the graph.
             for (BuildRule dep : buildRule.getDeps()) {
@@ -635,6 +878,19 @@ public class Parser {
     for (String fileName : fileNames) {
       buildFileDependents.put(normalize(new File(fileName).toPath()), dependent);
     }
+
+    Optional<ImmutableList<Glob>> globs = Glob.fromMetaRule(map);
+    if (globs.isPresent()) {
+      buildFileGlobs.put(dependent, globs.get());
+      globbingBuildFilesByDirectory.put(dependent.getParent(), dependent);
+      buildFilesWithUnconfinedGlobs.remove(dependent);
+      for (Glob glob : globs.get()) {
+        if (!glob.isConfinedToBaseDirectory()) {
+          buildFilesWithUnconfinedGlobs.add(dependent);
+          break;
+        }
+      }
+    }
     return true;
   }
 
@@ -710,7 +966,7 @@ public class Parser {
   private BuildTarget parseBuildTargetFromRawRule(Map<String, Object> map) {
     String basePath = (String) map.get("buck.base_path");
     String name = (String) map.get("name");
-    return new BuildTarget("//" + basePath, name);
+    return new BuildTarget("//" + basePath, name).intern();
   }
 
   /**
@@ -735,19 +991,117 @@ public class Parser {
           projectFilesystem.getProjectRoot(), filesystem.getProjectRoot()));
     }
     if (!isCacheComplete(includes)) {
-      knownBuildTargets.clear();
-      parsedBuildFiles.clear();
-      parseRawRulesInternal(
-          ProjectBuildFileParser.getAllRulesInProject(
-              buildFileParserFactory,
-              includes,
-              console));
+      // Once some build files are cached, only the others have to be parsed, which one buck.py
+      // process cannot be asked to do when it parses the whole project.
+      if (numParserThreads == 1 && buildFileDependents.isEmpty()) {
+        knownBuildTargets.clear();
+        parsedBuildFiles.clear();
+        parseRawRulesInternal(
+            ProjectBuildFileParser.getAllRulesInProject(
+                buildFileParserFactory,
+                includes,
+                console));
+      } else {
+        parseAllBuildFilesInParallel(includes);
+      }
       allBuildFilesParsed = true;
     }
     return filterTargets(filter);
   }
 
 
+  /**
+   * Evaluates every build file in the project that is not cached already with a
+   * {@link ProjectBuildFileParserPool} of {@link #numParserThreads} buck.py processes. The rules of
+   * each build file are added to the cache in the order of the build files' paths, as a single
+   * buck.py process would add them, so that errors such as duplicate definitions are reported the
+   * same way whatever the timing.
+   */
+  private void parseAllBuildFilesInParallel(Iterable<String> includes)
+      throws BuildFileParseException, BuildTargetException, IOException {
+    List<Path> buildFiles = Lists.newArrayList();
+    for (Path buildFile : findAllBuildFiles()) {
+      if (!isBuildFileParsed(buildFile)) {
+        buildFiles.add(buildFile);
+      }
+    }
+    if (buildFiles.isEmpty()) {
+      return;
+    }
+    ListeningExecutorService executorService = listeningDecorator(
+        newMultiThreadExecutor(getClass().getSimpleName(), numParserThreads));
+    try (final ProjectBuildFileParserPool parserPool = new ProjectBuildFileParserPool(
+             buildFileParserFactory,
+             includes,
+             EnumSet.of(ProjectBuildFileParser.Option.STRIP_NULL),
+             console,
+             numParserThreads)) {
+      List<ListenableFuture<List<Map<String, Object>>>> rules = Lists.newArrayList();
+      for (final Path buildFile : buildFiles) {
+        rules.add(executorService.submit(new Callable<List<Map<String, Object>>>() {
+          @Override
+          public List<Map<String, Object>> call()
+              throws BuildFileParseException, InterruptedException {
+            return parserPool.getAllRulesAndMetaRules(buildFile);
+          }
+        }));
+      }
+
+      for (ListenableFuture<List<Map<String, Object>>> rulesForBuildFile : rules) {
+        try {
+          parseRawRulesInternal(Uninterruptibles.getUninterruptibly(rulesForBuildFile));
+        } catch (ExecutionException e) {
+          Throwables.propagateIfInstanceOf(e.getCause(), BuildFileParseException.class);
+          throw Throwables.propagate(e.getCause());
+        }
+      }
+    } finally {
+      // Stop parsing the remaining build files if one of them failed.
+      executorService.shutdownNow();
+    }
+  }
+
+  /**
+   * @param buildFile the absolute path of a build file.
+   * @return whether the rules of {@code buildFile} are cached. Every build file that is parsed
+   *     depends on itself, even if it defines no rules, until it is invalidated.
+   */
+  private boolean isBuildFileParsed(Path buildFile) {
+    return buildFileDependents.containsEntry(buildFile, buildFile);
+  }
+
+  /**
+   * @return the absolute paths of all of the build files in the project, in order, skipping the
+   *     ignored paths, as buck.py does when it is asked to parse the whole project.
+   */
+  private ImmutableList<Path> findAllBuildFiles() throws IOException {
+    final Set<Path> ignorePaths = projectFilesystem.getIgnorePaths();
+    final List<Path> buildFiles = Lists.newArrayList();
+    projectFilesystem.walkRelativeFileTree(Paths.get(""), new SimpleFileVisitor<Path>() {
+      @Override
+      public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) {
+        if (ignorePaths.contains(dir)) {
+          return FileVisitResult.SKIP_SUBTREE;
+        }
+        Path buildFile = dir.resolve(BuckConstant.BUILD_RULES_FILE_NAME);
+        if (projectFilesystem.isFile(buildFile)) {
+          buildFiles.add(normalize(buildFile));
+        }
+        return FileVisitResult.CONTINUE;
+      }
+
+      @Override
+      public FileVisitResult visitFileFailed(Path file, IOException e) throws IOException {
+        // Like buck.py, do not follow a symlink back up to one of its own ancestors.
+        if (e instanceof FileSystemLoopException) {
+          return FileVisitResult.CONTINUE;
+        }
+        throw e;
+      }
+    });
+    return Ordering.natural().immutableSortedCopy(buildFiles);
+  }
+
   /**
    * Takes a sequence of build targets and parses all of the build files that contain them and their
    * transitive deps, producing a collection of "raw rules" that have been produced from the build
@@ -809,12 +1163,15 @@ public class Parser {
 
           // If a build file has been added or removed, reconstruct the build file tree.
           buildFileTreeCache.invalidateIfStale();
+
+          // A new build file has to be parsed the next time that all of them are asked for.
+          allBuildFilesParsed = false;
         }
 
-        // Added or removed files can affect globs, so invalidate the package build file
-        // "containing" {@code path} unless its filename matches a temp file pattern.
+        // Added or removed files can affect globs, so invalidate the build files with a glob that
+        // could match {@code path} unless its filename matches a temp file pattern.
         if (!isTempFile(path)) {
-          invalidateContainingBuildFile(path);
+          invalidateBuildFilesWithMatchingGlobs(path);
         }
       }
 
@@ -827,6 +1184,46 @@ public class Parser {
       buildFileTreeCache.invalidateIfStale();
       invalidateCache();
     }
+
+    // This comes last, as the listings tell whether a path that was deleted was a directory.
+    directoryListingCache.onFileSystemChange(event);
+  }
+
+  /**
+   * Invalidates the build files that have a glob that could match {@code path}, which has been
+   * added or removed. Build files parsed by a buck.py that does not record its globs are assumed
+   * to glob everything below them, so the package build file "containing" {@code path} is
+   * invalidated if it is one of those.
+   * @param path A {@link Path}, relative to the project root.
+   */
+  private void invalidateBuildFilesWithMatchingGlobs(Path path) throws IOException {
+    Path absolutePath = normalize(path);
+    boolean mayBeDirectory = directoryListingCache.mayBeDirectory(path);
+    Set<Path> buildFilesToInvalidate = Sets.newLinkedHashSet(buildFilesWithUnconfinedGlobs);
+    // Only the build files in the path's ancestors, or in the path itself if it was a directory,
+    // have confined globs that could match it.
+    for (Path directory = absolutePath; directory != null; directory = directory.getParent()) {
+      for (Path buildFile : globbingBuildFilesByDirectory.get(directory)) {
+        for (Glob glob : buildFileGlobs.get(buildFile)) {
+          if (glob.isConfinedToBaseDirectory() &&
+              glob.couldMatch(directory.relativize(absolutePath), mayBeDirectory)) {
+            buildFilesToInvalidate.add(buildFile);
+            break;
+          }
+        }
+      }
+    }
+    for (Path buildFile : buildFilesToInvalidate) {
+      invalidateDependents(buildFile);
+    }
+
+    String packageBuildFilePath =
+        buildFileTreeCache.getInput().getBasePathOfAncestorTarget(path).toString();
+    Path packageBuildFile = normalize(projectFilesystem.getFileForRelativePath(
+        packageBuildFilePath + '/' + BuckConstant.BUILD_RULES_FILE_NAME).toPath());
+    if (!buildFileGlobs.containsKey(packageBuildFile)) {
+      invalidateDependents(packageBuildFile);
+    }
   }
 
   /**
@@ -844,20 +1241,6 @@ public class Parser {
     return Iterators.any(tempFilePatterns.iterator(), patternMatches);
   }
 
-  /**
-   * Finds the build file responsible for the given {@link Path} and invalidates
-   * all of the cached rules dependent on it.
-   * @param path A {@link Path}, relative to the project root and "contained"
-   *             within the build file to find and invalidate.
-   */
-  private void invalidateContainingBuildFile(Path path) throws IOException {
-    String packageBuildFilePath =
-        buildFileTreeCache.getInput().getBasePathOfAncestorTarget(path).toString();
-    invalidateDependents(
-        projectFilesystem.getFileForRelativePath(
-            packageBuildFilePath + '/' + BuckConstant.BUILD_RULES_FILE_NAME).toPath());
-  }
-
   private boolean isPathCreateOrDeleteEvent(WatchEvent<?> event) {
     return event.kind() == StandardWatchEventKinds.ENTRY_CREATE ||
         event.kind() == StandardWatchEventKinds.ENTRY_DELETE;
@@ -899,8 +1282,12 @@ public class Parser {
       }
     }
 
-    // Dependencies will be repopulated when files are re-parsed.
+    // Dependencies and globs will be repopulated when files are re-parsed.
     buildFileDependents.removeAll(path);
+    if (buildFileGlobs.remove(path) != null) {
+      globbingBuildFilesByDirectory.remove(path.getParent(), path);
+      buildFilesWithUnconfinedGlobs.remove(path);
+    }
   }
 
   /**
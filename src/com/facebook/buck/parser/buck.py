@@ -8,6 +8,7 @@ import optparse
 import os
 import os.path
 import re
+import struct
 import sys
 
 try:
@@ -286,6 +287,16 @@ def glob(includes, excludes=[], include_dotfiles=False, build_env=None):
   assert not isinstance(excludes, basestring), \
       "The excludes argument must be a list of strings."
 
+  # The rules of a build file that globs depend on the files below it, not only on its contents.
+  # Buck uses these to tell which build files a new or deleted file could affect.
+  build_env['GLOBS'].append({
+      'includes': list(includes),
+      'excludes': list(excludes),
+      'include_dotfiles': include_dotfiles,
+  })
+  if build_env['GLOB_SERVICE']:
+    return build_env['GLOB_SERVICE'](search_base, includes, excludes, include_dotfiles)
+
   paths = set()
   for pattern in includes:
     for path in glob_walk(pattern, search_base, include_dotfiles=include_dotfiles):
@@ -353,12 +364,94 @@ def strip_none_entries(rules):
   return [dict((k,v) for k, v in rule.iteritems() if v is not None) for rule in rules]
 
 
+try:
+  string_types = basestring
+  integer_types = (int, long)
+except NameError:
+  string_types = (str, bytes)
+  integer_types = (int,)
+
+
+class BinaryEncoder:
+  """Writes values in the binary format read by BuildFileToBinaryParser.java.
+
+  Each value is a tag byte followed by its payload, with big-endian integers. A string is sent in
+  full the first time that it is written, and as its index in the table of the strings sent so far
+  after that.
+  """
+  MAGIC = 0x4255434B # "BUCK"
+  VERSION = 1
+
+  def __init__(self, out):
+    self.out = out
+    self.strings = {}
+    self.out.write(struct.pack('>iB', self.MAGIC, self.VERSION))
+
+  def write(self, value):
+    buf = bytearray()
+    self.encode(value, buf)
+    self.out.write(bytes(buf))
+    self.out.flush()
+
+  def encode(self, value, buf):
+    # bool is a subclass of int, so it must be checked first.
+    if value is None:
+      buf.append(ord('N'))
+    elif value is True:
+      buf.append(ord('T'))
+    elif value is False:
+      buf.append(ord('F'))
+    elif isinstance(value, string_types):
+      self.encode_string(value, buf)
+    elif isinstance(value, integer_types):
+      buf.append(ord('I'))
+      buf.extend(struct.pack('>q', value))
+    elif isinstance(value, float):
+      buf.append(ord('D'))
+      buf.extend(struct.pack('>d', value))
+    elif isinstance(value, (list, tuple)):
+      buf.append(ord('L'))
+      buf.extend(struct.pack('>i', len(value)))
+      for item in value:
+        self.encode(item, buf)
+    elif isinstance(value, dict):
+      buf.append(ord('M'))
+      buf.extend(struct.pack('>i', len(value)))
+      for key, item in value.items():
+        self.encode_string(key, buf)
+        self.encode(item, buf)
+    else:
+      raise TypeError('Cannot write %r to Buck' % (value,))
+
+  def encode_string(self, value, buf):
+    index = self.strings.get(value)
+    if index is not None:
+      buf.append(ord('R'))
+      buf.extend(struct.pack('>i', index))
+      return
+    self.strings[value] = len(self.strings)
+    data = value if isinstance(value, bytes) else value.encode('utf-8')
+    buf.append(ord('S'))
+    buf.extend(struct.pack('>i', len(data)))
+    buf.extend(data)
+
+  def write_glob_request(self, request):
+    """Asks Buck to evaluate a glob() rather than walking the file tree here."""
+    buf = bytearray()
+    buf.append(ord('G'))
+    self.encode(request, buf)
+    self.out.write(bytes(buf))
+    self.out.flush()
+
+
 class BuildFileProcessor:
-  def __init__(self, project_root, includes, server, strip_none):
+  def __init__(self, project_root, includes, server, strip_none, encoder=None,
+      glob_service=False):
     self.project_root = project_root
     self.includes = includes
     self.server = server
     self.strip_none = strip_none
+    self.encoder = encoder
     self.len_suffix = -len('/' + BUILD_RULES_FILE_NAME)
 
     # Create root_build_env
@@ -368,6 +461,8 @@ class BuildFileProcessor:
     build_env['BUILD_FILE_SYMBOL_TABLE'] = build_symbols['symbol_table']
     build_env['LAZY_FUNCTIONS'] = build_symbols['lazy_functions']
     build_env['INCLUDES'] = []
+    build_env['GLOBS'] = []
+    build_env['GLOB_SERVICE'] = self.glob_with_service if glob_service else None
 
     # If there are any default includes, evaluate those first to populate the
     # build_env.
@@ -376,6 +471,20 @@ class BuildFileProcessor:
 
     self.root_build_env = build_env
 
+  def glob_with_service(self, search_base, includes, excludes, include_dotfiles):
+    """Has Buck evaluate a glob() from the directory listings that it keeps, and waits for the
+    sorted paths, which are sent back on stdin as a line of JSON."""
+    self.encoder.write_glob_request({
+        'base': search_base,
+        'includes': list(includes),
+        'excludes': list(excludes),
+        'include_dotfiles': include_dotfiles,
+    })
+    response = json.loads(sys.stdin.readline())
+    if 'error' in response:
+      raise ValueError(response['error'])
+    return response['paths']
+
   def process(self, build_file):
     """Process an individual build file and output JSON of result to stdout."""
 
@@ -387,6 +496,7 @@ class BuildFileProcessor:
     build_env['BASE'] = relative_path_to_build_file[:self.len_suffix]
     build_env['BUILD_FILE_DIRECTORY'] = os.path.dirname(build_file)
     build_env['RULES'] = {}
+    build_env['GLOBS'] = []
 
     # Copy BUILD_FILE_SYMBOL_TABLE over.  This is the only dict that we need
     # a sperate copy of since update_lazy_functions will modify it.
@@ -403,8 +513,17 @@ class BuildFileProcessor:
     if self.strip_none:
      # Filter out keys with a value of "None" from the final rule definition.
      values = strip_none_entries(values)
-    values.append({"__includes": [build_file] + build_env['INCLUDES']})
-    if self.server:
+    values.append({
+        "__includes": [build_file] + build_env['INCLUDES'],
+        "__globs": build_env['GLOBS'],
+    })
+    if self.encoder:
+      if self.server:
+        self.encoder.write(values)
+      else:
+        for value in values:
+          self.encoder.write(value)
+    elif self.server:
       print json.dumps(values)
     else:
       for value in values:
@@ -420,9 +539,9 @@ class BuildFileProcessor:
 # If no paths to BUILD files are specified, then it will traverse the project root for BUILD files,
 # excluding directories of generated files produced by Buck.
 #
-# All of the build rules that are parsed from the BUILD files will be printed to stdout by a JSON
-# parser. That means that printing out other information for debugging purposes will likely break
-# the JSON parsing, so be careful!
+# All of the build rules that are parsed from the BUILD files will be printed to stdout as JSON, or
+# in Buck's binary format with --binary. That means that printing out other information for
+# debugging purposes will likely break the parsing of the output, so be careful!
 def main():
   parser = optparse.OptionParser()
   parser.add_option('--project_root', action='store', type='string', dest='project_root')
@@ -432,6 +551,10 @@ def main():
       help='Invoke as a server to parse individual BUCK files on demand.')
   parser.add_option('--strip_none', action='store_true', dest='strip_none',
       help='Invoke as a server to parse individual BUCK files on demand.')
+  parser.add_option('--binary', action='store_true', dest='binary',
+      help='Print the rules in the binary format read by Buck rather than as JSON.')
+  parser.add_option('--glob_service', action='store_true', dest='glob_service',
+      help='Ask Buck to evaluate glob() over stdout and stdin. Requires --binary and --server.')
   (options, args) = parser.parse_args()
 
   # Even though project_root is absolute path, it may not be concise. For example, it might be
@@ -459,10 +582,19 @@ def main():
         build_file = os.path.join(dirpath, BUILD_RULES_FILE_NAME)
         build_files.append(build_file)
 
+  encoder = None
+  if options.binary:
+    if sys.platform == 'win32':
+      import msvcrt
+      msvcrt.setmode(sys.stdout.fileno(), os.O_BINARY)
+    encoder = BinaryEncoder(getattr(sys.stdout, 'buffer', sys.stdout))
+
   buildFileProcessor = BuildFileProcessor(project_root,
       options.include or [],
       options.server,
-      options.strip_none)
+      options.strip_none,
+      encoder,
+      options.glob_service and encoder is not None and options.server)
 
   for build_file in build_files:
     buildFileProcessor.process(build_file)
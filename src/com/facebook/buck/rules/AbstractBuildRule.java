@@ -189,6 +189,34 @@ public abstract class AbstractBuildRule implements BuildRule {
     return getRuleKeyPair().getRuleKeyWithoutDeps();
   }
 
+  /**
+   * Hashes the contents of {@link #getInputs()} through the {@link RuleKeyBuilderFactory}'s
+   * {@link com.facebook.buck.util.FileHashCache}, without computing the {@link RuleKey} itself.
+   * Unlike the {@link RuleKey}, this does not depend on the keys of {@link #getDeps()}, so it can
+   * be done for every rule in the graph at once.
+   */
+  void hashInputs() {
+    if (ruleKeyPair == null) {
+      ruleKeyBuilderFactory.newInstance(this).setInputs("buck.inputs", getInputs().iterator());
+    }
+  }
+
+  /**
+   * Uses {@code ruleKeyPair}, which was computed for an identical rule, rather than computing the
+   * keys again. This has no effect if the keys have already been computed.
+   */
+  synchronized void setRuleKeyPair(RuleKey.Builder.RuleKeyPair ruleKeyPair) {
+    if (this.ruleKeyPair == null) {
+      this.ruleKeyPair = Preconditions.checkNotNull(ruleKeyPair);
+    }
+  }
+
+  /** @return the keys of this rule, if they have been computed already. */
+  @Nullable
+  RuleKey.Builder.RuleKeyPair getRuleKeyPairIfComputed() {
+    return ruleKeyPair;
+  }
+
   private RuleKey.Builder.RuleKeyPair getRuleKeyPair() {
     // This uses the "double-checked locking using volatile" pattern:
     // http://www.cs.umd.edu/~pugh/java/memoryModel/DoubleCheckedLocking.html.
@@ -16,8 +16,12 @@
 
 package com.facebook.buck.rules;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
 import java.io.Closeable;
 import java.io.File;
+import java.util.Map;
 
 public interface ArtifactCache extends Closeable {
   /**
@@ -30,6 +34,26 @@ public interface ArtifactCache extends Closeable {
    */
   public CacheResult fetch(RuleKey ruleKey, File output);
 
+  /**
+   * Fetch a cached artifact, keyed by ruleKey, and return a stream over its contents. Unlike
+   * {@link #fetch(RuleKey, File)}, this lets the caller consume the artifact as it arrives without
+   * staging it in a temporary file first.
+   *
+   * @param ruleKey cache fetch key
+   * @return the contents of the artifact, or {@link Optional#absent()} on a
+   *     {@link CacheResult#MISS}. The caller is responsible for closing the returned stream.
+   */
+  public Optional<CachedArtifactInputStream> fetchStream(RuleKey ruleKey);
+
+  /**
+   * Fetch several cached artifacts at once, as {@link #fetch(RuleKey, File)} would fetch each of
+   * them. A remote cache should fetch them in as few round-trips as it can.
+   *
+   * @param outputs the path to store each artifact to, keyed by its ruleKey
+   * @return the result of fetching each of the keys of {@code outputs}
+   */
+  public ImmutableMap<RuleKey, CacheResult> fetchAll(Map<RuleKey, File> outputs);
+
   /**
    * Store the artifact at path specified by output to cache, such that it can later be fetched
    * using ruleKey as the lookup key.  If any internal errors occur, fail silently and continue
@@ -42,6 +66,14 @@ public interface ArtifactCache extends Closeable {
    */
   public void store(RuleKey ruleKey, File output);
 
+  /**
+   * Store several artifacts at once, as {@link #store(RuleKey, File)} would store each of them. A
+   * remote cache should store them in as few round-trips as it can.
+   *
+   * @param outputs the path to read each artifact from, keyed by its ruleKey
+   */
+  public void storeAll(Map<RuleKey, File> outputs);
+
   /**
    * This method must return the same value over the lifetime of this object.
    * @return whether this{@link ArtifactCache} supports storing artifacts.
@@ -0,0 +1,155 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.BuckEvent;
+import com.facebook.buck.event.LeafEvent;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Multiset;
+
+/**
+ * Events about fetching or storing several artifacts at once, via
+ * {@link ArtifactCache#fetchAll(java.util.Map)} or {@link ArtifactCache#storeAll(java.util.Map)}.
+ * The time between the {@link Started} and {@link Finished} events of a batch is its latency.
+ */
+@SuppressWarnings("PMD.OverrideBothEqualsAndHashcode")
+public abstract class ArtifactCacheBatchEvent extends AbstractBuckEvent implements LeafEvent {
+
+  private final ArtifactCacheEvent.Operation operation;
+  private final int numArtifacts;
+
+  protected ArtifactCacheBatchEvent(ArtifactCacheEvent.Operation operation, int numArtifacts) {
+    this.operation = Preconditions.checkNotNull(operation);
+    this.numArtifacts = numArtifacts;
+  }
+
+  @Override
+  public String getCategory() {
+    return "artifact_" + operation.toString().toLowerCase() + "_all";
+  }
+
+  @Override
+  public String getValueString() {
+    return String.format("%s:%d", operation.toString().toLowerCase(), numArtifacts);
+  }
+
+  public ArtifactCacheEvent.Operation getOperation() {
+    return operation;
+  }
+
+  public int getNumArtifacts() {
+    return numArtifacts;
+  }
+
+  @Override
+  public boolean eventsArePair(BuckEvent event) {
+    if (!(event instanceof ArtifactCacheBatchEvent)) {
+      return false;
+    }
+
+    ArtifactCacheBatchEvent that = (ArtifactCacheBatchEvent) event;
+
+    return Objects.equal(getOperation(), that.getOperation()) &&
+        getNumArtifacts() == that.getNumArtifacts();
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(getOperation(), getNumArtifacts(), getThreadId());
+  }
+
+  public static Started started(ArtifactCacheEvent.Operation operation, int numArtifacts) {
+    return new Started(operation, numArtifacts);
+  }
+
+  public static Finished storeFinished(int numArtifacts) {
+    return new Finished(
+        ArtifactCacheEvent.Operation.STORE,
+        numArtifacts,
+        ImmutableMultiset.<CacheResult>of());
+  }
+
+  public static Finished fetchFinished(ImmutableMap<RuleKey, CacheResult> cacheResults) {
+    return new Finished(
+        ArtifactCacheEvent.Operation.FETCH,
+        cacheResults.size(),
+        ImmutableMultiset.copyOf(cacheResults.values()));
+  }
+
+  public static class Started extends ArtifactCacheBatchEvent {
+    protected Started(ArtifactCacheEvent.Operation operation, int numArtifacts) {
+      super(operation, numArtifacts);
+    }
+
+    @Override
+    public String getEventName() {
+      return "ArtifactCacheBatchStarted";
+    }
+  }
+
+  public static class Finished extends ArtifactCacheBatchEvent {
+    /** Empty unless {@link #getOperation()} is {@link ArtifactCacheEvent.Operation#FETCH}. */
+    private final ImmutableMultiset<CacheResult> cacheResults;
+
+    protected Finished(
+        ArtifactCacheEvent.Operation operation,
+        int numArtifacts,
+        ImmutableMultiset<CacheResult> cacheResults) {
+      super(operation, numArtifacts);
+      this.cacheResults = Preconditions.checkNotNull(cacheResults);
+    }
+
+    /** @return how many of the fetched artifacts had each {@link CacheResult}. */
+    public ImmutableMultiset<CacheResult> getCacheResults() {
+      return cacheResults;
+    }
+
+    public int getNumHits() {
+      int numHits = 0;
+      for (Multiset.Entry<CacheResult> entry : cacheResults.entrySet()) {
+        if (entry.getElement().isSuccess()) {
+          numHits += entry.getCount();
+        }
+      }
+      return numHits;
+    }
+
+    @Override
+    public String getEventName() {
+      return "ArtifactCacheBatchFinished";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!super.equals(o)) {
+        return false;
+      }
+
+      Finished that = (Finished) o;
+      return Objects.equal(this.cacheResults, that.cacheResults);
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(getOperation(), getNumArtifacts(), getThreadId(), cacheResults);
+    }
+  }
+}
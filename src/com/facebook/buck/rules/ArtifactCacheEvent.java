@@ -31,6 +31,8 @@ import com.google.common.base.Preconditions;
 public abstract class ArtifactCacheEvent extends AbstractBuckEvent implements LeafEvent {
   public static enum Operation {
     FETCH,
+    COMPRESS,
+    PREFETCH,
     STORE,
   }
 
@@ -92,6 +94,14 @@ public abstract class ArtifactCacheEvent extends AbstractBuckEvent implements Le
     return new Finished(operation, ruleKey, Optional.of(cacheResult));
   }
 
+  public static Prefetched prefetchUsed(RuleKey ruleKey) {
+    return new Prefetched(ruleKey, /* isUsed */ true);
+  }
+
+  public static Prefetched prefetchWasted(RuleKey ruleKey) {
+    return new Prefetched(ruleKey, /* isUsed */ false);
+  }
+
   public static class Started extends ArtifactCacheEvent {
     protected Started(Operation operation, RuleKey ruleKey) {
       super(operation, ruleKey);
@@ -148,4 +158,43 @@ public abstract class ArtifactCacheEvent extends AbstractBuckEvent implements Le
     }
   }
 
+  /**
+   * Posted once for every artifact that was fetched ahead of time by
+   * {@link PrefetchingArtifactCache}: either when the build consumes it, or when the build ends
+   * without having needed it.
+   */
+  public static class Prefetched extends ArtifactCacheEvent {
+    private final boolean isUsed;
+
+    protected Prefetched(RuleKey ruleKey, boolean isUsed) {
+      super(Operation.PREFETCH, ruleKey);
+      this.isUsed = isUsed;
+    }
+
+    /** @return {@code false} if the prefetched artifact was never used by the build. */
+    public boolean isUsed() {
+      return isUsed;
+    }
+
+    @Override
+    public String getEventName() {
+      return isUsed ? "ArtifactPrefetchUsed" : "ArtifactPrefetchWasted";
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      if (!super.equals(o)) {
+        return false;
+      }
+
+      Prefetched that = (Prefetched) o;
+      return this.isUsed == that.isUsed;
+    }
+
+    @Override
+    public int hashCode() {
+      return Objects.hashCode(getOperation(), getRuleKey(), getThreadId(), isUsed);
+    }
+  }
+
 }
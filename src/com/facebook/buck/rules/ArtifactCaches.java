@@ -0,0 +1,55 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.google.common.collect.ImmutableMap;
+
+import java.io.File;
+import java.util.Map;
+
+/**
+ * Utilities for implementing {@link ArtifactCache}s.
+ */
+public class ArtifactCaches {
+
+  /** Utility class: do not instantiate. */
+  private ArtifactCaches() {}
+
+  /**
+   * Implements {@link ArtifactCache#fetchAll(Map)} for a cache that has no cheaper way to fetch
+   * several artifacts than to fetch them one at a time.
+   */
+  public static ImmutableMap<RuleKey, CacheResult> fetchEach(
+      ArtifactCache artifactCache,
+      Map<RuleKey, File> outputs) {
+    ImmutableMap.Builder<RuleKey, CacheResult> cacheResults = ImmutableMap.builder();
+    for (Map.Entry<RuleKey, File> output : outputs.entrySet()) {
+      cacheResults.put(output.getKey(), artifactCache.fetch(output.getKey(), output.getValue()));
+    }
+    return cacheResults.build();
+  }
+
+  /**
+   * Implements {@link ArtifactCache#storeAll(Map)} for a cache that has no cheaper way to store
+   * several artifacts than to store them one at a time.
+   */
+  public static void storeEach(ArtifactCache artifactCache, Map<RuleKey, File> outputs) {
+    for (Map.Entry<RuleKey, File> output : outputs.entrySet()) {
+      artifactCache.store(output.getKey(), output.getValue());
+    }
+  }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import org.tukaani.xz.LZMA2Options;
+import org.tukaani.xz.XZInputStream;
+import org.tukaani.xz.XZOutputStream;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+/**
+ * The ways in which an artifact may be compressed before it is sent to a remote
+ * {@link ArtifactCache}. Each codec is identified on the wire by {@link #getId()}, so the ids of
+ * existing codecs must never change.
+ */
+public enum ArtifactCodec {
+  /** The artifact is sent as it is. */
+  STORE(0, /* defaultLevel */ 0) {
+    @Override
+    public OutputStream newEncoder(OutputStream output, int level) {
+      return output;
+    }
+
+    @Override
+    public InputStream newDecoder(InputStream input) {
+      return input;
+    }
+  },
+
+  DEFLATE(1, /* defaultLevel */ 6) {
+    @Override
+    public OutputStream newEncoder(OutputStream output, int level) {
+      return new DeflaterReleasingOutputStream(output, new Deflater(level));
+    }
+
+    @Override
+    public InputStream newDecoder(InputStream input) {
+      return new InflaterInputStream(input);
+    }
+  },
+
+  XZ(2, LZMA2Options.PRESET_DEFAULT) {
+    @Override
+    public OutputStream newEncoder(OutputStream output, int level) throws IOException {
+      return new XZOutputStream(output, new LZMA2Options(level));
+    }
+
+    @Override
+    public InputStream newDecoder(InputStream input) throws IOException {
+      return new XZInputStream(input);
+    }
+  },
+  ;
+
+  public static final int MIN_LEVEL = 0;
+  public static final int MAX_LEVEL = 9;
+
+  private final int id;
+  private final int defaultLevel;
+
+  private ArtifactCodec(int id, int defaultLevel) {
+    this.id = id;
+    this.defaultLevel = defaultLevel;
+  }
+
+  /** @return the byte that identifies this codec in the header of an encoded artifact. */
+  public int getId() {
+    return id;
+  }
+
+  public int getDefaultLevel() {
+    return defaultLevel;
+  }
+
+  /**
+   * @param level from {@link #MIN_LEVEL}, the fastest, to {@link #MAX_LEVEL}, the smallest. Ignored
+   *     by {@link #STORE}.
+   * @return a stream that compresses what is written to it into {@code output}. Closing it closes
+   *     {@code output}.
+   */
+  public abstract OutputStream newEncoder(OutputStream output, int level) throws IOException;
+
+  /** @return a stream over the decompressed contents of {@code input}. */
+  public abstract InputStream newDecoder(InputStream input) throws IOException;
+
+  /** @return the codec with the given {@link #getId()}. */
+  public static ArtifactCodec fromId(int id) throws IOException {
+    for (ArtifactCodec codec : values()) {
+      if (codec.id == id) {
+        return codec;
+      }
+    }
+    throw new IOException("Unknown artifact codec: " + id);
+  }
+
+  /**
+   * A {@link DeflaterOutputStream} that releases its {@link Deflater}'s native memory when closed,
+   * rather than whenever the {@link Deflater} is finalized.
+   */
+  private static class DeflaterReleasingOutputStream extends DeflaterOutputStream {
+    public DeflaterReleasingOutputStream(OutputStream output, Deflater deflater) {
+      super(output, deflater);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        super.close();
+      } finally {
+        def.end();
+      }
+    }
+  }
+}
@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.google.common.base.Preconditions;
+import com.google.common.io.ByteStreams;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PushbackInputStream;
+import java.util.Arrays;
+import java.util.zip.Deflater;
+
+/**
+ * Compresses artifacts on their way to a remote {@link ArtifactCache}, and decompresses them on
+ * their way back.
+ * <p>
+ * An encoded artifact starts with a header that records how it was encoded, so that decoding
+ * does not depend on how the reader is configured:
+ * <pre>
+ *   magic (4 bytes) | version (1 byte) | codec id (1 byte) | level (1 byte) | size (8 bytes)
+ * </pre>
+ * where size is that of the decoded artifact. An artifact that does not start with the magic
+ * bytes was stored before encoding was introduced, and is decoded as it is.
+ */
+public class ArtifactEncoding {
+
+  private static final byte[] MAGIC = {'B', 'U', 'C', 'K'};
+  private static final int VERSION = 1;
+  private static final int HEADER_SIZE = MAGIC.length + 3 + 8;
+
+  /** Compressing an artifact must save at least this fraction of its size to be worthwhile. */
+  private static final int MIN_SAVINGS_DIVISOR = 16;
+
+  /** How much of an artifact is compressed to decide whether to compress the rest of it. */
+  private static final int PROBE_SIZE = 64 * 1024;
+
+  private static final int PROBE_LEVEL = Deflater.BEST_SPEED;
+
+  private final ArtifactCodec codec;
+  private final int level;
+
+  public ArtifactEncoding(ArtifactCodec codec, int level) {
+    Preconditions.checkArgument(
+        level >= ArtifactCodec.MIN_LEVEL && level <= ArtifactCodec.MAX_LEVEL,
+        "level out of bounds: %s", level);
+    this.codec = Preconditions.checkNotNull(codec);
+    this.level = level;
+  }
+
+  public ArtifactCodec getCodec() {
+    return codec;
+  }
+
+  public int getLevel() {
+    return level;
+  }
+
+  /**
+   * Encodes {@code artifact}, choosing the codec for this artifact alone. Many artifacts, such as
+   * those of APKs and jars, are already compressed, so compressing them again only costs time when
+   * they are stored and again whenever they are fetched. Such an artifact is recorded with
+   * {@link ArtifactCodec#STORE} instead of this encoding's codec: one whose first bytes do not
+   * compress well is not compressed at all, and one that the codec does not make at least
+   * {@code 1/}{@link #MIN_SAVINGS_DIVISOR} smaller is stored as it is.
+   */
+  public byte[] encode(byte[] artifact) throws IOException {
+    if (codec != ArtifactCodec.STORE && isWorthCompressing(artifact)) {
+      byte[] encoded = encode(artifact, codec, level);
+      if (isWorthCompressing(artifact.length, encoded.length - HEADER_SIZE)) {
+        return encoded;
+      }
+    }
+    return encode(artifact, ArtifactCodec.STORE, ArtifactCodec.STORE.getDefaultLevel());
+  }
+
+  /**
+   * Compresses a sample of {@code artifact} with the fastest deflate, which is enough to tell
+   * already compressed data apart from data that is worth compressing with the real codec.
+   */
+  private static boolean isWorthCompressing(byte[] artifact) throws IOException {
+    if (artifact.length <= PROBE_SIZE) {
+      // Compressing the whole artifact costs about as much as compressing a sample of it.
+      return true;
+    }
+    ByteArrayOutputStream probe = new ByteArrayOutputStream(PROBE_SIZE);
+    try (OutputStream output = ArtifactCodec.DEFLATE.newEncoder(probe, PROBE_LEVEL)) {
+      output.write(artifact, 0, PROBE_SIZE);
+    }
+    return isWorthCompressing(PROBE_SIZE, probe.size());
+  }
+
+  private static boolean isWorthCompressing(long originalSize, long compressedSize) {
+    return originalSize - compressedSize >= originalSize / MIN_SAVINGS_DIVISOR;
+  }
+
+  private static byte[] encode(byte[] artifact, ArtifactCodec codec, int level)
+      throws IOException {
+    ByteArrayOutputStream encoded = new ByteArrayOutputStream(HEADER_SIZE + artifact.length);
+    DataOutputStream header = new DataOutputStream(encoded);
+    header.write(MAGIC);
+    header.writeByte(VERSION);
+    header.writeByte(codec.getId());
+    header.writeByte(level);
+    header.writeLong(artifact.length);
+    header.flush();
+
+    try (OutputStream output = codec.newEncoder(encoded, level)) {
+      output.write(artifact);
+    }
+    return encoded.toByteArray();
+  }
+
+  /**
+   * Decodes an artifact that was encoded by {@link #encode(byte[])}, whatever the codec it was
+   * encoded with. An artifact without a header is returned as it is.
+   *
+   * @throws IOException if the artifact is corrupt, or was encoded by a newer version of Buck.
+   */
+  public static byte[] decode(byte[] artifact) throws IOException {
+    if (!hasHeader(artifact, artifact.length)) {
+      return artifact;
+    }
+
+    DataInputStream header = new DataInputStream(new ByteArrayInputStream(artifact));
+    ArtifactCodec codec = readCodec(header);
+    byte[] decoded = new byte[readSize(header)];
+    try (InputStream input = codec.newDecoder(header)) {
+      ByteStreams.readFully(input, decoded);
+      if (input.read() != -1) {
+        throw new IOException("Artifact is larger than its header says.");
+      }
+    }
+    return decoded;
+  }
+
+  /**
+   * Like {@link #decode(byte[])}, but decodes the artifact as it is read from {@code input}, so
+   * that it does not have to be held in memory.
+   *
+   * @return a stream over the decoded artifact. Closing it closes {@code input}.
+   */
+  public static InputStream decode(InputStream input) throws IOException {
+    PushbackInputStream encoded = new PushbackInputStream(input, HEADER_SIZE);
+    byte[] headerBytes = new byte[HEADER_SIZE];
+    int headerLength = ByteStreams.read(encoded, headerBytes, 0, HEADER_SIZE);
+    if (!hasHeader(headerBytes, headerLength)) {
+      encoded.unread(headerBytes, 0, headerLength);
+      return encoded;
+    }
+
+    DataInputStream header = new DataInputStream(new ByteArrayInputStream(headerBytes));
+    ArtifactCodec codec = readCodec(header);
+    readSize(header);
+    return codec.newDecoder(encoded);
+  }
+
+  private static boolean hasHeader(byte[] artifact, int length) {
+    return length >= HEADER_SIZE && Arrays.equals(MAGIC, Arrays.copyOf(artifact, MAGIC.length));
+  }
+
+  private static ArtifactCodec readCodec(DataInputStream header) throws IOException {
+    ByteStreams.skipFully(header, MAGIC.length);
+    int version = header.readUnsignedByte();
+    if (version != VERSION) {
+      throw new IOException("Unknown artifact encoding version: " + version);
+    }
+    ArtifactCodec codec = ArtifactCodec.fromId(header.readUnsignedByte());
+    // The level is recorded for diagnosis only: decoding does not depend on it.
+    header.readUnsignedByte();
+    return codec;
+  }
+
+  private static int readSize(DataInputStream header) throws IOException {
+    long size = header.readLong();
+    if (size < 0 || size > Integer.MAX_VALUE) {
+      throw new IOException("Unusable artifact size: " + size);
+    }
+    return (int) size;
+  }
+}
@@ -0,0 +1,313 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static com.facebook.buck.util.concurrent.MoreExecutors.newMultiThreadExecutor;
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.ThrowableLogEvent;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Zips up the output of a build rule and stores it in an {@link ArtifactCache} on its own pool of
+ * threads, so that the threads that build rules are not held up by cache I/O.
+ * <p>
+ * Zipped artifacts are stored in batches with {@link ArtifactCache#storeAll(Map)}, so that caches
+ * that can store many artifacts in one request do so. A batch is stored once it holds
+ * {@link #DEFAULT_MAX_BATCH_SIZE} artifacts, or as soon as no other artifact is being zipped, so
+ * that an artifact is never held back waiting for uploads that may not come.
+ * <p>
+ * The number of bytes that may be waiting to be uploaded at any one time is bounded: once the
+ * budget is exhausted, {@link #upload(BuildInfoRecorder, ArtifactCache, BuckEventBus)} blocks
+ * until enough earlier uploads have completed. An artifact larger than the whole budget is
+ * uploaded on its own.
+ */
+public class ArtifactUploader implements Closeable {
+
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 15;
+
+  private static final int DEFAULT_MAX_BATCH_SIZE = 32;
+
+  /** The budget is tracked in kilobytes so that it fits in the permits of a {@link Semaphore}. */
+  private static final long BYTES_PER_PERMIT = 1024;
+
+  private final ListeningExecutorService executorService;
+  private final Semaphore inFlightPermits;
+  private final int maxInFlightPermits;
+  private final int maxBatchSize;
+  private final Set<ListenableFuture<?>> pendingUploads;
+
+  @GuardedBy("this")
+  private int numArtifactsBeingZipped;
+
+  @GuardedBy("this")
+  private final Map<ArtifactCache, Batch> batches;
+
+  public ArtifactUploader(int numThreads, long maxInFlightBytes) {
+    this(listeningDecorator(newMultiThreadExecutor("ArtifactUploader", numThreads)),
+        maxInFlightBytes,
+        DEFAULT_MAX_BATCH_SIZE);
+  }
+
+  @VisibleForTesting
+  ArtifactUploader(
+      ListeningExecutorService executorService,
+      long maxInFlightBytes,
+      int maxBatchSize) {
+    Preconditions.checkArgument(maxInFlightBytes >= 0,
+        "The in-flight upload budget must not be negative, but was %s.",
+        maxInFlightBytes);
+    Preconditions.checkArgument(maxBatchSize > 0,
+        "The upload batch size must be positive, but was %s.",
+        maxBatchSize);
+    this.executorService = Preconditions.checkNotNull(executorService);
+    this.maxInFlightPermits = (int) Math.max(1,
+        Math.min(Integer.MAX_VALUE, maxInFlightBytes / BYTES_PER_PERMIT));
+    this.inFlightPermits = new Semaphore(maxInFlightPermits, /* fair */ true);
+    this.maxBatchSize = maxBatchSize;
+    this.pendingUploads = Sets.newSetFromMap(
+        new ConcurrentHashMap<ListenableFuture<?>, Boolean>());
+    this.batches = Maps.newIdentityHashMap();
+  }
+
+  /**
+   * @return an uploader that performs each upload on the calling thread, which is how uploads
+   *     behaved before they were moved off the build threads.
+   */
+  public static ArtifactUploader createSynchronousUploader() {
+    return new ArtifactUploader(MoreExecutors.sameThreadExecutor(),
+        Long.MAX_VALUE,
+        /* maxBatchSize */ 1);
+  }
+
+  /**
+   * Schedules the artifact described by {@code buildInfoRecorder} to be stored in
+   * {@code artifactCache}. This blocks if the in-flight byte budget is exhausted.
+   */
+  public void upload(
+      final BuildInfoRecorder buildInfoRecorder,
+      final ArtifactCache artifactCache,
+      final BuckEventBus eventBus) {
+    // Nothing will be stored, so don't tie up the budget estimating the size of the artifact.
+    if (!artifactCache.isStoreSupported()) {
+      return;
+    }
+
+    final int permits = getPermitsFor(buildInfoRecorder.getOutputSizeBytes());
+    inFlightPermits.acquireUninterruptibly(permits);
+    synchronized (this) {
+      numArtifactsBeingZipped++;
+    }
+
+    ListenableFuture<?> upload;
+    try {
+      upload = executorService.submit(new Runnable() {
+        @Override
+        public void run() {
+          Optional<File> zip = Optional.absent();
+          try {
+            zip = buildInfoRecorder.createZipForArtifactCache(eventBus);
+          } catch (RuntimeException e) {
+            eventBus.post(ThrowableLogEvent.create(e,
+                "Failed to upload artifact for %s to the cache.",
+                buildInfoRecorder.getBuildTarget()));
+          }
+          storeAll(addToBatch(
+              artifactCache,
+              buildInfoRecorder.getRuleKey(),
+              zip,
+              permits,
+              eventBus));
+        }
+      });
+    } catch (RejectedExecutionException e) {
+      storeAll(addToBatch(
+          artifactCache,
+          buildInfoRecorder.getRuleKey(),
+          Optional.<File>absent(),
+          permits,
+          eventBus));
+      throw e;
+    }
+
+    if (!upload.isDone()) {
+      trackPendingUpload(upload);
+    }
+  }
+
+  /**
+   * Adds a zipped artifact, if there is one, to the batch for {@code artifactCache}, and marks it
+   * as no longer being zipped.
+   * @return the batches that are ready to be stored.
+   */
+  private synchronized List<Batch> addToBatch(
+      ArtifactCache artifactCache,
+      RuleKey ruleKey,
+      Optional<File> zip,
+      int permits,
+      BuckEventBus eventBus) {
+    numArtifactsBeingZipped--;
+    if (zip.isPresent()) {
+      Batch batch = batches.get(artifactCache);
+      if (batch == null) {
+        batch = new Batch(artifactCache, eventBus);
+        batches.put(artifactCache, batch);
+      }
+      batch.add(ruleKey, zip.get(), permits);
+    } else {
+      inFlightPermits.release(permits);
+    }
+
+    List<Batch> readyBatches = Lists.newArrayList();
+    for (Iterator<Batch> iterator = batches.values().iterator(); iterator.hasNext(); ) {
+      Batch batch = iterator.next();
+      if (numArtifactsBeingZipped == 0 || batch.size() >= maxBatchSize) {
+        readyBatches.add(batch);
+        iterator.remove();
+      }
+    }
+    return readyBatches;
+  }
+
+  private void storeAll(List<Batch> readyBatches) {
+    for (Batch batch : readyBatches) {
+      batch.store();
+    }
+  }
+
+  private void trackPendingUpload(final ListenableFuture<?> upload) {
+    pendingUploads.add(upload);
+    upload.addListener(new Runnable() {
+      @Override
+      public void run() {
+        pendingUploads.remove(upload);
+      }
+    }, MoreExecutors.sameThreadExecutor());
+  }
+
+  @VisibleForTesting
+  int getPermitsFor(long sizeBytes) {
+    long permits = (sizeBytes + BYTES_PER_PERMIT - 1) / BYTES_PER_PERMIT;
+    return (int) Math.max(1, Math.min(maxInFlightPermits, permits));
+  }
+
+  @VisibleForTesting
+  int getAvailableBudgetPermits() {
+    return inFlightPermits.availablePermits();
+  }
+
+  /**
+   * Blocks until every upload that has been scheduled so far has completed. The last artifact to
+   * be zipped stores every batch that is still waiting, so none is left behind.
+   */
+  public void drain() {
+    ImmutableList<ListenableFuture<?>> uploads = ImmutableList.copyOf(pendingUploads);
+    if (uploads.isEmpty()) {
+      return;
+    }
+    try {
+      // Failures have already been reported by the upload itself.
+      Uninterruptibles.getUninterruptibly(Futures.successfulAsList(uploads));
+    } catch (ExecutionException e) {
+      throw new RuntimeException(e.getCause());
+    }
+  }
+
+  /**
+   * Waits for outstanding uploads to finish and then releases the upload threads.
+   */
+  @Override
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  public void close() throws IOException {
+    drain();
+    executorService.shutdown();
+    try {
+      executorService.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      // Ignore InterruptedException since we're in the process of being shutdown.
+    }
+  }
+
+  /** Zipped artifacts that are waiting to be stored in the same {@link ArtifactCache}. */
+  private class Batch {
+    private final ArtifactCache artifactCache;
+    private final BuckEventBus eventBus;
+    private final Map<RuleKey, File> zips;
+    private int permits;
+
+    private Batch(ArtifactCache artifactCache, BuckEventBus eventBus) {
+      this.artifactCache = artifactCache;
+      this.eventBus = eventBus;
+      this.zips = Maps.newLinkedHashMap();
+    }
+
+    private void add(RuleKey ruleKey, File zip, int permits) {
+      File previous = zips.put(ruleKey, zip);
+      if (previous != null) {
+        // Two rules with the same key produce the same artifact, so one of them is enough.
+        previous.delete();
+      }
+      this.permits += permits;
+    }
+
+    private int size() {
+      return zips.size();
+    }
+
+    private void store() {
+      try {
+        artifactCache.storeAll(zips);
+      } catch (RuntimeException e) {
+        eventBus.post(ThrowableLogEvent.create(e,
+            "Failed to upload %d artifacts to the cache.",
+            zips.size()));
+      } finally {
+        for (File zip : zips.values()) {
+          zip.delete();
+        }
+        inFlightPermits.release(permits);
+      }
+    }
+  }
+}
@@ -29,6 +29,7 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableMap;
 
 import java.nio.file.Path;
 import java.util.List;
@@ -41,28 +42,34 @@ public class BuildContext {
   private final StepRunner stepRunner;
   private final ProjectFilesystem projectFilesystem;
   private final ArtifactCache artifactCache;
+  private final ArtifactUploader artifactUploader;
   private final JavaPackageFinder javaPackageFinder;
   private final BuckEventBus events;
   private final Supplier<String> androidBootclasspathSupplier;
   private final BuildDependencies buildDependencies;
+  private final ImmutableMap<BuildTarget, Long> priorities;
 
   private BuildContext(
       DependencyGraph dependencyGraph,
       StepRunner stepRunner,
       ProjectFilesystem projectFilesystem,
       ArtifactCache artifactCache,
+      ArtifactUploader artifactUploader,
       JavaPackageFinder javaPackageFinder,
       BuckEventBus events,
       Supplier<String> androidBootclasspathSupplier,
-      BuildDependencies buildDependencies) {
+      BuildDependencies buildDependencies,
+      ImmutableMap<BuildTarget, Long> priorities) {
     this.dependencyGraph = Preconditions.checkNotNull(dependencyGraph);
     this.stepRunner = Preconditions.checkNotNull(stepRunner);
     this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
     this.artifactCache = Preconditions.checkNotNull(artifactCache);
+    this.artifactUploader = Preconditions.checkNotNull(artifactUploader);
     this.javaPackageFinder = Preconditions.checkNotNull(javaPackageFinder);
     this.events = Preconditions.checkNotNull(events);
     this.androidBootclasspathSupplier = Preconditions.checkNotNull(androidBootclasspathSupplier);
     this.buildDependencies = Preconditions.checkNotNull(buildDependencies);
+    this.priorities = Preconditions.checkNotNull(priorities);
   }
 
   public Path getProjectRoot() {
@@ -100,6 +107,14 @@ public class BuildContext {
     return artifactCache;
   }
 
+  /**
+   * @return the {@link ArtifactUploader} that stores the output of rules that were built locally
+   *     in {@link #getArtifactCache()}.
+   */
+  public ArtifactUploader getArtifactUploader() {
+    return artifactUploader;
+  }
+
   public BuckEventBus getEventBus() {
     return events;
   }
@@ -112,6 +127,16 @@ public class BuildContext {
     return buildDependencies;
   }
 
+  /**
+   * @return the priority with which {@code rule} should be scheduled once its deps have been
+   *     built. When more rules are ready than there are threads, those with higher priorities are
+   *     built first.
+   */
+  public long getPriority(BuildRule rule) {
+    Long priority = priorities.get(rule.getBuildTarget());
+    return priority == null ? 0 : priority;
+  }
+
   /**
    * Creates an {@link OnDiskBuildInfo}.
    * <p>
@@ -156,10 +181,12 @@ public class BuildContext {
     private StepRunner stepRunner = null;
     private ProjectFilesystem projectFilesystem = null;
     private ArtifactCache artifactCache = null;
+    private ArtifactUploader artifactUploader = null;
     private JavaPackageFinder javaPackgeFinder = null;
     private BuckEventBus events = null;
     private Supplier<String> androidBootclasspathSupplier = null;
     private BuildDependencies buildDependencies = BuildDependencies.getDefault();
+    private ImmutableMap<BuildTarget, Long> priorities = ImmutableMap.of();
 
     private Builder() {}
 
@@ -167,15 +194,20 @@ public class BuildContext {
       if (androidBootclasspathSupplier == null) {
         setDefaultAndroidBootclasspathSupplier();
       }
+      if (artifactUploader == null) {
+        artifactUploader = ArtifactUploader.createSynchronousUploader();
+      }
       return new BuildContext(
           dependencyGraph,
           stepRunner,
           projectFilesystem,
           artifactCache,
+          artifactUploader,
           javaPackgeFinder,
           events,
           androidBootclasspathSupplier,
-          buildDependencies);
+          buildDependencies,
+          priorities);
     }
 
     public Builder setDependencyGraph(DependencyGraph dependencyGraph) {
@@ -198,6 +230,11 @@ public class BuildContext {
       return this;
     }
 
+    public Builder setArtifactUploader(ArtifactUploader artifactUploader) {
+      this.artifactUploader = artifactUploader;
+      return this;
+    }
+
     public Builder setJavaPackageFinder(JavaPackageFinder javaPackgeFinder) {
       this.javaPackgeFinder = javaPackgeFinder;
       return this;
@@ -208,6 +245,11 @@ public class BuildContext {
       return this;
     }
 
+    public Builder setPriorities(ImmutableMap<BuildTarget, Long> priorities) {
+      this.priorities = priorities;
+      return this;
+    }
+
     public Builder setBuildDependencies(BuildDependencies buildDependencies) {
       this.buildDependencies = buildDependencies;
       return this;
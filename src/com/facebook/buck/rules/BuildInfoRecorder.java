@@ -26,6 +26,7 @@ import com.facebook.buck.util.ProjectFilesystem;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Joiner;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
@@ -129,16 +130,57 @@ public class BuildInfoRecorder {
     addMetadata(key, values.toString());
   }
 
+  BuildTarget getBuildTarget() {
+    return buildTarget;
+  }
+
   /**
-   * Creates a zip file of the metadata and recorded artifacts and stores it in the artifact cache.
+   * @return the total size of the files that {@link #performUploadToArtifactCache(ArtifactCache,
+   *     BuckEventBus)} will put in the artifact, before compression. Files that cannot be read are
+   *     not counted, as they will not make it into the artifact either.
    */
-  public void performUploadToArtifactCache(ArtifactCache artifactCache, BuckEventBus eventBus) {
-    // Skip all of this if caching is disabled. Although artifactCache.store() will be a noop,
-    // building up the zip is wasted I/O.
-    if (!artifactCache.isStoreSupported()) {
-      return;
+  public long getOutputSizeBytes() {
+    long size = 0;
+    for (Path path : getPathsToIncludeInZip()) {
+      try {
+        size += projectFilesystem.getFileSize(path);
+      } catch (IOException e) {
+        // Not an ordinary file: it contributes nothing to the size of the zip.
+        continue;
+      }
+    }
+    return size;
+  }
+
+  public RuleKey getRuleKey() {
+    return ruleKey;
+  }
+
+  /**
+   * Creates a zip file of the metadata and recorded artifacts, to be stored in the artifact cache.
+   * @return the zip, which the caller must delete once it has been stored, or absent if it could
+   *     not be created.
+   */
+  public Optional<File> createZipForArtifactCache(BuckEventBus eventBus) {
+    ImmutableSet<Path> pathsToIncludeInZip = getPathsToIncludeInZip();
+    File zip;
+    eventBus.post(ArtifactCacheEvent.started(ArtifactCacheEvent.Operation.COMPRESS, ruleKey));
+    try {
+      zip = File.createTempFile(buildTarget.getFullyQualifiedName().replace('/', '_'), ".zip");
+      projectFilesystem.createZip(pathsToIncludeInZip, zip);
+    } catch (IOException e) {
+      eventBus.post(LogEvent.info("Failed to create zip for %s containing:\n%s",
+          buildTarget,
+          Joiner.on('\n').join(ImmutableSortedSet.copyOf(pathsToIncludeInZip))));
+      e.printStackTrace();
+      return Optional.absent();
+    } finally {
+      eventBus.post(ArtifactCacheEvent.finished(ArtifactCacheEvent.Operation.COMPRESS, ruleKey));
     }
+    return Optional.of(zip);
+  }
 
+  private ImmutableSet<Path> getPathsToIncludeInZip() {
     ImmutableSet.Builder<Path> pathsToIncludeInZipBuilder = ImmutableSet.<Path>builder()
         .addAll(Iterables.transform(metadataToWrite.keySet(),
             new Function<String, Path>() {
@@ -157,20 +199,7 @@ public class BuildInfoRecorder {
       throw new RuntimeException(e);
     }
 
-    ImmutableSet<Path> pathsToIncludeInZip = pathsToIncludeInZipBuilder.build();
-    File zip;
-    try {
-      zip = File.createTempFile(buildTarget.getFullyQualifiedName().replace('/', '_'), ".zip");
-      projectFilesystem.createZip(pathsToIncludeInZip, zip);
-    } catch (IOException e) {
-      eventBus.post(LogEvent.info("Failed to create zip for %s containing:\n%s",
-          buildTarget,
-          Joiner.on('\n').join(ImmutableSortedSet.copyOf(pathsToIncludeInZip))));
-      e.printStackTrace();
-      return;
-    }
-    artifactCache.store(ruleKey, zip);
-    zip.delete();
+    return pathsToIncludeInZipBuilder.build();
   }
 
   private List<Path> getEntries(final Path outputDirectory) throws IOException {
@@ -187,12 +216,12 @@ public class BuildInfoRecorder {
   }
 
   /**
-   * Fetches the artifact associated with the {@link #buildTarget} for this class and writes it to
-   * the specified {@code outputFile}.
+   * Fetches the artifact associated with the {@link #buildTarget} for this class as a stream, so
+   * that it can be unpacked as the bytes arrive.
    */
-  public CacheResult fetchArtifactForBuildable(File outputFile, ArtifactCache artifactCache) {
-    Preconditions.checkNotNull(outputFile);
-    return artifactCache.fetch(ruleKey, outputFile);
+  public Optional<CachedArtifactInputStream> fetchArtifactStreamForBuildable(
+      ArtifactCache artifactCache) {
+    return artifactCache.fetchStream(ruleKey);
   }
 
   /**
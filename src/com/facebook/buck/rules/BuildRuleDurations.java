@@ -0,0 +1,175 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.util.BuckConstant;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Maps;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Remembers how long each rule took to build locally, from one build to the next, so that the
+ * rules on the longest remaining chain of work can be started first.
+ * <p>
+ * This is a compact index of the build time history, which records the durations of the rules
+ * that were {@link BuildRuleSuccess.Type#BUILT_LOCALLY built locally} here as it appends them: a
+ * rule that was fetched from the cache says nothing about how long it takes to build. Each new
+ * duration is averaged with the recorded one, so that a single unusually slow or fast build does
+ * not dominate the estimate.
+ */
+public class BuildRuleDurations {
+
+  /** Where the durations of a project are kept, relative to its root. */
+  public static final Path DURATIONS_PATH = BuckConstant.LOG_PATH.resolve("rule_durations");
+
+  private static final int MAGIC = 0x42524455; // "BRDU"
+  private static final int VERSION = 1;
+
+  /** The estimate for a rule that has never been built locally. */
+  @VisibleForTesting
+  static final long DEFAULT_DURATION_MILLIS = 100;
+
+  private final Path durationsFile;
+  private final ConcurrentMap<String, Long> durations;
+  private final AtomicBoolean isDirty;
+
+  private BuildRuleDurations(Path durationsFile, ConcurrentMap<String, Long> durations) {
+    this.durationsFile = Preconditions.checkNotNull(durationsFile);
+    this.durations = Preconditions.checkNotNull(durations);
+    this.isDirty = new AtomicBoolean();
+  }
+
+  /**
+   * Reads the durations at {@code durationsFile}. A missing or unreadable file results in no
+   * durations, which will be written back to {@code durationsFile} by {@link #save()}.
+   */
+  public static BuildRuleDurations load(Path durationsFile) {
+    ConcurrentMap<String, Long> durations = Maps.newConcurrentMap();
+    if (Files.isRegularFile(durationsFile)) {
+      try (DataInputStream input = new DataInputStream(
+          new BufferedInputStream(Files.newInputStream(durationsFile)))) {
+        if (input.readInt() == MAGIC && input.readInt() == VERSION) {
+          int count = input.readInt();
+          for (int i = 0; i < count; i++) {
+            durations.put(input.readUTF(), input.readLong());
+          }
+        }
+      } catch (IOException | RuntimeException e) {
+        // The durations are only used to order the work: start over if they are corrupt.
+        durations.clear();
+      }
+    }
+    return new BuildRuleDurations(durationsFile, durations);
+  }
+
+  /** @return how long {@code target} took to build locally, if it has been built before. */
+  public Optional<Long> getDurationMillis(BuildTarget target) {
+    return Optional.fromNullable(durations.get(target.getFullyQualifiedName()));
+  }
+
+  /**
+   * @param name the fully qualified name of the target of a rule that was built locally.
+   */
+  public void recordDurationMillis(String name, long durationMillis) {
+    Long previous = durations.get(name);
+    long estimate = previous == null ? durationMillis : (previous + durationMillis) / 2;
+    if (previous == null || previous != estimate) {
+      durations.put(name, estimate);
+      isDirty.set(true);
+    }
+  }
+
+  /**
+   * Computes, for every rule in {@code graph}, the estimated time from when the rule starts
+   * building to when the last of the rules that depend on it, directly or transitively, is done.
+   * This is the length of the longest path from the rule to a root of the graph, weighted by the
+   * recorded durations. Delaying a rule with a longer path delays the end of the build by more.
+   */
+  public ImmutableMap<BuildTarget, Long> getCriticalPathLengths(DependencyGraph graph) {
+    Map<BuildRule, Long> lengths = Maps.newHashMapWithExpectedSize(graph.getNodeCount());
+    // Every rule is visited after all of the rules that depend on it.
+    for (BuildRule rule : graph.getNodesInTopologicalOrder().reverse()) {
+      long longestDependent = 0;
+      for (BuildRule dependent : graph.getIncomingNodesFor(rule)) {
+        longestDependent = Math.max(longestDependent, lengths.get(dependent));
+      }
+      long duration = getDurationMillis(rule.getBuildTarget()).or(DEFAULT_DURATION_MILLIS);
+      lengths.put(rule, duration + longestDependent);
+    }
+
+    ImmutableMap.Builder<BuildTarget, Long> builder = ImmutableMap.builder();
+    for (Map.Entry<BuildRule, Long> entry : lengths.entrySet()) {
+      builder.put(entry.getKey().getBuildTarget(), entry.getValue());
+    }
+    return builder.build();
+  }
+
+  /**
+   * Writes the durations back to disk, if they have changed since they were loaded. They are
+   * written to a temporary file first so that a concurrent or interrupted run never sees a partial
+   * file.
+   */
+  public synchronized void save() throws IOException {
+    if (!isDirty.getAndSet(false)) {
+      return;
+    }
+
+    Files.createDirectories(durationsFile.getParent());
+    Path tempFile = Files.createTempFile(durationsFile.getParent(),
+        durationsFile.getFileName().toString(),
+        ".tmp");
+    try {
+      // Take a snapshot so that the count matches the entries that are written.
+      ImmutableList<Map.Entry<String, Long>> snapshot =
+          ImmutableList.copyOf(durations.entrySet());
+      try (DataOutputStream output = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(snapshot.size());
+        for (Map.Entry<String, Long> entry : snapshot) {
+          output.writeUTF(entry.getKey());
+          output.writeLong(entry.getValue());
+        }
+      }
+      Files.move(tempFile, durationsFile,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      isDirty.set(true);
+      Files.deleteIfExists(tempFile);
+      throw e;
+    }
+  }
+}
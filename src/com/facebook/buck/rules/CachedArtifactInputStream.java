@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.zip.Unzip;
+import com.google.common.base.Preconditions;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Path;
+
+/**
+ * The contents of an artifact returned by {@link ArtifactCache#fetchStream(RuleKey)}, along with
+ * the {@link CacheResult} that describes where it came from. Callers are responsible for closing
+ * the stream once they have consumed it.
+ */
+public class CachedArtifactInputStream extends FilterInputStream {
+
+  private final CacheResult cacheResult;
+
+  public CachedArtifactInputStream(InputStream delegate, CacheResult cacheResult) {
+    super(Preconditions.checkNotNull(delegate));
+    Preconditions.checkArgument(cacheResult.isSuccess(),
+        "A stream can only be created for a cache hit, not %s.",
+        cacheResult);
+    this.cacheResult = cacheResult;
+  }
+
+  public CacheResult getCacheResult() {
+    return cacheResult;
+  }
+
+  /**
+   * Unpacks the artifact, which is a zip file, under {@code root}, overwriting any existing files.
+   * Subclasses that have direct access to the individual files of the artifact may override this
+   * to avoid going through the zip format. This does not close the stream.
+   */
+  public void extractTo(Path root) throws IOException {
+    Unzip.extractZipStream(this,
+        root.toAbsolutePath().toString(),
+        /* overwriteExistingFiles */ true);
+  }
+}
@@ -23,7 +23,6 @@ import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepRunner;
 import com.facebook.buck.util.concurrent.MoreFutures;
-import com.facebook.buck.zip.Unzip;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Supplier;
@@ -36,7 +35,6 @@ import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.SettableFuture;
 
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.List;
@@ -209,9 +207,11 @@ public class CachingBuildEngine implements BuildEngine {
               BuildRuleSuccess buildRuleSuccess = new BuildRuleSuccess(rule, result.getSuccess());
               newFuture.set(buildRuleSuccess);
 
-              // Finally, upload to the artifact cache.
+              // Finally, upload to the artifact cache. This happens on the uploader's own threads
+              // so that zipping and storing the output does not hold up other rules.
               if (result.getSuccess().shouldUploadResultingArtifact()) {
-                buildInfoRecorder.get().performUploadToArtifactCache(context.getArtifactCache(),
+                context.getArtifactUploader().upload(buildInfoRecorder.get(),
+                    context.getArtifactCache(),
                     eventBus);
               }
             }
@@ -251,7 +251,8 @@ public class CachingBuildEngine implements BuildEngine {
                   result.getCacheResult(),
                   Optional.fromNullable(result.getSuccess())));
             }
-          });
+          },
+          context.getPriority(rule));
     } catch (Throwable failure) {
       // This is a defensive catch block: if buildRuleResult is never satisfied, then Buck will
       // hang because a callback that is waiting for this rule's future to complete will never be
@@ -376,57 +377,31 @@ public class CachingBuildEngine implements BuildEngine {
       ArtifactCache artifactCache,
       Path projectRoot,
       BuildContext buildContext) {
-    // Create a temp file whose extension must be ".zip" for Filesystems.newFileSystem() to infer
-    // that we are creating a zip-based FileSystem.
-    File zipFile;
-    try {
-      zipFile = File.createTempFile(rule.getFullyQualifiedName().replace('/', '_'), ".zip");
-    } catch (IOException e) {
-      throw new RuntimeException(e);
-    }
-
-    // TODO(mbolin): Change ArtifactCache.fetch() so that it returns a File instead of takes one.
-    // Then we could download directly from Cassandra into the on-disk cache and unzip it from
-    // there.
-    CacheResult cacheResult = buildInfoRecorder.fetchArtifactForBuildable(zipFile, artifactCache);
-    if (!cacheResult.isSuccess()) {
-      zipFile.delete();
-      return cacheResult;
+    // The artifact is a ZIP file, which is unzipped in the root of the project directory as it is
+    // read from the cache, so it never has to be written to a temporary file first.
+    Optional<CachedArtifactInputStream> artifact =
+        buildInfoRecorder.fetchArtifactStreamForBuildable(artifactCache);
+    if (!artifact.isPresent()) {
+      return CacheResult.MISS;
     }
 
-    // We unzip the file in the root of the project directory.
-    // Ideally, the following would work:
-    //
-    // Path pathToZip = Paths.get(zipFile.getAbsolutePath());
-    // FileSystem fs = FileSystems.newFileSystem(pathToZip, /* loader */ null);
-    // Path root = Iterables.getOnlyElement(fs.getRootDirectories());
-    // MoreFiles.copyRecursively(root, projectRoot);
-    //
-    // Unfortunately, this does not appear to work, in practice, because MoreFiles fails when trying
-    // to resolve a Path for a zip entry against a file Path on disk.
-
-    try {
-      Unzip.extractZipFile(zipFile.getAbsolutePath(),
-          projectRoot.toAbsolutePath().toString(),
-          /* overwriteExistingFiles */ true);
+    try (CachedArtifactInputStream input = artifact.get()) {
+      input.extractTo(projectRoot);
     } catch (IOException e) {
       // In the wild, we have seen some inexplicable failures during this step. For now, we try to
       // give the user as much information as we can to debug the issue, but return CacheResult.MISS
-      // so that Buck will fall back on doing a local build.
+      // so that Buck will fall back on doing a local build, which overwrites any partially
+      // extracted files.
       buildContext.getEventBus().post(LogEvent.warning(
-              "Failed to unzip the artifact for %s at %s.\n" +
+              "Failed to unzip the artifact for %s.\n" +
                   "The rule will be built locally, " +
-                  "but here is the stacktrace of the failed unzip call:\n" +
-                  rule.getBuildTarget(),
-              zipFile.getAbsolutePath(),
+                  "but here is the stacktrace of the failed unzip call:\n%s",
+              rule.getBuildTarget(),
               Throwables.getStackTraceAsString(e)));
       return CacheResult.MISS;
     }
 
-    // We only delete the ZIP file when it has been unzipped successfully. Otherwise, we leave it
-    // around for debugging purposes.
-    zipFile.delete();
-    return cacheResult;
+    return artifact.get().getCacheResult();
   }
 
   /**
@@ -21,11 +21,18 @@ import com.facebook.buck.event.LogEvent;
 import com.facebook.buck.event.ThrowableLogEvent;
 import com.facebook.buck.util.HumanReadableException;
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Functions;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 import com.google.common.collect.Sets;
 import com.google.common.io.Files;
 import com.google.common.util.concurrent.FutureCallback;
+import com.google.common.util.concurrent.FutureFallback;
 import com.google.common.util.concurrent.Futures;
 import com.google.common.util.concurrent.ListenableFuture;
 import com.google.common.util.concurrent.MoreExecutors;
@@ -42,12 +49,17 @@ import com.netflix.astyanax.impl.AstyanaxConfigurationImpl;
 import com.netflix.astyanax.model.Column;
 import com.netflix.astyanax.model.ColumnFamily;
 import com.netflix.astyanax.model.ColumnList;
+import com.netflix.astyanax.model.Row;
+import com.netflix.astyanax.model.Rows;
 import com.netflix.astyanax.serializers.StringSerializer;
 import com.netflix.astyanax.thrift.ThriftFamilyFactory;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
 import java.io.IOException;
+import java.util.Collection;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.Callable;
 import java.util.concurrent.CancellationException;
@@ -71,6 +83,19 @@ public class CassandraArtifactCache implements ArtifactCache {
    */
   private static final int MAX_CONNECTION_FAILURE_REPORTS = 10;
 
+  /**
+   * The most rows that are read by a single query or written by a single mutation.
+   */
+  private static final int MAX_ROWS_PER_BATCH = 16;
+
+  /**
+   * The most artifact bytes that are written by a single mutation. Each row holds a whole artifact,
+   * so a batch is limited by size as well as by row count in order to stay well below the default
+   * Thrift frame size of 15MB. The sizes of artifacts are not known before they are read, so a
+   * query that fails is retried one key at a time instead.
+   */
+  private static final long MAX_BYTES_PER_BATCH = 4 * 1024 * 1024;
+
   private static final String POOL_NAME = "ArtifactCachePool";
   private static final String CLUSTER_NAME = "BuckCacheCluster";
   private static final String KEYSPACE_NAME = "Buck";
@@ -115,9 +140,10 @@ public class CassandraArtifactCache implements ArtifactCache {
   private final Future<KeyspaceAndTtl> keyspaceAndTtlFuture;
   private final AtomicInteger numConnectionExceptionReports;
   private final boolean doStore;
+  private final Optional<ArtifactEncoding> encoding;
   private final BuckEventBus buckEventBus;
 
-  private final Set<ListenableFuture<OperationResult<Void>>> futures;
+  private final Set<ListenableFuture<?>> futures;
   private final AtomicBoolean isWaitingToClose;
   private final AtomicBoolean isKilled;
 
@@ -126,9 +152,10 @@ public class CassandraArtifactCache implements ArtifactCache {
       int port,
       int timeoutSeconds,
       boolean doStore,
+      Optional<ArtifactEncoding> encoding,
       BuckEventBus buckEventBus)
       throws ConnectionException {
-    this(timeoutSeconds, doStore, buckEventBus, new AstyanaxContext.Builder()
+    this(timeoutSeconds, doStore, encoding, buckEventBus, new AstyanaxContext.Builder()
             .forCluster(CLUSTER_NAME)
             .forKeyspace(KEYSPACE_NAME)
             .withAstyanaxConfiguration(new AstyanaxConfigurationImpl()
@@ -149,9 +176,11 @@ public class CassandraArtifactCache implements ArtifactCache {
   CassandraArtifactCache(
       int timeoutSeconds,
       boolean doStore,
+      Optional<ArtifactEncoding> encoding,
       BuckEventBus buckEventBus,
       final AstyanaxContext<Keyspace> context) {
     this.doStore = doStore;
+    this.encoding = Preconditions.checkNotNull(encoding);
     this.buckEventBus = Preconditions.checkNotNull(buckEventBus);
     this.numConnectionExceptionReports = new AtomicInteger(0);
     this.timeoutSeconds = timeoutSeconds;
@@ -176,7 +205,7 @@ public class CassandraArtifactCache implements ArtifactCache {
     });
 
     this.futures = Sets.newSetFromMap(
-        new ConcurrentHashMap<ListenableFuture<OperationResult<Void>>, Boolean>());
+        new ConcurrentHashMap<ListenableFuture<?>, Boolean>());
     this.isWaitingToClose = new AtomicBoolean(false);
     this.isKilled = new AtomicBoolean(false);
   }
@@ -242,91 +271,298 @@ public class CassandraArtifactCache implements ArtifactCache {
 
   @Override
   public CacheResult fetch(RuleKey ruleKey, File output) {
-    Optional<KeyspaceAndTtl> keyspaceAndTtl = getKeyspaceAndTtl();
-    if (!keyspaceAndTtl.isPresent()) {
-      // Connecting to Cassandra failed, return false
-      return CacheResult.MISS;
+    Optional<byte[]> artifact = fetchArtifact(ruleKey);
+    CacheResult success = CacheResult.MISS;
+    if (artifact.isPresent()) {
+      success = writeArtifact(ruleKey, artifact.get(), output);
     }
 
-    // Execute the query to Cassandra.
-    OperationResult<ColumnList<String>> result;
-    int ttl;
-    try {
-      Keyspace keyspace = keyspaceAndTtl.get().getKeyspace();
-      ttl = keyspaceAndTtl.get().getTtl();
+    buckEventBus.post(LogEvent.fine("Artifact fetch(%s, %s) cache %s",
+        ruleKey,
+        output.getPath(),
+        (success.isSuccess() ? "hit" : "miss")));
+    return success;
+  }
 
-      result = keyspace.prepareQuery(CF_ARTIFACT)
-          .getKey(ruleKey.toString())
-          .execute();
-    } catch (ConnectionException e) {
-      reportConnectionFailure("Attempting to fetch " + ruleKey + ".", e);
+  @Override
+  public Optional<CachedArtifactInputStream> fetchStream(RuleKey ruleKey) {
+    Optional<byte[]> artifact = fetchArtifact(ruleKey);
+    if (artifact.isPresent()) {
+      artifact = decodeArtifact(ruleKey, artifact.get());
+    }
+    buckEventBus.post(LogEvent.fine("Artifact fetchStream(%s) cache %s",
+        ruleKey,
+        (artifact.isPresent() ? "hit" : "miss")));
+    if (!artifact.isPresent()) {
+      return Optional.absent();
+    }
+    return Optional.of(new CachedArtifactInputStream(
+        new ByteArrayInputStream(artifact.get()),
+        CacheResult.CASSANDRA_HIT));
+  }
+
+  /**
+   * Fetches the artifacts with one query per {@link #MAX_ROWS_PER_BATCH} keys, rather than one
+   * query per key.
+   */
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> fetchAll(Map<RuleKey, File> outputs) {
+    Map<RuleKey, byte[]> artifacts = fetchArtifacts(outputs.keySet());
+    ImmutableMap.Builder<RuleKey, CacheResult> cacheResults = ImmutableMap.builder();
+    for (Map.Entry<RuleKey, File> output : outputs.entrySet()) {
+      byte[] artifact = artifacts.get(output.getKey());
+      cacheResults.put(output.getKey(), artifact == null ?
+          CacheResult.MISS :
+          writeArtifact(output.getKey(), artifact, output.getValue()));
+    }
+
+    buckEventBus.post(LogEvent.fine("Artifact fetchAll(%d artifacts) cache hits: %d",
+        outputs.size(),
+        artifacts.size()));
+    return cacheResults.build();
+  }
+
+  private CacheResult writeArtifact(RuleKey ruleKey, byte[] artifact, File output) {
+    Optional<byte[]> decodedArtifact = decodeArtifact(ruleKey, artifact);
+    if (!decodedArtifact.isPresent()) {
       return CacheResult.MISS;
     }
+    try {
+      Files.createParentDirs(output);
+      Files.write(decodedArtifact.get(), output);
+      return CacheResult.CASSANDRA_HIT;
+    } catch (IOException e) {
+      buckEventBus.post(ThrowableLogEvent.create(e,
+          "Artifact was fetched but could not be written: %s at %s.",
+          ruleKey,
+          output.getPath()));
+      return CacheResult.MISS;
+    }
+  }
 
-    CacheResult success = CacheResult.MISS;
+  private Optional<byte[]> decodeArtifact(RuleKey ruleKey, byte[] artifact) {
     try {
-      Column<String> column = result.getResult().getColumnByName(ARTIFACT_COLUMN_NAME);
-      if (column != null) {
+      return Optional.of(ArtifactEncoding.decode(artifact));
+    } catch (IOException e) {
+      buckEventBus.post(ThrowableLogEvent.create(e,
+          "Artifact was fetched but could not be decoded: %s.",
+          ruleKey));
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * Queries Cassandra for the artifact keyed by ruleKey.
+   *
+   * @return the bytes of the artifact, or {@link Optional#absent()} if it could not be fetched.
+   */
+  private Optional<byte[]> fetchArtifact(RuleKey ruleKey) {
+    return Optional.fromNullable(fetchArtifacts(ImmutableList.of(ruleKey)).get(ruleKey));
+  }
+
+  /**
+   * Queries Cassandra for the artifacts keyed by ruleKeys, with one multi-row query per
+   * {@link #MAX_ROWS_PER_BATCH} keys. Each entry that has lived for more than half of its TTL is
+   * rewritten as a side effect, so that frequently used artifacts do not expire.
+   *
+   * @return the bytes of each artifact that could be fetched, keyed by its ruleKey.
+   */
+  private Map<RuleKey, byte[]> fetchArtifacts(Collection<RuleKey> ruleKeys) {
+    Optional<KeyspaceAndTtl> keyspaceAndTtl = getKeyspaceAndTtl();
+    if (!keyspaceAndTtl.isPresent()) {
+      // Connecting to Cassandra failed, so every artifact is a miss.
+      return ImmutableMap.of();
+    }
+    Keyspace keyspace = keyspaceAndTtl.get().getKeyspace();
+    int ttl = keyspaceAndTtl.get().getTtl();
+
+    Map<RuleKey, byte[]> artifacts = Maps.newHashMap();
+    Map<RuleKey, byte[]> artifactsToRewrite = Maps.newHashMap();
+    for (List<RuleKey> batch : Iterables.partition(ruleKeys, MAX_ROWS_PER_BATCH)) {
+      for (Map.Entry<RuleKey, Column<String>> entry : fetchColumns(keyspace, batch).entrySet()) {
+        Column<String> column = entry.getValue();
         byte[] artifact = column.getByteArrayValue();
-        Files.createParentDirs(output);
-        Files.write(artifact, output);
+        artifacts.put(entry.getKey(), artifact);
         // Cassandra timestamps use microsecond resolution.
         if (System.currentTimeMillis() * 1000L - column.getTimestamp() > ttl * 1000000L / 2L) {
           // The cache entry has lived for more than half of its total TTL, so rewrite it in order
           // to reset the TTL.
-          store(ruleKey, output);
+          artifactsToRewrite.put(entry.getKey(), artifact);
         }
-        success = CacheResult.CASSANDRA_HIT;
       }
-    } catch (IOException e) {
-      buckEventBus.post(ThrowableLogEvent.create(e,
-          "Artifact was fetched but could not be written: %s at %s.",
-          ruleKey,
-          output.getPath()));
     }
 
-    buckEventBus.post(LogEvent.fine("Artifact fetch(%s, %s) cache %s",
-        ruleKey,
-        output.getPath(),
-        (success.isSuccess() ? "hit" : "miss")));
-    return success;
+    storeArtifacts(artifactsToRewrite);
+    return artifacts;
+  }
+
+  /**
+   * Queries Cassandra for the artifact columns of the batch of ruleKeys. If the query fails, for
+   * example because the artifacts did not fit in a single response, each key is queried on its own.
+   *
+   * @return the column of each artifact that could be fetched, keyed by its ruleKey.
+   */
+  private Map<RuleKey, Column<String>> fetchColumns(Keyspace keyspace, List<RuleKey> batch) {
+    Rows<String, String> rows;
+    try {
+      rows = keyspace.prepareQuery(CF_ARTIFACT)
+          .getKeySlice(Lists.transform(batch, Functions.toStringFunction()))
+          .withColumnSlice(ARTIFACT_COLUMN_NAME)
+          .execute()
+          .getResult();
+    } catch (ConnectionException e) {
+      if (batch.size() == 1) {
+        reportConnectionFailure("Attempting to fetch " + batch + ".", e);
+        return ImmutableMap.of();
+      }
+      Map<RuleKey, Column<String>> columns = Maps.newHashMap();
+      for (RuleKey ruleKey : batch) {
+        columns.putAll(fetchColumns(keyspace, ImmutableList.of(ruleKey)));
+      }
+      return columns;
+    }
+
+    Map<RuleKey, Column<String>> columns = Maps.newHashMap();
+    for (RuleKey ruleKey : batch) {
+      Row<String, String> row = rows.getRow(ruleKey.toString());
+      Column<String> column = row == null ?
+          null :
+          row.getColumns().getColumnByName(ARTIFACT_COLUMN_NAME);
+      if (column != null) {
+        columns.put(ruleKey, column);
+      }
+    }
+    return columns;
   }
 
   @Override
   public void store(RuleKey ruleKey, File output) {
+    storeAll(ImmutableMap.of(ruleKey, output));
+  }
+
+  /**
+   * Stores the artifacts with one mutation per {@link #MAX_ROWS_PER_BATCH} artifacts or
+   * {@link #MAX_BYTES_PER_BATCH} bytes, rather than one mutation per artifact.
+   */
+  @Override
+  public void storeAll(Map<RuleKey, File> outputs) {
     if (!isStoreSupported()) {
       return;
     }
 
+    // Only one batch of artifacts is held in memory at a time.
+    Map<RuleKey, byte[]> artifacts = Maps.newHashMap();
+    long artifactBytes = 0;
+    for (Map.Entry<RuleKey, File> output : outputs.entrySet()) {
+      try {
+        byte[] artifact = Files.toByteArray(output.getValue());
+        if (encoding.isPresent()) {
+          artifact = encoding.get().encode(artifact);
+        }
+        artifacts.put(output.getKey(), artifact);
+        artifactBytes += artifact.length;
+      } catch (IOException | OutOfMemoryError e) {
+        buckEventBus.post(ThrowableLogEvent.create(e,
+            "Artifact store(%s, %s) error: %s",
+            output.getKey(),
+            output.getValue().getPath()));
+      }
+      if (artifacts.size() >= MAX_ROWS_PER_BATCH || artifactBytes >= MAX_BYTES_PER_BATCH) {
+        storeArtifacts(artifacts);
+        artifacts = Maps.newHashMap();
+        artifactBytes = 0;
+      }
+    }
+    storeArtifacts(artifacts);
+  }
+
+  private void storeArtifacts(Map<RuleKey, byte[]> artifacts) {
+    if (!isStoreSupported() || artifacts.isEmpty()) {
+      return;
+    }
+
     Optional<KeyspaceAndTtl> keyspaceAndTtl = getKeyspaceAndTtl();
     if (!keyspaceAndTtl.isPresent()) {
       return;
     }
-    try {
-      Keyspace keyspace = keyspaceAndTtl.get().getKeyspace();
-      int ttl = keyspaceAndTtl.get().getTtl();
-      MutationBatch mutationBatch = keyspace.prepareMutationBatch();
+    Keyspace keyspace = keyspaceAndTtl.get().getKeyspace();
+    int ttl = keyspaceAndTtl.get().getTtl();
+    for (Map<RuleKey, byte[]> batch : partitionArtifacts(artifacts)) {
+      trackFuture(storeBatch(keyspace, ttl, batch));
+    }
+  }
+
+  /**
+   * Splits the artifacts into batches of at most {@link #MAX_ROWS_PER_BATCH} artifacts and, unless
+   * a single artifact is larger than that on its own, at most {@link #MAX_BYTES_PER_BATCH} bytes.
+   */
+  @VisibleForTesting
+  static List<Map<RuleKey, byte[]>> partitionArtifacts(Map<RuleKey, byte[]> artifacts) {
+    List<Map<RuleKey, byte[]>> batches = Lists.newArrayList();
+    Map<RuleKey, byte[]> batch = Maps.newHashMap();
+    long batchBytes = 0;
+    for (Map.Entry<RuleKey, byte[]> artifact : artifacts.entrySet()) {
+      long artifactBytes = artifact.getValue().length;
+      if (!batch.isEmpty() &&
+          (batch.size() >= MAX_ROWS_PER_BATCH ||
+              batchBytes + artifactBytes > MAX_BYTES_PER_BATCH)) {
+        batches.add(batch);
+        batch = Maps.newHashMap();
+        batchBytes = 0;
+      }
+      batch.put(artifact.getKey(), artifact.getValue());
+      batchBytes += artifactBytes;
+    }
+    if (!batch.isEmpty()) {
+      batches.add(batch);
+    }
+    return batches;
+  }
 
-      mutationBatch.withRow(CF_ARTIFACT, ruleKey.toString())
+  /**
+   * Writes the batch of artifacts with a single mutation. If a mutation of several rows fails,
+   * each of its rows is written again on its own.
+   */
+  private ListenableFuture<?> storeBatch(
+      final Keyspace keyspace,
+      final int ttl,
+      final Map<RuleKey, byte[]> batch) {
+    MutationBatch mutationBatch = keyspace.prepareMutationBatch();
+    for (Map.Entry<RuleKey, byte[]> artifact : batch.entrySet()) {
+      mutationBatch.withRow(CF_ARTIFACT, artifact.getKey().toString())
           .setDefaultTtl(ttl)
-          .putColumn(ARTIFACT_COLUMN_NAME, Files.toByteArray(output));
-      ListenableFuture<OperationResult<Void>> mutationFuture = mutationBatch.executeAsync();
-      trackFuture(mutationFuture);
+          .putColumn(ARTIFACT_COLUMN_NAME, artifact.getValue());
+    }
+
+    ListenableFuture<OperationResult<Void>> mutationFuture;
+    try {
+      mutationFuture = mutationBatch.executeAsync();
     } catch (ConnectionException e) {
-      reportConnectionFailure("Attempting to store " + ruleKey + ".", e);
-    } catch (IOException | OutOfMemoryError e) {
-      buckEventBus.post(ThrowableLogEvent.create(e,
-          "Artifact store(%s, %s) error: %s",
-          ruleKey,
-          output.getPath()));
+      reportConnectionFailure("Attempting to store " + batch.keySet() + ".", e);
+      return Futures.immediateFuture(null);
+    }
+    if (batch.size() == 1) {
+      return mutationFuture;
     }
+
+    return Futures.<Object>withFallback(mutationFuture, new FutureFallback<List<Object>>() {
+      @Override
+      public ListenableFuture<List<Object>> create(Throwable t) {
+        List<ListenableFuture<?>> retries = Lists.newArrayList();
+        for (Map.Entry<RuleKey, byte[]> artifact : batch.entrySet()) {
+          Map<RuleKey, byte[]> row = ImmutableMap.of(artifact.getKey(), artifact.getValue());
+          retries.add(storeBatch(keyspace, ttl, row));
+        }
+        return Futures.<Object>allAsList(retries);
+      }
+    });
   }
 
-  private void trackFuture(final ListenableFuture<OperationResult<Void>> future) {
+  private void trackFuture(final ListenableFuture<?> future) {
     futures.add(future);
-    Futures.addCallback(future, new FutureCallback<OperationResult<Void>>() {
+    Futures.addCallback(future, new FutureCallback<Object>() {
       @Override
-      public void onSuccess(OperationResult<Void> result) {
+      public void onSuccess(Object result) {
         removeFuture();
       }
 
@@ -347,7 +583,7 @@ public class CassandraArtifactCache implements ArtifactCache {
   @SuppressWarnings("PMD.EmptyCatchBlock")
   public void close() {
     isWaitingToClose.set(true);
-    ListenableFuture<List<OperationResult<Void>>> future = Futures.allAsList(futures);
+    ListenableFuture<List<Object>> future = Futures.<Object>allAsList(futures);
     try {
       future.get();
     } catch (InterruptedException | ExecutionException e) {
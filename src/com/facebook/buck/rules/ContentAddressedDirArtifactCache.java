@@ -0,0 +1,456 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static java.nio.file.StandardCopyOption.REPLACE_EXISTING;
+
+import com.facebook.buck.util.MoreFiles;
+import com.facebook.buck.zip.CustomZipOutputStream;
+import com.facebook.buck.zip.ZipOutputStreams;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSortedMap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.Set;
+import java.util.SortedMap;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+/**
+ * A directory-based {@link ArtifactCache} that stores the files of each artifact under their
+ * SHA-1, so a file that is produced by many rules (or by many versions of the same rule) is only
+ * stored once. Each {@link RuleKey} maps to a small manifest of the paths in the artifact and the
+ * SHA-1 of their contents. Directories are recorded in the manifest too, without contents, so that
+ * empty directories survive the round trip:
+ * <pre>
+ *   cacheDir/manifests/&lt;rule key>
+ *   cacheDir/blobs/&lt;first two characters of sha1>/&lt;sha1>
+ * </pre>
+ * Artifacts fetched with {@link #fetchStream(RuleKey)} are copied into place file by file, rather
+ * than being assembled into a zip and unzipped again. Only zips can be stored: an artifact that is
+ * not one, or that has no entries, is not stored at all.
+ */
+public class ContentAddressedDirArtifactCache implements ArtifactCache {
+
+  private static final Logger logger =
+      Logger.getLogger(ContentAddressedDirArtifactCache.class.getName());
+
+  private static final TypeReference<SortedMap<String, String>> MANIFEST_TYPE =
+      new TypeReference<SortedMap<String, String>>() {};
+
+  /** What a directory maps to in a manifest, in place of the SHA-1 of a file's contents. */
+  private static final String DIRECTORY = "";
+
+  private final Path manifestsDir;
+  private final Path blobsDir;
+  private final Optional<Long> maxCacheSizeBytes;
+  private final boolean doStore;
+  private final ObjectMapper objectMapper;
+
+  public ContentAddressedDirArtifactCache(
+      File cacheDir,
+      boolean doStore,
+      Optional<Long> maxCacheSizeBytes) throws IOException {
+    Path cacheRoot = Preconditions.checkNotNull(cacheDir).toPath();
+    this.manifestsDir = cacheRoot.resolve("manifests");
+    this.blobsDir = cacheRoot.resolve("blobs");
+    this.maxCacheSizeBytes = Preconditions.checkNotNull(maxCacheSizeBytes);
+    this.doStore = doStore;
+    this.objectMapper = new ObjectMapper();
+    Files.createDirectories(manifestsDir);
+    Files.createDirectories(blobsDir);
+  }
+
+  @Override
+  public CacheResult fetch(RuleKey ruleKey, File output) {
+    CacheResult success = CacheResult.MISS;
+    Optional<ImmutableSortedMap<String, String>> manifest = readManifest(ruleKey);
+    if (manifest.isPresent()) {
+      try {
+        Files.createDirectories(output.toPath().getParent());
+        writeZip(manifest.get(), output);
+        success = CacheResult.DIR_HIT;
+      } catch (IOException e) {
+        logger.warning(String.format("Artifact fetch(%s, %s) error: %s",
+            ruleKey,
+            output.getPath(),
+            e.getMessage()));
+      }
+    }
+    logger.info(String.format("Artifact fetch(%s, %s) cache %s",
+        ruleKey,
+        output.getPath(),
+        (success.isSuccess() ? "hit" : "miss")));
+    return success;
+  }
+
+  @Override
+  public Optional<CachedArtifactInputStream> fetchStream(RuleKey ruleKey) {
+    Optional<ImmutableSortedMap<String, String>> manifest = readManifest(ruleKey);
+    logger.info(String.format("Artifact fetchStream(%s) cache %s",
+        ruleKey,
+        (manifest.isPresent() ? "hit" : "miss")));
+    if (!manifest.isPresent()) {
+      return Optional.absent();
+    }
+    return Optional.<CachedArtifactInputStream>of(
+        new ContentAddressedArtifact(ruleKey, manifest.get()));
+  }
+
+  @Override
+  public void store(RuleKey ruleKey, File output) {
+    if (!doStore) {
+      return;
+    }
+
+    SortedMap<String, String> manifest = Maps.newTreeMap();
+    // An artifact that was stored through an HttpArtifactCache may still be encoded.
+    try (ZipInputStream zip = new ZipInputStream(ArtifactEncoding.decode(
+        new BufferedInputStream(new FileInputStream(output))))) {
+      for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+        manifest.put(entry.getName(), entry.isDirectory() ? DIRECTORY : storeBlob(zip));
+      }
+      if (manifest.isEmpty()) {
+        // ZipInputStream finds no entries in a file that is not a zip at all, and an empty
+        // manifest would be served as a hit that restores nothing.
+        logger.warning(String.format("Artifact store(%s, %s) skipped: not a zip with entries.",
+            ruleKey,
+            output.getPath()));
+        return;
+      }
+      // The manifest is written last so that it never refers to a blob that is not in the cache.
+      Path tmpManifest = Files.createTempFile(manifestsDir, ruleKey.toString(), ".tmp");
+      try {
+        objectMapper.writeValue(tmpManifest.toFile(), manifest);
+        Files.move(tmpManifest, getPathToManifest(ruleKey), REPLACE_EXISTING);
+      } finally {
+        Files.deleteIfExists(tmpManifest);
+      }
+    } catch (IOException e) {
+      logger.warning(String.format("Artifact store(%s, %s) error: %s",
+          ruleKey,
+          output.getPath(),
+          e.getMessage()));
+    }
+  }
+
+  /**
+   * Copies the remaining contents of {@code input} into the blob store, unless a blob with the
+   * same contents is already present.
+   * @return the SHA-1 of the contents.
+   */
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  private String storeBlob(InputStream input) throws IOException {
+    Path tmpBlob = Files.createTempFile(blobsDir, "blob", ".tmp");
+    try {
+      Hasher hasher = Hashing.sha1().newHasher();
+      byte[] buffer = new byte[8192];
+      try (OutputStream out = Files.newOutputStream(tmpBlob)) {
+        for (int read = input.read(buffer); read != -1; read = input.read(buffer)) {
+          hasher.putBytes(buffer, 0, read);
+          out.write(buffer, 0, read);
+        }
+      }
+
+      String sha1 = hasher.hash().toString();
+      Path blob = getPathToBlob(sha1);
+      if (!Files.exists(blob)) {
+        Files.createDirectories(blob.getParent());
+        try {
+          Files.move(tmpBlob, blob);
+        } catch (FileAlreadyExistsException e) {
+          // Another process stored the same contents concurrently, which is just as good.
+        }
+      }
+      return sha1;
+    } finally {
+      Files.deleteIfExists(tmpBlob);
+    }
+  }
+
+  private Optional<ImmutableSortedMap<String, String>> readManifest(RuleKey ruleKey) {
+    Path manifestPath = getPathToManifest(ruleKey);
+    if (!Files.exists(manifestPath)) {
+      return Optional.absent();
+    }
+    try {
+      SortedMap<String, String> manifest =
+          objectMapper.readValue(manifestPath.toFile(), MANIFEST_TYPE);
+      for (String sha1 : manifest.values()) {
+        if (!isDirectory(sha1) && !Files.exists(getPathToBlob(sha1))) {
+          // A blob was evicted out from under this manifest, so treat it as a miss.
+          return Optional.absent();
+        }
+      }
+      return Optional.of(ImmutableSortedMap.copyOf(manifest));
+    } catch (IOException e) {
+      logger.warning(String.format("Artifact manifest for %s could not be read: %s",
+          ruleKey,
+          e.getMessage()));
+      return Optional.absent();
+    }
+  }
+
+  private void writeZip(Map<String, String> manifest, File output) throws IOException {
+    try (CustomZipOutputStream zip = ZipOutputStreams.newOutputStream(output)) {
+      for (Map.Entry<String, String> entry : manifest.entrySet()) {
+        zip.putNextEntry(new ZipEntry(entry.getKey()));
+        if (!isDirectory(entry.getValue())) {
+          Files.copy(getPathToBlob(entry.getValue()), zip);
+        }
+        zip.closeEntry();
+      }
+    }
+  }
+
+  private Path getPathToManifest(RuleKey ruleKey) {
+    return manifestsDir.resolve(ruleKey.toString());
+  }
+
+  private static boolean isDirectory(String sha1) {
+    return DIRECTORY.equals(sha1);
+  }
+
+  @VisibleForTesting
+  Path getPathToBlob(String sha1) {
+    return blobsDir.resolve(sha1.substring(0, 2)).resolve(sha1);
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> fetchAll(Map<RuleKey, File> outputs) {
+    return ArtifactCaches.fetchEach(this, outputs);
+  }
+
+  @Override
+  public void storeAll(Map<RuleKey, File> outputs) {
+    ArtifactCaches.storeEach(this, outputs);
+  }
+
+  /**
+   * @return whether this cache was configured to store artifacts, rather than only fetch them.
+   */
+  @Override
+  public boolean isStoreSupported() {
+    return doStore;
+  }
+
+  @Override
+  public void close() {
+    // store() operation is synchronous - do nothing.
+  }
+
+  /**
+   * @param finished Signals that the build has finished.
+   */
+  @Subscribe
+  public synchronized void buildFinished(BuildEvent.Finished finished) {
+    deleteOldFiles();
+  }
+
+  /**
+   * Deletes the manifests that have not been accessed recently, and then every blob that is no
+   * longer referenced by a manifest. Because blobs are shared, the size of an artifact is only
+   * counted against {@link #maxCacheSizeBytes} for the blobs that more recently accessed artifacts
+   * do not already account for.
+   */
+  @VisibleForTesting
+  void deleteOldFiles() {
+    if (!maxCacheSizeBytes.isPresent()) {
+      return;
+    }
+
+    File[] manifests = manifestsDir.toFile().listFiles();
+    if (manifests == null) {
+      return;
+    }
+    MoreFiles.sortFilesByAccessTime(manifests);
+
+    // Keeps the first N manifests ordered by last access time whose combined size, including the
+    // blobs that they refer to, is less than maxCacheSizeBytes.
+    Set<String> liveBlobs = Sets.newHashSet();
+    long currentSizeBytes = 0;
+    boolean isOverBudget = false;
+    for (File manifestFile : manifests) {
+      if (manifestFile.getName().endsWith(".tmp")) {
+        // Belongs to a store() that is still in progress.
+        continue;
+      }
+      Optional<SortedMap<String, String>> manifest = readManifestForCleanup(manifestFile);
+      if (!isOverBudget && manifest.isPresent()) {
+        long artifactSizeBytes = manifestFile.length();
+        for (String sha1 : Sets.newHashSet(manifest.get().values())) {
+          if (!isDirectory(sha1) && !liveBlobs.contains(sha1)) {
+            artifactSizeBytes += getPathToBlob(sha1).toFile().length();
+          }
+        }
+        if (currentSizeBytes + artifactSizeBytes <= maxCacheSizeBytes.get()) {
+          currentSizeBytes += artifactSizeBytes;
+          liveBlobs.addAll(manifest.get().values());
+          continue;
+        }
+        isOverBudget = true;
+      }
+      deleteQuietly(manifestFile.toPath());
+    }
+
+    File[] blobPrefixDirs = blobsDir.toFile().listFiles();
+    if (blobPrefixDirs == null) {
+      return;
+    }
+    for (File prefixDir : blobPrefixDirs) {
+      File[] blobs = prefixDir.listFiles();
+      if (blobs == null) {
+        // Not a directory: this is a blob that store() is still writing.
+        continue;
+      }
+      for (File blob : blobs) {
+        if (!liveBlobs.contains(blob.getName())) {
+          deleteQuietly(blob.toPath());
+        }
+      }
+    }
+  }
+
+  private Optional<SortedMap<String, String>> readManifestForCleanup(File manifestFile) {
+    try {
+      return Optional.of(objectMapper.<SortedMap<String, String>>readValue(
+          manifestFile,
+          MANIFEST_TYPE));
+    } catch (IOException e) {
+      // Temporary files and corrupt manifests are deleted along with the stale ones.
+      return Optional.absent();
+    }
+  }
+
+  private static void deleteQuietly(Path path) {
+    try {
+      Files.deleteIfExists(path);
+    } catch (IOException e) {
+      // Eat any IOExceptions while attempting to clean up the cache directory.  If the file is
+      // now in use, we no longer want to delete it.
+      logger.log(Level.INFO, "Unable to delete cache file " + path, e);
+    }
+  }
+
+  /**
+   * An artifact whose files are copied directly out of the blob store by
+   * {@link #extractTo(Path)}. If the caller reads the stream instead, the artifact is assembled
+   * into a zip file on first use.
+   */
+  private class ContentAddressedArtifact extends CachedArtifactInputStream {
+
+    private final ImmutableSortedMap<String, String> manifest;
+
+    private ContentAddressedArtifact(
+        RuleKey ruleKey,
+        ImmutableSortedMap<String, String> manifest) {
+      super(new LazyZipInputStream(ruleKey, manifest), CacheResult.DIR_HIT);
+      this.manifest = manifest;
+    }
+
+    @Override
+    public void extractTo(Path root) throws IOException {
+      Path absoluteRoot = root.toAbsolutePath();
+      for (Map.Entry<String, String> entry : manifest.entrySet()) {
+        Path target = absoluteRoot.resolve(entry.getKey());
+        if (isDirectory(entry.getValue())) {
+          Files.createDirectories(target);
+          continue;
+        }
+        Files.createDirectories(target.getParent());
+        // Blobs are copied rather than linked: build steps may rewrite an output file in place,
+        // which would silently corrupt a shared blob.
+        Files.copy(getPathToBlob(entry.getValue()), target, REPLACE_EXISTING);
+      }
+    }
+  }
+
+  /**
+   * Writes the artifact to a temporary zip file the first time it is read, and deletes it when
+   * closed.
+   */
+  private class LazyZipInputStream extends InputStream {
+
+    private final RuleKey ruleKey;
+    private final ImmutableSortedMap<String, String> manifest;
+    private File zipFile;
+    private InputStream delegate;
+
+    private LazyZipInputStream(RuleKey ruleKey, ImmutableSortedMap<String, String> manifest) {
+      this.ruleKey = ruleKey;
+      this.manifest = manifest;
+    }
+
+    private InputStream getDelegate() throws IOException {
+      if (delegate == null) {
+        zipFile = File.createTempFile(ruleKey.toString(), ".zip");
+        writeZip(manifest, zipFile);
+        delegate = new BufferedInputStream(new FileInputStream(zipFile));
+      }
+      return delegate;
+    }
+
+    @Override
+    public int read() throws IOException {
+      return getDelegate().read();
+    }
+
+    @Override
+    public int read(byte[] buffer, int offset, int length) throws IOException {
+      return getDelegate().read(buffer, offset, length);
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+      return getDelegate().skip(n);
+    }
+
+    @Override
+    public void close() throws IOException {
+      try {
+        if (delegate != null) {
+          delegate.close();
+        }
+      } finally {
+        if (zipFile != null) {
+          Files.deleteIfExists(zipFile.toPath());
+        }
+      }
+    }
+  }
+}
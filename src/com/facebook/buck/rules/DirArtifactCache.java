@@ -24,12 +24,15 @@ import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.eventbus.Subscribe;
 
+import java.io.BufferedInputStream;
 import java.io.File;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.Path;
+import java.util.Map;
 import java.util.logging.Level;
 import java.util.logging.Logger;
 
@@ -72,6 +75,27 @@ public class DirArtifactCache implements ArtifactCache {
     return success;
   }
 
+  @Override
+  public Optional<CachedArtifactInputStream> fetchStream(RuleKey ruleKey) {
+    Optional<CachedArtifactInputStream> artifact = Optional.absent();
+    File cacheEntry = new File(cacheDir, ruleKey.toString());
+    if (cacheEntry.exists()) {
+      try {
+        artifact = Optional.of(new CachedArtifactInputStream(
+            new BufferedInputStream(Files.newInputStream(cacheEntry.toPath())),
+            CacheResult.DIR_HIT));
+      } catch (IOException e) {
+        logger.warning(String.format("Artifact fetchStream(%s) error: %s",
+            ruleKey,
+            e.getMessage()));
+      }
+    }
+    logger.info(String.format("Artifact fetchStream(%s) cache %s",
+        ruleKey,
+        (artifact.isPresent() ? "hit" : "miss")));
+    return artifact;
+  }
+
   @Override
   public void store(RuleKey ruleKey, File output) {
     if (!doStore) {
@@ -102,8 +126,18 @@ public class DirArtifactCache implements ArtifactCache {
     }
   }
 
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> fetchAll(Map<RuleKey, File> outputs) {
+    return ArtifactCaches.fetchEach(this, outputs);
+  }
+
+  @Override
+  public void storeAll(Map<RuleKey, File> outputs) {
+    ArtifactCaches.storeEach(this, outputs);
+  }
+
   /**
-   * @return {@code true}: storing artifacts is always supported by this class.
+   * @return whether this cache was configured to store artifacts, rather than only fetch them.
    */
   @Override
   public boolean isStoreSupported() {
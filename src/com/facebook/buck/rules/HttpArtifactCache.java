@@ -0,0 +1,316 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static com.facebook.buck.util.concurrent.MoreExecutors.newMultiThreadExecutor;
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.LogEvent;
+import com.facebook.buck.event.ThrowableLogEvent;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * An {@link ArtifactCache} backed by an HTTP server: the artifact for a {@link RuleKey} is fetched
+ * with a {@code GET} of {@code <base URL>/<RuleKey>}, and stored with a {@code PUT} to the same
+ * URL. This is all that is asked of the server, so the cache may be a CDN, a blob store, or the
+ * reference implementation in {@link com.facebook.buck.httpserver.ArtifactCacheHandler}.
+ * <p>
+ * Connections are kept alive and reused between requests by {@link HttpURLConnection}, which
+ * keeps up to {@code http.maxConnections} (5 by default) idle connections per server.
+ * {@link #fetchAll(Map)} and {@link #storeAll(Map)} transfer artifacts in parallel, on a fixed
+ * number of threads.
+ */
+public class HttpArtifactCache implements ArtifactCache {
+
+  /** @see CassandraArtifactCache */
+  private static final int MAX_CONNECTION_FAILURE_REPORTS = 10;
+
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 15;
+
+  private final URL baseUrl;
+  private final int timeoutMillis;
+  private final boolean doStore;
+  private final Optional<ArtifactEncoding> encoding;
+  private final ListeningExecutorService executorService;
+  private final BuckEventBus buckEventBus;
+  private final AtomicInteger numConnectionExceptionReports;
+
+  public HttpArtifactCache(
+      URL baseUrl,
+      int timeoutSeconds,
+      int numThreads,
+      boolean doStore,
+      Optional<ArtifactEncoding> encoding,
+      BuckEventBus buckEventBus) {
+    this(baseUrl,
+        timeoutSeconds,
+        listeningDecorator(newMultiThreadExecutor("HttpArtifactCache", numThreads)),
+        doStore,
+        encoding,
+        buckEventBus);
+  }
+
+  @VisibleForTesting
+  HttpArtifactCache(
+      URL baseUrl,
+      int timeoutSeconds,
+      ListeningExecutorService executorService,
+      boolean doStore,
+      Optional<ArtifactEncoding> encoding,
+      BuckEventBus buckEventBus) {
+    this.baseUrl = Preconditions.checkNotNull(baseUrl);
+    this.timeoutMillis = (int) TimeUnit.SECONDS.toMillis(timeoutSeconds);
+    this.executorService = Preconditions.checkNotNull(executorService);
+    this.doStore = doStore;
+    this.encoding = Preconditions.checkNotNull(encoding);
+    this.buckEventBus = Preconditions.checkNotNull(buckEventBus);
+    this.numConnectionExceptionReports = new AtomicInteger(0);
+  }
+
+  @Override
+  public CacheResult fetch(RuleKey ruleKey, File output) {
+    Optional<CachedArtifactInputStream> artifact = fetchStream(ruleKey);
+    if (!artifact.isPresent()) {
+      return CacheResult.MISS;
+    }
+
+    try (InputStream input = artifact.get()) {
+      Files.createParentDirs(output);
+      try (OutputStream outputStream = new FileOutputStream(output)) {
+        ByteStreams.copy(input, outputStream);
+      }
+      return artifact.get().getCacheResult();
+    } catch (IOException e) {
+      output.delete();
+      reportFailure(e, "Artifact fetch(%s, %s) error: %s", ruleKey, output.getPath());
+      return CacheResult.MISS;
+    }
+  }
+
+  @Override
+  public Optional<CachedArtifactInputStream> fetchStream(RuleKey ruleKey) {
+    HttpURLConnection connection = null;
+    try {
+      connection = openConnection(ruleKey, "GET");
+      int responseCode = connection.getResponseCode();
+      if (responseCode != HttpURLConnection.HTTP_OK) {
+        if (responseCode != HttpURLConnection.HTTP_NOT_FOUND) {
+          buckEventBus.post(LogEvent.warning("Artifact fetchStream(%s) got HTTP %d from %s.",
+              ruleKey,
+              responseCode,
+              baseUrl));
+        }
+        discardResponse(connection);
+        return Optional.absent();
+      }
+
+      buckEventBus.post(LogEvent.fine("Artifact fetchStream(%s) cache hit", ruleKey));
+      return Optional.of(new CachedArtifactInputStream(
+          ArtifactEncoding.decode(new BufferedInputStream(connection.getInputStream())),
+          CacheResult.HTTP_HIT));
+    } catch (IOException e) {
+      if (connection != null) {
+        discardResponse(connection);
+      }
+      reportFailure(e, "Artifact fetchStream(%s) error: %s", ruleKey);
+      return Optional.absent();
+    }
+  }
+
+  /** Fetches the artifacts in parallel. */
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> fetchAll(Map<RuleKey, File> outputs) {
+    List<RuleKey> ruleKeys = Lists.newArrayList();
+    List<ListenableFuture<CacheResult>> futures = Lists.newArrayList();
+    for (final Map.Entry<RuleKey, File> output : outputs.entrySet()) {
+      ruleKeys.add(output.getKey());
+      futures.add(executorService.submit(new Callable<CacheResult>() {
+        @Override
+        public CacheResult call() {
+          return fetch(output.getKey(), output.getValue());
+        }
+      }));
+    }
+
+    List<CacheResult> cacheResults = getAll(futures);
+    ImmutableMap.Builder<RuleKey, CacheResult> results = ImmutableMap.builder();
+    for (int i = 0; i < ruleKeys.size(); i++) {
+      CacheResult cacheResult = cacheResults.get(i);
+      results.put(ruleKeys.get(i), cacheResult == null ? CacheResult.MISS : cacheResult);
+    }
+    return results.build();
+  }
+
+  @Override
+  public void store(RuleKey ruleKey, File output) {
+    if (!isStoreSupported()) {
+      return;
+    }
+
+    HttpURLConnection connection = null;
+    try {
+      connection = openConnection(ruleKey, "PUT");
+      connection.setDoOutput(true);
+      connection.setRequestProperty("Content-Type", "application/octet-stream");
+      if (encoding.isPresent()) {
+        byte[] artifact = encoding.get().encode(Files.toByteArray(output));
+        connection.setFixedLengthStreamingMode(artifact.length);
+        try (OutputStream body = connection.getOutputStream()) {
+          body.write(artifact);
+        }
+      } else {
+        connection.setFixedLengthStreamingMode(output.length());
+        try (OutputStream body = connection.getOutputStream();
+             InputStream input = new FileInputStream(output)) {
+          ByteStreams.copy(input, body);
+        }
+      }
+
+      int responseCode = connection.getResponseCode();
+      if (responseCode / 100 != 2) {
+        buckEventBus.post(LogEvent.warning("Artifact store(%s, %s) got HTTP %d from %s.",
+            ruleKey,
+            output.getPath(),
+            responseCode,
+            baseUrl));
+      }
+      discardResponse(connection);
+    } catch (IOException | OutOfMemoryError e) {
+      if (connection != null) {
+        discardResponse(connection);
+      }
+      reportFailure(e, "Artifact store(%s, %s) error: %s", ruleKey, output.getPath());
+    }
+  }
+
+  /** Stores the artifacts in parallel, and returns once all of them have been stored. */
+  @Override
+  public void storeAll(Map<RuleKey, File> outputs) {
+    if (!isStoreSupported()) {
+      return;
+    }
+
+    List<ListenableFuture<Void>> futures = Lists.newArrayList();
+    for (final Map.Entry<RuleKey, File> output : outputs.entrySet()) {
+      futures.add(executorService.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          store(output.getKey(), output.getValue());
+          return null;
+        }
+      }));
+    }
+    getAll(futures);
+  }
+
+  @Override
+  public boolean isStoreSupported() {
+    return doStore;
+  }
+
+  @Override
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  public void close() {
+    executorService.shutdown();
+    try {
+      executorService.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      // Ignore InterruptedException since we're in the process of being shutdown.
+    }
+  }
+
+  @VisibleForTesting
+  URL getUrl(RuleKey ruleKey) throws MalformedURLException {
+    return new URL(baseUrl, ruleKey.toString());
+  }
+
+  private HttpURLConnection openConnection(RuleKey ruleKey, String method) throws IOException {
+    HttpURLConnection connection = (HttpURLConnection) getUrl(ruleKey).openConnection();
+    connection.setUseCaches(false);
+    connection.setConnectTimeout(timeoutMillis);
+    connection.setReadTimeout(timeoutMillis);
+    connection.setRequestMethod(method);
+    return connection;
+  }
+
+  /**
+   * Reads what is left of the response, so that the connection can be reused for another request
+   * rather than closed.
+   */
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  private static void discardResponse(HttpURLConnection connection) {
+    InputStream response = connection.getErrorStream();
+    try {
+      if (response == null) {
+        response = connection.getInputStream();
+      }
+      try (InputStream input = response) {
+        ByteStreams.copy(input, ByteStreams.nullOutputStream());
+      }
+    } catch (IOException e) {
+      // The connection cannot be reused, and will be closed instead.
+    }
+  }
+
+  /** @return the results of {@code futures}, with {@code null} for those that failed. */
+  private static <T> List<T> getAll(List<ListenableFuture<T>> futures) {
+    try {
+      return Uninterruptibles.getUninterruptibly(Futures.successfulAsList(futures));
+    } catch (ExecutionException e) {
+      // successfulAsList() does not fail, even when some of the futures do.
+      throw Throwables.propagate(e.getCause());
+    }
+  }
+
+  private void reportFailure(Throwable throwable, String format, Object... args) {
+    if (numConnectionExceptionReports.incrementAndGet() < MAX_CONNECTION_FAILURE_REPORTS) {
+      Object[] argsWithMessage = new Object[args.length + 1];
+      System.arraycopy(args, 0, argsWithMessage, 0, args.length);
+      argsWithMessage[args.length] = throwable.getMessage();
+      buckEventBus.post(ThrowableLogEvent.create(throwable, format, argsWithMessage));
+    }
+  }
+}
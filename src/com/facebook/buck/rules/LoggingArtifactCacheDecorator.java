@@ -16,14 +16,17 @@
 package com.facebook.buck.rules;
 
 import com.facebook.buck.event.BuckEventBus;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
 
 import java.io.File;
 import java.io.IOException;
+import java.util.Map;
 
 /**
  * Decorator for wrapping a {@link ArtifactCache} to log a {@link ArtifactCacheEvent} for the start
- * and finish of each event.
+ * and finish of each event, and an {@link ArtifactCacheBatchEvent} for each batch of them.
  */
 public class LoggingArtifactCacheDecorator {
   private final BuckEventBus eventBus;
@@ -45,6 +48,26 @@ public class LoggingArtifactCacheDecorator {
         return fetchResult;
       }
 
+      @Override
+      public Optional<CachedArtifactInputStream> fetchStream(RuleKey ruleKey) {
+        eventBus.post(ArtifactCacheEvent.started(ArtifactCacheEvent.Operation.FETCH,
+            ruleKey));
+        Optional<CachedArtifactInputStream> artifact = delegate.fetchStream(ruleKey);
+        eventBus.post(ArtifactCacheEvent.finished(ArtifactCacheEvent.Operation.FETCH,
+            ruleKey,
+            artifact.isPresent() ? artifact.get().getCacheResult() : CacheResult.MISS));
+        return artifact;
+      }
+
+      @Override
+      public ImmutableMap<RuleKey, CacheResult> fetchAll(Map<RuleKey, File> outputs) {
+        eventBus.post(ArtifactCacheBatchEvent.started(ArtifactCacheEvent.Operation.FETCH,
+            outputs.size()));
+        ImmutableMap<RuleKey, CacheResult> fetchResults = delegate.fetchAll(outputs);
+        eventBus.post(ArtifactCacheBatchEvent.fetchFinished(fetchResults));
+        return fetchResults;
+      }
+
       @Override
       public void store(RuleKey ruleKey, File output) {
         eventBus.post(ArtifactCacheEvent.started(ArtifactCacheEvent.Operation.STORE,
@@ -54,6 +77,14 @@ public class LoggingArtifactCacheDecorator {
             ruleKey));
       }
 
+      @Override
+      public void storeAll(Map<RuleKey, File> outputs) {
+        eventBus.post(ArtifactCacheBatchEvent.started(ArtifactCacheEvent.Operation.STORE,
+            outputs.size()));
+        delegate.storeAll(outputs);
+        eventBus.post(ArtifactCacheBatchEvent.storeFinished(outputs.size()));
+      }
+
       @Override
       public boolean isStoreSupported() {
         return delegate.isStoreSupported();
@@ -16,11 +16,22 @@
 
 package com.facebook.buck.rules;
 
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
 
+import java.io.BufferedInputStream;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
 
 /**
  * MultiArtifactCache encapsulates a set of ArtifactCache instances such that fetch() succeeds if
@@ -68,6 +79,107 @@ public class MultiArtifactCache implements ArtifactCache {
     return CacheResult.MISS;
   }
 
+  /**
+   * Fetch a stream over the artifact matching ruleKey. If the artifact is found in the first
+   * ArtifactCache that supports storing, or no earlier ArtifactCache supports storing, the stream
+   * is returned as-is. Otherwise, the artifact must also be propagated to the earlier caches, so it
+   * is spooled to a temporary file first and a stream over that file is returned instead.
+   */
+  @Override
+  public Optional<CachedArtifactInputStream> fetchStream(RuleKey ruleKey) {
+    boolean isStoreSupportedByPriorCache = false;
+    for (ArtifactCache artifactCache : artifactCaches) {
+      Optional<CachedArtifactInputStream> artifact = artifactCache.fetchStream(ruleKey);
+      if (artifact.isPresent()) {
+        if (!isStoreSupportedByPriorCache) {
+          return artifact;
+        }
+        return propagateToPriorCaches(ruleKey, artifact.get(), artifactCache);
+      }
+      isStoreSupportedByPriorCache |= artifactCache.isStoreSupported();
+    }
+    return Optional.absent();
+  }
+
+  private Optional<CachedArtifactInputStream> propagateToPriorCaches(
+      RuleKey ruleKey,
+      CachedArtifactInputStream artifact,
+      ArtifactCache source) {
+    final File spooledArtifact;
+    try {
+      spooledArtifact = File.createTempFile(ruleKey.toString(), ".tmp");
+    } catch (IOException e) {
+      // Propagation is only an optimization, so hand back the original stream.
+      return Optional.of(artifact);
+    }
+
+    try (InputStream input = artifact) {
+      Files.copy(input, spooledArtifact.toPath(), StandardCopyOption.REPLACE_EXISTING);
+      for (ArtifactCache priorArtifactCache : artifactCaches) {
+        if (priorArtifactCache.equals(source)) {
+          break;
+        }
+        priorArtifactCache.store(ruleKey, spooledArtifact);
+      }
+      InputStream spooledStream = new BufferedInputStream(new FileInputStream(spooledArtifact)) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            spooledArtifact.delete();
+          }
+        }
+      };
+      return Optional.of(new CachedArtifactInputStream(spooledStream, artifact.getCacheResult()));
+    } catch (IOException e) {
+      spooledArtifact.delete();
+      return Optional.absent();
+    }
+  }
+
+  /**
+   * Fetch the artifacts matching the keys of outputs, asking each of the encapsulated
+   * ArtifactCaches in turn for the artifacts that have not been found yet. As with fetch(), each
+   * artifact that is found is stored to the ArtifactCaches earlier in the search order as a side
+   * effect.
+   */
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> fetchAll(Map<RuleKey, File> outputs) {
+    Map<RuleKey, CacheResult> cacheResults = Maps.newHashMap();
+    Map<RuleKey, File> remainingOutputs = Maps.newLinkedHashMap(outputs);
+    List<ArtifactCache> priorArtifactCaches = Lists.newArrayList();
+    for (ArtifactCache artifactCache : artifactCaches) {
+      if (remainingOutputs.isEmpty()) {
+        break;
+      }
+
+      Map<RuleKey, File> fetchedOutputs = Maps.newLinkedHashMap();
+      for (Map.Entry<RuleKey, CacheResult> entry :
+          artifactCache.fetchAll(remainingOutputs).entrySet()) {
+        if (entry.getValue().isSuccess()) {
+          cacheResults.put(entry.getKey(), entry.getValue());
+          fetchedOutputs.put(entry.getKey(), remainingOutputs.get(entry.getKey()));
+        }
+      }
+
+      if (!fetchedOutputs.isEmpty()) {
+        for (ArtifactCache priorArtifactCache : priorArtifactCaches) {
+          priorArtifactCache.storeAll(fetchedOutputs);
+        }
+        remainingOutputs.keySet().removeAll(fetchedOutputs.keySet());
+      }
+      priorArtifactCaches.add(artifactCache);
+    }
+
+    ImmutableMap.Builder<RuleKey, CacheResult> allCacheResults = ImmutableMap.builder();
+    for (RuleKey ruleKey : outputs.keySet()) {
+      CacheResult cacheResult = cacheResults.get(ruleKey);
+      allCacheResults.put(ruleKey, cacheResult == null ? CacheResult.MISS : cacheResult);
+    }
+    return allCacheResults.build();
+  }
+
   /**
    * Store the artifact to all encapsulated ArtifactCaches.
    */
@@ -78,6 +190,16 @@ public class MultiArtifactCache implements ArtifactCache {
     }
   }
 
+  /**
+   * Store the artifacts to all encapsulated ArtifactCaches.
+   */
+  @Override
+  public void storeAll(Map<RuleKey, File> outputs) {
+    for (ArtifactCache artifactCache : artifactCaches) {
+      artifactCache.storeAll(outputs);
+    }
+  }
+
   /** @return {@code true} if there is at least one ArtifactCache that supports storing. */
   @Override
   public boolean isStoreSupported() {
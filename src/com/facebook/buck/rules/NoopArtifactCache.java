@@ -16,7 +16,11 @@
 
 package com.facebook.buck.rules;
 
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
 import java.io.File;
+import java.util.Map;
 
 public class NoopArtifactCache implements ArtifactCache {
 
@@ -26,11 +30,27 @@ public class NoopArtifactCache implements ArtifactCache {
     return CacheResult.MISS;
   }
 
+  @Override
+  public Optional<CachedArtifactInputStream> fetchStream(RuleKey ruleKey) {
+    // Do nothing.
+    return Optional.absent();
+  }
+
   @Override
   public void store(RuleKey ruleKey, File output) {
     // Do nothing.
   }
 
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> fetchAll(Map<RuleKey, File> outputs) {
+    return ArtifactCaches.fetchEach(this, outputs);
+  }
+
+  @Override
+  public void storeAll(Map<RuleKey, File> outputs) {
+    ArtifactCaches.storeEach(this, outputs);
+  }
+
   /** @return {@code false}: storing artifacts is never supported by this class. */
   @Override
   public boolean isStoreSupported() {
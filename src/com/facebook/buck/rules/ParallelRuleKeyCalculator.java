@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.graph.TopologicalSort;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.AsyncFunction;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+/**
+ * Computes the {@link RuleKey}s of all of the rules in a {@link DependencyGraph} in parallel,
+ * rather than lazily on whichever thread first asks for each of them.
+ * <p>
+ * This happens in two phases, each of which is reported with a {@link RuleKeyCalculationEvent}:
+ * <ol>
+ *   <li>The inputs of every rule are hashed at once, as hashing an input does not depend on
+ *       anything else.
+ *   <li>The {@link RuleKey}s are computed bottom-up: the key of a rule is computed as soon as the
+ *       keys of all of its deps are available.
+ * </ol>
+ * A rule whose {@link RuleKey} cannot be computed up front is skipped, and will be computed
+ * lazily when the build asks for it, as before.
+ * <p>
+ * Keys are looked up in, and recorded to, a {@link RuleKeyCache}. When it outlives the build, as it
+ * does in the daemon, the rules that have not been affected by a change since the last build reuse
+ * their keys without hashing their inputs at all.
+ */
+public class ParallelRuleKeyCalculator {
+
+  private final ListeningExecutorService executorService;
+  private final RuleKeyCache ruleKeyCache;
+  private final BuckEventBus eventBus;
+
+  public ParallelRuleKeyCalculator(ListeningExecutorService executorService,
+      RuleKeyCache ruleKeyCache,
+      BuckEventBus eventBus) {
+    this.executorService = Preconditions.checkNotNull(executorService);
+    this.ruleKeyCache = Preconditions.checkNotNull(ruleKeyCache);
+    this.eventBus = Preconditions.checkNotNull(eventBus);
+  }
+
+  /**
+   * Computes the {@link RuleKey} of every rule in {@code graph}, and returns once all of them have
+   * been computed or have failed.
+   */
+  public void calculate(DependencyGraph graph) {
+    ImmutableList<BuildRule> rules =
+        TopologicalSort.sort(graph, Predicates.<BuildRule>alwaysTrue());
+    hashInputs(rules);
+    computeRuleKeys(rules, graph);
+  }
+
+  private void hashInputs(Iterable<BuildRule> rules) {
+    eventBus.post(RuleKeyCalculationEvent.started(RuleKeyCalculationEvent.Phase.HASH_INPUTS));
+    List<ListenableFuture<Void>> futures = Lists.newArrayList();
+    for (BuildRule rule : Iterables.filter(rules, AbstractBuildRule.class)) {
+      // The inputs of a rule whose key is likely to be reused will not need to be hashed.
+      if (ruleKeyCache.isCandidate(rule)) {
+        continue;
+      }
+      final AbstractBuildRule abstractBuildRule = (AbstractBuildRule) rule;
+      futures.add(executorService.submit(new Callable<Void>() {
+        @Override
+        public Void call() {
+          abstractBuildRule.hashInputs();
+          return null;
+        }
+      }));
+    }
+    int numRules = waitForSuccesses(futures);
+    eventBus.post(RuleKeyCalculationEvent.finished(
+        RuleKeyCalculationEvent.Phase.HASH_INPUTS,
+        numRules));
+  }
+
+  private void computeRuleKeys(Iterable<BuildRule> rules, final DependencyGraph graph) {
+    eventBus.post(RuleKeyCalculationEvent.started(RuleKeyCalculationEvent.Phase.COMPUTE_KEYS));
+
+    // As the rules are in topological order, the future for each dep exists by the time the rules
+    // that depend on it are visited.
+    Map<BuildRule, ListenableFuture<RuleKey>> ruleKeys = Maps.newHashMap();
+    for (final BuildRule rule : rules) {
+      List<ListenableFuture<RuleKey>> depRuleKeys = Lists.newArrayList();
+      for (BuildRule dep : rule.getDeps()) {
+        ListenableFuture<RuleKey> depRuleKey = ruleKeys.get(dep);
+        if (depRuleKey != null) {
+          depRuleKeys.add(depRuleKey);
+        }
+      }
+
+      // A dep that fails does not stop its dependents from trying: they will compute the dep's
+      // key themselves, and fail in the same way if it really cannot be computed yet.
+      ListenableFuture<RuleKey> ruleKey = Futures.transform(
+          Futures.successfulAsList(depRuleKeys),
+          new AsyncFunction<List<RuleKey>, RuleKey>() {
+            @Override
+            public ListenableFuture<RuleKey> apply(List<RuleKey> input) {
+              return executorService.submit(new Callable<RuleKey>() {
+                @Override
+                public RuleKey call() {
+                  return computeRuleKey(rule, graph);
+                }
+              });
+            }
+          });
+      ruleKeys.put(rule, ruleKey);
+    }
+
+    int numRules = waitForSuccesses(ruleKeys.values());
+    eventBus.post(RuleKeyCalculationEvent.finished(
+        RuleKeyCalculationEvent.Phase.COMPUTE_KEYS,
+        numRules));
+  }
+
+  private RuleKey computeRuleKey(BuildRule rule, DependencyGraph graph) {
+    if (!(rule instanceof AbstractBuildRule)) {
+      return rule.getRuleKey();
+    }
+
+    AbstractBuildRule abstractBuildRule = (AbstractBuildRule) rule;
+    Optional<RuleKey.Builder.RuleKeyPair> cached = ruleKeyCache.get(rule, graph);
+    if (cached.isPresent()) {
+      abstractBuildRule.setRuleKeyPair(cached.get());
+    }
+
+    RuleKey ruleKey = rule.getRuleKey();
+    RuleKey.Builder.RuleKeyPair ruleKeyPair = abstractBuildRule.getRuleKeyPairIfComputed();
+    if (!cached.isPresent() && ruleKeyPair != null) {
+      ruleKeyCache.put(rule, ruleKeyPair);
+    }
+    return ruleKey;
+  }
+
+  /** @return the number of {@code futures} that succeeded. */
+  private static <T> int waitForSuccesses(Iterable<ListenableFuture<T>> futures) {
+    int numSuccesses = 0;
+    for (ListenableFuture<T> future : futures) {
+      try {
+        Uninterruptibles.getUninterruptibly(future);
+        numSuccesses++;
+      } catch (ExecutionException e) {
+        // The build will try again, and report the error if it cannot get past it.
+        continue;
+      }
+    }
+    return numSuccesses;
+  }
+}
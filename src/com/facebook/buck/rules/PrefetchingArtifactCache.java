@@ -0,0 +1,343 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static com.facebook.buck.util.concurrent.MoreExecutors.newMultiThreadExecutor;
+import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Maps;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.SettableFuture;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * An {@link ArtifactCache} that fetches the artifacts of build rules before the build gets to
+ * them, so that the latency of a remote cache is not paid once per rule along the longest chain of
+ * dependencies.
+ * <p>
+ * {@link #prefetch(Iterable, BuildContext)} schedules a fetch for every rule whose {@link RuleKey}
+ * can be computed up front and does not match the one on disk. Fetches are batched through
+ * {@link ArtifactCache#fetchAll(Map)} and run on a bounded pool of threads, and prefetching stops
+ * once the prefetched artifacts that are waiting to be used add up to more than a fixed budget.
+ * When the build asks for an artifact via {@link #fetchStream(RuleKey)}, it is served from the
+ * prefetched copy, waiting for the prefetch if it is in flight. Requests for anything that was
+ * not prefetched go straight to the delegate.
+ * <p>
+ * Every prefetched artifact is reported with an {@link ArtifactCacheEvent.Prefetched} event, so
+ * that hits can be compared with wasted prefetches.
+ */
+public class PrefetchingArtifactCache implements ArtifactCache {
+
+  private static final long SHUTDOWN_TIMEOUT_SECONDS = 15;
+
+  /** The most artifacts that are fetched from the delegate with a single round-trip. */
+  private static final int MAX_ARTIFACTS_PER_BATCH = 32;
+
+  private final ArtifactCache delegate;
+  private final ListeningExecutorService executorService;
+  private final long maxPrefetchedBytes;
+  private final BuckEventBus eventBus;
+  private final AtomicLong prefetchedBytes;
+  private final ConcurrentMap<RuleKey, Prefetch> prefetches;
+
+  public PrefetchingArtifactCache(
+      ArtifactCache delegate,
+      int numThreads,
+      long maxPrefetchedBytes,
+      BuckEventBus eventBus) {
+    this(delegate,
+        listeningDecorator(newMultiThreadExecutor("PrefetchingArtifactCache", numThreads)),
+        maxPrefetchedBytes,
+        eventBus);
+  }
+
+  @VisibleForTesting
+  PrefetchingArtifactCache(
+      ArtifactCache delegate,
+      ListeningExecutorService executorService,
+      long maxPrefetchedBytes,
+      BuckEventBus eventBus) {
+    this.delegate = Preconditions.checkNotNull(delegate);
+    this.executorService = Preconditions.checkNotNull(executorService);
+    this.maxPrefetchedBytes = maxPrefetchedBytes;
+    this.eventBus = Preconditions.checkNotNull(eventBus);
+    this.prefetchedBytes = new AtomicLong();
+    this.prefetches = Maps.newConcurrentMap();
+  }
+
+  /**
+   * Schedules a fetch for each of {@code rules}, in order. Callers should pass the rules in the
+   * order the build is expected to need them, which is generally bottom-up.
+   */
+  public void prefetch(Iterable<BuildRule> rules, final BuildContext context) {
+    for (final List<BuildRule> batch : Iterables.partition(rules, MAX_ARTIFACTS_PER_BATCH)) {
+      executorService.submit(new Runnable() {
+        @Override
+        public void run() {
+          prefetch(batch, context);
+        }
+      });
+    }
+  }
+
+  private void prefetch(List<BuildRule> rules, BuildContext context) {
+    if (prefetchedBytes.get() >= maxPrefetchedBytes) {
+      return;
+    }
+
+    Map<RuleKey, Prefetch> claimedPrefetches = Maps.newLinkedHashMap();
+    for (BuildRule rule : rules) {
+      Optional<RuleKey> ruleKey = getRuleKeyToPrefetch(rule, context);
+      if (!ruleKey.isPresent()) {
+        continue;
+      }
+      Prefetch prefetch = new Prefetch();
+      if (prefetches.putIfAbsent(ruleKey.get(), prefetch) == null && prefetch.claim()) {
+        claimedPrefetches.put(ruleKey.get(), prefetch);
+      }
+    }
+    if (claimedPrefetches.isEmpty()) {
+      return;
+    }
+
+    Map<RuleKey, File> artifacts = Maps.newLinkedHashMap();
+    try {
+      for (RuleKey ruleKey : claimedPrefetches.keySet()) {
+        artifacts.put(ruleKey, File.createTempFile(ruleKey.toString(), ".prefetch"));
+      }
+      ImmutableMap<RuleKey, CacheResult> cacheResults = delegate.fetchAll(artifacts);
+      for (Map.Entry<RuleKey, Prefetch> entry : claimedPrefetches.entrySet()) {
+        File artifact = artifacts.get(entry.getKey());
+        CacheResult cacheResult = cacheResults.get(entry.getKey());
+        if (cacheResult != null && cacheResult.isSuccess()) {
+          prefetchedBytes.addAndGet(artifact.length());
+          entry.getValue().result.set(Optional.of(new PrefetchedArtifact(artifact, cacheResult)));
+        } else {
+          artifact.delete();
+          entry.getValue().result.set(Optional.<PrefetchedArtifact>absent());
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      // The build will ask the delegate itself for the artifacts that it needs.
+      for (Map.Entry<RuleKey, Prefetch> entry : claimedPrefetches.entrySet()) {
+        File artifact = artifacts.get(entry.getKey());
+        if (entry.getValue().result.setException(e) && artifact != null) {
+          artifact.delete();
+        }
+      }
+    }
+  }
+
+  /**
+   * @return the {@link RuleKey} of the artifact to prefetch for {@code rule}, or
+   *     {@link Optional#absent()} if it cannot be computed yet or the artifact is already on disk.
+   */
+  private Optional<RuleKey> getRuleKeyToPrefetch(BuildRule rule, BuildContext context) {
+    RuleKey ruleKey;
+    try {
+      ruleKey = rule.getRuleKey();
+    } catch (RuntimeException e) {
+      // The RuleKey depends on something that is not available until the rule's deps are built,
+      // so the build will have to ask for the artifact itself.
+      return Optional.absent();
+    }
+
+    // Rules whose output is already on disk will never be fetched.
+    Optional<RuleKey> ruleKeyOnDisk =
+        context.createOnDiskBuildInfoFor(rule.getBuildTarget()).getRuleKey();
+    if (ruleKey.equals(ruleKeyOnDisk.orNull())) {
+      return Optional.absent();
+    }
+    return Optional.of(ruleKey);
+  }
+
+  @Override
+  public CacheResult fetch(RuleKey ruleKey, File output) {
+    return delegate.fetch(ruleKey, output);
+  }
+
+  @Override
+  public Optional<CachedArtifactInputStream> fetchStream(RuleKey ruleKey) {
+    Prefetch claimedByBuild = new Prefetch();
+    claimedByBuild.claim();
+    Prefetch prefetch = prefetches.putIfAbsent(ruleKey, claimedByBuild);
+
+    // Nothing has been prefetched for this key, and now nothing will be.
+    if (prefetch == null || prefetch.claim()) {
+      Prefetch claimed = prefetch == null ? claimedByBuild : prefetch;
+      try {
+        return delegate.fetchStream(ruleKey);
+      } finally {
+        // Neither leave the claimed entry behind, nor leave a concurrent request for the same key
+        // waiting on it: that request goes to the delegate as well.
+        prefetches.remove(ruleKey, claimed);
+        claimed.result.cancel(/* mayInterruptIfRunning */ false);
+      }
+    }
+
+    Optional<PrefetchedArtifact> artifact;
+    try {
+      artifact = Uninterruptibles.getUninterruptibly(prefetch.result);
+    } catch (ExecutionException | CancellationException e) {
+      return delegate.fetchStream(ruleKey);
+    }
+    if (!artifact.isPresent()) {
+      // A miss during the prefetch means that the delegate would miss again.
+      return Optional.absent();
+    }
+
+    // Only the first request for a key can consume the prefetched copy.
+    if (!prefetches.remove(ruleKey, prefetch)) {
+      return delegate.fetchStream(ruleKey);
+    }
+
+    eventBus.post(ArtifactCacheEvent.prefetchUsed(ruleKey));
+    try {
+      return Optional.of(artifact.get().open());
+    } catch (IOException e) {
+      artifact.get().release();
+      return delegate.fetchStream(ruleKey);
+    }
+  }
+
+  @Override
+  public ImmutableMap<RuleKey, CacheResult> fetchAll(Map<RuleKey, File> outputs) {
+    return delegate.fetchAll(outputs);
+  }
+
+  @Override
+  public void store(RuleKey ruleKey, File output) {
+    delegate.store(ruleKey, output);
+  }
+
+  @Override
+  public void storeAll(Map<RuleKey, File> outputs) {
+    delegate.storeAll(outputs);
+  }
+
+  @Override
+  public boolean isStoreSupported() {
+    return delegate.isStoreSupported();
+  }
+
+  @VisibleForTesting
+  long getPrefetchedBytes() {
+    return prefetchedBytes.get();
+  }
+
+  /**
+   * Stops prefetching and deletes the prefetched artifacts that were not used. This does not close
+   * the delegate, which belongs to whoever created it.
+   */
+  @Override
+  @SuppressWarnings("PMD.EmptyCatchBlock")
+  public void close() throws IOException {
+    executorService.shutdownNow();
+    try {
+      executorService.awaitTermination(SHUTDOWN_TIMEOUT_SECONDS, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      // Ignore InterruptedException since we're in the process of being shutdown.
+    }
+
+    for (Map.Entry<RuleKey, Prefetch> entry : prefetches.entrySet()) {
+      Optional<PrefetchedArtifact> artifact = entry.getValue().getResultIfSuccessful();
+      if (artifact.isPresent() && prefetches.remove(entry.getKey(), entry.getValue())) {
+        artifact.get().release();
+        eventBus.post(ArtifactCacheEvent.prefetchWasted(entry.getKey()));
+      }
+    }
+  }
+
+  /**
+   * A fetch of a single artifact. Whichever of the prefetcher and the build claims it first does
+   * the fetching; the other one either skips it or waits for {@link #result}.
+   */
+  private static class Prefetch {
+    private final AtomicBoolean isClaimed = new AtomicBoolean();
+    private final SettableFuture<Optional<PrefetchedArtifact>> result = SettableFuture.create();
+
+    public boolean claim() {
+      return isClaimed.compareAndSet(false, true);
+    }
+
+    /** @return the prefetched artifact, if the prefetch has finished and found one. */
+    @SuppressWarnings("PMD.EmptyCatchBlock")
+    public Optional<PrefetchedArtifact> getResultIfSuccessful() {
+      if (result.isDone()) {
+        try {
+          return Uninterruptibles.getUninterruptibly(result);
+        } catch (ExecutionException | CancellationException e) {
+          // Failed prefetches do not hold on to anything.
+        }
+      }
+      return Optional.absent();
+    }
+  }
+
+  private class PrefetchedArtifact {
+    private final File file;
+    private final CacheResult cacheResult;
+    private final AtomicBoolean isReleased = new AtomicBoolean();
+
+    public PrefetchedArtifact(File file, CacheResult cacheResult) {
+      this.file = file;
+      this.cacheResult = cacheResult;
+    }
+
+    public CachedArtifactInputStream open() throws IOException {
+      InputStream input = new BufferedInputStream(new FileInputStream(file)) {
+        @Override
+        public void close() throws IOException {
+          try {
+            super.close();
+          } finally {
+            release();
+          }
+        }
+      };
+      return new CachedArtifactInputStream(input, cacheResult);
+    }
+
+    /** Deletes the prefetched copy and gives its bytes back to the budget. */
+    public void release() {
+      if (isReleased.compareAndSet(false, true)) {
+        prefetchedBytes.addAndGet(-file.length());
+        file.delete();
+      }
+    }
+  }
+}
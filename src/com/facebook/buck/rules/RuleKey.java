@@ -26,9 +26,12 @@ import com.google.common.base.Objects;
 import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
 import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Sets;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hasher;
 import com.google.common.hash.Hashing;
@@ -36,6 +39,7 @@ import com.google.common.hash.Hashing;
 import java.nio.file.Path;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import java.util.logging.Level;
 import java.util.logging.Logger;
@@ -150,6 +154,11 @@ public class RuleKey {
     private final Hasher hasher;
     private final FileHashCache hashCache;
 
+    /** The files and rules that the key depends on, so that it can be reused while they are. */
+    private final Set<Path> hashedInputs;
+    private final Map<BuildTarget, RuleKey> referencedRuleKeys;
+    private boolean isMemoizable;
+
     @Nullable private List<String> logElms;
 
     private Builder(
@@ -160,6 +169,9 @@ public class RuleKey {
       this.exportedDeps = Preconditions.checkNotNull(exportedDeps);
       this.hasher = new AppendingHasher(Hashing.sha1(), /* numHashers */ 2);
       this.hashCache = Preconditions.checkNotNull(hashCache);
+      this.hashedInputs = Sets.newLinkedHashSet();
+      this.referencedRuleKeys = Maps.newLinkedHashMap();
+      this.isMemoizable = true;
       if (logger.isLoggable(Level.INFO)) {
         this.logElms = Lists.newArrayList();
       }
@@ -235,11 +247,23 @@ public class RuleKey {
     }
 
     public Builder set(String key, @Nullable RuleKey val) {
+      // There is no telling where a bare RuleKey came from, so neither is there when it changes.
+      isMemoizable = false;
       return setKey(key).setVal(val);
     }
 
     public Builder set(String key, @Nullable BuildRule val) {
-      return setKey(key).setVal(val != null ? val.getRuleKey() : null);
+      setKey(key);
+      if (val != null) {
+        return setRuleVal(val);
+      }
+      return separate();
+    }
+
+    private Builder setRuleVal(BuildRule buildRule) {
+      RuleKey ruleKey = buildRule.getRuleKey();
+      referencedRuleKeys.put(buildRule.getBuildTarget(), ruleKey);
+      return setVal(ruleKey);
     }
 
     public Builder set(String key, @Nullable ImmutableList<SourceRoot> val) {
@@ -291,6 +315,7 @@ public class RuleKey {
       if (sha1 == null) {
         throw new RuntimeException("No SHA for " + input);
       }
+      hashedInputs.add(input);
       setVal(sha1.toString());
     }
 
@@ -301,7 +326,7 @@ public class RuleKey {
           setVal(path.toString());
           Object ref = path.asReference();
           if (ref instanceof BuildRule) {
-            setVal(((BuildRule) ref).getRuleKey());
+            setRuleVal((BuildRule) ref);
           } else {
             setVal(String.valueOf(ref));
           }
@@ -314,7 +339,7 @@ public class RuleKey {
       setKey(key);
       if (val != null) {
         for (BuildRule buildRule : val) {
-          setVal(buildRule.getRuleKey());
+          setRuleVal(buildRule);
         }
       }
       return separate();
@@ -411,10 +436,21 @@ public class RuleKey {
     public static class RuleKeyPair {
       private final RuleKey totalRuleKey;
       private final RuleKey ruleKeyWithoutDeps;
-
-      private RuleKeyPair(RuleKey totalRuleKey, RuleKey ruleKeyWithoutDeps) {
+      private final ImmutableSet<Path> hashedInputs;
+      private final ImmutableMap<BuildTarget, RuleKey> referencedRuleKeys;
+      private final boolean isMemoizable;
+
+      private RuleKeyPair(
+          RuleKey totalRuleKey,
+          RuleKey ruleKeyWithoutDeps,
+          ImmutableSet<Path> hashedInputs,
+          ImmutableMap<BuildTarget, RuleKey> referencedRuleKeys,
+          boolean isMemoizable) {
         this.totalRuleKey = Preconditions.checkNotNull(totalRuleKey);
         this.ruleKeyWithoutDeps = Preconditions.checkNotNull(ruleKeyWithoutDeps);
+        this.hashedInputs = Preconditions.checkNotNull(hashedInputs);
+        this.referencedRuleKeys = Preconditions.checkNotNull(referencedRuleKeys);
+        this.isMemoizable = isMemoizable;
       }
 
       public RuleKey getTotalRuleKey() {
@@ -424,6 +460,24 @@ public class RuleKey {
       public RuleKey getRuleKeyWithoutDeps() {
         return ruleKeyWithoutDeps;
       }
+
+      /** @return the files whose contents were hashed into the keys. */
+      public ImmutableSet<Path> getHashedInputs() {
+        return hashedInputs;
+      }
+
+      /** @return the keys of the other rules, including deps, that were hashed into the keys. */
+      public ImmutableMap<BuildTarget, RuleKey> getReferencedRuleKeys() {
+        return referencedRuleKeys;
+      }
+
+      /**
+       * @return whether {@link #getHashedInputs()} and {@link #getReferencedRuleKeys()} account for
+       *     everything that the keys depend on, other than the rule's own arguments.
+       */
+      public boolean isMemoizable() {
+        return isMemoizable;
+      }
     }
 
     public RuleKeyPair build() {
@@ -433,14 +487,14 @@ public class RuleKey {
       setKey("deps");
       // Note that getDeps() returns an ImmutableSortedSet, so the order will be stable.
       for (BuildRule buildRule : deps) {
-        setVal(buildRule.getRuleKey());
+        setRuleVal(buildRule);
       }
       separate();
 
       if (!exportedDeps.isEmpty()) {
         setKey("exported_deps");
         for (BuildRule buildRule : exportedDeps) {
-          setVal(buildRule.getRuleKey());
+          setRuleVal(buildRule);
         }
         separate();
       }
@@ -450,7 +504,11 @@ public class RuleKey {
         logger.info(String.format("RuleKey %s=%s", totalRuleKey, Joiner.on("").join(logElms)));
       }
 
-      return new RuleKeyPair(totalRuleKey, ruleKeyWithoutDeps);
+      return new RuleKeyPair(totalRuleKey,
+          ruleKeyWithoutDeps,
+          ImmutableSet.copyOf(hashedInputs),
+          ImmutableMap.copyOf(referencedRuleKeys),
+          isMemoizable);
     }
   }
 }
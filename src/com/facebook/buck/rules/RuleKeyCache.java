@@ -0,0 +1,167 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.model.BuildTarget;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multimaps;
+import com.google.common.collect.SetMultimap;
+import com.google.common.eventbus.Subscribe;
+
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+
+import javax.annotation.Nullable;
+
+/**
+ * Remembers the {@link RuleKey}s of rules from one command to the next, so that a daemon does not
+ * have to compute the keys of the rules that are unaffected by a change all over again.
+ * <p>
+ * A key is reused for a rule if:
+ * <ul>
+ *   <li>the rule was created from the same definition, as recorded by
+ *       {@link #recordDefinition(BuildRule, Object)}. The parser keeps a definition until the
+ *       build file that it came from changes.
+ *   <li>none of the files whose contents went into the key has changed since. This cache must be
+ *       registered with the file change EventBus to find out about changes.
+ *   <li>every other rule whose key went into the key, such as a dep, still has the same key.
+ *       A change therefore invalidates the rules that depend on the changed one, and no others.
+ * </ul>
+ */
+public class RuleKeyCache {
+
+  /** Identity-keyed, so that a rule that is not in use any more is not held onto. */
+  private final Cache<BuildRule, Object> definitions;
+  private final ConcurrentMap<BuildTarget, Entry> entries;
+  private final SetMultimap<Path, BuildTarget> targetsByInput;
+
+  public RuleKeyCache() {
+    this.definitions = CacheBuilder.newBuilder().weakKeys().build();
+    this.entries = Maps.newConcurrentMap();
+    this.targetsByInput = Multimaps.synchronizedSetMultimap(
+        HashMultimap.<Path, BuildTarget>create());
+  }
+
+  /**
+   * Records that {@code rule} was created from {@code definition}. Two rules for the same target
+   * may share a key only if they were created from the same definition object.
+   */
+  public void recordDefinition(BuildRule rule, Object definition) {
+    definitions.put(rule, Preconditions.checkNotNull(definition));
+  }
+
+  /**
+   * @return whether there is a key for a rule with the same definition as {@code rule}, which may
+   *     be reused if the keys of the rules that it references have not changed either.
+   */
+  public boolean isCandidate(BuildRule rule) {
+    return getEntryWithSameDefinition(rule) != null;
+  }
+
+  /**
+   * @param graph the graph that {@code rule} belongs to, used to find the current keys of the rules
+   *     that the recorded keys depend on.
+   * @return the keys that were computed for an identical rule, if any.
+   */
+  public Optional<RuleKey.Builder.RuleKeyPair> get(BuildRule rule, DependencyGraph graph) {
+    Entry entry = getEntryWithSameDefinition(rule);
+    if (entry == null) {
+      return Optional.absent();
+    }
+
+    for (Map.Entry<BuildTarget, RuleKey> referenced :
+        entry.ruleKeyPair.getReferencedRuleKeys().entrySet()) {
+      BuildRule referencedRule = graph.findBuildRuleByTarget(referenced.getKey());
+      if (referencedRule == null || !referenced.getValue().equals(referencedRule.getRuleKey())) {
+        return Optional.absent();
+      }
+    }
+    return Optional.of(entry.ruleKeyPair);
+  }
+
+  /** Records the keys that were computed for {@code rule}, if they can be reused. */
+  public void put(BuildRule rule, RuleKey.Builder.RuleKeyPair ruleKeyPair) {
+    Object definition = definitions.getIfPresent(rule);
+    if (definition == null || !ruleKeyPair.isMemoizable()) {
+      return;
+    }
+
+    BuildTarget target = rule.getBuildTarget();
+    for (Path input : ruleKeyPair.getHashedInputs()) {
+      targetsByInput.put(input.normalize(), target);
+    }
+    entries.put(target, new Entry(definition, ruleKeyPair));
+  }
+
+  /**
+   * Called when file change events are posted to the file change EventBus. {@link Path}s contained
+   * within events must all be relative to the project root.
+   */
+  @Subscribe
+  public void onFileSystemChange(WatchEvent<?> event) {
+    if (event.context() instanceof Path) {
+      Path path = ((Path) event.context()).normalize();
+      for (BuildTarget target : targetsByInput.removeAll(path)) {
+        entries.remove(target);
+      }
+    } else {
+      // Non-path change event, likely an overflow due to many change events: invalidate everything.
+      invalidateAll();
+    }
+  }
+
+  public void invalidateAll() {
+    entries.clear();
+    targetsByInput.clear();
+  }
+
+  @VisibleForTesting
+  int size() {
+    return entries.size();
+  }
+
+  @Nullable
+  private Entry getEntryWithSameDefinition(BuildRule rule) {
+    Object definition = definitions.getIfPresent(rule);
+    if (definition == null) {
+      return null;
+    }
+    Entry entry = entries.get(rule.getBuildTarget());
+    if (entry == null || entry.definition != definition) {
+      return null;
+    }
+    return entry;
+  }
+
+  private static class Entry {
+    private final Object definition;
+    private final RuleKey.Builder.RuleKeyPair ruleKeyPair;
+
+    public Entry(Object definition, RuleKey.Builder.RuleKeyPair ruleKeyPair) {
+      this.definition = Preconditions.checkNotNull(definition);
+      this.ruleKeyPair = Preconditions.checkNotNull(ruleKeyPair);
+    }
+  }
+}
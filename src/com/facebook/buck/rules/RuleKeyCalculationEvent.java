@@ -0,0 +1,108 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.BuckEvent;
+import com.facebook.buck.event.LeafEvent;
+import com.google.common.base.CaseFormat;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * Events about the phases of computing the {@link RuleKey}s of a build ahead of the build itself.
+ */
+@SuppressWarnings("PMD.OverrideBothEqualsAndHashcode")
+public abstract class RuleKeyCalculationEvent extends AbstractBuckEvent implements LeafEvent {
+  public static enum Phase {
+    HASH_INPUTS,
+    COMPUTE_KEYS,
+  }
+
+  private final Phase phase;
+
+  protected RuleKeyCalculationEvent(Phase phase) {
+    this.phase = Preconditions.checkNotNull(phase);
+  }
+
+  public Phase getPhase() {
+    return phase;
+  }
+
+  @Override
+  public String getCategory() {
+    return "rule_key_" + phase.toString().toLowerCase();
+  }
+
+  @Override
+  public String getValueString() {
+    return phase.toString().toLowerCase();
+  }
+
+  @Override
+  public boolean eventsArePair(BuckEvent event) {
+    if (!(event instanceof RuleKeyCalculationEvent)) {
+      return false;
+    }
+    return Objects.equal(getPhase(), ((RuleKeyCalculationEvent) event).getPhase());
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(getPhase(), getThreadId());
+  }
+
+  public static Started started(Phase phase) {
+    return new Started(phase);
+  }
+
+  public static Finished finished(Phase phase, int numRules) {
+    return new Finished(phase, numRules);
+  }
+
+  public static class Started extends RuleKeyCalculationEvent {
+    protected Started(Phase phase) {
+      super(phase);
+    }
+
+    @Override
+    public String getEventName() {
+      return String.format("RuleKey%sStarted",
+          CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.UPPER_CAMEL, getPhase().toString()));
+    }
+  }
+
+  public static class Finished extends RuleKeyCalculationEvent {
+    private final int numRules;
+
+    protected Finished(Phase phase, int numRules) {
+      super(phase);
+      this.numRules = numRules;
+    }
+
+    /** @return the number of rules that were processed in this phase. */
+    public int getNumRules() {
+      return numRules;
+    }
+
+    @Override
+    public String getEventName() {
+      return String.format("RuleKey%sFinished",
+          CaseFormat.UPPER_UNDERSCORE.to(CaseFormat.UPPER_CAMEL, getPhase().toString()));
+    }
+  }
+}
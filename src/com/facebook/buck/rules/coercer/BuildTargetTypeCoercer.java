@@ -47,9 +47,9 @@ public class BuildTargetTypeCoercer extends LeafTypeCoercer<BuildTarget> {
         if (colon == 0 && param.length() > 1) {
           return new BuildTarget(
               BuildTarget.BUILD_TARGET_PREFIX + pathRelativeToProjectRoot.toString(),
-              param.substring(1));
+              param.substring(1)).intern();
         } else if (colon > 0 && param.length() > 2) {
-          return new BuildTarget(param.substring(0, colon), param.substring(colon + 1));
+          return new BuildTarget(param.substring(0, colon), param.substring(colon + 1)).intern();
         }
       }
     }
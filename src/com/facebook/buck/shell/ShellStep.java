@@ -18,6 +18,8 @@ package com.facebook.buck.shell;
 
 import com.facebook.buck.event.LogEvent;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.HasResourceProfile;
+import com.facebook.buck.step.ResourceProfile;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.util.Escaper;
 import com.facebook.buck.util.ProcessExecutor;
@@ -37,7 +39,7 @@ import java.util.Map.Entry;
 
 import javax.annotation.Nullable;
 
-public abstract class ShellStep implements Step {
+public abstract class ShellStep implements Step, HasResourceProfile {
 
   /** Defined lazily by {@link #getShellCommand(com.facebook.buck.step.ExecutionContext)}. */
   private ImmutableList<String> shellCommandArgs;
@@ -177,6 +179,15 @@ public abstract class ShellStep implements Step {
     // Do nothing by default.
   }
 
+  /**
+   * By default, a command counts as a single subprocess. Commands that are known to use several
+   * cores or a lot of memory should say so, so that fewer of them are run at once.
+   */
+  @Override
+  public ResourceProfile getResourceProfile() {
+    return ResourceProfile.SUBPROCESS;
+  }
+
   @Override
   public final String getDescription(ExecutionContext context) {
     // Get environment variables for this command as VAR1=val1 VAR2=val2... etc., with values
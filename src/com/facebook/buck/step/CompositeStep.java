@@ -26,7 +26,7 @@ import com.google.common.collect.Iterables;
 import java.util.Iterator;
 import java.util.List;
 
-public class CompositeStep implements Step, Iterable<Step> {
+public class CompositeStep implements Step, Iterable<Step>, HasResourceProfile {
 
   private final ImmutableList<Step> steps;
 
@@ -47,6 +47,20 @@ public class CompositeStep implements Step, Iterable<Step> {
     return 0;
   }
 
+  /** The steps run one after another, so this needs what the most demanding of them needs. */
+  @Override
+  public ResourceProfile getResourceProfile() {
+    return ResourceProfile.max(Iterables.transform(steps,
+        new Function<Step, ResourceProfile>() {
+          @Override
+          public ResourceProfile apply(Step step) {
+            return step instanceof HasResourceProfile
+                ? ((HasResourceProfile) step).getResourceProfile()
+                : ResourceProfile.NONE;
+          }
+    }));
+  }
+
   @Override
   public String getDescription(final ExecutionContext context) {
     return Joiner.on(" && ").join(Iterables.transform(steps,
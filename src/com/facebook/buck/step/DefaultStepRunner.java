@@ -21,6 +21,7 @@ import static com.google.common.util.concurrent.MoreExecutors.listeningDecorator
 
 import com.facebook.buck.model.BuildTarget;
 import com.facebook.buck.util.concurrent.MoreFutures;
+import com.facebook.buck.util.concurrent.PriorityExecutorService;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
@@ -37,6 +38,7 @@ import java.io.IOException;
 import java.util.List;
 import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
 
 public final class DefaultStepRunner implements StepRunner, Closeable {
@@ -77,6 +79,11 @@ public final class DefaultStepRunner implements StepRunner, Closeable {
       context.getStdErr().println(step.getDescription(context));
     }
 
+    ResourceProfile resourceProfile = step instanceof HasResourceProfile
+        ? ((HasResourceProfile) step).getResourceProfile()
+        : ResourceProfile.NONE;
+    acquireResources(step, resourceProfile, buildTarget);
+
     context.postEvent(StepEvent.started(step, step.getDescription(context)));
     int exitCode = 1;
     try {
@@ -84,6 +91,7 @@ public final class DefaultStepRunner implements StepRunner, Closeable {
     } catch (Throwable t) {
       throw StepFailedException.createForFailingStepWithException(step, t, buildTarget);
     } finally {
+      context.getResourcePool().release(resourceProfile);
       context.postEvent(StepEvent.finished(step, step.getDescription(context), exitCode));
     }
     if (exitCode != 0) {
@@ -94,6 +102,26 @@ public final class DefaultStepRunner implements StepRunner, Closeable {
     }
   }
 
+  private void acquireResources(
+      Step step,
+      ResourceProfile resourceProfile,
+      Optional<BuildTarget> buildTarget) throws StepFailedException {
+    ResourcePool resourcePool = context.getResourcePool();
+    if (resourcePool.tryAcquire(resourceProfile)) {
+      return;
+    }
+
+    context.postEvent(StepResourcesEvent.waiting(step,
+        resourcePool.getSaturatedResources(resourceProfile)));
+    try {
+      resourcePool.acquire(resourceProfile);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw StepFailedException.createForFailingStepWithException(step, e, buildTarget);
+    }
+    context.postEvent(StepResourcesEvent.acquired(step));
+  }
+
   @Override
   public <T> ListenableFuture<T> runStepsAndYieldResult(final List<Step> steps,
                                                         final Callable<T> interpretResults,
@@ -150,8 +178,13 @@ public final class DefaultStepRunner implements StepRunner, Closeable {
   @Override
   public <T> void addCallback(
       ListenableFuture<List<T>> dependencies,
-      FutureCallback<List<T>> callback) {
-    Futures.addCallback(dependencies, callback, listeningExecutorService);
+      FutureCallback<List<T>> callback,
+      long priority) {
+    Executor executor = listeningExecutorService;
+    if (listeningExecutorService instanceof PriorityExecutorService) {
+      executor = ((PriorityExecutorService) listeningExecutorService).withPriority(priority);
+    }
+    Futures.addCallback(dependencies, callback, executor);
   }
 
   @Override
@@ -51,6 +51,7 @@ public class ExecutionContext {
   private final BuckEventBus eventBus;
   private final Platform platform;
   private final ImmutableMap<String, String> environment;
+  private final ResourcePool resourcePool;
 
   private ExecutionContext(
       ProjectFilesystem projectFilesystem,
@@ -63,7 +64,8 @@ public class ExecutionContext {
       boolean isDebugEnabled,
       BuckEventBus eventBus,
       Platform platform,
-      ImmutableMap<String, String> environment) {
+      ImmutableMap<String, String> environment,
+      ResourcePool resourcePool) {
     this.verbosity = Preconditions.checkNotNull(console).getVerbosity();
     this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
     this.console = Preconditions.checkNotNull(console);
@@ -77,6 +79,7 @@ public class ExecutionContext {
     this.eventBus = Preconditions.checkNotNull(eventBus);
     this.platform = Preconditions.checkNotNull(platform);
     this.environment = Preconditions.checkNotNull(environment);
+    this.resourcePool = Preconditions.checkNotNull(resourcePool);
   }
 
   /**
@@ -95,7 +98,8 @@ public class ExecutionContext {
         isDebugEnabled,
         eventBus,
         platform,
-        this.environment);
+        this.environment,
+        resourcePool);
   }
 
   public void logError(Throwable error, String msg, Object... formatArgs) {
@@ -205,6 +209,11 @@ public class ExecutionContext {
     return environment;
   }
 
+  /** @return the resources that the steps executed with this context share. */
+  public ResourcePool getResourcePool() {
+    return resourcePool;
+  }
+
   public static class Builder {
 
     @Nullable private ProjectFilesystem projectFilesystem = null;
@@ -218,6 +227,7 @@ public class ExecutionContext {
     @Nullable private BuckEventBus eventBus = null;
     @Nullable private Platform platform = null;
     @Nullable private ImmutableMap<String, String> environment = null;
+    private ResourcePool resourcePool = ResourcePool.createUnlimited();
 
     private Builder() {}
 
@@ -233,7 +243,8 @@ public class ExecutionContext {
           isDebugEnabled,
           eventBus,
           platform,
-          environment);
+          environment,
+          resourcePool);
     }
 
     public Builder setExecutionContext(ExecutionContext executionContext) {
@@ -248,6 +259,7 @@ public class ExecutionContext {
       setEventBus(executionContext.getBuckEventBus());
       setPlatform(executionContext.getPlatform());
       setEnvironment(executionContext.getEnvironment());
+      setResourcePool(executionContext.getResourcePool());
       return this;
     }
 
@@ -308,5 +320,10 @@ public class ExecutionContext {
       this.environment = Preconditions.checkNotNull(environment);
       return this;
     }
+
+    public Builder setResourcePool(ResourcePool resourcePool) {
+      this.resourcePool = Preconditions.checkNotNull(resourcePool);
+      return this;
+    }
   }
 }
@@ -0,0 +1,32 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.step;
+
+/**
+ * Implemented by a {@link Step} that needs more than a thread to execute, such as several cores or
+ * a large heap. {@link DefaultStepRunner} only starts the step once its resources are available in
+ * the {@link ResourcePool} of the {@link ExecutionContext}, so that steps with heavy requirements
+ * do not all run at once.
+ * <p>
+ * A step that runs other steps through a {@link StepRunner} should not declare a profile of its
+ * own: it would hold on to its resources while the steps that it runs wait for theirs.
+ */
+public interface HasResourceProfile {
+
+  public ResourceProfile getResourceProfile();
+}
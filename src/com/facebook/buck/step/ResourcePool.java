@@ -0,0 +1,179 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.step;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * Tokens for the cores, memory, heap and subprocesses that the steps executing at once may share. A
+ * step acquires the resources of its {@link ResourceProfile} before it executes, and releases them
+ * once it is done.
+ * <p>
+ * A step that needs more of a resource than the pool has in total is given all of it, so that it
+ * runs on its own rather than not at all.
+ * <p>
+ * Steps are admitted in the order that they ask for resources: once a step is waiting, no step
+ * that asks after it goes ahead of it, so that a step that needs many cores is not starved by a
+ * stream of steps that need one.
+ */
+public class ResourcePool {
+
+  public static enum Resource {
+    CORES,
+    MEMORY,
+    HEAP,
+    SUBPROCESSES,
+  }
+
+  private final ResourceProfile capacity;
+
+  @GuardedBy("this")
+  private long coresInUse;
+
+  @GuardedBy("this")
+  private long memoryMegabytesInUse;
+
+  @GuardedBy("this")
+  private long heapMegabytesInUse;
+
+  @GuardedBy("this")
+  private long subprocessesInUse;
+
+  /** The steps waiting in {@link #acquire(ResourceProfile)}, oldest first. */
+  @GuardedBy("this")
+  private final Deque<Waiter> waiters = new ArrayDeque<>();
+
+  public ResourcePool(ResourceProfile capacity) {
+    this.capacity = Preconditions.checkNotNull(capacity);
+  }
+
+  public static ResourcePool createUnlimited() {
+    return new ResourcePool(ResourceProfile.UNLIMITED);
+  }
+
+  public ResourceProfile getCapacity() {
+    return capacity;
+  }
+
+  /**
+   * @return whether the resources in {@code profile} were available, with no step waiting for
+   *     resources ahead of it, and are now acquired.
+   */
+  public synchronized boolean tryAcquire(ResourceProfile profile) {
+    if (!waiters.isEmpty() || !computeSaturatedResources(profile).isEmpty()) {
+      return false;
+    }
+    take(profile);
+    return true;
+  }
+
+  /**
+   * Waits until the resources in {@code profile} are available and every step that was waiting
+   * before it has acquired its resources, and acquires them.
+   */
+  public synchronized void acquire(ResourceProfile profile) throws InterruptedException {
+    if (tryAcquire(profile)) {
+      return;
+    }
+    Waiter waiter = new Waiter(profile);
+    waiters.addLast(waiter);
+    try {
+      while (waiters.peekFirst() != waiter || !computeSaturatedResources(profile).isEmpty()) {
+        wait();
+      }
+      take(profile);
+    } finally {
+      waiters.remove(waiter);
+      // The next waiter is now at the head of the queue, and may fit alongside this step.
+      notifyAll();
+    }
+  }
+
+  @GuardedBy("this")
+  private void take(ResourceProfile profile) {
+    coresInUse += Math.min(profile.getCores(), capacity.getCores());
+    memoryMegabytesInUse += Math.min(profile.getMemoryMegabytes(), capacity.getMemoryMegabytes());
+    heapMegabytesInUse += Math.min(profile.getHeapMegabytes(), capacity.getHeapMegabytes());
+    subprocessesInUse += Math.min(profile.getSubprocesses(), capacity.getSubprocesses());
+  }
+
+  /** Returns resources that were acquired with {@link #acquire(ResourceProfile)}. */
+  public synchronized void release(ResourceProfile profile) {
+    coresInUse -= Math.min(profile.getCores(), capacity.getCores());
+    memoryMegabytesInUse -= Math.min(profile.getMemoryMegabytes(), capacity.getMemoryMegabytes());
+    heapMegabytesInUse -= Math.min(profile.getHeapMegabytes(), capacity.getHeapMegabytes());
+    subprocessesInUse -= Math.min(profile.getSubprocesses(), capacity.getSubprocesses());
+    Preconditions.checkState(
+        coresInUse >= 0 &&
+            memoryMegabytesInUse >= 0 &&
+            heapMegabytesInUse >= 0 &&
+            subprocessesInUse >= 0,
+        "Released more resources than were acquired.");
+    notifyAll();
+  }
+
+  /**
+   * @return the resources of which there is not enough left for {@code profile} at the moment, or
+   *     if there are enough, those that the oldest waiting step, which goes first, is waiting for.
+   */
+  public synchronized ImmutableSet<Resource> getSaturatedResources(ResourceProfile profile) {
+    ImmutableSet<Resource> saturated = computeSaturatedResources(profile);
+    if (saturated.isEmpty() && !waiters.isEmpty()) {
+      return computeSaturatedResources(waiters.peekFirst().profile);
+    }
+    return saturated;
+  }
+
+  @GuardedBy("this")
+  private ImmutableSet<Resource> computeSaturatedResources(ResourceProfile profile) {
+    ImmutableSet.Builder<Resource> saturated = ImmutableSet.builder();
+    if (isSaturated(coresInUse, profile.getCores(), capacity.getCores())) {
+      saturated.add(Resource.CORES);
+    }
+    if (isSaturated(memoryMegabytesInUse,
+        profile.getMemoryMegabytes(),
+        capacity.getMemoryMegabytes())) {
+      saturated.add(Resource.MEMORY);
+    }
+    if (isSaturated(heapMegabytesInUse, profile.getHeapMegabytes(), capacity.getHeapMegabytes())) {
+      saturated.add(Resource.HEAP);
+    }
+    if (isSaturated(subprocessesInUse, profile.getSubprocesses(), capacity.getSubprocesses())) {
+      saturated.add(Resource.SUBPROCESSES);
+    }
+    return saturated.build();
+  }
+
+  private static final class Waiter {
+    private final ResourceProfile profile;
+
+    private Waiter(ResourceProfile profile) {
+      this.profile = profile;
+    }
+  }
+
+  private static boolean isSaturated(long inUse, long requested, long capacity) {
+    return requested > 0 && inUse + Math.min(requested, capacity) > capacity;
+  }
+}
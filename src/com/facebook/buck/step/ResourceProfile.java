@@ -0,0 +1,131 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.step;
+
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+
+/**
+ * The resources that a {@link Step} needs while it executes, or the total amount of each resource
+ * that the steps executing at once may share. See {@link HasResourceProfile}.
+ */
+public final class ResourceProfile {
+
+  /** What a step that does not declare a profile needs: nothing beyond its thread. */
+  public static final ResourceProfile NONE = new ResourceProfile(
+      /* cores */ 0,
+      /* memoryMegabytes */ 0,
+      /* heapMegabytes */ 0,
+      /* subprocesses */ 0);
+
+  /** What a step that runs a single, lightweight subprocess needs. */
+  public static final ResourceProfile SUBPROCESS = new ResourceProfile(
+      /* cores */ 0,
+      /* memoryMegabytes */ 0,
+      /* heapMegabytes */ 0,
+      /* subprocesses */ 1);
+
+  public static final ResourceProfile UNLIMITED = new ResourceProfile(
+      /* cores */ Integer.MAX_VALUE,
+      /* memoryMegabytes */ Long.MAX_VALUE,
+      /* heapMegabytes */ Long.MAX_VALUE,
+      /* subprocesses */ Integer.MAX_VALUE);
+
+  private final int cores;
+  private final long memoryMegabytes;
+  private final long heapMegabytes;
+  private final int subprocesses;
+
+  public ResourceProfile(int cores, long memoryMegabytes, long heapMegabytes, int subprocesses) {
+    Preconditions.checkArgument(cores >= 0, "cores must not be negative");
+    Preconditions.checkArgument(memoryMegabytes >= 0, "memoryMegabytes must not be negative");
+    Preconditions.checkArgument(heapMegabytes >= 0, "heapMegabytes must not be negative");
+    Preconditions.checkArgument(subprocesses >= 0, "subprocesses must not be negative");
+    this.cores = cores;
+    this.memoryMegabytes = memoryMegabytes;
+    this.heapMegabytes = heapMegabytes;
+    this.subprocesses = subprocesses;
+  }
+
+  /** @return the number of cores that are kept busy, by this process or by its subprocesses. */
+  public int getCores() {
+    return cores;
+  }
+
+  /** @return the physical memory used by subprocesses. */
+  public long getMemoryMegabytes() {
+    return memoryMegabytes;
+  }
+
+  /**
+   * @return the memory used on the heap of this process, which steps that run in-process share
+   *     rather than the physical memory of the machine.
+   */
+  public long getHeapMegabytes() {
+    return heapMegabytes;
+  }
+
+  /** @return the number of subprocesses that are run at once. */
+  public int getSubprocesses() {
+    return subprocesses;
+  }
+
+  /**
+   * @return the resources needed to run steps with the given {@code profiles} one after another:
+   *     the most that any one of them needs of each resource.
+   */
+  public static ResourceProfile max(Iterable<ResourceProfile> profiles) {
+    int cores = 0;
+    long memoryMegabytes = 0;
+    long heapMegabytes = 0;
+    int subprocesses = 0;
+    for (ResourceProfile profile : profiles) {
+      cores = Math.max(cores, profile.cores);
+      memoryMegabytes = Math.max(memoryMegabytes, profile.memoryMegabytes);
+      heapMegabytes = Math.max(heapMegabytes, profile.heapMegabytes);
+      subprocesses = Math.max(subprocesses, profile.subprocesses);
+    }
+    return new ResourceProfile(cores, memoryMegabytes, heapMegabytes, subprocesses);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    if (!(obj instanceof ResourceProfile)) {
+      return false;
+    }
+    ResourceProfile that = (ResourceProfile) obj;
+    return this.cores == that.cores &&
+        this.memoryMegabytes == that.memoryMegabytes &&
+        this.heapMegabytes == that.heapMegabytes &&
+        this.subprocesses == that.subprocesses;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hashCode(cores, memoryMegabytes, heapMegabytes, subprocesses);
+  }
+
+  @Override
+  public String toString() {
+    return String.format("cores=%d, memory=%dMB, heap=%dMB, subprocesses=%d",
+        cores,
+        memoryMegabytes,
+        heapMegabytes,
+        subprocesses);
+  }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.step;
+
+import com.facebook.buck.event.AbstractBuckEvent;
+import com.facebook.buck.event.BuckEvent;
+import com.google.common.base.Joiner;
+import com.google.common.base.Objects;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ * Events about a {@link Step} that has to wait for the resources that it declared with
+ * {@link HasResourceProfile}, because other steps are using them. They are only posted for a step
+ * that could not start right away.
+ */
+@SuppressWarnings("PMD.OverrideBothEqualsAndHashcode")
+public abstract class StepResourcesEvent extends AbstractBuckEvent {
+  private final Step step;
+
+  protected StepResourcesEvent(Step step) {
+    this.step = Preconditions.checkNotNull(step);
+  }
+
+  public Step getStep() {
+    return step;
+  }
+
+  @Override
+  protected String getValueString() {
+    return step.getShortName();
+  }
+
+  @Override
+  public boolean eventsArePair(BuckEvent event) {
+    if (!(event instanceof StepResourcesEvent)) {
+      return false;
+    }
+
+    StepResourcesEvent that = (StepResourcesEvent) event;
+
+    return Objects.equal(getStep(), that.getStep());
+  }
+
+  @Override
+  public int hashCode() {
+    return step.hashCode();
+  }
+
+  public static Waiting waiting(Step step, ImmutableSet<ResourcePool.Resource> saturatedResources) {
+    return new Waiting(step, saturatedResources);
+  }
+
+  public static Acquired acquired(Step step) {
+    return new Acquired(step);
+  }
+
+  public static class Waiting extends StepResourcesEvent {
+    private final ImmutableSet<ResourcePool.Resource> saturatedResources;
+
+    protected Waiting(Step step, ImmutableSet<ResourcePool.Resource> saturatedResources) {
+      super(step);
+      this.saturatedResources = Preconditions.checkNotNull(saturatedResources);
+    }
+
+    /** @return the resources that the step is waiting for. */
+    public ImmutableSet<ResourcePool.Resource> getSaturatedResources() {
+      return saturatedResources;
+    }
+
+    @Override
+    protected String getValueString() {
+      return String.format("%s waiting for %s",
+          super.getValueString(),
+          Joiner.on(", ").join(saturatedResources));
+    }
+
+    @Override
+    public String getEventName() {
+      return "StepResourcesWaiting";
+    }
+  }
+
+  public static class Acquired extends StepResourcesEvent {
+    protected Acquired(Step step) {
+      super(step);
+    }
+
+    @Override
+    public String getEventName() {
+      return "StepResourcesAcquired";
+    }
+  }
+}
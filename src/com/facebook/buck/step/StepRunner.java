@@ -48,8 +48,11 @@ public interface StepRunner {
 
   /**
    * Execute callback in a new thread, once dependencies have completed.
+   * @param priority when more callbacks are ready than there are threads, those with higher
+   *     priorities are run first. A runner that does not prioritize its work ignores it.
    */
   public <T> void addCallback(
       ListenableFuture<List<T>> dependencies,
-      FutureCallback<List<T>> callback);
+      FutureCallback<List<T>> callback,
+      long priority);
 }
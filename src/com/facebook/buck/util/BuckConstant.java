@@ -46,6 +46,11 @@ public class BuckConstant {
 
   public static final Path BUCK_TRACE_DIR = BUCK_OUTPUT_PATH.resolve("log/traces");
 
+  /**
+   * State that is expensive to recompute, but that can be thrown away at any time.
+   */
+  public static final Path CACHE_PATH = BUCK_OUTPUT_PATH.resolve("cache");
+
   /**
    * This variable is package-private because conceptually, only parsing logic should be concerned
    * with the files that define build rules. Note that if the value of this variable changes, the
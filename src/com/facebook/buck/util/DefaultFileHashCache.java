@@ -17,6 +17,7 @@
 package com.facebook.buck.util;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
@@ -28,36 +29,73 @@ import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 import com.google.common.io.InputSupplier;
 
-import java.io.File;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
 import java.nio.file.WatchEvent;
+import java.nio.file.attribute.BasicFileAttributes;
 import java.util.concurrent.ExecutionException;
 
 public class DefaultFileHashCache implements FileHashCache {
 
   private final ProjectFilesystem projectFilesystem;
+  private final Optional<PersistentFileHashIndex> persistentIndex;
   private Console console;
 
   @VisibleForTesting
   final LoadingCache<Path, HashCode> loadingCache;
 
   public DefaultFileHashCache(ProjectFilesystem projectFilesystem, Console console) {
+    this(projectFilesystem, console, Optional.<PersistentFileHashIndex>absent());
+  }
+
+  /**
+   * @param persistentIndex if present, hashes are looked up in and recorded to this index, so that
+   *     files that have not changed since an earlier run of Buck do not have to be read again.
+   */
+  public DefaultFileHashCache(
+      ProjectFilesystem projectFilesystem,
+      Console console,
+      Optional<PersistentFileHashIndex> persistentIndex) {
     this.projectFilesystem = Preconditions.checkNotNull(projectFilesystem);
     this.console = Preconditions.checkNotNull(console);
+    this.persistentIndex = Preconditions.checkNotNull(persistentIndex);
 
     this.loadingCache = CacheBuilder.newBuilder()
         .build(new CacheLoader<Path, HashCode>() {
           @Override
           public HashCode load(Path path) throws Exception {
-            File file = DefaultFileHashCache.this.projectFilesystem.resolve(path).toFile();
-            InputSupplier<? extends InputStream> inputSupplier = Files.newInputStreamSupplier(file);
-            return ByteStreams.hash(inputSupplier, Hashing.sha1());
+            return hashFile(path);
           }
         });
   }
 
+  private HashCode hashFile(Path path) throws IOException {
+    Path file = projectFilesystem.resolve(path);
+    if (!persistentIndex.isPresent()) {
+      return hash(file);
+    }
+
+    // Read the attributes before the contents so that a change made while the file is being
+    // hashed is seen as a change on the next lookup.
+    BasicFileAttributes attributes = java.nio.file.Files.readAttributes(
+        file,
+        BasicFileAttributes.class);
+    Optional<HashCode> recordedHash = persistentIndex.get().get(path, attributes);
+    if (recordedHash.isPresent()) {
+      return recordedHash.get();
+    }
+    HashCode hash = hash(file);
+    persistentIndex.get().put(path, attributes, hash);
+    return hash;
+  }
+
+  private static HashCode hash(Path file) throws IOException {
+    InputSupplier<? extends InputStream> inputSupplier =
+        Files.newInputStreamSupplier(file.toFile());
+    return ByteStreams.hash(inputSupplier, Hashing.sha1());
+  }
+
   @Override
   public boolean contains(Path path) {
     return loadingCache.getIfPresent(path) != null;
@@ -94,8 +132,13 @@ public class DefaultFileHashCache implements FileHashCache {
       // Path event, remove the path from the cache as it has been changed, added or deleted.
       Path path = (Path) event.context();
       loadingCache.invalidate(path.normalize());
+      if (persistentIndex.isPresent()) {
+        persistentIndex.get().remove(path.normalize());
+      }
     } else {
       // Non-path change event, likely an overflow due to many change events: invalidate everything.
+      // The persistent index is left alone, as each of its entries is checked against the file's
+      // attributes before it is used.
       loadingCache.invalidateAll();
     }
   }
@@ -0,0 +1,247 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * An index of file content hashes that survives between runs of Buck, so that a cold build does
+ * not have to read and hash every input file again.
+ * <p>
+ * Each hash is recorded along with the size, modification time and file key (the inode, on
+ * platforms that have one) of the file when it was hashed. A lookup only returns the recorded hash
+ * if the file still has the same attributes, so stale entries are detected with a {@code stat}
+ * rather than by reading the file.
+ * <p>
+ * The index is read from disk through a memory-mapped buffer when it is loaded, and is rewritten
+ * as a whole by {@link #save()}. Entries for files that were modified within the last
+ * {@link #RACY_MODIFICATION_WINDOW_MILLIS} milliseconds of being hashed are not recorded, as a
+ * later change within the granularity of the file system's timestamps would go unnoticed.
+ */
+public class PersistentFileHashIndex {
+
+  private static final int MAGIC = 0x42484958; // "BHIX"
+  private static final int VERSION = 1;
+
+  @VisibleForTesting
+  static final long RACY_MODIFICATION_WINDOW_MILLIS = 2000;
+
+  private final Path indexFile;
+  private final ConcurrentMap<Path, Entry> entries;
+  private final AtomicBoolean isDirty;
+
+  private PersistentFileHashIndex(Path indexFile, ConcurrentMap<Path, Entry> entries) {
+    this.indexFile = Preconditions.checkNotNull(indexFile);
+    this.entries = Preconditions.checkNotNull(entries);
+    this.isDirty = new AtomicBoolean();
+  }
+
+  /**
+   * Reads the index at {@code indexFile}. A missing or unreadable index results in an empty one,
+   * which will be written back to {@code indexFile} by {@link #save()}.
+   */
+  public static PersistentFileHashIndex load(Path indexFile) {
+    ConcurrentMap<Path, Entry> entries = Maps.newConcurrentMap();
+    if (Files.isRegularFile(indexFile)) {
+      try (FileChannel channel = FileChannel.open(indexFile, StandardOpenOption.READ)) {
+        MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        readEntries(buffer, entries);
+      } catch (IOException | RuntimeException e) {
+        // The index is only an optimization: start over with an empty one if it is corrupt.
+        entries.clear();
+      }
+    }
+    return new PersistentFileHashIndex(indexFile, entries);
+  }
+
+  private static void readEntries(ByteBuffer buffer, Map<Path, Entry> entries) {
+    if (buffer.getInt() != MAGIC || buffer.getInt() != VERSION) {
+      return;
+    }
+    int count = buffer.getInt();
+    for (int i = 0; i < count; i++) {
+      Path path = Paths.get(readString(buffer));
+      long size = buffer.getLong();
+      long lastModifiedMillis = buffer.getLong();
+      String fileKey = readString(buffer);
+      byte[] hash = new byte[buffer.getShort() & 0xFFFF];
+      buffer.get(hash);
+      entries.put(path, new Entry(size, lastModifiedMillis, fileKey, HashCode.fromBytes(hash)));
+    }
+  }
+
+  private static String readString(ByteBuffer buffer) {
+    byte[] bytes = new byte[buffer.getShort() & 0xFFFF];
+    buffer.get(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  /**
+   * @param path the path whose hash is requested, as it was passed to
+   *     {@link #put(Path, BasicFileAttributes, HashCode)}.
+   * @param attributes the current attributes of the file at {@code path}.
+   * @return the recorded hash, if the file has not changed since it was recorded.
+   */
+  public Optional<HashCode> get(Path path, BasicFileAttributes attributes) {
+    Entry entry = entries.get(path);
+    if (entry == null || !entry.matches(attributes)) {
+      return Optional.absent();
+    }
+    return Optional.of(entry.hash);
+  }
+
+  /**
+   * Records {@code hash} as the hash of the contents of {@code path}.
+   * @param attributes the attributes of the file, read <em>before</em> its contents were hashed.
+   */
+  public void put(Path path, BasicFileAttributes attributes, HashCode hash) {
+    long lastModifiedMillis = attributes.lastModifiedTime().toMillis();
+    if (System.currentTimeMillis() - lastModifiedMillis < RACY_MODIFICATION_WINDOW_MILLIS) {
+      return;
+    }
+    Entry entry = new Entry(attributes.size(),
+        lastModifiedMillis,
+        getFileKey(attributes),
+        hash);
+    if (!entry.equals(entries.put(path, entry))) {
+      isDirty.set(true);
+    }
+  }
+
+  public void remove(Path path) {
+    if (entries.remove(path) != null) {
+      isDirty.set(true);
+    }
+  }
+
+  @VisibleForTesting
+  int size() {
+    return entries.size();
+  }
+
+  /**
+   * Writes the index back to disk, if it has changed since it was loaded. The new index is written
+   * to a temporary file first so that a concurrent or interrupted run never sees a partial one.
+   */
+  public synchronized void save() throws IOException {
+    if (!isDirty.getAndSet(false)) {
+      return;
+    }
+
+    Files.createDirectories(indexFile.getParent());
+    Path tempFile = Files.createTempFile(indexFile.getParent(),
+        indexFile.getFileName().toString(),
+        ".tmp");
+    try {
+      // Take a snapshot so that the count matches the entries that are written.
+      Map<Path, Entry> snapshot = Maps.newHashMap(entries);
+      try (DataOutputStream output = new DataOutputStream(
+          new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+        output.writeInt(MAGIC);
+        output.writeInt(VERSION);
+        output.writeInt(snapshot.size());
+        for (Map.Entry<Path, Entry> mapEntry : snapshot.entrySet()) {
+          Entry entry = mapEntry.getValue();
+          writeString(output, mapEntry.getKey().toString());
+          output.writeLong(entry.size);
+          output.writeLong(entry.lastModifiedMillis);
+          writeString(output, entry.fileKey);
+          byte[] hash = entry.hash.asBytes();
+          output.writeShort(hash.length);
+          output.write(hash);
+        }
+      }
+      Files.move(tempFile, indexFile,
+          StandardCopyOption.REPLACE_EXISTING,
+          StandardCopyOption.ATOMIC_MOVE);
+    } catch (IOException e) {
+      isDirty.set(true);
+      Files.deleteIfExists(tempFile);
+      throw e;
+    }
+  }
+
+  private static void writeString(DataOutputStream output, String value) throws IOException {
+    byte[] bytes = value.getBytes(Charsets.UTF_8);
+    Preconditions.checkArgument(bytes.length <= 0xFFFF, "String too long for index: %s", value);
+    output.writeShort(bytes.length);
+    output.write(bytes);
+  }
+
+  private static String getFileKey(BasicFileAttributes attributes) {
+    // Platforms without inodes have no file key, in which case only size and time are compared.
+    return String.valueOf(attributes.fileKey());
+  }
+
+  private static class Entry {
+    private final long size;
+    private final long lastModifiedMillis;
+    private final String fileKey;
+    private final HashCode hash;
+
+    public Entry(long size, long lastModifiedMillis, String fileKey, HashCode hash) {
+      this.size = size;
+      this.lastModifiedMillis = lastModifiedMillis;
+      this.fileKey = Preconditions.checkNotNull(fileKey);
+      this.hash = Preconditions.checkNotNull(hash);
+    }
+
+    public boolean matches(BasicFileAttributes attributes) {
+      return size == attributes.size() &&
+          lastModifiedMillis == attributes.lastModifiedTime().toMillis() &&
+          fileKey.equals(getFileKey(attributes));
+    }
+
+    @Override
+    public boolean equals(Object obj) {
+      if (!(obj instanceof Entry)) {
+        return false;
+      }
+      Entry that = (Entry) obj;
+      return size == that.size &&
+          lastModifiedMillis == that.lastModifiedMillis &&
+          fileKey.equals(that.fileKey) &&
+          hash.equals(that.hash);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash.hashCode();
+    }
+  }
+}
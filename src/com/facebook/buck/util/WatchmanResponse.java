@@ -0,0 +1,313 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.List;
+
+import javax.annotation.Nullable;
+
+/**
+ * One response from watchman, read from its JSON output as it streams in, which is either the
+ * result of a query or one of the unilateral messages of a subscription:
+ * <pre>
+ * {
+ *     "clock": "c:1386170113:26390:5:50273",
+ *     "is_fresh_instance": false,
+ *     "files": [
+ *     {
+ *         "new": false,
+ *         "exists": true,
+ *         "name": "bin/buckd",
+ *         "type": "f",
+ *     },
+ *     ]
+ * }
+ * </pre>
+ * The keys of the objects may come in any order, so the values of each file are collected in a
+ * builder until the end of its object is reached.
+ */
+class WatchmanResponse {
+
+  private static final String DIRECTORY_TYPE = "d";
+
+  @Nullable private final String clock;
+  @Nullable private final String error;
+  @Nullable private final String subscription;
+  private final boolean isFreshInstance;
+  private final boolean isOverflow;
+  private final ImmutableList<WatchEvent<Path>> events;
+  private final ImmutableList<String> cookies;
+
+  private WatchmanResponse(
+      @Nullable String clock,
+      @Nullable String error,
+      @Nullable String subscription,
+      boolean isFreshInstance,
+      boolean isOverflow,
+      List<WatchEvent<Path>> events,
+      List<String> cookies) {
+    this.clock = clock;
+    this.error = error;
+    this.subscription = subscription;
+    this.isFreshInstance = isFreshInstance;
+    this.isOverflow = isOverflow;
+    this.events = ImmutableList.copyOf(events);
+    this.cookies = ImmutableList.copyOf(cookies);
+  }
+
+  /**
+   * Reads the next response from {@code jsonParser}.
+   * @param maxEvents once a response has more events than this, the rest are not collected and
+   *     the response is an overflow.
+   * @param readPastOverflow whether the rest of a response that overflows is read, so that the
+   *     next one can be, or left for the caller to discard.
+   * @param cookiePrefix files at the root of the project whose names start with this are not
+   *     reported as events, but as cookies, which mark how far the changes have been reported.
+   * @return the response, or absent at the end of the output.
+   */
+  static Optional<WatchmanResponse> read(
+      JsonParser jsonParser,
+      int maxEvents,
+      boolean readPastOverflow,
+      Optional<String> cookiePrefix) throws IOException {
+    JsonToken token = jsonParser.nextToken();
+    if (token == null) {
+      return Optional.absent();
+    }
+    if (token != JsonToken.START_OBJECT) {
+      throw new WatchmanWatcherException("Unexpected output from watchman: " + token);
+    }
+
+    String clock = null;
+    String error = null;
+    String subscription = null;
+    boolean isFreshInstance = false;
+    boolean isOverflow = maxEvents < 0;
+    List<WatchEvent<Path>> events = Lists.newArrayList();
+    List<String> cookies = Lists.newArrayList();
+
+    while ((token = jsonParser.nextToken()) == JsonToken.FIELD_NAME) {
+      String fieldName = jsonParser.getCurrentName();
+      token = jsonParser.nextToken();
+      switch (fieldName) {
+        case "clock":
+          clock = jsonParser.getText();
+          break;
+        case "error":
+          error = jsonParser.getText();
+          break;
+        case "subscription":
+          subscription = jsonParser.getText();
+          break;
+        case "is_fresh_instance":
+          isFreshInstance = token == JsonToken.VALUE_TRUE;
+          break;
+        case "files":
+          if (isOverflow) {
+            if (!readPastOverflow) {
+              return Optional.of(new WatchmanResponse(
+                  clock, error, subscription, isFreshInstance, true, events, cookies));
+            }
+            jsonParser.skipChildren();
+            break;
+          }
+          while (jsonParser.nextToken() == JsonToken.START_OBJECT) {
+            PathEventBuilder builder = new PathEventBuilder();
+            while (jsonParser.nextToken() == JsonToken.FIELD_NAME) {
+              String fileFieldName = jsonParser.getCurrentName();
+              JsonToken value = jsonParser.nextToken();
+              switch (fileFieldName) {
+                case "name":
+                  builder.setPath(jsonParser.getText());
+                  break;
+                case "new":
+                  if (value == JsonToken.VALUE_TRUE) {
+                    builder.setCreationEvent();
+                  }
+                  break;
+                case "exists":
+                  if (value == JsonToken.VALUE_FALSE) {
+                    builder.setDeletionEvent();
+                  }
+                  break;
+                case "type":
+                  builder.setDirectory(DIRECTORY_TYPE.equals(jsonParser.getText()));
+                  break;
+                default:
+                  jsonParser.skipChildren();
+                  break;
+              }
+            }
+
+            if (builder.isCookie(cookiePrefix)) {
+              cookies.add(builder.path);
+            } else if (builder.canBuild()) {
+              if (events.size() == maxEvents) {
+                isOverflow = true;
+                if (!readPastOverflow) {
+                  return Optional.of(new WatchmanResponse(
+                      clock, error, subscription, isFreshInstance, true, events, cookies));
+                }
+                // Keep reading, as the cookies must not be missed.
+                continue;
+              }
+              events.add(builder.build());
+            }
+          }
+          break;
+        default:
+          jsonParser.skipChildren();
+          break;
+      }
+    }
+    return Optional.of(new WatchmanResponse(
+        clock, error, subscription, isFreshInstance, isOverflow, events, cookies));
+  }
+
+  /** @return the clock of watchman when the response was produced. */
+  Optional<String> getClock() {
+    return Optional.fromNullable(clock);
+  }
+
+  Optional<String> getError() {
+    return Optional.fromNullable(error);
+  }
+
+  /** @return whether this is one of the unilateral messages of a subscription. */
+  boolean isSubscriptionMessage() {
+    return subscription != null;
+  }
+
+  /**
+   * @return whether watchman could not tell what changed since the clock that was asked about, as
+   *     it has been restarted or had to crawl the tree again, and listed every file instead.
+   */
+  boolean isFreshInstance() {
+    return isFreshInstance;
+  }
+
+  /** @return whether there were more events than the caller wanted to handle one by one. */
+  boolean isOverflow() {
+    return isOverflow;
+  }
+
+  ImmutableList<WatchEvent<Path>> getEvents() {
+    return events;
+  }
+
+  ImmutableList<String> getCookies() {
+    return cookies;
+  }
+
+  static WatchEvent<Object> createOverflowEvent() {
+    return new WatchEvent<Object>() {
+
+      @Override
+      public Kind<Object> kind() {
+        return StandardWatchEventKinds.OVERFLOW;
+      }
+
+      @Override
+      public int count() {
+        return 1;
+      }
+
+      @Override
+      public Object context() {
+        return null;
+      }
+    };
+  }
+
+  private static class PathEventBuilder {
+
+    private WatchEvent.Kind<Path> kind;
+    @Nullable private String path;
+    private boolean isDirectory;
+
+    PathEventBuilder() {
+      this.kind = StandardWatchEventKinds.ENTRY_MODIFY;
+    }
+
+    public void setCreationEvent() {
+      if (kind != StandardWatchEventKinds.ENTRY_DELETE) {
+        kind = StandardWatchEventKinds.ENTRY_CREATE;
+      }
+    }
+
+    public void setDeletionEvent() {
+      kind = StandardWatchEventKinds.ENTRY_DELETE;
+    }
+
+    public void setPath(String path) {
+      this.path = path;
+    }
+
+    public void setDirectory(boolean isDirectory) {
+      this.isDirectory = isDirectory;
+    }
+
+    public boolean isCookie(Optional<String> cookiePrefix) {
+      return path != null &&
+          cookiePrefix.isPresent() &&
+          path.startsWith(cookiePrefix.get()) &&
+          path.indexOf('/') == -1;
+    }
+
+    public WatchEvent<Path> build() {
+      Preconditions.checkNotNull(path);
+      final WatchEvent.Kind<Path> kind = this.kind;
+      final Path path = Paths.get(this.path);
+      return new WatchEvent<Path>() {
+        @Override
+        public Kind<Path> kind() {
+          return kind;
+        }
+
+        @Override
+        public int count() {
+          return 1;
+        }
+
+        @Override
+        public Path context() {
+          return path;
+        }
+      };
+    }
+
+    /**
+     * A directory is modified whenever an entry is added to or removed from it, which is reported
+     * for the entry itself, so only the creation and deletion of a directory are events.
+     */
+    public boolean canBuild() {
+      return path != null && !(isDirectory && kind == StandardWatchEventKinds.ENTRY_MODIFY);
+    }
+  }
+}
@@ -0,0 +1,281 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.base.Preconditions;
+import com.google.common.base.Supplier;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.EventBus;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.WatchEvent;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+import javax.annotation.concurrent.GuardedBy;
+
+/**
+ * A ProjectFilesystemWatcher implementation that keeps a subscription open with a local watchman
+ * service for as long as the daemon runs, and collects the changes as watchman streams them in,
+ * rather than starting watchman and asking it for all of the changes at the start of each command.
+ * <p>
+ * As watchman delivers changes asynchronously, {@link #postEvents()} first creates a cookie file
+ * at the root of the project and waits for watchman to report it: every change made before the
+ * cookie has been reported by then.
+ */
+public class WatchmanSubscriptionWatcher implements ProjectFilesystemWatcher {
+
+  private static final String SUBSCRIPTION_NAME = "buckd";
+  private static final String COOKIE_PREFIX = ".buckd-sync-";
+  private static final long DEFAULT_SYNC_TIMEOUT_MILLIS = 10000;
+
+  private final Supplier<Process> watchmanProcessSupplier;
+  private final EventBus eventBus;
+  private final JsonFactory jsonFactory;
+  private final Path rootPath;
+  private final int overflow;
+  private final long syncTimeoutMillis;
+  private final String cookieNamePrefix;
+  private final Object lock;
+
+  @Nullable private Process watchmanProcess;
+  private int cookieCount;
+
+  @GuardedBy("lock")
+  private List<WatchEvent<Path>> pendingEvents;
+  @GuardedBy("lock")
+  private boolean isOverflow;
+  @GuardedBy("lock")
+  private final Set<String> reportedCookies;
+  @GuardedBy("lock")
+  private boolean hasInitialMessage;
+  @GuardedBy("lock")
+  @Nullable
+  private String failure;
+
+  public WatchmanSubscriptionWatcher(ProjectFilesystem filesystem,
+                                     EventBus fileChangeEventBus) {
+    this(createProcessSupplier(),
+        fileChangeEventBus,
+        WatchmanWatcher.DEFAULT_OVERFLOW_THRESHOLD,
+        MorePaths.absolutify(filesystem.getRootPath()),
+        DEFAULT_SYNC_TIMEOUT_MILLIS);
+  }
+
+  /**
+   * @param overflow the maximum number of changes to collect between two calls to
+   *     {@link #postEvents()} before giving up and generating an overflow.
+   * @param syncTimeoutMillis how long to wait for watchman to report a cookie file.
+   */
+  @VisibleForTesting
+  WatchmanSubscriptionWatcher(Supplier<Process> processSupplier,
+                              EventBus fileChangeEventBus,
+                              int overflow,
+                              Path rootPath,
+                              long syncTimeoutMillis) {
+    this.watchmanProcessSupplier = Preconditions.checkNotNull(processSupplier);
+    this.eventBus = Preconditions.checkNotNull(fileChangeEventBus);
+    this.jsonFactory = new JsonFactory();
+    this.overflow = overflow;
+    this.rootPath = Preconditions.checkNotNull(rootPath);
+    this.syncTimeoutMillis = syncTimeoutMillis;
+    // Distinguishes the cookies of this daemon from those of any other one watching the project.
+    this.cookieNamePrefix = COOKIE_PREFIX + Integer.toHexString(new Random().nextInt()) + "-";
+    this.lock = new Object();
+    this.pendingEvents = Lists.newArrayList();
+    this.reportedCookies = Sets.newHashSet();
+  }
+
+  @VisibleForTesting
+  String createSubscribeCommand() {
+    return "[\"subscribe\", " + WatchmanWatcher.quote(rootPath.toString()) + ", " +
+        WatchmanWatcher.quote(SUBSCRIPTION_NAME) + ", {" +
+        "\"fields\": [\"name\", \"exists\", \"new\", \"type\"]}]\n";
+  }
+
+  private static Supplier<Process> createProcessSupplier() {
+    final ProcessBuilder processBuilder = new ProcessBuilder(
+        "watchman",
+        "--server-encoding=json",
+        "--no-pretty",
+        "--persistent",
+        "-j");
+
+    return new Supplier<Process>() {
+      @Override
+      public Process get() {
+        try {
+          return processBuilder.start();
+        } catch (IOException e) {
+          throw Throwables.propagate(e);
+        }
+      }
+    };
+  }
+
+  @Override
+  public void postEvents() throws IOException {
+    if (watchmanProcess == null) {
+      subscribe();
+    }
+    sync();
+
+    List<WatchEvent<Path>> events;
+    boolean overflowed;
+    synchronized (lock) {
+      events = pendingEvents;
+      overflowed = isOverflow;
+      pendingEvents = Lists.newArrayList();
+      isOverflow = false;
+    }
+
+    if (overflowed) {
+      eventBus.post(WatchmanResponse.createOverflowEvent());
+      return;
+    }
+    for (WatchEvent<Path> event : events) {
+      eventBus.post(event);
+    }
+  }
+
+  private void subscribe() throws IOException {
+    watchmanProcess = watchmanProcessSupplier.get();
+    // The command is not closed: watchman only keeps sending changes while its input is open.
+    OutputStream command = watchmanProcess.getOutputStream();
+    command.write(createSubscribeCommand().getBytes(Charsets.UTF_8));
+    command.flush();
+
+    final JsonParser jsonParser = jsonFactory.createJsonParser(watchmanProcess.getInputStream());
+    Thread reader = Threads.namedThread(
+        WatchmanSubscriptionWatcher.class.getSimpleName(),
+        new Runnable() {
+          @Override
+          public void run() {
+            readResponses(jsonParser);
+          }
+        });
+    reader.setDaemon(true);
+    reader.start();
+  }
+
+  /** Waits until watchman has reported every change made before it was called. */
+  private void sync() throws IOException {
+    String cookieName = cookieNamePrefix + cookieCount++;
+    Path cookie = rootPath.resolve(cookieName);
+    Files.createFile(cookie);
+    try {
+      long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(syncTimeoutMillis);
+      synchronized (lock) {
+        while (!reportedCookies.contains(cookieName)) {
+          if (failure != null) {
+            throw new WatchmanWatcherException(failure);
+          }
+          long remainingMillis = TimeUnit.NANOSECONDS.toMillis(deadline - System.nanoTime());
+          if (remainingMillis <= 0) {
+            throw new WatchmanWatcherException(
+                "Timed out waiting for watchman to report changes to " + rootPath);
+          }
+          try {
+            lock.wait(remainingMillis);
+          } catch (InterruptedException e) {
+            throw Throwables.propagate(e);
+          }
+        }
+        // Any other cookie that has been reported, such as the deletion of an earlier one, is of
+        // no further use.
+        reportedCookies.clear();
+      }
+    } finally {
+      Files.deleteIfExists(cookie);
+    }
+  }
+
+  /** Runs on the reader thread until watchman exits or its output is closed. */
+  private void readResponses(JsonParser jsonParser) {
+    String error = "Watchman stopped reporting changes to " + rootPath;
+    try {
+      Optional<WatchmanResponse> response;
+      while ((response = WatchmanResponse.read(
+          jsonParser,
+          overflow,
+          /* readPastOverflow */ true,
+          Optional.of(COOKIE_PREFIX))).isPresent()) {
+        if (response.get().getError().isPresent()) {
+          error = "Watchman failed to report changes: " + response.get().getError().get();
+          break;
+        }
+        if (response.get().isSubscriptionMessage()) {
+          handleSubscriptionMessage(response.get());
+        }
+      }
+    } catch (IOException | RuntimeException e) {
+      error = "Watchman failed to report changes: " + e.getMessage();
+    }
+
+    synchronized (lock) {
+      failure = error;
+      lock.notifyAll();
+    }
+  }
+
+  private void handleSubscriptionMessage(WatchmanResponse response) {
+    synchronized (lock) {
+      if (!hasInitialMessage) {
+        // The first message lists every file, which the daemon has not seen any state of yet.
+        hasInitialMessage = true;
+      } else if (response.isFreshInstance() || response.isOverflow()) {
+        isOverflow = true;
+      } else if (!isOverflow) {
+        ImmutableList<WatchEvent<Path>> events = response.getEvents();
+        if (pendingEvents.size() + events.size() > overflow) {
+          isOverflow = true;
+        } else {
+          pendingEvents.addAll(events);
+        }
+      }
+
+      if (isOverflow) {
+        pendingEvents.clear();
+      }
+      if (!response.getCookies().isEmpty()) {
+        reportedCookies.addAll(response.getCookies());
+        lock.notifyAll();
+      }
+    }
+  }
+
+  @Override
+  public void close() throws IOException {
+    if (watchmanProcess != null) {
+      watchmanProcess.destroy();
+    }
+  }
+}
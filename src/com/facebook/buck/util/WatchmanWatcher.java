@@ -18,9 +18,9 @@ package com.facebook.buck.util;
 
 import com.fasterxml.jackson.core.JsonFactory;
 import com.fasterxml.jackson.core.JsonParser;
-import com.fasterxml.jackson.core.JsonToken;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.base.Supplier;
 import com.google.common.base.Throwables;
@@ -28,23 +28,30 @@ import com.google.common.eventbus.EventBus;
 import com.google.common.io.ByteStreams;
 
 import java.io.ByteArrayOutputStream;
-import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
-import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 
 /**
- * A ProjectFilesystemWatcher implementation that uses a local watchman service.
+ * A ProjectFilesystemWatcher implementation that uses a local watchman service, which it queries
+ * for the changes since the clock of its previous query each time that {@link #postEvents()} is
+ * called.
  */
 public class WatchmanWatcher implements ProjectFilesystemWatcher {
 
-  private static final int DEFAULT_OVERFLOW_THRESHOLD = 200;
+  /**
+   * The parser and the caches only invalidate what a change affects, so a change to many files is
+   * still cheaper to handle one event at a time than to start over from an overflow.
+   */
+  static final int DEFAULT_OVERFLOW_THRESHOLD = 10000;
+
+  /** Used by the first query, so that a restarted daemon picks up where the last one stopped. */
+  private static final String INITIAL_CLOCK = "n:buckd";
 
   private final Supplier<Process> watchmanProcessSupplier;
   private final EventBus eventBus;
   private final JsonFactory jsonFactory;
-  private final String query;
+  private final Path rootPath;
 
   /**
    * The maximum number of watchman changes to process in each call to postEvents before
@@ -56,30 +63,40 @@ public class WatchmanWatcher implements ProjectFilesystemWatcher {
    */
   private final int overflow;
 
+  /** The clock that the next query asks for the changes since. */
+  private String since;
+
   public WatchmanWatcher(ProjectFilesystem filesystem,
                          EventBus fileChangeEventBus) {
     this(createProcessSupplier(),
         fileChangeEventBus,
         DEFAULT_OVERFLOW_THRESHOLD,
-        createQuery(filesystem));
+        MorePaths.absolutify(filesystem.getRootPath()));
   }
 
   @VisibleForTesting
   WatchmanWatcher(Supplier<Process> processSupplier,
                   EventBus fileChangeEventBus,
                   int overflow,
-                  String query) {
+                  Path rootPath) {
     this.watchmanProcessSupplier = Preconditions.checkNotNull(processSupplier);
     this.eventBus = Preconditions.checkNotNull(fileChangeEventBus);
     this.jsonFactory = new JsonFactory();
     this.overflow = overflow;
-    this.query = Preconditions.checkNotNull(query);
+    this.rootPath = Preconditions.checkNotNull(rootPath);
+    this.since = INITIAL_CLOCK;
+  }
+
+  @VisibleForTesting
+  String createQuery() {
+    return "[\"query\", " + quote(rootPath.toString()) + ", {" +
+        "\"since\": " + quote(since) + ", " +
+        "\"fields\": [\"name\", \"exists\", \"new\", \"type\"]}]";
   }
 
-  private static String createQuery(ProjectFilesystem filesystem) {
-    return "[\"query\", \"" +
-        MorePaths.absolutify(filesystem.getRootPath()).toString() +
-        "\", {\"since\": \"n:buckd\", \"fields\": [\"name\", \"exists\", \"new\"]}]";
+  /** @return {@code value} as a JSON string. */
+  static String quote(String value) {
+    return "\"" + value.replace("\\", "\\\\").replace("\"", "\\\"") + "\"";
   }
 
   private static Supplier<Process> createProcessSupplier() {
@@ -104,69 +121,23 @@ public class WatchmanWatcher implements ProjectFilesystemWatcher {
   @Override
   public void postEvents() throws IOException {
     Process watchmanProcess = watchmanProcessSupplier.get();
-    watchmanProcess.getOutputStream().write(query.getBytes(Charsets.US_ASCII));
+    watchmanProcess.getOutputStream().write(createQuery().getBytes(Charsets.UTF_8));
     watchmanProcess.getOutputStream().close();
     JsonParser jsonParser = jsonFactory.createJsonParser(watchmanProcess.getInputStream());
-    PathEventBuilder builder = new PathEventBuilder();
-    JsonToken token = jsonParser.nextToken();
-    /*
-     * Watchman returns changes as an array of JSON objects with potentially unstable key ordering:
-     * {
-     *     "files": [
-     *     {
-     *         "new": false,
-     *         "exists": true,
-     *         "name": "bin/buckd",
-     *     },
-     *     ]
-     * }
-     * A simple way to parse these changes is to collect the relevant values from each object
-     * in a builder and then build an event when the end of a JSON object is reached. When the end
-     * of the enclosing JSON object is processed the builder will not contain a complete event, so
-     * the object end token will be ignored.
-     */
-    int eventCount = 0;
-    while (token != null) {
-      if (eventCount > overflow) {
-        watchmanProcess.destroy();
-        eventBus.post(createOverflowEvent());
-        return;
-      }
-      switch (token) {
-        case FIELD_NAME:
-          String fieldName = jsonParser.getCurrentName();
-          switch (fieldName) {
-            case "name":
-              File file = new File(jsonParser.nextTextValue());
-              if (!file.isDirectory()) {
-                builder.setPath(file.toPath());
-              }
-              break;
-            case "new":
-              if (jsonParser.nextBooleanValue()) {
-                builder.setCreationEvent();
-              }
-              break;
-            case "exists":
-              if (!jsonParser.nextBooleanValue()) {
-                builder.setDeletionEvent();
-              }
-              break;
-          }
-          break;
-        case END_OBJECT:
-          if (builder.canBuild()) {
-            eventBus.post(builder.build());
-            ++eventCount;
-          }
-          builder = new PathEventBuilder();
-          break;
-        // $CASES-OMITTED$
-        default:
-          break;
-      }
-      token = jsonParser.nextToken();
+    Optional<WatchmanResponse> response = WatchmanResponse.read(
+        jsonParser,
+        overflow,
+        /* readPastOverflow */ false,
+        Optional.<String>absent());
+
+    if (response.isPresent() && response.get().isOverflow()) {
+      // Everything is about to be invalidated, so the rest of the changes do not matter.
+      watchmanProcess.destroy();
+      since = response.get().getClock().or(since);
+      eventBus.post(WatchmanResponse.createOverflowEvent());
+      return;
     }
+
     int watchmanExitCode;
     try {
       watchmanExitCode = watchmanProcess.waitFor();
@@ -179,77 +150,26 @@ public class WatchmanWatcher implements ProjectFilesystemWatcher {
       throw new WatchmanWatcherException(
           "Watchman failed with exit code " + watchmanExitCode + ": " + buffer.toString());
     }
-  }
-
-  private WatchEvent<Object> createOverflowEvent() {
-    return new WatchEvent<Object>() {
-
-      @Override
-      public Kind<Object> kind() {
-        return StandardWatchEventKinds.OVERFLOW;
-      }
-
-      @Override
-      public int count() {
-        return 1;
-      }
-
-      @Override
-      public Object context() {
-        return null;
-      }
-    };
-  }
-
-  @Override
-  public void close() throws IOException {
-  }
-
-  private static class PathEventBuilder {
-
-    private WatchEvent.Kind<Path> kind;
-    private Path path;
-
-    PathEventBuilder() {
-      this.kind = StandardWatchEventKinds.ENTRY_MODIFY;
+    if (!response.isPresent()) {
+      return;
     }
-
-    public void setCreationEvent() {
-      if (kind != StandardWatchEventKinds.ENTRY_DELETE) {
-        kind = StandardWatchEventKinds.ENTRY_CREATE;
-      }
-    }
-
-    public void setDeletionEvent() {
-      kind = StandardWatchEventKinds.ENTRY_DELETE;
+    if (response.get().getError().isPresent()) {
+      throw new WatchmanWatcherException(
+          "Watchman failed to query changes: " + response.get().getError().get());
     }
 
-    public void setPath(Path path) {
-      this.path = path;
+    since = response.get().getClock().or(since);
+    if (response.get().isFreshInstance()) {
+      // Watchman lists every file when it cannot tell what has changed since the last query.
+      eventBus.post(WatchmanResponse.createOverflowEvent());
+      return;
     }
-
-    public WatchEvent<Path> build() {
-      Preconditions.checkNotNull(path);
-      return new WatchEvent<Path>() {
-        @Override
-        public Kind<Path> kind() {
-          return kind;
-        }
-
-        @Override
-        public int count() {
-          return 1;
-        }
-
-        @Override
-        public Path context() {
-          return path;
-        }
-      };
+    for (WatchEvent<Path> event : response.get().getEvents()) {
+      eventBus.post(event);
     }
+  }
 
-    public boolean canBuild() {
-      return path != null;
-    }
+  @Override
+  public void close() throws IOException {
   }
 }
@@ -0,0 +1,137 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.util.concurrent;
+
+import com.google.common.base.Preconditions;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.AbstractListeningExecutorService;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.List;
+import java.util.concurrent.Executor;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * A fixed-size thread pool that, when there are more tasks than threads, runs the queued tasks
+ * with the highest priority first, and tasks with the same priority in the order in which they
+ * were submitted.
+ * <p>
+ * Tasks that are submitted through the {@link java.util.concurrent.ExecutorService} methods run at
+ * {@link #DEFAULT_PRIORITY}, ahead of any task that was given a priority through
+ * {@link #withPriority(long)}. Those are typically short tasks that some running task is waiting
+ * on, so they should not queue up behind new work.
+ */
+public class PriorityExecutorService extends AbstractListeningExecutorService {
+
+  public static final long DEFAULT_PRIORITY = Long.MAX_VALUE;
+
+  private final ThreadPoolExecutor delegate;
+  private final AtomicLong sequenceNumber;
+
+  /**
+   * @param threadName a thread name prefix used to easily identify threads when debugging.
+   * @param threadCount the number of threads that should be created in the pool.
+   */
+  public PriorityExecutorService(String threadName, int threadCount) {
+    this.delegate = new ThreadPoolExecutor(
+        /* corePoolSize */ threadCount,
+        /* maximumPoolSize */ threadCount,
+        /* keepAliveTime */ 0L, TimeUnit.MILLISECONDS,
+        /* workQueue */ new PriorityBlockingQueue<Runnable>(),
+        /* threadFactory */ new ThreadFactoryBuilder().setNameFormat(threadName + "-%d").build());
+    this.sequenceNumber = new AtomicLong();
+  }
+
+  @Override
+  public void execute(Runnable command) {
+    execute(command, DEFAULT_PRIORITY);
+  }
+
+  public void execute(Runnable command, long priority) {
+    delegate.execute(
+        new PrioritizedRunnable(command, priority, sequenceNumber.getAndIncrement()));
+  }
+
+  /** @return an {@link Executor} that runs its tasks in this pool with the given priority. */
+  public Executor withPriority(final long priority) {
+    return new Executor() {
+      @Override
+      public void execute(Runnable command) {
+        PriorityExecutorService.this.execute(command, priority);
+      }
+    };
+  }
+
+  @Override
+  public void shutdown() {
+    delegate.shutdown();
+  }
+
+  @Override
+  public List<Runnable> shutdownNow() {
+    List<Runnable> commands = Lists.newArrayList();
+    for (Runnable runnable : delegate.shutdownNow()) {
+      commands.add(((PrioritizedRunnable) runnable).command);
+    }
+    return commands;
+  }
+
+  @Override
+  public boolean isShutdown() {
+    return delegate.isShutdown();
+  }
+
+  @Override
+  public boolean isTerminated() {
+    return delegate.isTerminated();
+  }
+
+  @Override
+  public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+    return delegate.awaitTermination(timeout, unit);
+  }
+
+  private static class PrioritizedRunnable
+      implements Runnable, Comparable<PrioritizedRunnable> {
+    private final Runnable command;
+    private final long priority;
+    private final long sequenceNumber;
+
+    public PrioritizedRunnable(Runnable command, long priority, long sequenceNumber) {
+      this.command = Preconditions.checkNotNull(command);
+      this.priority = priority;
+      this.sequenceNumber = sequenceNumber;
+    }
+
+    @Override
+    public void run() {
+      command.run();
+    }
+
+    @Override
+    public int compareTo(PrioritizedRunnable that) {
+      if (this.priority != that.priority) {
+        return this.priority > that.priority ? -1 : 1;
+      }
+      return Long.compare(this.sequenceNumber, that.sequenceNumber);
+    }
+  }
+}
@@ -23,6 +23,7 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Files;
 import java.nio.file.Path;
 import java.util.zip.ZipEntry;
@@ -40,6 +41,18 @@ public class Unzip {
   public static ImmutableList<Path> extractZipFile(String zipFile,
       String destination,
       boolean overwriteExistingFiles) throws IOException {
+    try (InputStream input = new FileInputStream(zipFile)) {
+      return extractZipStream(input, destination, overwriteExistingFiles);
+    }
+  }
+
+  /**
+   * Unzips the contents of a stream to a destination as they are read and returns the paths of the
+   * written files. The stream is not closed by this method.
+   */
+  public static ImmutableList<Path> extractZipStream(InputStream input,
+      String destination,
+      boolean overwriteExistingFiles) throws IOException {
     // Create output directory if it does not exist
     File folder = new File(destination);
     // TODO(mbolin): UnzipStep could be a CompositeStep with a MakeCleanDirectoryStep for the output
@@ -47,30 +60,29 @@ public class Unzip {
     Files.createDirectories(folder.toPath());
 
     ImmutableList.Builder<Path> filesWritten = ImmutableList.builder();
-    try (ZipInputStream zip = new ZipInputStream(new FileInputStream(zipFile))) {
-      for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
-        String fileName = entry.getName();
-        File target = new File(folder, fileName);
-        if (target.exists() && !overwriteExistingFiles) {
-          continue;
-        }
+    ZipInputStream zip = new ZipInputStream(input);
+    for (ZipEntry entry = zip.getNextEntry(); entry != null; entry = zip.getNextEntry()) {
+      String fileName = entry.getName();
+      File target = new File(folder, fileName);
+      if (target.exists() && !overwriteExistingFiles) {
+        continue;
+      }
 
-        // TODO(mbolin): Keep track of which directories have already been written to avoid
-        // making unnecessary Files.createDirectories() calls. In practice, a single zip file will
-        // have many entries in the same directory.
+      // TODO(mbolin): Keep track of which directories have already been written to avoid
+      // making unnecessary Files.createDirectories() calls. In practice, a single zip file will
+      // have many entries in the same directory.
 
-        if (entry.isDirectory()) {
-          // Create the directory and all its parent directories
-          Files.createDirectories(target.toPath());
-        } else {
-          // Create parent folder
-          Files.createDirectories(target.toPath().getParent());
+      if (entry.isDirectory()) {
+        // Create the directory and all its parent directories
+        Files.createDirectories(target.toPath());
+      } else {
+        // Create parent folder
+        Files.createDirectories(target.toPath().getParent());
 
-          filesWritten.add(target.toPath());
-          // Write file
-          try (FileOutputStream out = new FileOutputStream(target)) {
-            ByteStreams.copy(zip, out);
-          }
+        filesWritten.add(target.toPath());
+        // Write file
+        try (FileOutputStream out = new FileOutputStream(target)) {
+          ByteStreams.copy(zip, out);
         }
       }
     }
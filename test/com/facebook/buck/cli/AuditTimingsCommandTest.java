@@ -0,0 +1,53 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.event.listener.BuildTimeRecord;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Test;
+
+public class AuditTimingsCommandTest {
+
+  @Test
+  public void testSummarizeOrdersByTotalTime() {
+    ImmutableList<AuditTimingsCommand.Timing> timings = AuditTimingsCommand.summarize(
+        ImmutableList.of(
+            BuildTimeRecord.forRule("1", "//foo:lib", 0, 10, "a", "miss", null, 100L),
+            BuildTimeRecord.forRule("1", "//foo:bin", 0, 25, "b", "miss", null, null),
+            BuildTimeRecord.forRule("2", "//foo:lib", 0, 30, "c", "miss", null, 200L),
+            BuildTimeRecord.forRule("3", "//foo:lib", 0, 2, "c", "dir_hit", null, 200L)));
+
+    assertEquals(2, timings.size());
+
+    AuditTimingsCommand.Timing lib = timings.get(0);
+    assertEquals("//foo:lib", lib.getName());
+    assertEquals(3, lib.getCount());
+    assertEquals(10, lib.getMedianMillis());
+    assertEquals(14, lib.getAverageMillis());
+    assertEquals(42, lib.getTotalMillis());
+    assertEquals("dir_hit", lib.getLastCacheResult());
+    assertEquals(Long.valueOf(200), lib.getLastOutputSizeBytes());
+
+    AuditTimingsCommand.Timing bin = timings.get(1);
+    assertEquals("//foo:bin", bin.getName());
+    assertEquals(25, bin.getTotalMillis());
+  }
+}
@@ -0,0 +1,63 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.cli;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.parser.BuildTargetParser;
+import com.facebook.buck.parser.NoSuchBuildTargetException;
+import com.facebook.buck.parser.ParseContext;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.facebook.buck.util.environment.Platform;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+
+import org.easymock.EasyMock;
+import org.junit.Test;
+import org.kohsuke.args4j.CmdLineException;
+
+import java.io.IOException;
+import java.io.StringReader;
+
+public class AuditTimingsOptionsTest {
+
+  @Test
+  public void testTargetsAreResolvedLikeThoseOfOtherCommands()
+      throws CmdLineException, IOException, NoSuchBuildTargetException {
+    BuildTargetParser parser = EasyMock.createMock(BuildTargetParser.class);
+    EasyMock.expect(parser.parse("//apps/myapp:app", ParseContext.fullyQualified()))
+        .andReturn(BuildTargetFactory.newInstance("//apps/myapp:app"));
+    EasyMock.replay(parser);
+    BuckConfig buckConfig = BuckConfig.createFromReader(
+        new StringReader("[alias]\napp = //apps/myapp:app"),
+        EasyMock.createMock(ProjectFilesystem.class),
+        parser,
+        Platform.detect(),
+        ImmutableMap.<String, String>of());
+
+    AuditTimingsOptions options = new AuditTimingsOptions(buckConfig);
+    new CmdLineParserAdditionalOptions(options).parseArgument(
+        "app", "//foo:bar", "foo/baz", ":qux");
+
+    assertEquals(
+        ImmutableSet.of("//apps/myapp:app", "//foo:bar", "//foo/baz:baz", "//:qux"),
+        options.getTargets());
+    EasyMock.verify(parser);
+  }
+}
@@ -23,10 +23,13 @@ import static org.junit.Assert.assertNull;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
+import com.facebook.buck.event.BuckEventBusFactory;
 import com.facebook.buck.model.BuildTargetFactory;
 import com.facebook.buck.parser.BuildTargetParser;
 import com.facebook.buck.parser.NoSuchBuildTargetException;
 import com.facebook.buck.parser.ParseContext;
+import com.facebook.buck.rules.ArtifactCodec;
+import com.facebook.buck.rules.ArtifactEncoding;
 import com.facebook.buck.testutil.IdentityPathAbsolutifier;
 import com.facebook.buck.testutil.integration.DebuggableTemporaryFolder;
 import com.facebook.buck.testutil.integration.ProjectWorkspace;
@@ -630,6 +633,50 @@ public class BuckConfigTest {
     config.getProguardJarOverride();
   }
 
+  @Test
+  public void testRemoteCacheEncoding() throws IOException {
+    BuckConfig defaultConfig = createWithDefaultFilesystem(new StringReader(""), null);
+    assertFalse(defaultConfig.getRemoteCacheEncoding().isPresent());
+
+    Reader reader = new StringReader(Joiner.on('\n').join(
+        "[cache]",
+        "    codec = xz",
+        "    codec_level = 3"));
+    BuckConfig config = createWithDefaultFilesystem(reader, null);
+    ArtifactEncoding encoding = config.getRemoteCacheEncoding().get();
+    assertEquals(ArtifactCodec.XZ, encoding.getCodec());
+    assertEquals(3, encoding.getLevel());
+  }
+
+  @Test(expected = HumanReadableException.class)
+  public void whenRemoteCacheCodecLevelIsOutOfRange() throws IOException {
+    Reader reader = new StringReader(Joiner.on('\n').join(
+        "[cache]",
+        "    codec = deflate",
+        "    codec_level = 10"));
+    BuckConfig config = createWithDefaultFilesystem(reader, null);
+    config.getRemoteCacheEncoding();
+  }
+
+  @Test(expected = HumanReadableException.class)
+  public void whenHttpCacheUrlIsNotSet() throws IOException {
+    Reader reader = new StringReader(Joiner.on('\n').join(
+        "[cache]",
+        "    mode = http"));
+    BuckConfig config = createWithDefaultFilesystem(reader, null);
+    config.createArtifactCache(Optional.<String>absent(), BuckEventBusFactory.newInstance());
+  }
+
+  @Test(expected = HumanReadableException.class)
+  public void whenHttpCacheThreadsIsNotPositive() throws IOException {
+    Reader reader = new StringReader(Joiner.on('\n').join(
+        "[cache]",
+        "    http_url = http://localhost:8080/artifacts",
+        "    http_threads = 0"));
+    BuckConfig config = createWithDefaultFilesystem(reader, null);
+    config.createHttpArtifactCache(BuckEventBusFactory.newInstance());
+  }
+
   @Test
   public void getEnvUsesSuppliedEnvironment() {
     String name = "SOME_ENVIRONMENT_VARIABLE";
@@ -0,0 +1,194 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.event;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.eventbus.Subscribe;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.logging.Level;
+import java.util.logging.Logger;
+
+public class BatchingEventBusTest {
+
+  @Test
+  public void testEventsAreDeliveredToSubscribersOfTheirSupertypes() {
+    BatchingEventBus eventBus = new BatchingEventBus(MoreExecutors.sameThreadExecutor());
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    eventBus.register(subscriber);
+
+    eventBus.post("a string");
+    eventBus.post(42);
+
+    assertEquals(ImmutableList.<Object>of("a string", 42), subscriber.objects);
+    assertEquals(ImmutableList.of("a string"), subscriber.charSequences);
+  }
+
+  @Test
+  public void testObjectRegisteredTwiceReceivesEachEventOnce() {
+    BatchingEventBus eventBus = new BatchingEventBus(MoreExecutors.sameThreadExecutor());
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    eventBus.register(subscriber);
+    eventBus.register(subscriber);
+
+    eventBus.post("a string");
+
+    assertEquals(ImmutableList.of("a string"), subscriber.charSequences);
+  }
+
+  @Test
+  public void testUnregisteredObjectReceivesNoMoreEvents() {
+    BatchingEventBus eventBus = new BatchingEventBus(MoreExecutors.sameThreadExecutor());
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    eventBus.register(subscriber);
+    eventBus.post("before");
+    eventBus.unregister(subscriber);
+    eventBus.post("after");
+
+    assertEquals(ImmutableList.of("before"), subscriber.charSequences);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnregisteringAnObjectThatIsNotRegisteredFails() {
+    new BatchingEventBus(MoreExecutors.sameThreadExecutor())
+        .unregister(new RecordingSubscriber());
+  }
+
+  @Test
+  public void testSubscriberThatThrowsDoesNotStopDelivery() {
+    BatchingEventBus eventBus = new BatchingEventBus(MoreExecutors.sameThreadExecutor());
+    RecordingSubscriber subscriber = new RecordingSubscriber();
+    eventBus.register(new Object() {
+      @Subscribe
+      public void fail(String event) {
+        throw new IllegalStateException(event);
+      }
+    });
+    eventBus.register(subscriber);
+
+    Logger logger = Logger.getLogger(BatchingEventBus.class.getName());
+    Level level = logger.getLevel();
+    logger.setLevel(Level.OFF);
+    try {
+      eventBus.post("first");
+      eventBus.post("second");
+    } finally {
+      logger.setLevel(level);
+    }
+
+    assertEquals(ImmutableList.of("first", "second"), subscriber.charSequences);
+  }
+
+  @Test
+  public void testEventPostedBySubscriberIsDeliveredAfterTheCurrentOne() {
+    final BatchingEventBus eventBus = new BatchingEventBus(MoreExecutors.sameThreadExecutor());
+    final List<String> delivered = Lists.newArrayList();
+    eventBus.register(new Object() {
+      @Subscribe
+      public void repost(String event) {
+        delivered.add(event + " started");
+        if (event.equals("outer")) {
+          eventBus.post("inner");
+        }
+        delivered.add(event + " finished");
+      }
+    });
+
+    eventBus.post("outer");
+
+    assertEquals(
+        ImmutableList.of("outer started", "outer finished", "inner started", "inner finished"),
+        delivered);
+  }
+
+  @Test
+  public void testEventsFromManyThreadsAreAllDeliveredInTheOrderThatEachThreadPostedThem()
+      throws InterruptedException {
+    final int numThreads = 8;
+    final int eventsPerThread = 10000;
+    ExecutorService deliveryExecutor = Executors.newSingleThreadExecutor();
+    final BatchingEventBus eventBus = new BatchingEventBus(deliveryExecutor);
+    final List<List<Integer>> deliveredByThread = Lists.newArrayList();
+    for (int i = 0; i < numThreads; i++) {
+      deliveredByThread.add(Lists.<Integer>newArrayList());
+    }
+    final CountDownLatch allDelivered = new CountDownLatch(numThreads * eventsPerThread);
+    eventBus.register(new Object() {
+      @Subscribe
+      public void record(int[] event) {
+        deliveredByThread.get(event[0]).add(event[1]);
+        allDelivered.countDown();
+      }
+    });
+
+    List<Thread> threads = Lists.newArrayList();
+    for (int i = 0; i < numThreads; i++) {
+      final int thread = i;
+      threads.add(new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < eventsPerThread; j++) {
+            eventBus.post(new int[] {thread, j});
+          }
+        }
+      });
+    }
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+
+    assertTrue(allDelivered.await(10, TimeUnit.SECONDS));
+    deliveryExecutor.shutdown();
+    for (List<Integer> delivered : deliveredByThread) {
+      assertEquals(eventsPerThread, delivered.size());
+      List<Integer> sorted = Lists.newArrayList(delivered);
+      Collections.sort(sorted);
+      assertEquals(sorted, delivered);
+    }
+  }
+
+  private static class RecordingSubscriber {
+    private final List<Object> objects = Lists.newArrayList();
+    private final List<CharSequence> charSequences = Lists.newArrayList();
+
+    @Subscribe
+    public void object(Object event) {
+      objects.add(event);
+    }
+
+    @Subscribe
+    public void charSequence(CharSequence event) {
+      charSequences.add(event);
+    }
+  }
+}
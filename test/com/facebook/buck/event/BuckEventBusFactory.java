@@ -24,7 +24,6 @@ import com.google.common.base.Functions;
 import com.google.common.base.Supplier;
 import com.google.common.collect.FluentIterable;
 import com.google.common.collect.Lists;
-import com.google.common.eventbus.EventBus;
 import com.google.common.eventbus.Subscribe;
 import com.google.common.util.concurrent.MoreExecutors;
 
@@ -67,7 +66,7 @@ public class BuckEventBusFactory {
     return buckEventBus;
   }
 
-  public static EventBus getEventBusFor(BuckEventBus buckEventBus) {
+  public static BatchingEventBus getEventBusFor(BuckEventBus buckEventBus) {
     return buckEventBus.getEventBus();
   }
 
@@ -0,0 +1,146 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.event;
+
+import com.google.common.eventbus.AsyncEventBus;
+import com.google.common.eventbus.Subscribe;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+/**
+ * Compares the {@link BatchingEventBus} with the Guava {@link AsyncEventBus} that it replaced:
+ * several threads post {@link LogEvent}s as fast as they can to a bus that delivers them on one
+ * thread to a few listeners, like the ones that a build registers. For each bus, prints how long
+ * the posting threads took, and how long it took until every event had been delivered.
+ * <p>
+ * This is not run as part of the tests. Run it with the number of posting threads and the number
+ * of events that each of them posts as optional arguments:
+ * <pre>
+ *   java -cp build/classes:build/testclasses:lib/* \
+ *       com.facebook.buck.event.EventBusBenchmark [threads [events]]
+ * </pre>
+ */
+public class EventBusBenchmark {
+
+  private static final int ITERATIONS = 5;
+  private static final int NUM_LISTENERS = 4;
+
+  /** Utility class: do not instantiate. */
+  private EventBusBenchmark() {}
+
+  public static void main(String[] args) throws InterruptedException {
+    int numThreads = args.length > 0 ? Integer.parseInt(args[0]) : 8;
+    int eventsPerThread = args.length > 1 ? Integer.parseInt(args[1]) : 100000;
+    System.out.printf("%d threads, %d events each, %d listeners%n%n",
+        numThreads,
+        eventsPerThread,
+        NUM_LISTENERS);
+    System.out.printf("%-10s %10s %12s %14s%n", "bus", "post ms", "deliver ms", "events/s");
+
+    // Take the fastest of several runs, so that the JIT has warmed up.
+    for (boolean isBatching : new boolean[] {false, true}) {
+      long postNanos = Long.MAX_VALUE;
+      long deliverNanos = Long.MAX_VALUE;
+      for (int i = 0; i < ITERATIONS; i++) {
+        long[] nanos = run(isBatching, numThreads, eventsPerThread);
+        postNanos = Math.min(postNanos, nanos[0]);
+        deliverNanos = Math.min(deliverNanos, nanos[1]);
+      }
+      System.out.printf("%-10s %10d %12d %14d%n",
+          isBatching ? "batching" : "guava",
+          TimeUnit.NANOSECONDS.toMillis(postNanos),
+          TimeUnit.NANOSECONDS.toMillis(deliverNanos),
+          (long) numThreads * eventsPerThread * TimeUnit.SECONDS.toNanos(1) / deliverNanos);
+    }
+  }
+
+  /** @return the nanoseconds until all events were posted, and until all were delivered. */
+  private static long[] run(boolean isBatching, int numThreads, final int eventsPerThread)
+      throws InterruptedException {
+    ExecutorService deliveryExecutor = Executors.newSingleThreadExecutor();
+    final BatchingEventBus batchingEventBus = new BatchingEventBus(deliveryExecutor);
+    final AsyncEventBus asyncEventBus = new AsyncEventBus(deliveryExecutor);
+    CountDownLatch allDelivered = new CountDownLatch(numThreads * eventsPerThread);
+    for (int i = 0; i < NUM_LISTENERS; i++) {
+      Listener listener = new Listener(i == 0 ? allDelivered : null);
+      if (isBatching) {
+        batchingEventBus.register(listener);
+      } else {
+        asyncEventBus.register(listener);
+      }
+    }
+
+    final boolean isBatchingBus = isBatching;
+    Thread[] threads = new Thread[numThreads];
+    for (int i = 0; i < numThreads; i++) {
+      threads[i] = new Thread() {
+        @Override
+        public void run() {
+          for (int j = 0; j < eventsPerThread; j++) {
+            LogEvent event = LogEvent.fine("event");
+            if (isBatchingBus) {
+              batchingEventBus.post(event);
+            } else {
+              asyncEventBus.post(event);
+            }
+          }
+        }
+      };
+    }
+
+    long start = System.nanoTime();
+    for (Thread thread : threads) {
+      thread.start();
+    }
+    for (Thread thread : threads) {
+      thread.join();
+    }
+    long postNanos = System.nanoTime() - start;
+    allDelivered.await();
+    long deliverNanos = System.nanoTime() - start;
+
+    deliveryExecutor.shutdown();
+    return new long[] {postNanos, deliverNanos};
+  }
+
+  /** Subscribes to a few types of event, as the listeners that a build registers do. */
+  private static class Listener {
+    @Nullable private final CountDownLatch delivered;
+
+    public Listener(@Nullable CountDownLatch delivered) {
+      this.delivered = delivered;
+    }
+
+    @Subscribe
+    public void logEvent(LogEvent event) {
+      if (delivered != null) {
+        delivered.countDown();
+      }
+    }
+
+    @Subscribe
+    public void buckEvent(BuckEvent event) {
+      // Only here so that each event is delivered to more than one method of each listener.
+    }
+  }
+}
@@ -0,0 +1,144 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.event.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+
+import com.facebook.buck.event.BuckEvent;
+import com.facebook.buck.model.BuildId;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildRuleEvent;
+import com.facebook.buck.rules.BuildRuleStatus;
+import com.facebook.buck.rules.BuildRuleSuccess;
+import com.facebook.buck.rules.BuildRuleType;
+import com.facebook.buck.rules.CacheResult;
+import com.facebook.buck.rules.FakeBuildRule;
+import com.facebook.buck.rules.RuleKey;
+import com.facebook.buck.step.FakeStep;
+import com.facebook.buck.step.StepEvent;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+
+public class BuildTimeHistoryListenerTest {
+
+  private static final BuildId BUILD_ID = new BuildId("1234");
+  private static final long THREAD_ID = 1;
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Test
+  public void testRulesAndTheirStepsAreRecorded() throws IOException {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot());
+    projectFilesystem.writeContentsToPath("12345", Paths.get("out.jar"));
+    BuildTimeHistory history = BuildTimeHistory.forProject(projectFilesystem);
+    BuildTimeHistoryListener listener = new BuildTimeHistoryListener(history, projectFilesystem);
+
+    FakeBuildRule rule = new FakeBuildRule(
+        new BuildRuleType("fake"),
+        BuildTargetFactory.newInstance("//foo:bar"));
+    rule.setRuleKey(new RuleKey("abc123"));
+    rule.setOutputFile("out.jar");
+    FakeStep step = new FakeStep("javac", "javac Bar.java", 0);
+
+    listener.ruleStarted(configure(BuildRuleEvent.started(rule), 1000));
+    listener.stepStarted(configure(StepEvent.started(step, "javac Bar.java"), 1010));
+    listener.stepFinished(configure(StepEvent.finished(step, "javac Bar.java", 0), 1040));
+    listener.ruleFinished(configure(
+        BuildRuleEvent.finished(rule,
+            BuildRuleStatus.SUCCESS,
+            CacheResult.MISS,
+            Optional.of(BuildRuleSuccess.Type.BUILT_LOCALLY)),
+        1050));
+    listener.outputTrace(BUILD_ID);
+
+    ImmutableList<BuildTimeRecord> records = history.read();
+    assertEquals(2, records.size());
+
+    BuildTimeRecord stepRecord = records.get(0);
+    assertEquals(BuildTimeRecord.Kind.STEP, stepRecord.getKind());
+    assertEquals("javac", stepRecord.getName());
+    assertEquals("//foo:bar", stepRecord.getTarget());
+    assertEquals(1010, stepRecord.getStartTimeMillis());
+    assertEquals(30, stepRecord.getDurationMillis());
+    assertEquals(Integer.valueOf(0), stepRecord.getExitCode());
+
+    BuildTimeRecord ruleRecord = records.get(1);
+    assertEquals(BuildTimeRecord.Kind.RULE, ruleRecord.getKind());
+    assertEquals("1234", ruleRecord.getBuildId());
+    assertEquals("//foo:bar", ruleRecord.getName());
+    assertEquals(1000, ruleRecord.getStartTimeMillis());
+    assertEquals(50, ruleRecord.getDurationMillis());
+    assertEquals("abc123", ruleRecord.getRuleKey());
+    assertEquals("miss", ruleRecord.getCacheResult());
+    assertEquals("BUILT_LOCALLY", ruleRecord.getSuccessType());
+    assertEquals(Long.valueOf(5), ruleRecord.getOutputSizeBytes());
+  }
+
+  @Test
+  public void testFailedRulesHaveNoRuleKeyOrOutput() throws IOException {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot());
+    BuildTimeHistory history = BuildTimeHistory.forProject(projectFilesystem);
+    BuildTimeHistoryListener listener = new BuildTimeHistoryListener(history, projectFilesystem);
+
+    FakeBuildRule rule = new FakeBuildRule(
+        new BuildRuleType("fake"),
+        BuildTargetFactory.newInstance("//foo:bar"));
+    rule.setRuleKey(new RuleKey("abc123"));
+
+    listener.ruleStarted(configure(BuildRuleEvent.started(rule), 1000));
+    listener.ruleFinished(configure(
+        BuildRuleEvent.finished(rule,
+            BuildRuleStatus.FAIL,
+            CacheResult.MISS,
+            Optional.<BuildRuleSuccess.Type>absent()),
+        1100));
+    listener.outputTrace(BUILD_ID);
+
+    BuildTimeRecord record = history.read().get(0);
+    assertEquals(100, record.getDurationMillis());
+    assertNull(record.getRuleKey());
+    assertNull(record.getSuccessType());
+    assertNull(record.getOutputSizeBytes());
+  }
+
+  @Test
+  public void testNothingIsWrittenWhenNothingWasBuilt() {
+    ProjectFilesystem projectFilesystem = new ProjectFilesystem(tmpDir.getRoot());
+    BuildTimeHistory history = BuildTimeHistory.forProject(projectFilesystem);
+    new BuildTimeHistoryListener(history, projectFilesystem).outputTrace(BUILD_ID);
+
+    assertFalse(Files.exists(history.getPath()));
+  }
+
+  private static <T extends BuckEvent> T configure(T event, long timestamp) {
+    event.configure(timestamp, /* nanoTime */ 0, THREAD_ID, BUILD_ID);
+    return event;
+  }
+}
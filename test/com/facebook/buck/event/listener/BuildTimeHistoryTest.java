@@ -0,0 +1,134 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.event.listener;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.rules.BuildRuleDurations;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+public class BuildTimeHistoryTest {
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Test
+  public void testReadReturnsWhatWasAppended() throws IOException {
+    Path historyFile = tmpDir.getRoot().toPath().resolve("log/build_times");
+    BuildTimeHistory history = createHistory(historyFile);
+    assertTrue(history.read().isEmpty());
+
+    history.append(ImmutableList.of(
+        BuildTimeRecord.forRule("1", "//foo:bar", 1000, 42, "abc123", "miss", "BUILT_LOCALLY", 7L),
+        BuildTimeRecord.forStep("1", "javac", "//foo:bar", 1010, 30, 0)));
+    history.append(ImmutableList.of(
+        BuildTimeRecord.forRule("2", "//foo:bar", 2000, 3, null, "dir_hit", null, null)));
+
+    ImmutableList<BuildTimeRecord> records = history.read();
+    assertEquals(3, records.size());
+
+    BuildTimeRecord rule = records.get(0);
+    assertEquals(BuildTimeRecord.Kind.RULE, rule.getKind());
+    assertEquals("1", rule.getBuildId());
+    assertEquals("//foo:bar", rule.getName());
+    assertEquals(1000, rule.getStartTimeMillis());
+    assertEquals(42, rule.getDurationMillis());
+    assertEquals("abc123", rule.getRuleKey());
+    assertEquals("miss", rule.getCacheResult());
+    assertEquals("BUILT_LOCALLY", rule.getSuccessType());
+    assertEquals(Long.valueOf(7), rule.getOutputSizeBytes());
+
+    BuildTimeRecord step = records.get(1);
+    assertEquals(BuildTimeRecord.Kind.STEP, step.getKind());
+    assertEquals("javac", step.getName());
+    assertEquals("//foo:bar", step.getTarget());
+    assertEquals(Integer.valueOf(0), step.getExitCode());
+
+    assertEquals(2, history.read(BuildTimeRecord.ofKind(BuildTimeRecord.Kind.RULE)).size());
+  }
+
+  @Test
+  public void testLinesThatCannotBeReadAreSkipped() throws IOException {
+    Path historyFile = tmpDir.getRoot().toPath().resolve("build_times");
+    BuildTimeHistory history = createHistory(historyFile);
+    history.append(ImmutableList.of(BuildTimeRecord.forStep("1", "javac", null, 0, 1, 0)));
+    Files.write(historyFile,
+        "{\"kind\":\"STEP\",\"build_id\":\"2\",\"na".getBytes(Charsets.UTF_8),
+        StandardOpenOption.APPEND);
+
+    ImmutableList<BuildTimeRecord> records = history.read();
+    assertEquals(1, records.size());
+    assertEquals("1", records.get(0).getBuildId());
+  }
+
+  @Test
+  public void testOldestRecordsAreDroppedOnceTheHistoryIsTooLarge() throws IOException {
+    Path historyFile = tmpDir.getRoot().toPath().resolve("build_times");
+    BuildTimeHistory history = new BuildTimeHistory(historyFile,
+        historyFile.resolveSibling("rule_durations"),
+        /* maxSizeBytes */ 1024);
+    for (int i = 0; i < 100; i++) {
+      history.append(ImmutableList.of(
+          BuildTimeRecord.forStep(String.valueOf(i), "javac", null, i, 1, 0)));
+    }
+
+    assertTrue(Files.size(historyFile) <= 1024);
+    ImmutableList<BuildTimeRecord> records = history.read();
+    assertTrue(records.size() > 1);
+    assertEquals("99", records.get(records.size() - 1).getBuildId());
+  }
+
+  @Test
+  public void testOnlyRulesThatWereBuiltLocallyAreRecordedInTheRuleDurations()
+      throws IOException {
+    Path historyFile = tmpDir.getRoot().toPath().resolve("log/build_times");
+    Path durationsFile = tmpDir.getRoot().toPath().resolve("log/rule_durations");
+    BuildTimeHistory history = new BuildTimeHistory(historyFile, durationsFile);
+    history.append(ImmutableList.of(
+        BuildTimeRecord.forRule("1", "//foo:built", 0, 250, null, "miss", "BUILT_LOCALLY", null),
+        BuildTimeRecord.forRule(
+            "1", "//foo:fetched", 0, 500, null, "dir_hit", "FETCHED_FROM_CACHE", null),
+        BuildTimeRecord.forStep("1", "javac", "//foo:step", 0, 750, 0)));
+
+    BuildRuleDurations durations = BuildRuleDurations.load(durationsFile);
+    assertEquals(Optional.of(250L),
+        durations.getDurationMillis(BuildTargetFactory.newInstance("//foo:built")));
+    assertFalse(
+        durations.getDurationMillis(BuildTargetFactory.newInstance("//foo:fetched")).isPresent());
+    assertFalse(
+        durations.getDurationMillis(BuildTargetFactory.newInstance("//foo:step")).isPresent());
+  }
+
+  private static BuildTimeHistory createHistory(Path historyFile) {
+    return new BuildTimeHistory(historyFile, historyFile.resolveSibling("rule_durations"));
+  }
+}
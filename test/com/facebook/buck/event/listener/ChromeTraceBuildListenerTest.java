@@ -23,6 +23,7 @@ import static org.junit.Assert.assertEquals;
 
 import com.facebook.buck.cli.CommandEvent;
 import com.facebook.buck.event.BuckEvent;
+import com.facebook.buck.event.BatchingEventBus;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventBusFactory;
 import com.facebook.buck.event.ChromeTraceEvent;
@@ -60,7 +61,6 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
-import com.google.common.eventbus.EventBus;
 
 import org.junit.Rule;
 import org.junit.Test;
@@ -141,7 +141,7 @@ public class ChromeTraceBuildListenerTest {
     BuckEventBus eventBus = BuckEventBusFactory.newInstance(fakeClock,
         new BuildId("ChromeTraceBuildListenerTestBuildId"));
     Supplier<Long> threadIdSupplier = BuckEventBusFactory.getThreadIdSupplierFor(eventBus);
-    EventBus rawEventBus = BuckEventBusFactory.getEventBusFor(eventBus);
+    BatchingEventBus rawEventBus = BuckEventBusFactory.getEventBusFor(eventBus);
     eventBus.register(listener);
 
     eventBus.post(CommandEvent.started("party",
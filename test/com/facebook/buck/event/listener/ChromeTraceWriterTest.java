@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.event.listener;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.event.ChromeTraceEvent;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.List;
+import java.util.zip.GZIPInputStream;
+
+public class ChromeTraceWriterTest {
+
+  @Test
+  public void testEventsThatArriveOutOfOrderAreWrittenInOrder() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (ChromeTraceWriter writer = new ChromeTraceWriter(output, /* compress */ false)) {
+      writer.write(createEvent("b", 2));
+      writer.write(createEvent("a", 1));
+      writer.write(createEvent("c", 3));
+    }
+
+    assertEquals(ImmutableList.of("a", "b", "c"),
+        getNames(new ByteArrayInputStream(output.toByteArray())));
+  }
+
+  @Test
+  public void testCompressedTrace() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    try (ChromeTraceWriter writer = new ChromeTraceWriter(output, /* compress */ true)) {
+      writer.write(createEvent("a", 1));
+    }
+
+    assertEquals(ImmutableList.of("a"),
+        getNames(new GZIPInputStream(new ByteArrayInputStream(output.toByteArray()))));
+  }
+
+  @Test
+  public void testEmptyTrace() throws IOException {
+    ByteArrayOutputStream output = new ByteArrayOutputStream();
+    new ChromeTraceWriter(output, /* compress */ false).close();
+
+    assertEquals("[]", output.toString("UTF-8"));
+  }
+
+  private static ChromeTraceEvent createEvent(String name, long microTime) {
+    return new ChromeTraceEvent("buck",
+        name,
+        ChromeTraceEvent.Phase.BEGIN,
+        0,
+        1,
+        microTime,
+        ImmutableMap.<String, String>of());
+  }
+
+  private static List<String> getNames(InputStream input) throws IOException {
+    List<ChromeTraceEvent> events = new ObjectMapper().readValue(
+        input,
+        new TypeReference<List<ChromeTraceEvent>>() {});
+    List<String> names = Lists.newArrayList();
+    for (ChromeTraceEvent event : events) {
+      names.add(event.getName());
+    }
+    return names;
+  }
+}
@@ -19,6 +19,7 @@ import static com.facebook.buck.event.TestEventConfigerator.configureTestEventAt
 import static org.junit.Assert.assertEquals;
 
 import com.facebook.buck.cli.InstallEvent;
+import com.facebook.buck.event.BatchingEventBus;
 import com.facebook.buck.event.BuckEventBus;
 import com.facebook.buck.event.BuckEventBusFactory;
 import com.facebook.buck.event.LogEvent;
@@ -42,7 +43,6 @@ import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.ImmutableSortedSet;
-import com.google.common.eventbus.EventBus;
 
 import org.junit.Test;
 
@@ -53,7 +53,7 @@ public class SimpleConsoleEventBusListenerTest {
   public void testSimpleBuild() {
     Clock fakeClock = new IncrementingFakeClock(TimeUnit.SECONDS.toNanos(1));
     BuckEventBus eventBus = BuckEventBusFactory.newInstance(fakeClock);
-    EventBus rawEventBus = BuckEventBusFactory.getEventBusFor(eventBus);
+    BatchingEventBus rawEventBus = BuckEventBusFactory.getEventBusFor(eventBus);
     TestConsole console = new TestConsole();
 
     BuildTarget fakeTarget = BuildTargetFactory.newInstance("//banana:stand");
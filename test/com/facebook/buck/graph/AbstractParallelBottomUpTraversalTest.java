@@ -0,0 +1,140 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+
+public class AbstractParallelBottomUpTraversalTest {
+
+  private ForkJoinPool pool;
+
+  @Before
+  public void setUp() {
+    pool = new ForkJoinPool(4);
+  }
+
+  @After
+  public void tearDown() {
+    pool.shutdownNow();
+  }
+
+  @Test
+  public void testNodesAreVisitedAfterTheirDepsAndMergedInTopologicalOrder() {
+    final DefaultImmutableDirectedAcyclicGraph<Integer> graph = createRandomGraph();
+    final Set<Integer> visitedNodes = Sets.newConcurrentHashSet();
+    final Set<Integer> nodesVisitedBeforeTheirDeps = Sets.newConcurrentHashSet();
+
+    List<Integer> result = new AbstractParallelBottomUpTraversal<Integer, List<Integer>>(
+        graph, pool) {
+      @Override
+      public List<Integer> visit(Integer node) {
+        for (Integer dep : graph.getOutgoingNodesFor(node)) {
+          if (!visitedNodes.contains(dep)) {
+            nodesVisitedBeforeTheirDeps.add(node);
+          }
+        }
+        assertTrue("Each node should be visited once.", visitedNodes.add(node));
+        return ImmutableList.of(node);
+      }
+
+      @Override
+      public List<Integer> merge(List<Integer> accumulated, List<Integer> result) {
+        accumulated.addAll(result);
+        return accumulated;
+      }
+    }.traverse(Lists.<Integer>newArrayList());
+
+    assertTrue(nodesVisitedBeforeTheirDeps.isEmpty());
+    assertEquals(TopologicalSort.sort(graph, Predicates.<Integer>alwaysTrue()), result);
+  }
+
+  @Test
+  public void testEmptyGraphReturnsTheInitialResult() {
+    DefaultImmutableDirectedAcyclicGraph<String> graph =
+        new DefaultImmutableDirectedAcyclicGraph<>(new MutableDirectedGraph<String>());
+    String result = new ConcatenatingTraversal(graph).traverse("initial");
+    assertEquals("initial", result);
+  }
+
+  @Test
+  public void testExceptionFromAVisitIsThrownByTraverse() {
+    MutableDirectedGraph<String> mutableGraph = new MutableDirectedGraph<>();
+    mutableGraph.addEdge("A", "B");
+    mutableGraph.addEdge("B", "C");
+    final DefaultImmutableDirectedAcyclicGraph<String> graph =
+        new DefaultImmutableDirectedAcyclicGraph<>(mutableGraph);
+
+    try {
+      new ConcatenatingTraversal(graph) {
+        @Override
+        public String visit(String node) {
+          if (node.equals("B")) {
+            throw new IllegalStateException("B is broken");
+          }
+          return super.visit(node);
+        }
+      }.traverse("");
+      fail("Should have thrown IllegalStateException.");
+    } catch (IllegalStateException e) {
+      assertEquals("B is broken", e.getMessage());
+    }
+  }
+
+  private DefaultImmutableDirectedAcyclicGraph<Integer> createRandomGraph() {
+    Random random = new Random(0);
+    MutableDirectedGraph<Integer> mutableGraph = new MutableDirectedGraph<>();
+    for (int i = 0; i < 1000; i++) {
+      mutableGraph.addNode(i);
+      for (int j = 0; i > 0 && j < 3; j++) {
+        mutableGraph.addEdge(i, random.nextInt(i));
+      }
+    }
+    return new DefaultImmutableDirectedAcyclicGraph<>(mutableGraph);
+  }
+
+  private class ConcatenatingTraversal extends AbstractParallelBottomUpTraversal<String, String> {
+    public ConcatenatingTraversal(DefaultImmutableDirectedAcyclicGraph<String> graph) {
+      super(graph, pool);
+    }
+
+    @Override
+    public String visit(String node) {
+      return node;
+    }
+
+    @Override
+    public String merge(String accumulated, String result) {
+      return accumulated + result;
+    }
+  }
+}
@@ -0,0 +1,130 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.graph;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Predicates;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+public class DefaultImmutableDirectedAcyclicGraphTest {
+
+  @Test
+  public void testEdgesAreTheSameAsInTheMutableGraph() {
+    MutableDirectedGraph<String> mutableGraph = createCrissCrossGraph();
+    DefaultImmutableDirectedAcyclicGraph<String> graph =
+        new DefaultImmutableDirectedAcyclicGraph<>(mutableGraph);
+
+    for (String node : mutableGraph.getNodes()) {
+      assertEquals(ImmutableSet.copyOf(mutableGraph.getOutgoingNodesFor(node)),
+          graph.getOutgoingNodesFor(node));
+      assertEquals(ImmutableSet.copyOf(mutableGraph.getIncomingNodesFor(node)),
+          graph.getIncomingNodesFor(node));
+    }
+    assertEquals(ImmutableSet.of("A"), graph.getNodesWithNoIncomingEdges());
+    assertEquals(ImmutableSet.of("F"), graph.getNodesWithNoOutgoingEdges());
+    assertEquals(ImmutableSet.copyOf(mutableGraph.getNodes()),
+        ImmutableSet.copyOf(graph.getNodes()));
+    assertEquals(6, graph.getNodeCount());
+    assertEquals(ImmutableSet.of(), graph.getOutgoingNodesFor("not in the graph"));
+    assertSame("The sets of nodes should be built once, not on every call.",
+        graph.getOutgoingNodesFor("B"),
+        graph.getOutgoingNodesFor("B"));
+  }
+
+  @Test
+  public void testTopologicalOrderIsTheOrderOfABottomUpTraversal() {
+    // Build a random DAG, which is big enough for the iteration order of its nodes and edges to
+    // matter, by only adding edges from a node to the nodes created before it.
+    Random random = new Random(0);
+    MutableDirectedGraph<Integer> mutableGraph = new MutableDirectedGraph<>();
+    for (int i = 0; i < 500; i++) {
+      mutableGraph.addNode(i);
+      for (int j = 0; i > 0 && j < 3; j++) {
+        mutableGraph.addEdge(i, random.nextInt(i));
+      }
+    }
+
+    // TopologicalSort takes the general path on a mutable graph.
+    ImmutableList<Integer> expected =
+        TopologicalSort.sort(mutableGraph, Predicates.<Integer>alwaysTrue());
+    DefaultImmutableDirectedAcyclicGraph<Integer> graph =
+        new DefaultImmutableDirectedAcyclicGraph<>(mutableGraph);
+    assertEquals(expected, graph.getNodesInTopologicalOrder());
+    assertEquals(expected, TopologicalSort.sort(graph, Predicates.<Integer>alwaysTrue()));
+  }
+
+  @Test
+  public void testReachableNodes() {
+    DefaultImmutableDirectedAcyclicGraph<String> graph =
+        new DefaultImmutableDirectedAcyclicGraph<>(createCrissCrossGraph());
+
+    assertEquals(ImmutableSet.of("B", "D", "E", "F"),
+        ImmutableSet.copyOf(graph.getReachableNodes(ImmutableList.of("B"))));
+    assertEquals("F", graph.getReachableNodes(ImmutableList.of("B", "C")).get(0));
+    assertTrue(graph.isReachable("A", "F"));
+    assertTrue(graph.isReachable("C", "C"));
+    assertFalse(graph.isReachable("B", "C"));
+    assertFalse(graph.isReachable("F", "A"));
+  }
+
+  @Test
+  public void testCyclicGraphIsRejected() {
+    MutableDirectedGraph<String> mutableGraph = createCrissCrossGraph();
+    mutableGraph.addEdge("F", "B");
+    try {
+      new DefaultImmutableDirectedAcyclicGraph<>(mutableGraph);
+      fail("Should have thrown IllegalArgumentException.");
+    } catch (IllegalArgumentException e) {
+      assertEquals("The graph is not acyclic.", e.getMessage());
+    }
+  }
+
+  /**
+   * <pre>
+   *     A
+   *   /   \
+   *  B     C
+   *  | \ / |
+   *  | / \ |
+   *  D     E
+   *    \ /
+   *     F
+   * </pre>
+   */
+  private static MutableDirectedGraph<String> createCrissCrossGraph() {
+    MutableDirectedGraph<String> graph = new MutableDirectedGraph<>();
+    graph.addEdge("A", "B");
+    graph.addEdge("A", "C");
+    graph.addEdge("B", "D");
+    graph.addEdge("B", "E");
+    graph.addEdge("C", "D");
+    graph.addEdge("C", "E");
+    graph.addEdge("D", "F");
+    graph.addEdge("E", "F");
+    return graph;
+  }
+}
@@ -0,0 +1,180 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.httpserver;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.rules.ArtifactCache;
+import com.facebook.buck.rules.ArtifactCodec;
+import com.facebook.buck.rules.ArtifactEncoding;
+import com.facebook.buck.rules.CacheResult;
+import com.facebook.buck.rules.CachedArtifactInputStream;
+import com.facebook.buck.rules.ContentAddressedDirArtifactCache;
+import com.facebook.buck.rules.DirArtifactCache;
+import com.facebook.buck.rules.HttpArtifactCache;
+import com.facebook.buck.rules.RuleKey;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.io.Files;
+
+import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
+import org.eclipse.jetty.server.handler.ContextHandler;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.URL;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Stores and fetches artifacts with an {@link HttpArtifactCache} that talks to an
+ * {@link ArtifactCacheHandler}, as a client would to the web server of another client's daemon.
+ */
+public class ArtifactCacheHandlerTest {
+
+  private static final RuleKey RULE_KEY = new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+  private static final RuleKey MISSING_RULE_KEY =
+      new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+  private static final byte[] ARTIFACT =
+      "Lorem ipsum dolor sit amet, lorem ipsum dolor sit amet.".getBytes(Charsets.UTF_8);
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  private File cacheDir;
+  private Server server;
+  private URL baseUrl;
+
+  @Before
+  public void setUp() throws Exception {
+    cacheDir = tmp.newFolder("cache");
+    startServer(new DirArtifactCache(cacheDir, /* doStore */ true, Optional.<Long>absent()));
+  }
+
+  @After
+  public void tearDown() throws Exception {
+    server.stop();
+  }
+
+  @Test
+  public void testStoredArtifactIsFetched() throws IOException {
+    HttpArtifactCache cache = createCache(Optional.<ArtifactEncoding>absent());
+    cache.store(RULE_KEY, createArtifact());
+
+    assertArrayEquals(ARTIFACT, Files.toByteArray(new File(cacheDir, RULE_KEY.toString())));
+    File output = new File(tmp.getRoot(), "output");
+    assertEquals(CacheResult.HTTP_HIT, cache.fetch(RULE_KEY, output));
+    assertArrayEquals(ARTIFACT, Files.toByteArray(output));
+    cache.close();
+  }
+
+  @Test
+  public void testEncodedArtifactIsStoredDecoded() throws IOException {
+    HttpArtifactCache cache =
+        createCache(Optional.of(new ArtifactEncoding(ArtifactCodec.DEFLATE, 9)));
+    cache.store(RULE_KEY, createArtifact());
+
+    assertArrayEquals(ARTIFACT, Files.toByteArray(new File(cacheDir, RULE_KEY.toString())));
+    File output = new File(tmp.getRoot(), "output");
+    assertEquals(CacheResult.HTTP_HIT, cache.fetch(RULE_KEY, output));
+    assertArrayEquals(ARTIFACT, Files.toByteArray(output));
+    cache.close();
+  }
+
+  @Test
+  public void testFetchAllReportsHitsAndMisses() throws IOException {
+    HttpArtifactCache cache = createCache(Optional.<ArtifactEncoding>absent());
+    cache.store(RULE_KEY, createArtifact());
+
+    File hitOutput = new File(tmp.getRoot(), "hit");
+    File missOutput = new File(tmp.getRoot(), "miss");
+    assertEquals(
+        ImmutableMap.of(RULE_KEY, CacheResult.HTTP_HIT, MISSING_RULE_KEY, CacheResult.MISS),
+        cache.fetchAll(ImmutableMap.of(RULE_KEY, hitOutput, MISSING_RULE_KEY, missOutput)));
+    assertArrayEquals(ARTIFACT, Files.toByteArray(hitOutput));
+    assertFalse(missOutput.exists());
+    cache.close();
+  }
+
+  @Test
+  public void testEncodedArtifactRoundTripsThroughAContentAddressedCache() throws Exception {
+    server.stop();
+    startServer(new ContentAddressedDirArtifactCache(
+        tmp.newFolder("content-addressed"),
+        /* doStore */ true,
+        Optional.<Long>absent()));
+    HttpArtifactCache cache =
+        createCache(Optional.of(new ArtifactEncoding(ArtifactCodec.DEFLATE, 9)));
+
+    File zip = tmp.newFile();
+    try (ZipOutputStream output = new ZipOutputStream(new FileOutputStream(zip))) {
+      output.putNextEntry(new ZipEntry("buck-out/gen/lorem.txt"));
+      output.write(ARTIFACT);
+      output.closeEntry();
+    }
+    cache.store(RULE_KEY, zip);
+
+    File projectRoot = tmp.newFolder("project");
+    Optional<CachedArtifactInputStream> artifact = cache.fetchStream(RULE_KEY);
+    assertTrue(artifact.isPresent());
+    try (CachedArtifactInputStream input = artifact.get()) {
+      assertEquals(CacheResult.HTTP_HIT, input.getCacheResult());
+      input.extractTo(projectRoot.toPath());
+    }
+    assertArrayEquals(
+        ARTIFACT,
+        Files.toByteArray(new File(projectRoot, "buck-out/gen/lorem.txt")));
+    cache.close();
+  }
+
+  private void startServer(ArtifactCache artifactCache) throws Exception {
+    ContextHandler contextHandler = new ContextHandler("/artifacts");
+    contextHandler.setHandler(new ArtifactCacheHandler(artifactCache));
+    server = new Server(0);
+    server.setHandler(contextHandler);
+    server.start();
+    int port = ((ServerConnector) server.getConnectors()[0]).getLocalPort();
+    baseUrl = new URL("http", "localhost", port, "/artifacts/");
+  }
+
+  private HttpArtifactCache createCache(Optional<ArtifactEncoding> encoding) {
+    return new HttpArtifactCache(baseUrl,
+        /* timeoutSeconds */ 10,
+        /* numThreads */ 2,
+        /* doStore */ true,
+        encoding,
+        BuckEventBusFactory.newInstance());
+  }
+
+  private File createArtifact() throws IOException {
+    File artifact = tmp.newFile();
+    Files.write(ARTIFACT, artifact);
+    return artifact;
+  }
+}
@@ -32,6 +32,7 @@ import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.PrintWriter;
+import java.io.StringReader;
 import java.io.StringWriter;
 import java.nio.file.Paths;
 import java.util.regex.Matcher;
@@ -137,4 +138,37 @@ public class TraceDataHandlerTest extends EasyMockSupport {
 
     assertEquals("my.callback({\"foo\":\"bar\"});\n", stringWriter.toString());
   }
+
+  @Test
+  public void testCopyTraceEndsTheArrayOfATraceThatIsStillBeingWritten() throws IOException {
+    assertEquals("[{\"ts\":1},{\"ts\":2}]", copyTrace("[{\"ts\":1},{\"ts\":2}]"));
+    assertEquals("[{\"ts\":1},{\"ts\":2}]", copyTrace("[{\"ts\":1},{\"ts\":2}"));
+    assertEquals("[]", copyTrace("["));
+    assertEquals("[]", copyTrace(""));
+  }
+
+  @Test
+  public void testCopyTraceDropsTheEventThatIsStillBeingWritten() throws IOException {
+    assertEquals("[{\"ts\":1}]", copyTrace("[{\"ts\":1},{\"ts\":2,\"args\":{\"a\":"));
+    assertEquals("[{\"ts\":1}]", copyTrace("[{\"ts\":1},{\"name\":\"}\\\"]"));
+    assertEquals("[]", copyTrace("[{\"ts\":1"));
+  }
+
+  @Test
+  public void testCopyTraceDropsTheCommaAfterTheLastCompleteEvent() throws IOException {
+    assertEquals("[{\"ts\":1},{\"ts\":2}]", copyTrace("[{\"ts\":1},{\"ts\":2},"));
+    assertEquals("[\n{\"ts\":1}]", copyTrace("[\n{\"ts\":1},\n"));
+  }
+
+  @Test
+  public void testCopyTraceCopiesAnythingElseAsItIs() throws IOException {
+    assertEquals("[{\"ts\":1}]\n", copyTrace("[{\"ts\":1}]\n"));
+    assertEquals("{\"foo\":", copyTrace("{\"foo\":"));
+  }
+
+  private static String copyTrace(String trace) throws IOException {
+    StringWriter writer = new StringWriter();
+    TraceDataHandler.copyTrace(new StringReader(trace), writer);
+    return writer.toString();
+  }
 }
@@ -24,15 +24,22 @@ import com.facebook.buck.httpserver.TracesHelper.TraceAttributes;
 import com.facebook.buck.testutil.FakeInputStreams;
 import com.facebook.buck.util.BuckConstant;
 import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
 import com.google.common.base.Optional;
 import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.InputSupplier;
 
 import org.easymock.EasyMockSupport;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
 import java.nio.file.Path;
+import java.util.zip.GZIPOutputStream;
 
 public class TracesHelperTest extends EasyMockSupport {
 
@@ -158,4 +165,23 @@ public class TracesHelperTest extends EasyMockSupport {
 
     verifyAll();
   }
+
+  @Test
+  public void testCompressedTracesAreDecompressed() throws IOException {
+    ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+    try (GZIPOutputStream output = new GZIPOutputStream(compressed)) {
+      output.write("[]".getBytes(Charsets.UTF_8));
+    }
+
+    assertEquals("[]", readFully(TracesHelper.decompressIfGzipped(
+        new ByteArrayInputStream(compressed.toByteArray()))));
+    assertEquals("[]", readFully(TracesHelper.decompressIfGzipped(
+        new ByteArrayInputStream("[]".getBytes(Charsets.UTF_8)))));
+    assertEquals("", readFully(TracesHelper.decompressIfGzipped(
+        new ByteArrayInputStream(new byte[0]))));
+  }
+
+  private static String readFully(InputStream input) throws IOException {
+    return new String(ByteStreams.toByteArray(input), Charsets.UTF_8);
+  }
 }
@@ -0,0 +1,106 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.Maps;
+
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Writes values in the format read by {@link BuildFileToBinaryParser}, as the {@code BinaryEncoder}
+ * in buck.py does.
+ */
+class BinaryRuleEncoder {
+
+  private final ByteArrayOutputStream bytes;
+  private final DataOutputStream output;
+  private final Map<String, Integer> strings;
+
+  public BinaryRuleEncoder() throws IOException {
+    this.bytes = new ByteArrayOutputStream();
+    this.output = new DataOutputStream(bytes);
+    this.strings = Maps.newHashMap();
+    output.writeInt(BuildFileToBinaryParser.MAGIC);
+    output.writeByte(BuildFileToBinaryParser.VERSION);
+  }
+
+  public BinaryRuleEncoder write(Object value) throws IOException {
+    if (value == null) {
+      output.writeByte(BuildFileToBinaryParser.NULL);
+    } else if (value instanceof Boolean) {
+      output.writeByte((Boolean) value ?
+          BuildFileToBinaryParser.TRUE :
+          BuildFileToBinaryParser.FALSE);
+    } else if (value instanceof String) {
+      writeString((String) value);
+    } else if (value instanceof Long || value instanceof Integer) {
+      output.writeByte(BuildFileToBinaryParser.LONG);
+      output.writeLong(((Number) value).longValue());
+    } else if (value instanceof Number) {
+      output.writeByte(BuildFileToBinaryParser.DOUBLE);
+      output.writeDouble(((Number) value).doubleValue());
+    } else if (value instanceof List) {
+      List<?> list = (List<?>) value;
+      output.writeByte(BuildFileToBinaryParser.LIST);
+      output.writeInt(list.size());
+      for (Object item : list) {
+        write(item);
+      }
+    } else if (value instanceof Map) {
+      Map<?, ?> map = (Map<?, ?>) value;
+      output.writeByte(BuildFileToBinaryParser.MAP);
+      output.writeInt(map.size());
+      for (Map.Entry<?, ?> entry : map.entrySet()) {
+        writeString((String) entry.getKey());
+        write(entry.getValue());
+      }
+    } else {
+      throw new IllegalArgumentException("Cannot encode " + value);
+    }
+    return this;
+  }
+
+  /** Asks for a glob to be evaluated, as buck.py does with {@code --glob_service}. */
+  public BinaryRuleEncoder writeGlobRequest(Map<String, Object> request) throws IOException {
+    output.writeByte(BuildFileToBinaryParser.GLOB_REQUEST);
+    return write(request);
+  }
+
+  private void writeString(String value) throws IOException {
+    Integer index = strings.get(value);
+    if (index != null) {
+      output.writeByte(BuildFileToBinaryParser.STRING_REFERENCE);
+      output.writeInt(index);
+      return;
+    }
+    strings.put(value, strings.size());
+    byte[] utf8 = value.getBytes(Charsets.UTF_8);
+    output.writeByte(BuildFileToBinaryParser.STRING);
+    output.writeInt(utf8.length);
+    output.write(utf8);
+  }
+
+  public byte[] toByteArray() throws IOException {
+    output.flush();
+    return bytes.toByteArray();
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the throughput of reading the output of buck.py as JSON, with
+ * {@link BuildFileToJsonParser}, and in the binary format, with {@link BuildFileToBinaryParser}, on
+ * a synthetic tree of 1,000 build files of 10 rules each.
+ * <p>
+ * This is not run as part of the tests. Run it with:
+ * <pre>
+ *   java -cp build/classes:build/testclasses:lib/*:third-party/java/gson/gson-2.2.4.jar \
+ *       com.facebook.buck.json.BuildFileOutputBenchmark
+ * </pre>
+ */
+public class BuildFileOutputBenchmark {
+
+  private static final int NUM_BUILD_FILES = 1000;
+  private static final int RULES_PER_BUILD_FILE = 10;
+  private static final int ITERATIONS = 10;
+
+  /** Utility class: do not instantiate. */
+  private BuildFileOutputBenchmark() {}
+
+  public static void main(String[] args) throws IOException {
+    Gson gson = new GsonBuilder().serializeNulls().create();
+    StringBuilder json = new StringBuilder();
+    BinaryRuleEncoder binary = new BinaryRuleEncoder();
+    for (int i = 0; i < NUM_BUILD_FILES; i++) {
+      List<Map<String, Object>> rules = createBuildFile(i);
+      json.append(gson.toJson(rules)).append('\n');
+      binary.write(rules);
+    }
+    byte[] jsonBytes = json.toString().getBytes(Charsets.UTF_8);
+    byte[] binaryBytes = binary.toByteArray();
+
+    System.out.printf("%d build files, %d rules%n%n",
+        NUM_BUILD_FILES,
+        NUM_BUILD_FILES * RULES_PER_BUILD_FILE);
+    System.out.printf("%-8s %12s %10s %14s%n", "format", "bytes", "read ms", "rules/s");
+    report("json", jsonBytes.length, measure(jsonBytes, /* isBinary */ false));
+    report("binary", binaryBytes.length, measure(binaryBytes, /* isBinary */ true));
+  }
+
+  private static List<Map<String, Object>> createBuildFile(int index) {
+    String basePath = "java/com/example/package" + index;
+    List<Map<String, Object>> rules = Lists.newArrayList();
+    for (int i = 0; i < RULES_PER_BUILD_FILE; i++) {
+      Map<String, Object> rule = Maps.newHashMap();
+      rule.put("type", "java_library");
+      rule.put("name", "lib" + i);
+      List<String> srcs = Lists.newArrayList();
+      for (int j = 0; j < 8; j++) {
+        srcs.add(String.format("Source%d_%d.java", i, j));
+      }
+      rule.put("srcs", srcs);
+      List<String> deps = Lists.newArrayList("//third-party/java/guava:guava");
+      for (int j = 1; j <= 4 && j <= index; j++) {
+        deps.add(String.format("//java/com/example/package%d:lib%d", index - j, i));
+      }
+      rule.put("deps", deps);
+      rule.put("exported_deps", Lists.newArrayList());
+      rule.put("resources", Lists.newArrayList());
+      rule.put("source", "7");
+      rule.put("target", "7");
+      rule.put("proguard_config", null);
+      rule.put("export_deps", false);
+      rule.put("visibility", Lists.newArrayList("PUBLIC"));
+      rule.put("buck.base_path", basePath);
+      rules.add(rule);
+    }
+    rules.add(ImmutableMap.<String, Object>of(
+        "__includes", Lists.newArrayList("/project/" + basePath + "/BUCK", "/project/DEFS"),
+        "__globs", ImmutableList.of()));
+    return rules;
+  }
+
+  /** @return the fastest time to read all of {@code output}, once the JIT has warmed up. */
+  private static long measure(byte[] output, boolean isBinary) throws IOException {
+    long bestNanos = Long.MAX_VALUE;
+    for (int i = 0; i < ITERATIONS; i++) {
+      long start = System.nanoTime();
+      try (BuildFileOutputParser parser = createParser(output, isBinary)) {
+        for (int j = 0; j < NUM_BUILD_FILES; j++) {
+          parser.nextRules();
+        }
+      }
+      bestNanos = Math.min(bestNanos, System.nanoTime() - start);
+    }
+    return bestNanos;
+  }
+
+  private static BuildFileOutputParser createParser(byte[] output, boolean isBinary) {
+    ByteArrayInputStream input = new ByteArrayInputStream(output);
+    if (isBinary) {
+      return new BuildFileToBinaryParser(input, /* isServerMode */ true);
+    }
+    return new BuildFileToJsonParser(
+        new InputStreamReader(input, Charsets.UTF_8),
+        /* isServerMode */ true);
+  }
+
+  private static void report(String format, int bytes, long nanos) {
+    System.out.printf("%-8s %12d %10d %14.0f%n",
+        format,
+        bytes,
+        TimeUnit.NANOSECONDS.toMillis(nanos),
+        NUM_BUILD_FILES * RULES_PER_BUILD_FILE / (nanos / 1e9));
+  }
+}
@@ -0,0 +1,185 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.io.BaseEncoding;
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public class BuildFileToBinaryParserTest {
+
+  private static final Gson GSON = new GsonBuilder().serializeNulls().create();
+
+  private static final Map<String, Object> FOO = ImmutableMap.<String, Object>of(
+      "type", "java_library",
+      "name", "foo",
+      "deps", ImmutableList.of("//lib:guava", "//lib:jsr305"),
+      "exported", true,
+      "buck.base_path", "foo");
+  private static final Map<String, Object> BAR = ImmutableMap.<String, Object>of(
+      "type", "java_library",
+      "name", "bar",
+      "deps", ImmutableList.of("//lib:guava", "//foo:foo"),
+      "source_level", 7L,
+      "buck.base_path", "bar");
+
+  @Test
+  public void testServerModeParse() throws IOException {
+    byte[] output = new BinaryRuleEncoder()
+        .write(ImmutableList.of(FOO, createMetaRule("/project/foo/BUCK")))
+        .write(ImmutableList.of(BAR, createMetaRule("/project/bar/BUCK")))
+        .toByteArray();
+
+    try (BuildFileToBinaryParser parser = createParser(output, /* isServerMode */ true)) {
+      List<Map<String, Object>> foo = parser.nextRules();
+      List<Map<String, Object>> bar = parser.nextRules();
+      assertEquals(ImmutableList.of(FOO, createMetaRule("/project/foo/BUCK")), foo);
+      assertEquals(ImmutableList.of(BAR, createMetaRule("/project/bar/BUCK")), bar);
+      assertEquals(Long.class, bar.get(0).get("source_level").getClass());
+      assertSame("A string that recurs should be decoded to the same instance.",
+          ((List<?>) foo.get(0).get("deps")).get(0),
+          ((List<?>) bar.get(0).get("deps")).get(0));
+    }
+  }
+
+  @Test
+  public void testValuesAreTheSameAsThoseReadFromJson() throws IOException {
+    Map<String, Object> rule = Maps.newHashMap(BAR);
+    rule.put("null_arg", null);
+    rule.put("nested", ImmutableMap.of("key", ImmutableList.of(1L, "two")));
+    List<Map<String, Object>> rules = ImmutableList.of(rule, FOO);
+
+    try (BuildFileToJsonParser jsonParser =
+             new BuildFileToJsonParser(GSON.toJson(rules), /* isServerMode */ true);
+         BuildFileToBinaryParser binaryParser = createParser(
+             new BinaryRuleEncoder().write(rules).toByteArray(),
+             /* isServerMode */ true)) {
+      assertEquals(jsonParser.nextRules(), binaryParser.nextRules());
+    }
+  }
+
+  @Test
+  public void testNonServerModeReadsRulesUntilTheEndOfTheOutput() throws IOException {
+    byte[] output = new BinaryRuleEncoder().write(FOO).write(BAR).toByteArray();
+
+    try (BuildFileToBinaryParser parser = createParser(output, /* isServerMode */ false)) {
+      assertEquals(ImmutableList.of(FOO, BAR), parser.nextRules());
+    }
+  }
+
+  @Test
+  public void testOutputOfBuckPyIsDecoded() throws IOException {
+    // Written by BinaryEncoder in buck.py for: [{"name": "a", "deps": ["//b:b"]}, {"name": "b"}].
+    byte[] output = BaseEncoding.base16().decode(
+        "4255434B01" +
+        "4C00000002" +
+        "4D00000002" + "53000000046E616D65" + "530000000161" +
+        "530000000464657073" + "4C00000001" + "53000000052F2F623A62" +
+        "4D00000001" + "5200000000" + "530000000162");
+
+    try (BuildFileToBinaryParser parser = createParser(output, /* isServerMode */ true)) {
+      assertEquals(
+          ImmutableList.of(
+              ImmutableMap.of("name", "a", "deps", ImmutableList.of("//b:b")),
+              ImmutableMap.of("name", "b")),
+          parser.nextRules());
+    }
+  }
+
+  @Test
+  public void testOutputWithoutHeaderIsRejected() throws IOException {
+    byte[] json = "[{\"name\": \"foo\"}]".getBytes(Charsets.UTF_8);
+
+    try (BuildFileToBinaryParser parser = createParser(json, /* isServerMode */ true)) {
+      parser.nextRules();
+      fail("JSON output should not be mistaken for binary output.");
+    } catch (IOException e) {
+      assertEquals("buck.py did not produce the expected binary output.", e.getMessage());
+    }
+  }
+
+  @Test
+  public void testGlobRequestsAreHandedToTheHandlerBeforeTheRules() throws IOException {
+    final Map<String, Object> request = ImmutableMap.<String, Object>of(
+        "base", "/project/foo",
+        "includes", ImmutableList.of("*.java"),
+        "excludes", ImmutableList.of(),
+        "include_dotfiles", false);
+    byte[] output = new BinaryRuleEncoder()
+        .writeGlobRequest(request)
+        .write(ImmutableList.of(FOO, createMetaRule("/project/foo/BUCK")))
+        .toByteArray();
+    final List<Map<String, Object>> requests = Lists.newArrayList();
+    BuildFileToBinaryParser.GlobRequestHandler handler =
+        new BuildFileToBinaryParser.GlobRequestHandler() {
+          @Override
+          public void handleGlobRequest(Map<String, Object> request) {
+            requests.add(request);
+          }
+        };
+
+    try (BuildFileToBinaryParser parser = new BuildFileToBinaryParser(
+        new ByteArrayInputStream(output),
+        /* isServerMode */ true,
+        Optional.of(handler))) {
+      assertEquals(ImmutableList.of(FOO, createMetaRule("/project/foo/BUCK")), parser.nextRules());
+    }
+    assertEquals(ImmutableList.of(request), requests);
+  }
+
+  @Test
+  public void testGlobRequestWithoutHandlerIsAnError() throws IOException {
+    byte[] output = new BinaryRuleEncoder()
+        .writeGlobRequest(ImmutableMap.<String, Object>of("base", "/project/foo"))
+        .toByteArray();
+
+    try (BuildFileToBinaryParser parser = createParser(output, /* isServerMode */ true)) {
+      parser.nextRules();
+      fail("A glob request should not be accepted without a handler.");
+    } catch (IOException e) {
+      assertEquals("buck.py asked for a glob, but Buck did not offer to evaluate globs.",
+          e.getMessage());
+    }
+  }
+
+  private static BuildFileToBinaryParser createParser(byte[] output, boolean isServerMode) {
+    return new BuildFileToBinaryParser(new ByteArrayInputStream(output), isServerMode);
+  }
+
+  private static Map<String, Object> createMetaRule(String buildFile) {
+    return ImmutableMap.<String, Object>of(
+        "__includes", ImmutableList.of(buildFile),
+        "__globs", ImmutableList.of());
+  }
+}
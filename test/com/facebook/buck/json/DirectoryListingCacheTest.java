@@ -0,0 +1,165 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static com.facebook.buck.testutil.WatchEvents.createOverflowEvent;
+import static com.facebook.buck.testutil.WatchEvents.createPathEvent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+
+public class DirectoryListingCacheTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path root;
+  private DirectoryListingCache cache;
+
+  @Before
+  public void setUp() throws IOException {
+    root = tmp.getRoot().toPath();
+    cache = new DirectoryListingCache(
+        new ProjectFilesystem(root, ImmutableSet.of(Paths.get("buck-out"))));
+    for (String file : ImmutableList.of(
+        "foo/BUCK",
+        "foo/A.java",
+        "foo/.B.java",
+        "foo/sub/C.java",
+        "foo/sub/deeper/D.java",
+        "foo/sub/TestE.java",
+        "foo/res/values.xml")) {
+      touch(file);
+    }
+  }
+
+  @Test
+  public void testGlobMatchesWhatBuckPyWould() throws IOException {
+    Glob recursive = new Glob(
+        ImmutableList.of("**/*.java"),
+        ImmutableList.of("**/Test*.java"),
+        /* includeDotfiles */ false);
+    Glob withDotfiles = new Glob(
+        ImmutableList.of("*.java"),
+        ImmutableList.<String>of(),
+        /* includeDotfiles */ true);
+    Glob literal = new Glob(
+        ImmutableList.of("res/values.xml", "res/missing.xml", "sub"),
+        ImmutableList.<String>of(),
+        /* includeDotfiles */ false);
+
+    assertEquals(
+        ImmutableSortedSet.of("A.java", "sub/C.java", "sub/deeper/D.java"),
+        glob("foo", recursive));
+    assertEquals(ImmutableSortedSet.of(".B.java", "A.java"), glob("foo", withDotfiles));
+    assertEquals(
+        "Only the files that exist are matched.",
+        ImmutableSortedSet.of("res/values.xml"),
+        glob("foo", literal));
+  }
+
+  @Test
+  public void testListingsAreReusedUntilAnEntryIsCreated() throws IOException {
+    Glob glob = new Glob(ImmutableList.of("*.java"), ImmutableList.<String>of(), false);
+    glob("foo", glob);
+    touch("foo/F.java");
+
+    assertEquals("The listing of foo should have been reused.",
+        ImmutableSortedSet.of("A.java"),
+        glob("foo", glob));
+
+    cache.onFileSystemChange(
+        createPathEvent(new File("foo/F.java"), StandardWatchEventKinds.ENTRY_CREATE));
+    assertEquals(ImmutableSortedSet.of("A.java", "F.java"), glob("foo", glob));
+  }
+
+  @Test
+  public void testDeletedDirectoryTakesTheListingsBelowIt() throws IOException {
+    glob("foo", new Glob(ImmutableList.of("**/*.java"), ImmutableList.<String>of(), false));
+    assertEquals(4, cache.size());
+    assertTrue(cache.mayBeDirectory(Paths.get("foo/sub")));
+    assertFalse(cache.mayBeDirectory(Paths.get("foo/A.java")));
+
+    cache.onFileSystemChange(
+        createPathEvent(new File("foo/sub"), StandardWatchEventKinds.ENTRY_DELETE));
+    assertEquals("Only the listing of foo/res should be left.", 1, cache.size());
+
+    cache.onFileSystemChange(createOverflowEvent());
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testDeletedDirectoryKeepsTheListingsOfSiblingsWithTheSamePrefix()
+      throws IOException {
+    touch("foo/sub-x/X.java");
+    touch("foo/sub.y/Y.java");
+    touch("foo/sub0/Z.java");
+    glob("foo", new Glob(ImmutableList.of("**/*.java"), ImmutableList.<String>of(), false));
+    assertEquals(7, cache.size());
+
+    cache.onFileSystemChange(
+        createPathEvent(new File("foo/sub"), StandardWatchEventKinds.ENTRY_DELETE));
+    assertEquals("The listings of foo/res, foo/sub-x, foo/sub.y and foo/sub0 should be left.",
+        4,
+        cache.size());
+  }
+
+  @Test
+  public void testIgnoredDirectoriesAreNotCached() throws IOException {
+    touch("buck-out/gen/G.java");
+
+    glob("buck-out", new Glob(ImmutableList.of("**/*.java"), ImmutableList.<String>of(), false));
+
+    assertEquals(0, cache.size());
+  }
+
+  @Test
+  public void testSymlinkLoopIsNotFollowedForever() throws IOException {
+    Files.createSymbolicLink(root.resolve("foo/sub/loop"), root.resolve("foo"));
+
+    ImmutableSortedSet<String> paths =
+        glob("foo", new Glob(ImmutableList.of("**/D.java"), ImmutableList.<String>of(), false));
+
+    assertTrue(paths.contains("sub/deeper/D.java"));
+  }
+
+  private ImmutableSortedSet<String> glob(String directory, Glob glob) throws IOException {
+    return cache.glob(root.resolve(directory), glob);
+  }
+
+  private void touch(String path) throws IOException {
+    Path file = root.resolve(path);
+    Files.createDirectories(file.getParent());
+    Files.createFile(file);
+  }
+}
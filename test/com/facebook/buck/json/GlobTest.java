@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Test;
+
+import java.nio.file.Paths;
+import java.util.List;
+
+public class GlobTest {
+
+  @Test
+  public void testCouldMatchFollowsTheRulesOfBuckPy() {
+    Glob glob = new Glob(
+        ImmutableList.of("*.java", "res/**/*.xml", "lib/[a-c]?.jar"),
+        ImmutableList.of("Test*.java"),
+        /* includeDotfiles */ false);
+
+    assertTrue(glob.couldMatch(Paths.get("Foo.java"), false));
+    assertTrue(glob.couldMatch(Paths.get("res/strings.xml"), false));
+    assertTrue(glob.couldMatch(Paths.get("res/values/strings.xml"), false));
+    assertTrue(glob.couldMatch(Paths.get("lib/a1.jar"), false));
+
+    assertFalse(glob.couldMatch(Paths.get("sub/Foo.java"), false));
+    assertFalse(glob.couldMatch(Paths.get("TestFoo.java"), false));
+    assertFalse(glob.couldMatch(Paths.get(".Foo.java"), false));
+    assertFalse(glob.couldMatch(Paths.get("res/.hidden/strings.xml"), false));
+    assertFalse(glob.couldMatch(Paths.get("lib/d1.jar"), false));
+    assertFalse(glob.couldMatch(Paths.get("README"), false));
+  }
+
+  @Test
+  public void testDirectoryCouldMatchIfAPathBelowItCould() {
+    Glob glob = new Glob(
+        ImmutableList.of("src/**/*.java"),
+        ImmutableList.of("src/generated"),
+        /* includeDotfiles */ false);
+
+    assertTrue(glob.couldMatch(Paths.get("src"), true));
+    assertTrue(glob.couldMatch(Paths.get("src/com/example"), true));
+    assertTrue("Excludes apply to the directory itself, not to the files below it.",
+        glob.couldMatch(Paths.get("src/generated"), true));
+    assertFalse(glob.couldMatch(Paths.get("res"), true));
+    assertFalse(glob.couldMatch(Paths.get("src"), false));
+  }
+
+  @Test
+  public void testDotfilesAreMatchedWhenIncluded() {
+    Glob glob = new Glob(
+        ImmutableList.of("**/*"),
+        ImmutableList.<String>of(),
+        /* includeDotfiles */ true);
+
+    assertTrue(glob.couldMatch(Paths.get(".config/settings"), false));
+  }
+
+  @Test
+  public void testGlobsFromMetaRule() {
+    List<?> globs = ImmutableList.of(ImmutableMap.of(
+        "includes", ImmutableList.of("../shared/*.java"),
+        "excludes", ImmutableList.of(),
+        "include_dotfiles", false));
+
+    Glob glob = Glob.fromMetaRule(ImmutableMap.<String, Object>of("__globs", globs))
+        .get().get(0);
+
+    assertFalse(glob.isConfinedToBaseDirectory());
+    assertFalse(Glob.fromMetaRule(ImmutableMap.<String, Object>of()).isPresent());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMalformedPatternIsRejected() {
+    new Glob(ImmutableList.of("src//*.java"), ImmutableList.<String>of(), false);
+  }
+}
@@ -0,0 +1,266 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static com.facebook.buck.testutil.WatchEvents.createPathEvent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.DefaultFileHashCache;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Maps;
+import com.google.common.hash.HashCode;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.attribute.BasicFileAttributeView;
+import java.nio.file.attribute.FileTime;
+import java.util.List;
+import java.util.Map;
+
+public class PersistentBuildFileCacheTest {
+
+  private static final HashCode PARSER_KEY = HashCode.fromInt(42);
+  private static final Map<String, Object> GLOB_ARGS = ImmutableMap.<String, Object>of(
+      "includes", ImmutableList.of("**/*.java"),
+      "excludes", ImmutableList.of(),
+      "include_dotfiles", false);
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path root;
+  private PersistentBuildFileCache cache;
+  private DefaultFileHashCache hashCache;
+  private Path buildFile;
+  private Path defs;
+
+  @Before
+  public void setUp() throws IOException {
+    root = tmp.getRoot().toPath();
+    cache = createCache();
+    buildFile = writeFile("foo/BUCK", "java_library(name = 'foo')");
+    defs = writeFile("DEFS", "FOO = 'foo'");
+  }
+
+  @Test
+  public void testRulesAreReadBackByAnotherCache() throws IOException {
+    List<Map<String, Object>> rules = createRules(/* isGlobbed */ false);
+    cache.put(buildFile, PARSER_KEY, rules, createListings());
+
+    assertEquals(Optional.of(rules),
+        createCache().get(buildFile, PARSER_KEY, createListings()));
+  }
+
+  @Test
+  public void testChangedIncludeInvalidatesRules() throws IOException {
+    cache.put(buildFile, PARSER_KEY, createRules(/* isGlobbed */ false), createListings());
+
+    writeFile("DEFS", "FOO = 'bar'");
+    hashCache.onFileSystemChange(
+        createPathEvent(new File("DEFS"), StandardWatchEventKinds.ENTRY_MODIFY));
+
+    assertFalse(cache.get(buildFile, PARSER_KEY, createListings()).isPresent());
+  }
+
+  @Test
+  public void testIncludesAreHashedOncePerHashCache() throws IOException {
+    Path otherBuildFile = writeFile("bar/BUCK", "java_library(name = 'bar')");
+    cache.put(buildFile, PARSER_KEY, createRules(/* isGlobbed */ false), createListings());
+    cache.put(
+        otherBuildFile,
+        PARSER_KEY,
+        createRules(otherBuildFile, /* isGlobbed */ false),
+        createListings());
+
+    // A change that the hash cache is not told of goes unnoticed: the hash that it already
+    // computed for the include is used, rather than the file being read again.
+    writeFile("DEFS", "FOO = 'bar'");
+    assertTrue(hashCache.contains(Paths.get("DEFS")));
+    assertTrue(cache.get(buildFile, PARSER_KEY, createListings()).isPresent());
+    assertTrue(cache.get(otherBuildFile, PARSER_KEY, createListings()).isPresent());
+  }
+
+  @Test
+  public void testDifferentParserKeyDoesNotMatch() throws IOException {
+    cache.put(buildFile, PARSER_KEY, createRules(/* isGlobbed */ false), createListings());
+
+    assertFalse(cache.get(buildFile, HashCode.fromInt(43), createListings()).isPresent());
+  }
+
+  @Test
+  public void testNewFileInvalidatesRulesOnlyIfBuildFileGlobbed() throws IOException {
+    Path globbingBuildFile = writeFile("bar/BUCK", "java_library(name = 'bar')");
+    List<Map<String, Object>> rules = createRules(/* isGlobbed */ false);
+    List<Map<String, Object>> globbingRules =
+        createRules(globbingBuildFile, /* isGlobbed */ true);
+    cache.put(buildFile, PARSER_KEY, rules, createListings());
+    cache.put(globbingBuildFile, PARSER_KEY, globbingRules, createListings());
+    assertEquals(Optional.of(globbingRules),
+        cache.get(globbingBuildFile, PARSER_KEY, createListings()));
+
+    writeFile("foo/Foo.java", "class Foo {}");
+    writeFile("bar/Bar.java", "class Bar {}");
+
+    assertEquals(Optional.of(rules), cache.get(buildFile, PARSER_KEY, createListings()));
+    assertFalse(cache.get(globbingBuildFile, PARSER_KEY, createListings()).isPresent());
+  }
+
+  @Test
+  public void testNewFileInvalidatesRulesOnlyIfAGlobMatchesIt() throws IOException {
+    List<Map<String, Object>> rules = createRules(/* isGlobbed */ true);
+    cache.put(buildFile, PARSER_KEY, rules, createListings());
+
+    writeFile("foo/README", "Not a Java file.");
+    assertEquals(Optional.of(rules), cache.get(buildFile, PARSER_KEY, createListings()));
+
+    writeFile("foo/bar/Bar.java", "class Bar {}");
+    assertFalse(cache.get(buildFile, PARSER_KEY, createListings()).isPresent());
+  }
+
+  @Test
+  public void testRulesWithoutRecordedGlobsAreNotRecorded() throws IOException {
+    List<Map<String, Object>> rules = createRules(/* isGlobbed */ false);
+    rules.get(rules.size() - 1).remove("__globs");
+
+    cache.put(buildFile, PARSER_KEY, rules, createListings());
+
+    assertFalse(cache.get(buildFile, PARSER_KEY, createListings()).isPresent());
+  }
+
+  @Test
+  public void testLeastRecentlyAccessedEntriesArePruned() throws IOException {
+    Path otherBuildFile = writeFile("bar/BUCK", "java_library(name = 'bar')");
+    Path oldBuildFile = writeFile("baz/BUCK", "java_library(name = 'baz')");
+    cache.put(buildFile, PARSER_KEY, createRules(/* isGlobbed */ false), createListings());
+    cache.put(otherBuildFile,
+        PARSER_KEY,
+        createRules(otherBuildFile, /* isGlobbed */ false),
+        createListings());
+    cache.put(oldBuildFile,
+        PARSER_KEY,
+        createRules(oldBuildFile, /* isGlobbed */ false),
+        createListings());
+
+    long now = System.currentTimeMillis();
+    setLastAccessTime(cache.getEntryFile(buildFile), now);
+    setLastAccessTime(cache.getEntryFile(otherBuildFile), now - 30000);
+    setLastAccessTime(cache.getEntryFile(oldBuildFile), now - 60000);
+
+    // Reading an entry would make it the most recently accessed one, so only look for the files.
+    cache.prune(/* maxEntries */ 3, /* maxEntryAgeMillis */ 45000);
+    assertFalse(Files.exists(cache.getEntryFile(oldBuildFile)));
+    assertTrue(Files.exists(cache.getEntryFile(otherBuildFile)));
+
+    cache.prune(/* maxEntries */ 1, /* maxEntryAgeMillis */ 45000);
+    assertFalse(Files.exists(cache.getEntryFile(otherBuildFile)));
+    assertTrue(Files.exists(cache.getEntryFile(buildFile)));
+  }
+
+  @Test
+  public void testRecentlyModifiedBuildFileIsNotRecorded() throws IOException {
+    Files.setLastModifiedTime(buildFile, FileTime.fromMillis(System.currentTimeMillis()));
+
+    cache.put(buildFile, PARSER_KEY, createRules(/* isGlobbed */ false), createListings());
+
+    assertFalse(cache.get(buildFile, PARSER_KEY, createListings()).isPresent());
+  }
+
+  @Test
+  public void testCorruptEntryIsAMiss() throws IOException {
+    cache.put(buildFile, PARSER_KEY, createRules(/* isGlobbed */ false), createListings());
+    Path cacheDirectory = root.resolve("buck-out/cache/build_files");
+    for (Path entry : Files.newDirectoryStream(cacheDirectory)) {
+      Files.write(entry, "not a key\n[{".getBytes(Charsets.UTF_8));
+    }
+
+    assertFalse(cache.get(buildFile, PARSER_KEY, createListings()).isPresent());
+  }
+
+  /** Each cache hashes files afresh, as it would in a new Buck process. */
+  private PersistentBuildFileCache createCache() {
+    hashCache = new DefaultFileHashCache(createFilesystem(), new TestConsole());
+    return new PersistentBuildFileCache(
+        createFilesystem(),
+        Paths.get("buck-out/cache/build_files"),
+        hashCache);
+  }
+
+  /** Nothing tells the listings about the files that the tests write, so each get fresh ones. */
+  private DirectoryListingCache createListings() {
+    return new DirectoryListingCache(createFilesystem());
+  }
+
+  private ProjectFilesystem createFilesystem() {
+    return new ProjectFilesystem(root, ImmutableSet.of(Paths.get("buck-out")));
+  }
+
+  private List<Map<String, Object>> createRules(boolean isGlobbed) {
+    return createRules(buildFile, isGlobbed);
+  }
+
+  private static void setLastAccessTime(Path path, long millis) throws IOException {
+    Files.getFileAttributeView(path, BasicFileAttributeView.class)
+        .setTimes(null, FileTime.fromMillis(millis), null);
+  }
+
+  /** @return rules as {@link BuildFileToJsonParser} would read them from buck.py. */
+  private List<Map<String, Object>> createRules(Path buildFile, boolean isGlobbed) {
+    Map<String, Object> rule = Maps.newHashMap();
+    rule.put("type", "java_library");
+    rule.put("name", buildFile.getParent().getFileName().toString());
+    rule.put("deps", Lists.newArrayList("//lib:lib"));
+    rule.put("source", null);
+    rule.put("exported", true);
+    rule.put("buck.base_path", buildFile.getParent().getFileName().toString());
+    Map<String, Object> metaRule = Maps.<String, Object>newHashMap(ImmutableMap.of(
+        "__includes", ImmutableList.of(buildFile.toString(), defs.toString()),
+        "__globs",
+        isGlobbed ? ImmutableList.of(GLOB_ARGS) : ImmutableList.<Map<String, Object>>of()));
+    List<Map<String, Object>> rules = Lists.newArrayList();
+    rules.add(rule);
+    rules.add(metaRule);
+    return rules;
+  }
+
+  /** Writes a file that is old enough to be cached, in a directory that is too. */
+  private Path writeFile(String name, String contents) throws IOException {
+    Path path = root.resolve(name);
+    Files.createDirectories(path.getParent());
+    Files.write(path, contents.getBytes(Charsets.UTF_8));
+    FileTime old = FileTime.fromMillis(System.currentTimeMillis() - 60000);
+    Files.setLastModifiedTime(path, old);
+    Files.setLastModifiedTime(path.getParent(), old);
+    return path;
+  }
+}
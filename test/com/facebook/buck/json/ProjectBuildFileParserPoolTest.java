@@ -0,0 +1,184 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.json;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.facebook.buck.rules.Description;
+import com.facebook.buck.testutil.TestConsole;
+import com.facebook.buck.util.Console;
+import com.facebook.buck.util.ProjectFilesystem;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListenableFuture;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+public class ProjectBuildFileParserPoolTest {
+
+  private ListeningExecutorService executorService;
+  private FakeProjectBuildFileParserFactory factory;
+
+  @Before
+  public void setUp() {
+    executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(8));
+    factory = new FakeProjectBuildFileParserFactory();
+  }
+
+  @After
+  public void tearDown() {
+    executorService.shutdownNow();
+  }
+
+  @Test
+  public void testBuildFilesAreParsedByAtMostTheMaximumNumberOfParsers() throws Exception {
+    final ProjectBuildFileParserPool pool = createPool(/* maxParsers */ 2);
+    List<ListenableFuture<List<Map<String, Object>>>> futures = Lists.newArrayList();
+    for (int i = 0; i < 32; i++) {
+      final Path buildFile = Paths.get("/project/" + i + "/BUCK");
+      futures.add(executorService.submit(new Callable<List<Map<String, Object>>>() {
+        @Override
+        public List<Map<String, Object>> call() throws Exception {
+          return pool.getAllRulesAndMetaRules(buildFile);
+        }
+      }));
+    }
+
+    for (int i = 0; i < futures.size(); i++) {
+      assertEquals(rulesFor(Paths.get("/project/" + i + "/BUCK")), futures.get(i).get());
+    }
+    assertTrue("No more than two build files should have been parsed at once.",
+        factory.maxConcurrentParses.get() <= 2);
+    assertEquals(2, factory.parsers.size());
+
+    pool.close();
+    for (FakeProjectBuildFileParser parser : factory.parsers) {
+      assertTrue(parser.isClosed);
+    }
+  }
+
+  @Test
+  public void testParserThatFailsIsReplaced() throws Exception {
+    ProjectBuildFileParserPool pool = createPool(/* maxParsers */ 1);
+    try {
+      pool.getAllRulesAndMetaRules(Paths.get("/project/broken/BUCK"));
+      fail("The broken build file should not have been parsed.");
+    } catch (BuildFileParseException e) {
+      assertTrue(factory.parsers.get(0).isClosed);
+    }
+
+    Path buildFile = Paths.get("/project/BUCK");
+    assertEquals(rulesFor(buildFile), pool.getAllRulesAndMetaRules(buildFile));
+    assertEquals(2, factory.parsers.size());
+    pool.close();
+  }
+
+  private ProjectBuildFileParserPool createPool(int maxParsers) {
+    return new ProjectBuildFileParserPool(factory,
+        ImmutableList.<String>of(),
+        EnumSet.noneOf(ProjectBuildFileParser.Option.class),
+        new TestConsole(),
+        maxParsers);
+  }
+
+  private static List<Map<String, Object>> rulesFor(Path buildFile) {
+    return ImmutableList.<Map<String, Object>>of(
+        ImmutableMap.<String, Object>of("name", buildFile.toString()),
+        ImmutableMap.<String, Object>of("__includes", ImmutableList.of(buildFile.toString())));
+  }
+
+  private static class FakeProjectBuildFileParserFactory
+      implements ProjectBuildFileParserFactory {
+    private final List<FakeProjectBuildFileParser> parsers =
+        Collections.synchronizedList(Lists.<FakeProjectBuildFileParser>newArrayList());
+    private final AtomicInteger concurrentParses = new AtomicInteger();
+    private final AtomicInteger maxConcurrentParses = new AtomicInteger();
+
+    @Override
+    public ProjectBuildFileParser createParser(
+        Iterable<String> commonIncludes,
+        EnumSet<ProjectBuildFileParser.Option> parseOptions,
+        Console console) {
+      FakeProjectBuildFileParser parser = new FakeProjectBuildFileParser(this);
+      parsers.add(parser);
+      return parser;
+    }
+  }
+
+  /** Returns canned rules for a build file, rather than running buck.py. */
+  private static class FakeProjectBuildFileParser extends ProjectBuildFileParser {
+    private final FakeProjectBuildFileParserFactory factory;
+    private volatile boolean isClosed;
+
+    public FakeProjectBuildFileParser(FakeProjectBuildFileParserFactory factory) {
+      super(new ProjectFilesystem(new File(".")),
+          ImmutableList.<String>of(),
+          "python",
+          ImmutableSet.<Description<?>>of(),
+          EnumSet.noneOf(ProjectBuildFileParser.Option.class),
+          new TestConsole());
+      this.factory = factory;
+    }
+
+    @Override
+    protected List<Map<String, Object>> getAllRulesInternal(Optional<Path> buildFile)
+        throws IOException {
+      int concurrentParses = factory.concurrentParses.incrementAndGet();
+      try {
+        synchronized (factory.maxConcurrentParses) {
+          factory.maxConcurrentParses.set(
+              Math.max(factory.maxConcurrentParses.get(), concurrentParses));
+        }
+        if (buildFile.get().toString().contains("broken")) {
+          throw new IOException("Syntax error.");
+        }
+        Thread.sleep(1);
+        return rulesFor(buildFile.get());
+      } catch (InterruptedException e) {
+        throw new IOException(e);
+      } finally {
+        factory.concurrentParses.decrementAndGet();
+      }
+    }
+
+    @Override
+    public void close() {
+      isClosed = true;
+    }
+  }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.model;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Maps;
+
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Measures how much heap the targets of a large project take when they are held onto the way the
+ * daemon holds onto them, with and without {@link BuildTarget#intern()}: every rule has a target
+ * of its own, plus one for each of its deps, which are parsed separately from their build files.
+ * <p>
+ * This is not run as part of the tests. Run it with the number of packages, rules per package and
+ * deps per rule as optional arguments:
+ * <pre>
+ *   java -cp build/classes:build/testclasses:lib/* \
+ *       com.facebook.buck.model.BuildTargetMemoryBenchmark [packages [rules [deps]]]
+ * </pre>
+ */
+public class BuildTargetMemoryBenchmark {
+
+  /** Utility class: do not instantiate. */
+  private BuildTargetMemoryBenchmark() {}
+
+  public static void main(String[] args) {
+    int numPackages = args.length > 0 ? Integer.parseInt(args[0]) : 10000;
+    int numRules = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+    int numDeps = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    System.out.printf("%d packages, %d rules each, %d deps per rule%n%n",
+        numPackages, numRules, numDeps);
+    System.out.printf("%-10s %14s %12s%n", "targets", "heap bytes", "parse ms");
+
+    for (boolean intern : new boolean[] {false, true}) {
+      long heapBefore = usedHeap();
+      long start = System.nanoTime();
+      Map<BuildTarget, ImmutableList<BuildTarget>> rules =
+          createRules(numPackages, numRules, numDeps, intern);
+      long parseMillis = (System.nanoTime() - start) / 1000000;
+      long heapBytes = usedHeap() - heapBefore;
+
+      System.out.printf("%-10s %14d %12d%n",
+          intern ? "interned" : "plain",
+          heapBytes,
+          parseMillis);
+      // Keep the rules reachable until the heap has been measured.
+      if (rules.isEmpty()) {
+        throw new AssertionError();
+      }
+    }
+  }
+
+  private static Map<BuildTarget, ImmutableList<BuildTarget>> createRules(
+      int numPackages,
+      int numRules,
+      int numDeps,
+      boolean intern) {
+    Random random = new Random(0);
+    Map<BuildTarget, ImmutableList<BuildTarget>> rules = Maps.newHashMap();
+    for (int i = 0; i < numPackages; i++) {
+      for (int j = 0; j < numRules; j++) {
+        BuildTarget target = createTarget(i, j, intern);
+        ImmutableList.Builder<BuildTarget> deps = ImmutableList.builder();
+        for (int k = 0; k < numDeps; k++) {
+          deps.add(createTarget(random.nextInt(numPackages), random.nextInt(numRules), intern));
+        }
+        rules.put(target, deps.build());
+      }
+    }
+    return rules;
+  }
+
+  /** Builds the names from scratch each time, as parsing them out of a build file would. */
+  private static BuildTarget createTarget(int packageIndex, int ruleIndex, boolean intern) {
+    BuildTarget target = new BuildTarget(
+        "//java/com/example/project/package" + packageIndex,
+        "rule" + ruleIndex);
+    return intern ? target.intern() : target;
+  }
+
+  private static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 5; i++) {
+      System.gc();
+    }
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+}
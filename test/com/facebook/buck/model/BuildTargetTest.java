@@ -18,6 +18,8 @@ package com.facebook.buck.model;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 
@@ -137,4 +139,31 @@ public class BuildTargetTest {
       assertEquals("Invalid flavor: ", e.getMessage());
     }
   }
+
+  @Test
+  public void testEqualTargetsInternToTheSameInstance() {
+    BuildTarget target = new BuildTarget("//foo/bar", "baz");
+    BuildTarget equalTarget = new BuildTarget("//foo/bar", "baz");
+    BuildTarget interned = target.intern();
+
+    assertNotSame(target, equalTarget);
+    assertSame(interned, equalTarget.intern());
+    assertSame(interned, interned.intern());
+    assertEquals(target, interned);
+    assertEquals(interned, equalTarget);
+    assertEquals(target.hashCode(), interned.hashCode());
+    assertEquals(0, interned.compareTo(target));
+  }
+
+  @Test
+  public void testInternedTargetsInTheSamePackageShareTheirBaseName() {
+    BuildTarget first = new BuildTarget(new String("//foo/bar"), "baz").intern();
+    BuildTarget second = new BuildTarget(new String("//foo/bar"), "qux").intern();
+    BuildTarget flavored = new BuildTarget(new String("//foo/bar"), "baz", "dex").intern();
+
+    assertSame(first.getBaseName(), second.getBaseName());
+    assertSame(first.getBaseName(), flavored.getBaseName());
+    assertFalse("Flavors should not be lost when interning.", first.equals(flavored));
+    assertEquals("//foo/bar:baz#dex", flavored.getFullyQualifiedName());
+  }
 }
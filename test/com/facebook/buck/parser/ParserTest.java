@@ -25,6 +25,7 @@ import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeTrue;
 
@@ -36,6 +37,7 @@ import com.facebook.buck.event.TestEventConfigerator;
 import com.facebook.buck.java.JavaLibraryDescription;
 import com.facebook.buck.json.BuildFileParseException;
 import com.facebook.buck.json.DefaultProjectBuildFileParserFactory;
+import com.facebook.buck.json.PersistentBuildFileCache;
 import com.facebook.buck.json.ProjectBuildFileParser;
 import com.facebook.buck.json.ProjectBuildFileParserFactory;
 import com.facebook.buck.model.BuildFileTree;
@@ -86,6 +88,7 @@ import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
+import java.util.Collections;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Map;
@@ -155,6 +158,15 @@ public class ParserTest extends EasyMockSupport {
     testParser = createParser(emptyBuildTargets(), testBuildFileParserFactory);
   }
 
+  private void writeGlobbingBuildFile() throws IOException {
+    Files.write(
+        "include_defs('//java/com/facebook/includedByBuildFile')\n" +
+        "java_library(name = 'foo', srcs = glob(['*.java']))\n" +
+        "java_library(name = 'bar')\n",
+        testBuildFile,
+        Charsets.UTF_8);
+  }
+
   private ProjectBuildFileParserFactory createDoNothingBuildFileParserFactory()
       throws BuildFileParseException {
     final ProjectBuildFileParser mockBuildFileParser = createMock(ProjectBuildFileParser.class);
@@ -204,7 +216,8 @@ public class ParserTest extends EasyMockSupport {
         knownBuildTargets,
         buildFileParserFactory,
         tempFilePatterns,
-        new FakeRuleKeyBuilderFactory());
+        new FakeRuleKeyBuilderFactory(),
+        /* numParserThreads */ 1);
   }
 
   /**
@@ -229,7 +242,9 @@ public class ParserTest extends EasyMockSupport {
         new TestConsole(),
         BuckTestConstant.PYTHON_INTERPRETER,
         tempFilePatterns,
-        new FakeRuleKeyBuilderFactory());
+        new FakeRuleKeyBuilderFactory(),
+        /* numParserThreads */ 1,
+        Optional.<PersistentBuildFileCache>absent());
 
     parser.parseRawRulesInternal(ruleObjects);
     RawRulePredicate predicate = alwaysTrue();
@@ -403,6 +418,127 @@ public class ParserTest extends EasyMockSupport {
     assertEquals("Should have returned all rules.", expectedTargets, targets);
   }
 
+  @Test
+  public void whenAllRulesAreParsedInParallelThenTheSameRulesAreReturned()
+      throws BuildFileParseException, BuildTargetException, IOException {
+    tempDir.newFolder("java", "com", "facebook", "other");
+    Files.write(
+        "java_library(name = 'baz')\n",
+        tempDir.newFile("java/com/facebook/other/" + BuckConstant.BUILD_RULES_FILE_NAME),
+        Charsets.UTF_8);
+    Parser parallelParser = new Parser(
+        filesystem,
+        buildRuleTypes,
+        new TestConsole(),
+        ofInstance(new FilesystemBackedBuildFileTree(filesystem)),
+        new BuildTargetParser(filesystem),
+        emptyBuildTargets(),
+        new DefaultProjectBuildFileParserFactory(
+            filesystem,
+            BuckTestConstant.PYTHON_INTERPRETER,
+            buildRuleTypes.getAllDescriptions()),
+        tempFilePatterns,
+        new FakeRuleKeyBuilderFactory(),
+        /* numParserThreads */ 2);
+
+    List<BuildTarget> targets = parallelParser.filterAllTargetsInProject(filesystem,
+        Lists.<String>newArrayList(),
+        alwaysTrue());
+
+    assertEquals("Should have returned the same rules as a single buck.py process.",
+        ImmutableSet.copyOf(testParser.filterAllTargetsInProject(filesystem,
+            Lists.<String>newArrayList(),
+            alwaysTrue())),
+        ImmutableSet.copyOf(targets));
+    assertEquals(3, targets.size());
+  }
+
+  @Test
+  public void whenTargetsAreLoadedInParallelThenTheirTransitiveDepsAreInTheGraph()
+      throws BuildFileParseException, BuildTargetException, IOException {
+    CannedProjectBuildFileParserFactory factory = new CannedProjectBuildFileParserFactory(
+        ImmutableMap.of(
+            "a", ImmutableList.of("//b:b"),
+            "b", ImmutableList.of("//c:c"),
+            "c", ImmutableList.<String>of()));
+
+    DependencyGraph graph = createParallelParser(factory).parseBuildFilesForTargets(
+        ImmutableList.of(BuildTargetFactory.newInstance("//a:a")),
+        ImmutableList.<String>of(),
+        BuckEventBusFactory.newInstance());
+
+    assertEquals(3, Iterables.size(graph.getNodes()));
+    assertNotNull(graph.findBuildRuleByTarget(BuildTargetFactory.newInstance("//c:c")));
+    assertEquals("Each build file should have been parsed once.",
+        ImmutableSet.of("a", "b", "c"),
+        ImmutableSet.copyOf(factory.parsedBuildFiles));
+    assertEquals(3, factory.parsedBuildFiles.size());
+  }
+
+  @Test
+  public void whenTargetsAreLoadedInParallelThenCyclesAreReportedAsBefore()
+      throws BuildFileParseException, BuildTargetException, IOException {
+    CannedProjectBuildFileParserFactory factory = new CannedProjectBuildFileParserFactory(
+        ImmutableMap.of(
+            "a", ImmutableList.of("//b:b"),
+            "b", ImmutableList.of("//a:a")));
+
+    try {
+      createParallelParser(factory).parseBuildFilesForTargets(
+          ImmutableList.of(BuildTargetFactory.newInstance("//a:a")),
+          ImmutableList.<String>of(),
+          BuckEventBusFactory.newInstance());
+      fail("A cycle should have been found.");
+    } catch (HumanReadableException e) {
+      assertEquals("Cycle found: //a:a -> //b:b -> //a:a", e.getHumanReadableErrorMessage());
+    }
+  }
+
+  @Test
+  public void whenABuildFileChangesThenOnlyItIsParsedAgainForAllTargets()
+      throws BuildFileParseException, BuildTargetException, IOException {
+    // Only the build files with canned rules should be in the project.
+    assertTrue(testBuildFile.delete());
+    CannedProjectBuildFileParserFactory factory = new CannedProjectBuildFileParserFactory(
+        ImmutableMap.of(
+            "a", ImmutableList.<String>of(),
+            "b", ImmutableList.<String>of()));
+    Parser parser = createParallelParser(factory);
+    parser.filterAllTargetsInProject(filesystem, ImmutableList.<String>of(), alwaysTrue());
+
+    parser.onFileSystemChange(
+        createPathEvent(new File("a/BUCK"), StandardWatchEventKinds.ENTRY_MODIFY));
+    List<BuildTarget> targets =
+        parser.filterAllTargetsInProject(filesystem, ImmutableList.<String>of(), alwaysTrue());
+
+    assertEquals(2, targets.size());
+    assertEquals(ImmutableList.of("a", "b", "a"), ImmutableList.copyOf(factory.parsedBuildFiles));
+  }
+
+  @Test
+  public void whenABuildFileIsAddedThenOnlyItIsParsedForAllTargets()
+      throws BuildFileParseException, BuildTargetException, IOException {
+    // Only the build files with canned rules should be in the project.
+    assertTrue(testBuildFile.delete());
+    CannedProjectBuildFileParserFactory factory = new CannedProjectBuildFileParserFactory(
+        ImmutableMap.of(
+            "a", ImmutableList.<String>of(),
+            "b", ImmutableList.<String>of()));
+    File buildFile = new File(tempDir.getRoot(), "b/BUCK");
+    assertTrue(buildFile.delete());
+    Parser parser = createParallelParser(factory);
+    parser.filterAllTargetsInProject(filesystem, ImmutableList.<String>of(), alwaysTrue());
+
+    assertTrue(buildFile.createNewFile());
+    parser.onFileSystemChange(
+        createPathEvent(new File("b/BUCK"), StandardWatchEventKinds.ENTRY_CREATE));
+    List<BuildTarget> targets =
+        parser.filterAllTargetsInProject(filesystem, ImmutableList.<String>of(), alwaysTrue());
+
+    assertEquals(2, targets.size());
+    assertEquals(ImmutableList.of("a", "b"), ImmutableList.copyOf(factory.parsedBuildFiles));
+  }
+
   @Test
   public void whenAllRulesRequestedWithFalseFilterThenNoRulesReturned()
       throws BuildFileParseException, BuildTargetException, IOException {
@@ -725,12 +861,12 @@ public class ParserTest extends EasyMockSupport {
   }
 
   @Test
-  // TODO(user): avoid invalidation when arbitrary contained (possibly backup) files are added.
-  public void whenNotifiedOfContainedFileAddThenCacheRulesAreInvalidated()
+  public void whenNotifiedOfContainedFileAddMatchingAGlobThenCacheRulesAreInvalidated()
       throws BuildFileParseException, BuildTargetException, IOException {
     TestProjectBuildFileParserFactory buildFileParserFactory =
         new TestProjectBuildFileParserFactory(filesystem, buildRuleTypes);
     Parser parser = createParser(emptyBuildTargets());
+    writeGlobbingBuildFile();
 
     // Call parseBuildFile to populate the cache.
     parseBuildFile(testBuildFile, parser, buildFileParserFactory);
@@ -747,6 +883,51 @@ public class ParserTest extends EasyMockSupport {
     assertEquals("Should have invalidated cache.", 2, buildFileParserFactory.calls);
   }
 
+  @Test
+  public void whenNotifiedOfContainedFileAddNotMatchingAnyGlobThenCacheRulesAreNotInvalidated()
+      throws BuildFileParseException, BuildTargetException, IOException {
+    TestProjectBuildFileParserFactory buildFileParserFactory =
+        new TestProjectBuildFileParserFactory(filesystem, buildRuleTypes);
+    Parser parser = createParser(emptyBuildTargets());
+    writeGlobbingBuildFile();
+
+    // Call parseBuildFile to populate the cache.
+    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+
+    // Process event.
+    WatchEvent<Path> event = createPathEvent(new File("java/com/facebook/README"),
+        StandardWatchEventKinds.ENTRY_CREATE);
+    parser.onFileSystemChange(event);
+
+    // Call parseBuildFile to request cached rules.
+    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+
+    // Test that the second parseBuildFile call did not repopulate the cache.
+    assertEquals("Should have not invalidated cache.", 1, buildFileParserFactory.calls);
+  }
+
+  @Test
+  public void whenNotifiedOfFileAddNextToBuildFileWithoutGlobsThenCacheRulesAreNotInvalidated()
+      throws BuildFileParseException, BuildTargetException, IOException {
+    TestProjectBuildFileParserFactory buildFileParserFactory =
+        new TestProjectBuildFileParserFactory(filesystem, buildRuleTypes);
+    Parser parser = createParser(emptyBuildTargets());
+
+    // Call parseBuildFile to populate the cache.
+    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+
+    // Process event.
+    WatchEvent<Path> event = createPathEvent(new File("java/com/facebook/SomeClass.java"),
+        StandardWatchEventKinds.ENTRY_CREATE);
+    parser.onFileSystemChange(event);
+
+    // Call parseBuildFile to request cached rules.
+    parseBuildFile(testBuildFile, parser, buildFileParserFactory);
+
+    // Test that the second parseBuildFile call did not repopulate the cache.
+    assertEquals("Should have not invalidated cache.", 1, buildFileParserFactory.calls);
+  }
+
   @Test
   public void whenNotifiedOfContainedFileChangeThenCacheRulesAreNotInvalidated()
       throws BuildFileParseException, BuildTargetException, IOException {
@@ -770,12 +951,12 @@ public class ParserTest extends EasyMockSupport {
   }
 
   @Test
-  // TODO(user): avoid invalidation when arbitrary contained (possibly backup) files are deleted.
-  public void whenNotifiedOfContainedFileDeleteThenCacheRulesAreInvalidated()
+  public void whenNotifiedOfContainedFileDeleteMatchingAGlobThenCacheRulesAreInvalidated()
       throws BuildFileParseException, BuildTargetException, IOException {
     TestProjectBuildFileParserFactory buildFileParserFactory =
         new TestProjectBuildFileParserFactory(filesystem, buildRuleTypes);
     Parser parser = createParser(emptyBuildTargets());
+    writeGlobbingBuildFile();
 
     // Call parseBuildFile to populate the cache.
     parseBuildFile(testBuildFile, parser, buildFileParserFactory);
@@ -1187,6 +1368,69 @@ public class ParserTest extends EasyMockSupport {
     }
   }
 
+  private Parser createParallelParser(ProjectBuildFileParserFactory buildFileParserFactory) {
+    return new Parser(
+        filesystem,
+        buildRuleTypes,
+        new TestConsole(),
+        ofInstance(new FilesystemBackedBuildFileTree(filesystem)),
+        new BuildTargetParser(filesystem),
+        emptyBuildTargets(),
+        buildFileParserFactory,
+        tempFilePatterns,
+        new FakeRuleKeyBuilderFactory(),
+        /* numParserThreads */ 2);
+  }
+
+  /**
+   * Creates parsers that return a {@code java_library} with the given deps for the build file in
+   * each given directory, rather than running buck.py.
+   */
+  private class CannedProjectBuildFileParserFactory implements ProjectBuildFileParserFactory {
+    private final ImmutableMap<String, ImmutableList<String>> depsByBasePath;
+    private final List<String> parsedBuildFiles =
+        Collections.synchronizedList(Lists.<String>newArrayList());
+
+    public CannedProjectBuildFileParserFactory(
+        ImmutableMap<String, ImmutableList<String>> depsByBasePath) throws IOException {
+      this.depsByBasePath = depsByBasePath;
+      for (String basePath : depsByBasePath.keySet()) {
+        tempDir.newFolder(basePath);
+        tempDir.newFile(basePath + "/" + BuckConstant.BUILD_RULES_FILE_NAME);
+      }
+    }
+
+    @Override
+    public ProjectBuildFileParser createParser(
+        Iterable<String> commonIncludes,
+        EnumSet<ProjectBuildFileParser.Option> parseOptions,
+        Console console) {
+      return new ProjectBuildFileParser(
+          filesystem,
+          commonIncludes,
+          "python",
+          buildRuleTypes.getAllDescriptions(),
+          parseOptions,
+          console) {
+        @Override
+        protected List<Map<String, Object>> getAllRulesInternal(Optional<Path> buildFile) {
+          String basePath =
+              filesystem.getRootPath().relativize(buildFile.get().getParent()).toString();
+          parsedBuildFiles.add(basePath);
+          return ImmutableList.<Map<String, Object>>of(
+              ImmutableMap.<String, Object>of(
+                  "type", "java_library",
+                  "name", basePath,
+                  "deps", depsByBasePath.get(basePath),
+                  "visibility", ImmutableList.of("PUBLIC"),
+                  "buck.base_path", basePath),
+              ImmutableMap.<String, Object>of(
+                  "__includes", ImmutableList.of(buildFile.get().toString())));
+        }
+      };
+    }
+  }
+
   /**
    * Analogue to {@link Suppliers#ofInstance(Object)}.
    */
@@ -0,0 +1,126 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import com.facebook.buck.util.BuckConstant;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import java.io.IOException;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link ArtifactCodec}s on real rule outputs: for each codec and level, prints the
+ * total bytes that would go over the wire to a remote cache, and the time it takes to decode them.
+ * <p>
+ * This is not run as part of the tests. Build something first, then run it with the files or
+ * directories to measure as arguments, or with no arguments to measure everything under
+ * buck-out/gen. The artifacts that are actually sent are the zips that a {@code dir} cache keeps
+ * under buck-cache, so pointing this at a populated buck-cache gives the most faithful numbers:
+ * <pre>
+ *   java -cp build/classes:build/testclasses:lib/*:third-party/java/xz-java-1.3/xz-1.3.jar \
+ *       com.facebook.buck.rules.ArtifactCodecBenchmark [file...]
+ * </pre>
+ */
+public class ArtifactCodecBenchmark {
+
+  private static final int DECODE_ITERATIONS = 5;
+
+  private static final ImmutableList<ArtifactEncoding> ENCODINGS = ImmutableList.of(
+      new ArtifactEncoding(ArtifactCodec.STORE, 0),
+      new ArtifactEncoding(ArtifactCodec.DEFLATE, 1),
+      new ArtifactEncoding(ArtifactCodec.DEFLATE, 6),
+      new ArtifactEncoding(ArtifactCodec.DEFLATE, 9),
+      new ArtifactEncoding(ArtifactCodec.XZ, 3),
+      new ArtifactEncoding(ArtifactCodec.XZ, 6));
+
+  /** Utility class: do not instantiate. */
+  private ArtifactCodecBenchmark() {}
+
+  public static void main(String[] args) throws IOException {
+    List<byte[]> artifacts = readArtifacts(args.length == 0 ?
+        ImmutableList.of(Paths.get(BuckConstant.GEN_DIR)) :
+        Lists.transform(ImmutableList.copyOf(args), new Function<String, Path>() {
+          @Override
+          public Path apply(String input) {
+            return Paths.get(input);
+          }
+        }));
+
+    long rawBytes = 0;
+    for (byte[] artifact : artifacts) {
+      rawBytes += artifact.length;
+    }
+    System.out.printf("%d artifacts, %d bytes%n%n", artifacts.size(), rawBytes);
+    System.out.printf("%-10s %6s %14s %8s %14s %10s%n",
+        "codec", "level", "wire bytes", "ratio", "encode ms", "decode ms");
+
+    for (ArtifactEncoding encoding : ENCODINGS) {
+      List<byte[]> encodedArtifacts = Lists.newArrayListWithCapacity(artifacts.size());
+      long wireBytes = 0;
+      long encodeStart = System.nanoTime();
+      for (byte[] artifact : artifacts) {
+        byte[] encoded = encoding.encode(artifact);
+        encodedArtifacts.add(encoded);
+        wireBytes += encoded.length;
+      }
+      long encodeNanos = System.nanoTime() - encodeStart;
+
+      // Take the fastest of several runs, so that the JIT has warmed up.
+      long decodeNanos = Long.MAX_VALUE;
+      for (int i = 0; i < DECODE_ITERATIONS; i++) {
+        long decodeStart = System.nanoTime();
+        for (byte[] encoded : encodedArtifacts) {
+          ArtifactEncoding.decode(encoded);
+        }
+        decodeNanos = Math.min(decodeNanos, System.nanoTime() - decodeStart);
+      }
+
+      System.out.printf("%-10s %6d %14d %8.3f %14d %10d%n",
+          encoding.getCodec().toString().toLowerCase(),
+          encoding.getLevel(),
+          wireBytes,
+          rawBytes == 0 ? 1.0 : (double) wireBytes / rawBytes,
+          TimeUnit.NANOSECONDS.toMillis(encodeNanos),
+          TimeUnit.NANOSECONDS.toMillis(decodeNanos));
+    }
+  }
+
+  private static List<byte[]> readArtifacts(Iterable<Path> paths) throws IOException {
+    final List<byte[]> artifacts = Lists.newArrayList();
+    for (Path path : paths) {
+      Files.walkFileTree(path, new SimpleFileVisitor<Path>() {
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+          if (attrs.isRegularFile()) {
+            artifacts.add(Files.readAllBytes(file));
+          }
+          return FileVisitResult.CONTINUE;
+        }
+      });
+    }
+    return artifacts;
+  }
+}
@@ -0,0 +1,124 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Strings;
+import com.google.common.io.ByteStreams;
+
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.Random;
+
+public class ArtifactEncodingTest {
+
+  private static final byte[] COMPRESSIBLE =
+      Strings.repeat("The same line, over and over.\n", 1000).getBytes(Charsets.UTF_8);
+
+  @Test
+  public void testEveryCodecRoundTrips() throws IOException {
+    for (ArtifactCodec codec : ArtifactCodec.values()) {
+      byte[] encoded = new ArtifactEncoding(codec, codec.getDefaultLevel()).encode(COMPRESSIBLE);
+      assertArrayEquals(codec.toString(), COMPRESSIBLE, ArtifactEncoding.decode(encoded));
+    }
+  }
+
+  @Test
+  public void testEveryCodecRoundTripsThroughAStream() throws IOException {
+    for (ArtifactCodec codec : ArtifactCodec.values()) {
+      byte[] encoded = new ArtifactEncoding(codec, codec.getDefaultLevel()).encode(COMPRESSIBLE);
+      try (InputStream decoded = ArtifactEncoding.decode(new ByteArrayInputStream(encoded))) {
+        assertArrayEquals(codec.toString(), COMPRESSIBLE, ByteStreams.toByteArray(decoded));
+      }
+    }
+  }
+
+  @Test
+  public void testCompressibleArtifactIsSmallerOnTheWire() throws IOException {
+    byte[] encoded = new ArtifactEncoding(ArtifactCodec.DEFLATE, 6).encode(COMPRESSIBLE);
+    assertTrue(encoded.length < COMPRESSIBLE.length / 10);
+  }
+
+  @Test
+  public void testIncompressibleArtifactIsStored() throws IOException {
+    byte[] random = new byte[4096];
+    new Random(0).nextBytes(random);
+
+    byte[] encoded = new ArtifactEncoding(ArtifactCodec.XZ, 6).encode(random);
+
+    byte[] stored = new ArtifactEncoding(ArtifactCodec.STORE, 0).encode(random);
+    assertArrayEquals("Compressing random bytes does not pay, so they should be stored.",
+        stored,
+        encoded);
+    assertArrayEquals(random, ArtifactEncoding.decode(encoded));
+  }
+
+  @Test
+  public void testLargeArtifactThatIsAlreadyCompressedIsStored() throws IOException {
+    // Like an APK or a jar: compressed data that is far larger than the sample that is probed.
+    byte[] compressed = new byte[1024 * 1024];
+    new Random(0).nextBytes(compressed);
+
+    byte[] encoded = new ArtifactEncoding(ArtifactCodec.XZ, 6).encode(compressed);
+
+    assertArrayEquals(new ArtifactEncoding(ArtifactCodec.STORE, 0).encode(compressed), encoded);
+    assertArrayEquals(compressed, ArtifactEncoding.decode(encoded));
+  }
+
+  @Test
+  public void testArtifactThatBarelyCompressesIsStored() throws IOException {
+    byte[] artifact = new byte[4096];
+    new Random(0).nextBytes(artifact);
+    // The zeros compress to almost nothing, but they are too small a part of the artifact.
+    Arrays.fill(artifact, 0, 128, (byte) 0);
+
+    byte[] encoded = new ArtifactEncoding(ArtifactCodec.DEFLATE, 9).encode(artifact);
+
+    assertArrayEquals(new ArtifactEncoding(ArtifactCodec.STORE, 0).encode(artifact), encoded);
+  }
+
+  @Test
+  public void testArtifactWithoutHeaderIsDecodedAsItIs() throws IOException {
+    byte[] zip = {'P', 'K', 3, 4, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0};
+    assertArrayEquals(zip, ArtifactEncoding.decode(zip));
+    assertArrayEquals(zip,
+        ByteStreams.toByteArray(ArtifactEncoding.decode(new ByteArrayInputStream(zip))));
+  }
+
+  @Test(expected = IOException.class)
+  public void testTruncatedArtifactCannotBeDecoded() throws IOException {
+    byte[] encoded = new ArtifactEncoding(ArtifactCodec.DEFLATE, 6).encode(COMPRESSIBLE);
+    ArtifactEncoding.decode(Arrays.copyOf(encoded, encoded.length - 10));
+  }
+
+  @Test
+  public void testCodecIdsAreStable() throws IOException {
+    // The ids are part of the format of artifacts that are already in remote caches.
+    assertEquals(0, ArtifactCodec.STORE.getId());
+    assertEquals(1, ArtifactCodec.DEFLATE.getId());
+    assertEquals(2, ArtifactCodec.XZ.getId());
+    assertEquals(ArtifactCodec.XZ, ArtifactCodec.fromId(2));
+  }
+}
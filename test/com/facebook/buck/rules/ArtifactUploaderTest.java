@@ -0,0 +1,258 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.easymock.IAnswer;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+public class ArtifactUploaderTest {
+
+  private static final RuleKey RULE_KEY_X = new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+  private static final RuleKey RULE_KEY_Y = new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+  private static final RuleKey RULE_KEY_Z = new RuleKey("cccccccccccccccccccccccccccccccccccccccc");
+
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+
+  @Test
+  public void testSynchronousUploaderUploadsOnCallingThread() throws IOException {
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    StoringArtifactCache artifactCache = new StoringArtifactCache();
+    BuildInfoRecorder recorder = createRecorder(RULE_KEY_X, 4096L, eventBus);
+    replay(recorder);
+
+    try (ArtifactUploader uploader = ArtifactUploader.createSynchronousUploader()) {
+      uploader.upload(recorder, artifactCache, eventBus);
+      verify(recorder);
+      assertEquals(ImmutableList.of(ImmutableSet.of(RULE_KEY_X)), artifactCache.batches);
+    }
+  }
+
+  @Test
+  public void testNothingIsUploadedWhenStoreIsNotSupported() throws IOException {
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    BuildInfoRecorder recorder = createMock(BuildInfoRecorder.class);
+    replay(recorder);
+
+    try (ArtifactUploader uploader = ArtifactUploader.createSynchronousUploader()) {
+      uploader.upload(recorder, new NoopArtifactCache(), eventBus);
+    }
+    verify(recorder);
+  }
+
+  @Test
+  public void testArtifactSizeIsClampedToTheBudget() {
+    ArtifactUploader uploader = new ArtifactUploader(
+        MoreExecutors.sameThreadExecutor(),
+        /* maxInFlightBytes */ 10 * 1024,
+        /* maxBatchSize */ 1);
+
+    assertEquals(1, uploader.getPermitsFor(0));
+    assertEquals(1, uploader.getPermitsFor(1));
+    assertEquals(2, uploader.getPermitsFor(1025));
+    assertEquals(10, uploader.getPermitsFor(1024 * 1024));
+  }
+
+  @Test
+  public void testUploadsRunInBackgroundAndDrain() throws InterruptedException, IOException {
+    final BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    final ArtifactCache artifactCache = new StoringArtifactCache();
+    final CountDownLatch uploadStarted = new CountDownLatch(1);
+    final CountDownLatch allowUploadToFinish = new CountDownLatch(1);
+
+    BuildInfoRecorder recorder = createMock(BuildInfoRecorder.class);
+    expect(recorder.getOutputSizeBytes()).andReturn(4096L);
+    expect(recorder.getRuleKey()).andStubReturn(RULE_KEY_X);
+    expect(recorder.createZipForArtifactCache(eventBus)).andAnswer(new IAnswer<Optional<File>>() {
+      @Override
+      public Optional<File> answer() throws Throwable {
+        uploadStarted.countDown();
+        allowUploadToFinish.await();
+        return Optional.of(createZip());
+      }
+    });
+    replay(recorder);
+
+    ListeningExecutorService executor =
+        MoreExecutors.listeningDecorator(Executors.newSingleThreadExecutor());
+    ArtifactUploader uploader = new ArtifactUploader(executor,
+        /* maxInFlightBytes */ 8 * 1024,
+        /* maxBatchSize */ 4);
+
+    // The upload blocks in the background, but upload() itself returns straight away.
+    uploader.upload(recorder, artifactCache, eventBus);
+    assertTrue(uploadStarted.await(5, TimeUnit.SECONDS));
+    assertEquals("The in-flight upload should hold its share of the budget.",
+        4,
+        uploader.getAvailableBudgetPermits());
+
+    allowUploadToFinish.countDown();
+    uploader.close();
+
+    verify(recorder);
+    assertEquals(8, uploader.getAvailableBudgetPermits());
+    assertTrue(executor.isShutdown());
+  }
+
+  @Test
+  public void testUploadBlocksWhenBudgetIsExhausted() throws InterruptedException, IOException {
+    final BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    final ArtifactCache artifactCache = new StoringArtifactCache();
+    final CountDownLatch allowFirstUploadToFinish = new CountDownLatch(1);
+
+    BuildInfoRecorder first = createMock(BuildInfoRecorder.class);
+    expect(first.getOutputSizeBytes()).andReturn(Long.MAX_VALUE);
+    expect(first.getRuleKey()).andStubReturn(RULE_KEY_X);
+    expect(first.createZipForArtifactCache(eventBus)).andAnswer(new IAnswer<Optional<File>>() {
+      @Override
+      public Optional<File> answer() throws Throwable {
+        allowFirstUploadToFinish.await();
+        return Optional.of(createZip());
+      }
+    });
+    final BuildInfoRecorder second = createRecorder(RULE_KEY_Y, 1L, eventBus);
+    replay(first, second);
+
+    final ArtifactUploader uploader = new ArtifactUploader(
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2)),
+        /* maxInFlightBytes */ 1024,
+        /* maxBatchSize */ 4);
+    uploader.upload(first, artifactCache, eventBus);
+
+    final CountDownLatch secondUploadScheduled = new CountDownLatch(1);
+    Thread buildThread = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        uploader.upload(second, artifactCache, eventBus);
+        secondUploadScheduled.countDown();
+      }
+    });
+    buildThread.start();
+
+    assertFalse("The second upload must wait for the first to release the budget.",
+        secondUploadScheduled.await(100, TimeUnit.MILLISECONDS));
+    allowFirstUploadToFinish.countDown();
+    assertTrue(secondUploadScheduled.await(5, TimeUnit.SECONDS));
+    buildThread.join();
+
+    uploader.close();
+    verify(first, second);
+  }
+
+  @Test
+  public void testArtifactsAreStoredInBatches() throws InterruptedException, IOException {
+    final BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    StoringArtifactCache artifactCache = new StoringArtifactCache();
+    final CountDownLatch allowFirstZipToFinish = new CountDownLatch(1);
+
+    // The first artifact is still being zipped while the others are, so the others wait for it.
+    BuildInfoRecorder first = createMock(BuildInfoRecorder.class);
+    expect(first.getOutputSizeBytes()).andReturn(1L);
+    expect(first.getRuleKey()).andStubReturn(RULE_KEY_X);
+    expect(first.createZipForArtifactCache(eventBus)).andAnswer(new IAnswer<Optional<File>>() {
+      @Override
+      public Optional<File> answer() throws Throwable {
+        allowFirstZipToFinish.await();
+        return Optional.of(createZip());
+      }
+    });
+    BuildInfoRecorder second = createRecorder(RULE_KEY_Y, 1L, eventBus);
+    BuildInfoRecorder third = createRecorder(RULE_KEY_Z, 1L, eventBus);
+    replay(first, second, third);
+
+    ArtifactUploader uploader = new ArtifactUploader(
+        MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(2)),
+        /* maxInFlightBytes */ 1024 * 1024,
+        /* maxBatchSize */ 2);
+    uploader.upload(first, artifactCache, eventBus);
+    uploader.upload(second, artifactCache, eventBus);
+    uploader.upload(third, artifactCache, eventBus);
+    allowFirstZipToFinish.countDown();
+    uploader.close();
+
+    verify(first, second, third);
+    assertEquals(2, artifactCache.batches.size());
+    assertEquals(2, artifactCache.batches.get(0).size());
+    assertEquals(
+        ImmutableSet.of(RULE_KEY_X, RULE_KEY_Y, RULE_KEY_Z),
+        ImmutableSet.copyOf(Iterables.concat(artifactCache.batches)));
+    assertEquals(1024, uploader.getAvailableBudgetPermits());
+  }
+
+  private BuildInfoRecorder createRecorder(
+      RuleKey ruleKey,
+      long outputSizeBytes,
+      BuckEventBus eventBus) throws IOException {
+    BuildInfoRecorder recorder = createMock(BuildInfoRecorder.class);
+    expect(recorder.getOutputSizeBytes()).andReturn(outputSizeBytes);
+    expect(recorder.getRuleKey()).andStubReturn(ruleKey);
+    expect(recorder.createZipForArtifactCache(eventBus)).andReturn(Optional.of(createZip()));
+    return recorder;
+  }
+
+  private File createZip() throws IOException {
+    return tmp.newFile();
+  }
+
+  /**
+   * A cache that claims to accept artifacts so that uploads are not skipped, and records the rule
+   * keys of each batch that it is asked to store.
+   */
+  private static class StoringArtifactCache extends NoopArtifactCache {
+    private final List<ImmutableSet<RuleKey>> batches =
+        Collections.synchronizedList(Lists.<ImmutableSet<RuleKey>>newArrayList());
+
+    @Override
+    public boolean isStoreSupported() {
+      return true;
+    }
+
+    @Override
+    public void storeAll(Map<RuleKey, File> outputs) {
+      batches.add(ImmutableSet.copyOf(outputs.keySet()));
+    }
+  }
+}
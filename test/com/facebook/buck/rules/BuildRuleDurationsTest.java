@@ -0,0 +1,87 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+
+import com.facebook.buck.graph.MutableDirectedGraph;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+public class BuildRuleDurationsTest {
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path durationsFile;
+
+  @Before
+  public void setUp() {
+    durationsFile = tmp.getRoot().toPath().resolve("buck-out/log/rule_durations");
+  }
+
+  @Test
+  public void testDurationsSurviveSaveAndLoad() throws IOException {
+    BuildRule rule = createRule("//foo:a");
+    BuildRuleDurations durations = BuildRuleDurations.load(durationsFile);
+    durations.recordDurationMillis(rule.getFullyQualifiedName(), 400);
+    durations.recordDurationMillis(rule.getFullyQualifiedName(), 200);
+    durations.save();
+
+    BuildRuleDurations reloaded = BuildRuleDurations.load(durationsFile);
+    assertEquals(Optional.of(300L), reloaded.getDurationMillis(rule.getBuildTarget()));
+  }
+
+  @Test
+  public void testCriticalPathIncludesTheLongestChainOfDependents() {
+    BuildRule a = createRule("//foo:a");
+    BuildRule b = createRule("//foo:b");
+    BuildRule c = createRule("//foo:c");
+    BuildRule d = createRule("//foo:d");
+    MutableDirectedGraph<BuildRule> graph = new MutableDirectedGraph<>();
+    graph.addEdge(b, a);
+    graph.addEdge(c, a);
+    graph.addEdge(d, b);
+
+    BuildRuleDurations durations = BuildRuleDurations.load(durationsFile);
+    durations.recordDurationMillis(d.getFullyQualifiedName(), 1000);
+    durations.recordDurationMillis(c.getFullyQualifiedName(), 500);
+
+    long defaultDuration = BuildRuleDurations.DEFAULT_DURATION_MILLIS;
+    assertEquals(
+        ImmutableMap.of(
+            a.getBuildTarget(), defaultDuration + defaultDuration + 1000,
+            b.getBuildTarget(), defaultDuration + 1000,
+            c.getBuildTarget(), 500L,
+            d.getBuildTarget(), 1000L),
+        durations.getCriticalPathLengths(new DependencyGraph(graph)));
+  }
+
+  private static BuildRule createRule(String target) {
+    return new FakeBuildRule(new BuildRuleType("fake"), BuildTargetFactory.newInstance(target));
+  }
+
+}
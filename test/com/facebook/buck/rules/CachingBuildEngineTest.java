@@ -43,6 +43,7 @@ import com.facebook.buck.model.HasBuildTarget;
 import com.facebook.buck.step.AbstractExecutionStep;
 import com.facebook.buck.step.DefaultStepRunner;
 import com.facebook.buck.step.ExecutionContext;
+import com.facebook.buck.step.ResourcePool;
 import com.facebook.buck.step.Step;
 import com.facebook.buck.step.StepFailedException;
 import com.facebook.buck.step.StepRunner;
@@ -72,9 +73,9 @@ import org.junit.Rule;
 import org.junit.Test;
 import org.junit.rules.TemporaryFolder;
 
-import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
@@ -205,15 +206,14 @@ public class CachingBuildEngineTest extends EasyMockSupport {
             capture(ruleKeyForRecorder),
             /* ruleKeyWithoutDepsForRecorder */ anyObject(RuleKey.class)))
         .andReturn(buildInfoRecorder);
-    expect(buildInfoRecorder.fetchArtifactForBuildable(
-            anyObject(File.class),
-            eq(artifactCache)))
-        .andReturn(CacheResult.MISS);
+    expect(buildInfoRecorder.fetchArtifactStreamForBuildable(eq(artifactCache)))
+        .andReturn(Optional.<CachedArtifactInputStream>absent());
 
     // Set the requisite expectations to build the rule.
     expect(context.getEventBus()).andReturn(buckEventBus).anyTimes();
     context.logBuildInfo("[BUILDING %s]", "//src/com/facebook/orca:orca");
     expect(context.getStepRunner()).andReturn(createSameThreadStepRunner()).anyTimes();
+    expect(context.getPriority(anyObject(BuildRule.class))).andReturn(0L).anyTimes();
 
     expect(dep.getBuildTarget()).andStubReturn(depTarget);
     CachingBuildEngine cachingBuildEngine = new CachingBuildEngine();
@@ -235,7 +235,9 @@ public class CachingBuildEngineTest extends EasyMockSupport {
     // These methods should be invoked after the rule is built locally.
     buildInfoRecorder.recordArtifact(Paths.get(pathToOutputFile));
     buildInfoRecorder.writeMetadataToDisk(/* clearExistingMetadata */ true);
-    buildInfoRecorder.performUploadToArtifactCache(artifactCache, buckEventBus);
+    ArtifactUploader artifactUploader = createMock(ArtifactUploader.class);
+    expect(context.getArtifactUploader()).andReturn(artifactUploader);
+    artifactUploader.upload(buildInfoRecorder, artifactCache, buckEventBus);
 
     // Attempting to build the rule should force a rebuild due to a cache miss.
     replayAll();
@@ -297,6 +299,11 @@ public class CachingBuildEngineTest extends EasyMockSupport {
       public CacheResult fetch(RuleKey ruleKey, File output) {
         throw new RuntimeException("Artifact cache must not be accessed while building the rule.");
       }
+
+      @Override
+      public Optional<CachedArtifactInputStream> fetchStream(RuleKey ruleKey) {
+        throw new RuntimeException("Artifact cache must not be accessed while building the rule.");
+      }
     };
 
     BuckEventBus eventBus = BuckEventBusFactory.newInstance();
@@ -379,6 +386,7 @@ public class CachingBuildEngineTest extends EasyMockSupport {
 
     expect(buildContext.createOnDiskBuildInfoFor(buildTarget)).andReturn(onDiskBuildInfo);
     expect(buildContext.getStepRunner()).andReturn(createSameThreadStepRunner());
+    expect(buildContext.getPriority(anyObject(BuildRule.class))).andReturn(0L).anyTimes();
     expect(buildContext.getEventBus()).andReturn(buckEventBus).anyTimes();
 
     replayAll();
@@ -411,6 +419,9 @@ public class CachingBuildEngineTest extends EasyMockSupport {
 
     ExecutionContext executionContext = createMock(ExecutionContext.class);
     expect(executionContext.getVerbosity()).andReturn(Verbosity.SILENT).anyTimes();
+    expect(executionContext.getResourcePool())
+        .andReturn(ResourcePool.createUnlimited())
+        .anyTimes();
     executionContext.postEvent(anyObject(BuckEvent.class));
     expectLastCall().anyTimes();
     return new DefaultStepRunner(
@@ -437,6 +448,8 @@ public class CachingBuildEngineTest extends EasyMockSupport {
     buildContext.logBuildInfo(anyObject(String.class), anyObject());
     expectLastCall().asStub();
     expect(buildContext.getStepRunner()).andStubReturn(null);
+    expect(buildContext.getArtifactUploader())
+        .andStubReturn(ArtifactUploader.createSynchronousUploader());
 
     BuildInfoRecorder buildInfoRecorder = createMock(BuildInfoRecorder.class);
     expect(buildContext.createBuildInfoRecorder(
@@ -445,8 +458,8 @@ public class CachingBuildEngineTest extends EasyMockSupport {
            /* ruleKeyWithoutDeps */ anyObject(RuleKey.class)))
         .andReturn(buildInfoRecorder);
 
-    expect(buildInfoRecorder.fetchArtifactForBuildable(anyObject(File.class), eq(artifactCache)))
-        .andReturn(CacheResult.MISS);
+    expect(buildInfoRecorder.fetchArtifactStreamForBuildable(eq(artifactCache)))
+        .andReturn(Optional.<CachedArtifactInputStream>absent());
 
     // Populate the metadata that should be read from disk.
     OnDiskBuildInfo onDiskBuildInfo = new FakeOnDiskBuildInfo();
@@ -461,6 +474,7 @@ public class CachingBuildEngineTest extends EasyMockSupport {
 
     expect(buildContext.createOnDiskBuildInfoFor(buildTarget)).andReturn(onDiskBuildInfo);
     expect(buildContext.getStepRunner()).andReturn(createSameThreadStepRunner());
+    expect(buildContext.getPriority(anyObject(BuildRule.class))).andReturn(0L).anyTimes();
     expect(buildContext.getEventBus()).andReturn(buckEventBus).anyTimes();
 
     replayAll();
@@ -519,11 +533,10 @@ public class CachingBuildEngineTest extends EasyMockSupport {
     Map<String, String> desiredZipEntries = ImmutableMap.of(
         "buck-out/gen/src/com/facebook/orca/orca.jar",
         "Imagine this is the contents of a valid JAR file.");
-    expect(
-        artifactCache.fetch(
-            eq(buildRule.getRuleKey()),
-            capture(new CaptureThatWritesAZipFile(desiredZipEntries))))
-        .andReturn(CacheResult.DIR_HIT);
+    expect(artifactCache.fetchStream(eq(buildRule.getRuleKey())))
+        .andReturn(Optional.of(new CachedArtifactInputStream(
+            new ByteArrayInputStream(createZip(desiredZipEntries)),
+            CacheResult.DIR_HIT)));
 
     BuckEventBus buckEventBus = BuckEventBusFactory.newInstance();
     BuildContext buildContext = BuildContext.builder()
@@ -798,47 +811,20 @@ public class CachingBuildEngineTest extends EasyMockSupport {
   }
 
   /**
-   * Subclass of {@link Capture} that, when its {@link File} value is set, takes the location of
-   * that {@link File} and writes a zip file there with the entries specified to the constructor of
-   * {@link CaptureThatWritesAZipFile}.
-   * <p>
-   * This makes it possible to capture a call to {@link ArtifactCache#store(RuleKey, File)} and
-   * ensure that there will be a zip file in place immediately after the captured method has been
-   * invoked.
+   * @return the bytes of a zip file with the entries specified by {@code desiredEntries}, suitable
+   *     for returning from {@link ArtifactCache#fetchStream(RuleKey)}.
    */
-  @SuppressWarnings("serial")
-  private static class CaptureThatWritesAZipFile extends Capture<File> {
-
-    private final Map<String, String> desiredEntries;
-
-    public CaptureThatWritesAZipFile(Map<String, String> desiredEntries) {
-      this.desiredEntries = ImmutableMap.copyOf(desiredEntries);
-    }
-
-    @Override
-    public void setValue(File file) {
-      super.setValue(file);
-
-      // This must have the side-effect of writing a zip file in the specified place.
-      try {
-        writeEntries(file);
-      } catch (IOException e) {
-        throw new RuntimeException(e);
-      }
-    }
-
-    private void writeEntries(File file) throws IOException {
-      try (ZipOutputStream zip = new ZipOutputStream(
-          new BufferedOutputStream(
-              new FileOutputStream(file)))) {
-        for (Map.Entry<String, String> mapEntry : desiredEntries.entrySet()) {
-          ZipEntry entry = new ZipEntry(mapEntry.getKey());
-          zip.putNextEntry(entry);
-          zip.write(mapEntry.getValue().getBytes());
-          zip.closeEntry();
-        }
+  private static byte[] createZip(Map<String, String> desiredEntries) throws IOException {
+    ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ZipOutputStream zip = new ZipOutputStream(bytes)) {
+      for (Map.Entry<String, String> mapEntry : desiredEntries.entrySet()) {
+        ZipEntry entry = new ZipEntry(mapEntry.getKey());
+        zip.putNextEntry(entry);
+        zip.write(mapEntry.getValue().getBytes());
+        zip.closeEntry();
       }
     }
+    return bytes.toByteArray();
   }
 
   /**
@@ -19,13 +19,20 @@ package com.facebook.buck.rules;
 import static org.easymock.EasyMock.createMock;
 import static org.easymock.EasyMock.replay;
 import static org.easymock.EasyMock.verify;
+import static org.junit.Assert.assertEquals;
 
 import com.facebook.buck.event.BuckEventBus;
+import com.google.common.base.Optional;
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableMap;
 import com.netflix.astyanax.AstyanaxContext;
 import com.netflix.astyanax.Keyspace;
 
 import org.junit.Test;
 
+import java.util.List;
+import java.util.Map;
+
 public class CassandraArtifactCacheTest {
 
   @Test
@@ -38,9 +45,48 @@ public class CassandraArtifactCacheTest {
     CassandraArtifactCache cache = new CassandraArtifactCache(
         10 /* timeoutSeconds */,
         true /* doStore */,
+        Optional.<ArtifactEncoding>absent(),
         mockEventBus,
         mockContext);
     cache.close();
     verify(mockContext);
   }
+
+  @Test
+  public void artifactsAreBatchedByCountAndBySize() {
+    ImmutableMap.Builder<RuleKey, byte[]> small = ImmutableMap.builder();
+    for (int i = 0; i < 20; i++) {
+      small.put(createRuleKey(i), new byte[1]);
+    }
+    List<Map<RuleKey, byte[]>> batches = CassandraArtifactCache.partitionArtifacts(small.build());
+    assertEquals(2, batches.size());
+    assertEquals(16, batches.get(0).size());
+    assertEquals(4, batches.get(1).size());
+
+    int megabyte = 1024 * 1024;
+    batches = CassandraArtifactCache.partitionArtifacts(ImmutableMap.of(
+        createRuleKey(0), new byte[3 * megabyte],
+        createRuleKey(1), new byte[6 * megabyte],
+        createRuleKey(2), new byte[1],
+        createRuleKey(3), new byte[megabyte]));
+    assertEquals("An artifact that is too large for any batch is written on its own.",
+        3,
+        batches.size());
+    assertEquals(ImmutableMap.of(createRuleKey(0), 3 * megabyte), getSizes(batches.get(0)));
+    assertEquals(ImmutableMap.of(createRuleKey(1), 6 * megabyte), getSizes(batches.get(1)));
+    assertEquals(ImmutableMap.of(createRuleKey(2), 1, createRuleKey(3), megabyte),
+        getSizes(batches.get(2)));
+  }
+
+  private static RuleKey createRuleKey(int i) {
+    return new RuleKey(Strings.padStart(Integer.toHexString(i), 40, '0'));
+  }
+
+  private static Map<RuleKey, Integer> getSizes(Map<RuleKey, byte[]> batch) {
+    ImmutableMap.Builder<RuleKey, Integer> sizes = ImmutableMap.builder();
+    for (Map.Entry<RuleKey, byte[]> artifact : batch.entrySet()) {
+      sizes.put(artifact.getKey(), artifact.getValue().length);
+    }
+    return sizes.build();
+  }
 }
@@ -0,0 +1,235 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.zip.Unzip;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+public class ContentAddressedDirArtifactCacheTest {
+
+  private static final RuleKey RULE_KEY_X =
+      new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+  private static final RuleKey RULE_KEY_Y =
+      new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb");
+
+  @Rule
+  public TemporaryFolder tmpDir = new TemporaryFolder();
+
+  @Test
+  public void testFetchMiss() throws IOException {
+    ContentAddressedDirArtifactCache cache = new ContentAddressedDirArtifactCache(
+        tmpDir.newFolder(),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent());
+
+    assertFalse(cache.fetchStream(RULE_KEY_X).isPresent());
+    assertEquals(CacheResult.MISS, cache.fetch(RULE_KEY_X, new File(tmpDir.getRoot(), "out")));
+  }
+
+  @Test
+  public void testStoreAndExtractHit() throws IOException {
+    ContentAddressedDirArtifactCache cache = new ContentAddressedDirArtifactCache(
+        tmpDir.newFolder(),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent());
+
+    cache.store(RULE_KEY_X, createZip(ImmutableMap.of(
+        "buck-out/gen/a.txt", "a",
+        "buck-out/gen/sub/b.txt", "b")));
+
+    File projectRoot = tmpDir.newFolder();
+    Optional<CachedArtifactInputStream> artifact = cache.fetchStream(RULE_KEY_X);
+    assertTrue(artifact.isPresent());
+    try (CachedArtifactInputStream input = artifact.get()) {
+      assertEquals(CacheResult.DIR_HIT, input.getCacheResult());
+      input.extractTo(projectRoot.toPath());
+    }
+
+    assertEquals("a", Files.toString(new File(projectRoot, "buck-out/gen/a.txt"), Charsets.UTF_8));
+    assertEquals("b",
+        Files.toString(new File(projectRoot, "buck-out/gen/sub/b.txt"), Charsets.UTF_8));
+  }
+
+  @Test
+  public void testFetchAssemblesZip() throws IOException {
+    ContentAddressedDirArtifactCache cache = new ContentAddressedDirArtifactCache(
+        tmpDir.newFolder(),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent());
+
+    cache.store(RULE_KEY_X, createZip(ImmutableMap.of("buck-out/gen/a.txt", "a")));
+
+    File zip = new File(tmpDir.getRoot(), "fetched.zip");
+    assertEquals(CacheResult.DIR_HIT, cache.fetch(RULE_KEY_X, zip));
+
+    File projectRoot = tmpDir.newFolder();
+    Unzip.extractZipFile(zip.getAbsolutePath(),
+        projectRoot.getAbsolutePath(),
+        /* overwriteExistingFiles */ true);
+    assertEquals("a", Files.toString(new File(projectRoot, "buck-out/gen/a.txt"), Charsets.UTF_8));
+  }
+
+  @Test
+  public void testEmptyDirectoriesSurviveTheRoundTrip() throws IOException {
+    ContentAddressedDirArtifactCache cache = new ContentAddressedDirArtifactCache(
+        tmpDir.newFolder(),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(Long.MAX_VALUE));
+
+    cache.store(RULE_KEY_X, createZip(ImmutableMap.of(
+        "buck-out/gen/a.txt", "a",
+        "buck-out/gen/empty/", "")));
+    // Directories have no blob, which must not trip up the cleanup.
+    cache.deleteOldFiles();
+
+    File projectRoot = tmpDir.newFolder();
+    try (CachedArtifactInputStream input = cache.fetchStream(RULE_KEY_X).get()) {
+      input.extractTo(projectRoot.toPath());
+    }
+    assertTrue(new File(projectRoot, "buck-out/gen/empty").isDirectory());
+    assertEquals("a", Files.toString(new File(projectRoot, "buck-out/gen/a.txt"), Charsets.UTF_8));
+
+    File zip = new File(tmpDir.getRoot(), "fetched.zip");
+    assertEquals(CacheResult.DIR_HIT, cache.fetch(RULE_KEY_X, zip));
+    File unzipRoot = tmpDir.newFolder();
+    Unzip.extractZipFile(zip.getAbsolutePath(),
+        unzipRoot.getAbsolutePath(),
+        /* overwriteExistingFiles */ true);
+    assertTrue(new File(unzipRoot, "buck-out/gen/empty").isDirectory());
+  }
+
+  @Test
+  public void testIdenticalFilesAreStoredOnce() throws IOException {
+    File cacheDir = tmpDir.newFolder();
+    ContentAddressedDirArtifactCache cache = new ContentAddressedDirArtifactCache(
+        cacheDir,
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent());
+
+    cache.store(RULE_KEY_X, createZip(ImmutableMap.of("buck-out/gen/x/R.jar", "shared")));
+    cache.store(RULE_KEY_Y, createZip(ImmutableMap.of("buck-out/gen/y/R.jar", "shared")));
+
+    Path blob = cache.getPathToBlob(sha1("shared"));
+    assertTrue(blob.toFile().isFile());
+    assertEquals(1, blob.getParent().toFile().listFiles().length);
+    assertTrue(cache.fetchStream(RULE_KEY_X).isPresent());
+    assertTrue(cache.fetchStream(RULE_KEY_Y).isPresent());
+  }
+
+  @Test
+  public void testDeleteOldFilesRemovesUnreferencedBlobs() throws IOException {
+    ContentAddressedDirArtifactCache cache = new ContentAddressedDirArtifactCache(
+        tmpDir.newFolder(),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.of(0L));
+
+    cache.store(RULE_KEY_X, createZip(ImmutableMap.of("buck-out/gen/a.txt", "a")));
+    assertTrue(cache.getPathToBlob(sha1("a")).toFile().exists());
+
+    cache.deleteOldFiles();
+
+    assertFalse(cache.fetchStream(RULE_KEY_X).isPresent());
+    assertFalse(cache.getPathToBlob(sha1("a")).toFile().exists());
+  }
+
+  @Test
+  public void testReadOnlyCacheDoesNotStore() throws IOException {
+    ContentAddressedDirArtifactCache cache = new ContentAddressedDirArtifactCache(
+        tmpDir.newFolder(),
+        /* doStore */ false,
+        /* maxCacheSizeBytes */ Optional.<Long>absent());
+
+    cache.store(RULE_KEY_X, createZip(ImmutableMap.of("buck-out/gen/a.txt", "a")));
+
+    assertFalse(cache.isStoreSupported());
+    assertFalse(cache.fetchStream(RULE_KEY_X).isPresent());
+  }
+
+  @Test
+  public void testArtifactThatIsNotAZipIsNotStored() throws IOException {
+    ContentAddressedDirArtifactCache cache = new ContentAddressedDirArtifactCache(
+        tmpDir.newFolder(),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent());
+
+    File notAZip = tmpDir.newFile();
+    Files.write("Not a zip.", notAZip, Charsets.UTF_8);
+    cache.store(RULE_KEY_X, notAZip);
+
+    assertFalse(cache.fetchStream(RULE_KEY_X).isPresent());
+    assertEquals(CacheResult.MISS, cache.fetch(RULE_KEY_X, new File(tmpDir.getRoot(), "out")));
+  }
+
+  @Test
+  public void testEncodedArtifactIsStoredDecoded() throws IOException {
+    ContentAddressedDirArtifactCache cache = new ContentAddressedDirArtifactCache(
+        tmpDir.newFolder(),
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent());
+
+    File zip = createZip(ImmutableMap.of("buck-out/gen/a.txt", "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa"));
+    File encoded = tmpDir.newFile();
+    Files.write(
+        new ArtifactEncoding(ArtifactCodec.DEFLATE, 9).encode(Files.toByteArray(zip)),
+        encoded);
+    cache.store(RULE_KEY_X, encoded);
+
+    File projectRoot = tmpDir.newFolder();
+    Optional<CachedArtifactInputStream> artifact = cache.fetchStream(RULE_KEY_X);
+    assertTrue(artifact.isPresent());
+    artifact.get().extractTo(projectRoot.toPath());
+    assertEquals(
+        "aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa",
+        Files.toString(new File(projectRoot, "buck-out/gen/a.txt"), Charsets.UTF_8));
+  }
+
+  private File createZip(Map<String, String> entries) throws IOException {
+    File zipFile = tmpDir.newFile();
+    try (ZipOutputStream zip = new ZipOutputStream(new FileOutputStream(zipFile))) {
+      for (Map.Entry<String, String> entry : entries.entrySet()) {
+        zip.putNextEntry(new ZipEntry(entry.getKey()));
+        zip.write(entry.getValue().getBytes(Charsets.UTF_8));
+        zip.closeEntry();
+      }
+    }
+    return zipFile;
+  }
+
+  private static String sha1(String contents) {
+    return Hashing.sha1().hashString(contents, Charsets.UTF_8).toString();
+  }
+}
@@ -28,6 +28,7 @@ import com.google.common.base.Optional;
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
 import com.google.common.io.Files;
 
 import org.junit.Rule;
@@ -99,6 +100,32 @@ public class DirArtifactCacheTest {
     assertEquals(inputRuleX, new BuildRuleForTest(fileX));
   }
 
+  @Test
+  public void testCacheStoreAndFetchStreamHit() throws IOException {
+    File cacheDir = tmpDir.newFolder();
+    File fileX = tmpDir.newFile("x");
+
+    DirArtifactCache dirArtifactCache = new DirArtifactCache(
+        cacheDir,
+        /* doStore */ true,
+        /* maxCacheSizeBytes */ Optional.<Long>absent());
+
+    Files.write("x", fileX, Charsets.UTF_8);
+    BuildRule inputRuleX = new BuildRuleForTest(fileX);
+    RuleKey ruleKeyX = RuleKey.builder(inputRuleX, fileHashCache).build().getTotalRuleKey();
+
+    assertFalse(dirArtifactCache.fetchStream(ruleKeyX).isPresent());
+
+    dirArtifactCache.store(ruleKeyX, fileX);
+
+    Optional<CachedArtifactInputStream> artifact = dirArtifactCache.fetchStream(ruleKeyX);
+    assertTrue(artifact.isPresent());
+    try (CachedArtifactInputStream input = artifact.get()) {
+      assertEquals(CacheResult.DIR_HIT, input.getCacheResult());
+      assertEquals("x", new String(ByteStreams.toByteArray(input), Charsets.UTF_8));
+    }
+  }
+
   @Test
   public void testCacheStoreOverwrite() throws IOException {
     File cacheDir = tmpDir.newFolder();
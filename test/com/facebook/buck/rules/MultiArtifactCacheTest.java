@@ -17,12 +17,19 @@
 package com.facebook.buck.rules;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
+import com.google.common.base.Optional;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.IOException;
+import java.util.Map;
 
 import javax.annotation.Nullable;
 
@@ -43,11 +50,31 @@ public class MultiArtifactCacheTest {
       return ruleKey.equals(storeKey) ? CacheResult.LOCAL_KEY_UNCHANGED_HIT : CacheResult.MISS;
     }
 
+    @Override
+    public Optional<CachedArtifactInputStream> fetchStream(RuleKey ruleKey) {
+      if (!ruleKey.equals(storeKey)) {
+        return Optional.absent();
+      }
+      return Optional.of(new CachedArtifactInputStream(
+          new ByteArrayInputStream(new byte[0]),
+          CacheResult.LOCAL_KEY_UNCHANGED_HIT));
+    }
+
+    @Override
+    public ImmutableMap<RuleKey, CacheResult> fetchAll(Map<RuleKey, File> outputs) {
+      return ArtifactCaches.fetchEach(this, outputs);
+    }
+
     @Override
     public void store(RuleKey ruleKey, File output) {
       storeKey = ruleKey;
     }
 
+    @Override
+    public void storeAll(Map<RuleKey, File> outputs) {
+      ArtifactCaches.storeEach(this, outputs);
+    }
+
     @Override
     public boolean isStoreSupported() {
       return true;
@@ -84,6 +111,49 @@ public class MultiArtifactCacheTest {
         multiArtifactCache.fetch(dummyRuleKey, dummyFile));
   }
 
+  @Test
+  public void testCacheFetchStream() throws IOException {
+    DummyArtifactCache dummyArtifactCache1 = new DummyArtifactCache();
+    DummyArtifactCache dummyArtifactCache2 = new DummyArtifactCache();
+    MultiArtifactCache multiArtifactCache = new MultiArtifactCache(ImmutableList.<ArtifactCache>of(
+        dummyArtifactCache1,
+        dummyArtifactCache2));
+
+    assertFalse("Fetch should fail", multiArtifactCache.fetchStream(dummyRuleKey).isPresent());
+
+    dummyArtifactCache2.store(dummyRuleKey, dummyFile);
+    Optional<CachedArtifactInputStream> artifact = multiArtifactCache.fetchStream(dummyRuleKey);
+    assertTrue("Fetch should succeed after store", artifact.isPresent());
+    artifact.get().close();
+    assertEquals(CacheResult.LOCAL_KEY_UNCHANGED_HIT, artifact.get().getCacheResult());
+    assertEquals("A hit in a later cache should be propagated to the earlier caches",
+        dummyRuleKey,
+        dummyArtifactCache1.storeKey);
+  }
+
+  @Test
+  public void testCacheFetchAll() {
+    RuleKey otherRuleKey = new RuleKey("a9e9e2b26eee0db1c5e8c4ed4bcb3ce9a38f58e9");
+    DummyArtifactCache dummyArtifactCache1 = new DummyArtifactCache();
+    DummyArtifactCache dummyArtifactCache2 = new DummyArtifactCache();
+    MultiArtifactCache multiArtifactCache = new MultiArtifactCache(ImmutableList.<ArtifactCache>of(
+        dummyArtifactCache1,
+        dummyArtifactCache2));
+
+    dummyArtifactCache2.store(dummyRuleKey, dummyFile);
+    ImmutableMap<RuleKey, CacheResult> cacheResults = multiArtifactCache.fetchAll(
+        ImmutableMap.of(dummyRuleKey, dummyFile, otherRuleKey, new File("other")));
+
+    assertEquals(
+        ImmutableMap.of(
+            dummyRuleKey, CacheResult.LOCAL_KEY_UNCHANGED_HIT,
+            otherRuleKey, CacheResult.MISS),
+        cacheResults);
+    assertEquals("A hit in a later cache should be propagated to the earlier caches",
+        dummyRuleKey,
+        dummyArtifactCache1.storeKey);
+  }
+
   @Test
   public void testCacheStore() {
     DummyArtifactCache dummyArtifactCache1 = new DummyArtifactCache();
@@ -0,0 +1,189 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.event.FakeBuckEventListener;
+import com.facebook.buck.graph.MutableDirectedGraph;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.model.BuildTargetPattern;
+import com.facebook.buck.util.FileHashCache;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Iterables;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.ListeningExecutorService;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Collections;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executors;
+
+public class ParallelRuleKeyCalculatorTest {
+
+  private static final RuleKey RULE_KEY =
+      new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+
+  private ListeningExecutorService executorService;
+  private BuckEventBus eventBus;
+  private FakeBuckEventListener listener;
+  private RecordingFileHashCache fileHashCache;
+  private Set<BuildRule> rulesWithKeys;
+  private Set<BuildRule> rulesComputedBeforeTheirDeps;
+
+  @Before
+  public void setUp() {
+    executorService = MoreExecutors.listeningDecorator(Executors.newFixedThreadPool(4));
+    eventBus = BuckEventBusFactory.newInstance();
+    listener = new FakeBuckEventListener();
+    eventBus.register(listener);
+    fileHashCache = new RecordingFileHashCache();
+    rulesWithKeys = Sets.newConcurrentHashSet();
+    rulesComputedBeforeTheirDeps = Sets.newConcurrentHashSet();
+  }
+
+  @After
+  public void tearDown() {
+    executorService.shutdownNow();
+  }
+
+  @Test
+  public void testRuleKeysAreComputedAfterThoseOfTheirDeps() {
+    KeyedRule a = createRule("//foo:a", /* isComputable */ true);
+    KeyedRule b = createRule("//foo:b", /* isComputable */ true, a);
+    KeyedRule c = createRule("//foo:c", /* isComputable */ true, a);
+    KeyedRule d = createRule("//foo:d", /* isComputable */ true, b, c);
+
+    new ParallelRuleKeyCalculator(executorService, new RuleKeyCache(), eventBus)
+        .calculate(createGraph(a, b, c, d));
+
+    assertEquals(ImmutableSet.<BuildRule>of(a, b, c, d), rulesWithKeys);
+    assertTrue(rulesComputedBeforeTheirDeps.isEmpty());
+    assertEquals(
+        ImmutableSet.of(Paths.get("foo/a"), Paths.get("foo/b"), Paths.get("foo/c"),
+            Paths.get("foo/d")),
+        ImmutableSet.copyOf(fileHashCache.hashedPaths));
+    assertPhaseFinished(RuleKeyCalculationEvent.Phase.HASH_INPUTS, 4);
+    assertPhaseFinished(RuleKeyCalculationEvent.Phase.COMPUTE_KEYS, 4);
+  }
+
+  @Test
+  public void testRuleThatCannotBeComputedDoesNotStopItsDependents() {
+    KeyedRule a = createRule("//foo:a", /* isComputable */ false);
+    KeyedRule b = createRule("//foo:b", /* isComputable */ true, a);
+
+    new ParallelRuleKeyCalculator(executorService, new RuleKeyCache(), eventBus)
+        .calculate(createGraph(a, b));
+
+    assertEquals(ImmutableSet.<BuildRule>of(b), rulesWithKeys);
+    assertPhaseFinished(RuleKeyCalculationEvent.Phase.COMPUTE_KEYS, 1);
+  }
+
+  private KeyedRule createRule(String target, boolean isComputable, BuildRule... deps) {
+    BuildTarget buildTarget = BuildTargetFactory.newInstance(target);
+    return new KeyedRule(
+        new FakeBuildRuleParams(buildTarget,
+            ImmutableSortedSet.copyOf(deps),
+            ImmutableSet.of(BuildTargetPattern.MATCH_ALL),
+            fileHashCache),
+        Paths.get("foo", buildTarget.getShortName()),
+        isComputable);
+  }
+
+  private static DependencyGraph createGraph(BuildRule... rules) {
+    MutableDirectedGraph<BuildRule> graph = new MutableDirectedGraph<>();
+    for (BuildRule rule : rules) {
+      graph.addNode(rule);
+      for (BuildRule dep : rule.getDeps()) {
+        graph.addEdge(rule, dep);
+      }
+    }
+    return new DependencyGraph(graph);
+  }
+
+  private void assertPhaseFinished(RuleKeyCalculationEvent.Phase phase, int numRules) {
+    for (RuleKeyCalculationEvent.Finished event :
+        Iterables.filter(listener.getEvents(), RuleKeyCalculationEvent.Finished.class)) {
+      if (event.getPhase() == phase) {
+        assertEquals(numRules, event.getNumRules());
+        return;
+      }
+    }
+    throw new AssertionError("No event for phase " + phase);
+  }
+
+  /** A rule with a single input, which records when its key is computed. */
+  private class KeyedRule extends FakeBuildRule {
+    private final Path input;
+    private final boolean isComputable;
+
+    public KeyedRule(BuildRuleParams params, Path input, boolean isComputable) {
+      super(new BuildRuleType("keyed"), params);
+      this.input = input;
+      this.isComputable = isComputable;
+    }
+
+    @Override
+    public Iterable<Path> getInputs() {
+      return ImmutableList.of(input);
+    }
+
+    @Override
+    public RuleKey getRuleKey() {
+      if (!isComputable) {
+        throw new IllegalStateException("The key of this rule depends on its deps' output.");
+      }
+      for (BuildRule dep : getDeps()) {
+        if (!rulesWithKeys.contains(dep)) {
+          rulesComputedBeforeTheirDeps.add(this);
+        }
+      }
+      rulesWithKeys.add(this);
+      return RULE_KEY;
+    }
+  }
+
+  private static class RecordingFileHashCache implements FileHashCache {
+    private final List<Path> hashedPaths = Collections.synchronizedList(Lists.<Path>newArrayList());
+
+    @Override
+    public boolean contains(Path path) {
+      return true;
+    }
+
+    @Override
+    public HashCode get(Path path) {
+      hashedPaths.add(path);
+      return HashCode.fromInt(path.hashCode());
+    }
+  }
+}
@@ -0,0 +1,217 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static org.easymock.EasyMock.anyObject;
+import static org.easymock.EasyMock.createMock;
+import static org.easymock.EasyMock.expect;
+import static org.easymock.EasyMock.replay;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.event.BuckEventBus;
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.event.FakeBuckEventListener;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.Iterables;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.List;
+import java.util.Map;
+
+public class PrefetchingArtifactCacheTest {
+
+  private static final RuleKey RULE_KEY =
+      new RuleKey("aaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaaa");
+
+  private BuckEventBus eventBus;
+  private FakeBuckEventListener listener;
+  private CountingArtifactCache delegate;
+  private FakeBuildRule rule;
+
+  @Before
+  public void setUp() {
+    eventBus = BuckEventBusFactory.newInstance();
+    listener = new FakeBuckEventListener();
+    eventBus.register(listener);
+    delegate = new CountingArtifactCache();
+    BuildTarget target = BuildTargetFactory.newInstance("//foo:bar");
+    rule = new FakeBuildRule(new BuildRuleType("fake"), target);
+    rule.setRuleKey(RULE_KEY);
+  }
+
+  @Test
+  public void testBuildConsumesPrefetchedArtifact() throws IOException {
+    PrefetchingArtifactCache cache = createCache(/* maxPrefetchedBytes */ 1024);
+    cache.prefetch(ImmutableList.<BuildRule>of(rule), createContext(new FakeOnDiskBuildInfo()));
+    assertEquals(1, delegate.fetches);
+    assertEquals(CountingArtifactCache.CONTENTS.length(), cache.getPrefetchedBytes());
+
+    Optional<CachedArtifactInputStream> artifact = cache.fetchStream(RULE_KEY);
+    assertTrue(artifact.isPresent());
+    try (CachedArtifactInputStream input = artifact.get()) {
+      assertEquals(CacheResult.DIR_HIT, input.getCacheResult());
+      assertEquals(CountingArtifactCache.CONTENTS,
+          new String(ByteStreams.toByteArray(input), Charsets.UTF_8));
+    }
+
+    assertEquals("The build should not have gone to the delegate.", 0, delegate.streamFetches);
+    assertEquals(0, cache.getPrefetchedBytes());
+    cache.close();
+    assertPrefetchEvent(/* isUsed */ true);
+  }
+
+  @Test
+  public void testRulesArePrefetchedInOneBatch() throws IOException {
+    FakeBuildRule otherRule = new FakeBuildRule(
+        new BuildRuleType("fake"),
+        BuildTargetFactory.newInstance("//foo:baz"));
+    otherRule.setRuleKey(new RuleKey("bbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbbb"));
+    PrefetchingArtifactCache cache = createCache(/* maxPrefetchedBytes */ 1024);
+    cache.prefetch(ImmutableList.<BuildRule>of(rule, otherRule),
+        createContext(new FakeOnDiskBuildInfo()));
+
+    assertEquals(1, delegate.batchFetches);
+    assertEquals(2, delegate.fetches);
+    assertEquals(2 * CountingArtifactCache.CONTENTS.length(), cache.getPrefetchedBytes());
+    cache.close();
+  }
+
+  @Test
+  public void testRuleThatIsUnchangedOnDiskIsNotPrefetched() throws IOException {
+    PrefetchingArtifactCache cache = createCache(/* maxPrefetchedBytes */ 1024);
+    cache.prefetch(ImmutableList.<BuildRule>of(rule),
+        createContext(new FakeOnDiskBuildInfo().setRuleKey(RULE_KEY)));
+
+    assertEquals(0, delegate.fetches);
+    cache.close();
+  }
+
+  @Test
+  public void testUnusedPrefetchIsReportedAsWasted() throws IOException {
+    PrefetchingArtifactCache cache = createCache(/* maxPrefetchedBytes */ 1024);
+    cache.prefetch(ImmutableList.<BuildRule>of(rule), createContext(new FakeOnDiskBuildInfo()));
+    File prefetched = delegate.lastOutput;
+    assertTrue(prefetched.exists());
+
+    cache.close();
+
+    assertFalse(prefetched.exists());
+    assertEquals(0, cache.getPrefetchedBytes());
+    assertPrefetchEvent(/* isUsed */ false);
+  }
+
+  @Test
+  public void testNothingIsPrefetchedOnceBudgetIsExhausted() throws IOException {
+    PrefetchingArtifactCache cache = createCache(/* maxPrefetchedBytes */ 0);
+    cache.prefetch(ImmutableList.<BuildRule>of(rule), createContext(new FakeOnDiskBuildInfo()));
+    assertEquals(0, delegate.fetches);
+
+    cache.fetchStream(RULE_KEY);
+    assertEquals(1, delegate.streamFetches);
+    cache.close();
+    assertTrue(getPrefetchEvents().isEmpty());
+  }
+
+  @Test
+  public void testKeyThatWasNotPrefetchedCanBeFetchedRepeatedly() throws IOException {
+    PrefetchingArtifactCache cache = createCache(/* maxPrefetchedBytes */ 1024);
+
+    // The second fetch must not wait on anything the first one left behind.
+    assertFalse(cache.fetchStream(RULE_KEY).isPresent());
+    assertFalse(cache.fetchStream(RULE_KEY).isPresent());
+    assertEquals(2, delegate.streamFetches);
+
+    // And neither fetch has kept the key from being prefetched afterwards.
+    cache.prefetch(ImmutableList.<BuildRule>of(rule), createContext(new FakeOnDiskBuildInfo()));
+    assertEquals(1, delegate.fetches);
+    cache.close();
+  }
+
+  private PrefetchingArtifactCache createCache(long maxPrefetchedBytes) {
+    return new PrefetchingArtifactCache(delegate,
+        MoreExecutors.sameThreadExecutor(),
+        maxPrefetchedBytes,
+        eventBus);
+  }
+
+  private BuildContext createContext(OnDiskBuildInfo onDiskBuildInfo) {
+    BuildContext context = createMock(BuildContext.class);
+    expect(context.createOnDiskBuildInfoFor(anyObject(BuildTarget.class)))
+        .andStubReturn(onDiskBuildInfo);
+    replay(context);
+    return context;
+  }
+
+  private List<ArtifactCacheEvent.Prefetched> getPrefetchEvents() {
+    return ImmutableList.copyOf(
+        Iterables.filter(listener.getEvents(), ArtifactCacheEvent.Prefetched.class));
+  }
+
+  private void assertPrefetchEvent(boolean isUsed) {
+    ArtifactCacheEvent.Prefetched event = Iterables.getOnlyElement(getPrefetchEvents());
+    assertEquals(RULE_KEY, event.getRuleKey());
+    assertEquals(isUsed, event.isUsed());
+  }
+
+  /** Serves the same artifact for every key, and counts how it was asked for it. */
+  private static class CountingArtifactCache extends NoopArtifactCache {
+    private static final String CONTENTS = "prefetched";
+
+    private int batchFetches;
+    private int fetches;
+    private int streamFetches;
+    private File lastOutput;
+
+    @Override
+    public CacheResult fetch(RuleKey ruleKey, File output) {
+      fetches++;
+      lastOutput = output;
+      try {
+        Files.write(CONTENTS, output, Charsets.UTF_8);
+      } catch (IOException e) {
+        throw new RuntimeException(e);
+      }
+      return CacheResult.DIR_HIT;
+    }
+
+    @Override
+    public ImmutableMap<RuleKey, CacheResult> fetchAll(Map<RuleKey, File> outputs) {
+      batchFetches++;
+      return super.fetchAll(outputs);
+    }
+
+    @Override
+    public Optional<CachedArtifactInputStream> fetchStream(RuleKey ruleKey) {
+      streamFetches++;
+      return Optional.absent();
+    }
+  }
+}
@@ -0,0 +1,199 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.rules;
+
+import static com.facebook.buck.testutil.WatchEvents.createOverflowEvent;
+import static com.facebook.buck.testutil.WatchEvents.createPathEvent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+import com.facebook.buck.event.BuckEventBusFactory;
+import com.facebook.buck.graph.MutableDirectedGraph;
+import com.facebook.buck.model.BuildTarget;
+import com.facebook.buck.model.BuildTargetFactory;
+import com.facebook.buck.model.BuildTargetPattern;
+import com.facebook.buck.util.FileHashCache;
+import com.google.common.collect.ConcurrentHashMultiset;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.ImmutableSortedSet;
+import com.google.common.collect.Maps;
+import com.google.common.collect.Multiset;
+import com.google.common.hash.HashCode;
+import com.google.common.util.concurrent.MoreExecutors;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.util.Map;
+
+public class RuleKeyCacheTest {
+
+  private static final Object LIB_DEFINITION = new Object();
+  private static final Object BIN_DEFINITION = new Object();
+  private static final Object OTHER_DEFINITION = new Object();
+
+  private RuleKeyCache ruleKeyCache;
+  private Map<Path, HashCode> fileHashes;
+  private Multiset<String> computedRuleKeys;
+
+  @Before
+  public void setUp() {
+    ruleKeyCache = new RuleKeyCache();
+    fileHashes = Maps.newConcurrentMap();
+    fileHashes.put(Paths.get("lib/Lib.java"), HashCode.fromInt(1));
+    fileHashes.put(Paths.get("bin/Bin.java"), HashCode.fromInt(2));
+    fileHashes.put(Paths.get("other/Other.java"), HashCode.fromInt(3));
+    computedRuleKeys = ConcurrentHashMultiset.create();
+  }
+
+  @Test
+  public void testUnchangedRulesReuseTheirKeys() {
+    Map<String, RuleKey> first = calculate();
+    Map<String, RuleKey> second = calculate();
+
+    assertEquals(first, second);
+    assertEquals("Each key should have been computed only by the first calculation.",
+        ImmutableSet.of("//lib:lib", "//bin:bin", "//other:other"),
+        computedRuleKeys.elementSet());
+    assertEquals(3, computedRuleKeys.size());
+    assertEquals(3, ruleKeyCache.size());
+  }
+
+  @Test
+  public void testChangedInputInvalidatesOnlyTheRulesThatDependOnIt() {
+    Map<String, RuleKey> first = calculate();
+    computedRuleKeys.clear();
+
+    fileHashes.put(Paths.get("lib/Lib.java"), HashCode.fromInt(42));
+    ruleKeyCache.onFileSystemChange(
+        createPathEvent(new File("lib/Lib.java"), StandardWatchEventKinds.ENTRY_MODIFY));
+    Map<String, RuleKey> second = calculate();
+
+    assertEquals(ImmutableSet.of("//lib:lib", "//bin:bin"), computedRuleKeys.elementSet());
+    assertNotEquals(first.get("//lib:lib"), second.get("//lib:lib"));
+    assertNotEquals(first.get("//bin:bin"), second.get("//bin:bin"));
+    assertEquals(first.get("//other:other"), second.get("//other:other"));
+  }
+
+  @Test
+  public void testRuleWithNewDefinitionIsComputedAgain() {
+    calculate();
+    computedRuleKeys.clear();
+
+    calculate(OTHER_DEFINITION);
+
+    assertEquals(ImmutableSet.of("//lib:lib"), computedRuleKeys.elementSet());
+  }
+
+  @Test
+  public void testOverflowInvalidatesEverything() {
+    calculate();
+    computedRuleKeys.clear();
+
+    ruleKeyCache.onFileSystemChange(createOverflowEvent());
+    calculate();
+
+    assertEquals(3, computedRuleKeys.size());
+  }
+
+  private Map<String, RuleKey> calculate() {
+    return calculate(LIB_DEFINITION);
+  }
+
+  /** Creates a new set of rules, as a new command would, and computes their keys. */
+  private Map<String, RuleKey> calculate(Object libDefinition) {
+    FileHashCache fileHashCache = new FileHashCache() {
+      @Override
+      public boolean contains(Path path) {
+        return fileHashes.containsKey(path);
+      }
+
+      @Override
+      public HashCode get(Path path) {
+        return fileHashes.get(path);
+      }
+    };
+    InputRule lib = createRule("//lib:lib", "lib/Lib.java", fileHashCache);
+    InputRule bin = createRule("//bin:bin", "bin/Bin.java", fileHashCache, lib);
+    InputRule other = createRule("//other:other", "other/Other.java", fileHashCache);
+    ruleKeyCache.recordDefinition(lib, libDefinition);
+    ruleKeyCache.recordDefinition(bin, BIN_DEFINITION);
+    ruleKeyCache.recordDefinition(other, OTHER_DEFINITION);
+
+    MutableDirectedGraph<BuildRule> graph = new MutableDirectedGraph<>();
+    graph.addEdge(bin, lib);
+    graph.addNode(other);
+    new ParallelRuleKeyCalculator(MoreExecutors.sameThreadExecutor(),
+        ruleKeyCache,
+        BuckEventBusFactory.newInstance())
+        .calculate(new DependencyGraph(graph));
+
+    ImmutableMap.Builder<String, RuleKey> ruleKeys = ImmutableMap.builder();
+    for (BuildRule rule : ImmutableList.of(lib, bin, other)) {
+      ruleKeys.put(rule.getFullyQualifiedName(), rule.getRuleKey());
+    }
+    return ruleKeys.build();
+  }
+
+  private InputRule createRule(
+      String target,
+      String input,
+      FileHashCache fileHashCache,
+      BuildRule... deps) {
+    BuildTarget buildTarget = BuildTargetFactory.newInstance(target);
+    return new InputRule(
+        new FakeBuildRuleParams(buildTarget,
+            ImmutableSortedSet.copyOf(deps),
+            ImmutableSet.of(BuildTargetPattern.MATCH_ALL),
+            fileHashCache),
+        Paths.get(input));
+  }
+
+  /** A rule whose key is a function of its one input and its deps, like a real rule's. */
+  private class InputRule extends FakeBuildRule {
+    private final Path input;
+
+    public InputRule(BuildRuleParams params, Path input) {
+      super(new BuildRuleType("input"), params);
+      this.input = input;
+    }
+
+    @Override
+    public Iterable<Path> getInputs() {
+      return ImmutableList.of(input);
+    }
+
+    @Override
+    public RuleKey.Builder appendToRuleKey(RuleKey.Builder builder) {
+      computedRuleKeys.add(getFullyQualifiedName());
+      return builder.setInputs("buck.inputs", getInputs().iterator());
+    }
+
+    @Override
+    public RuleKey getRuleKey() {
+      // FakeBuildRule fixes the key, so go through the computation that AbstractBuildRule does.
+      getRuleKeyWithoutDeps();
+      return getRuleKeyPairIfComputed().getTotalRuleKey();
+    }
+  }
+}
@@ -193,7 +193,9 @@ public class ExportFileTest {
 
           @Override
           public <T> void addCallback(
-              ListenableFuture<List<T>> allBuiltDeps, FutureCallback<List<T>> futureCallback) {
+              ListenableFuture<List<T>> allBuiltDeps,
+              FutureCallback<List<T>> futureCallback,
+              long priority) {
             // Do nothing.
           }
         })
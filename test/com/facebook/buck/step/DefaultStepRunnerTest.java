@@ -35,6 +35,7 @@ import com.google.common.util.concurrent.Uninterruptibles;
 import org.junit.Test;
 
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 public class DefaultStepRunnerTest {
 
@@ -103,6 +104,41 @@ public class DefaultStepRunnerTest {
     // Success if the test timeout is not reached.
   }
 
+  @Test(timeout = 5000)
+  public void testStepsThatNeedTheSameResourcesDoNotRunAtOnce() throws Exception {
+    AtomicInteger numRunning = new AtomicInteger();
+    AtomicInteger maxRunning = new AtomicInteger();
+    ImmutableList.Builder<Step> steps = ImmutableList.builder();
+    for (int i = 0; i < 3; i++) {
+      steps.add(new MemoryHungryStep(numRunning, maxRunning));
+    }
+
+    BuckEventBus eventBus = BuckEventBusFactory.newInstance();
+    FakeBuckEventListener listener = new FakeBuckEventListener();
+    eventBus.register(listener);
+    ExecutionContext context = ExecutionContext.builder()
+        .setProjectFilesystem(createMock(ProjectFilesystem.class))
+        .setConsole(new TestConsole())
+        .setEventBus(eventBus)
+        .setPlatform(Platform.detect())
+        .setEnvironment(ImmutableMap.copyOf(System.getenv()))
+        .setResourcePool(new ResourcePool(new ResourceProfile(
+            /* cores */ 8,
+            /* memoryMegabytes */ 1024,
+            /* heapMegabytes */ 1024,
+            /* subprocesses */ 8)))
+        .build();
+
+    DefaultStepRunner runner = new DefaultStepRunner(context, 3);
+    runner.runStepsInParallelAndWait(steps.build());
+    runner.close();
+
+    assertEquals(1, maxRunning.get());
+    assertEquals(
+        Iterables.size(Iterables.filter(listener.getEvents(), StepResourcesEvent.Waiting.class)),
+        Iterables.size(Iterables.filter(listener.getEvents(), StepResourcesEvent.Acquired.class)));
+  }
+
   @Test
   public void testExplodingStep() {
     ExecutionContext context = TestExecutionContext.newInstance();
@@ -133,6 +169,49 @@ public class DefaultStepRunnerTest {
     }
   }
 
+  private static class MemoryHungryStep implements Step, HasResourceProfile {
+    private final AtomicInteger numRunning;
+    private final AtomicInteger maxRunning;
+
+    public MemoryHungryStep(AtomicInteger numRunning, AtomicInteger maxRunning) {
+      this.numRunning = numRunning;
+      this.maxRunning = maxRunning;
+    }
+
+    @Override
+    public ResourceProfile getResourceProfile() {
+      return new ResourceProfile(
+          /* cores */ 1,
+          /* memoryMegabytes */ 1024,
+          /* heapMegabytes */ 0,
+          /* subprocesses */ 0);
+    }
+
+    @Override
+    public int execute(ExecutionContext context) {
+      int running = numRunning.incrementAndGet();
+      while (true) {
+        int max = maxRunning.get();
+        if (running <= max || maxRunning.compareAndSet(max, running)) {
+          break;
+        }
+      }
+      Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+      numRunning.decrementAndGet();
+      return 0;
+    }
+
+    @Override
+    public String getShortName() {
+      return "hungry";
+    }
+
+    @Override
+    public String getDescription(ExecutionContext context) {
+      return "eat 1GB";
+    }
+  }
+
   private static class SleepingStep implements Step {
     private final long sleepMillis;
     private final int exitCode;
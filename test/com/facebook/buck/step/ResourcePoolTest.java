@@ -0,0 +1,191 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.step;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import org.junit.Test;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class ResourcePoolTest {
+
+  private static final ResourceProfile DX = new ResourceProfile(
+      /* cores */ 1,
+      /* memoryMegabytes */ 1024,
+      /* heapMegabytes */ 0,
+      /* subprocesses */ 1);
+
+  private static final ResourceProfile JAVAC_IN_MEMORY = new ResourceProfile(
+      /* cores */ 1,
+      /* memoryMegabytes */ 0,
+      /* heapMegabytes */ 256,
+      /* subprocesses */ 0);
+
+  @Test
+  public void testStepsAreAdmittedUntilAResourceRunsOut() {
+    ResourcePool pool = new ResourcePool(new ResourceProfile(
+        /* cores */ 4,
+        /* memoryMegabytes */ 2048,
+        /* heapMegabytes */ 512,
+        /* subprocesses */ 4));
+
+    assertTrue(pool.tryAcquire(DX));
+    assertTrue(pool.tryAcquire(DX));
+    assertEquals(ImmutableSet.of(ResourcePool.Resource.MEMORY), pool.getSaturatedResources(DX));
+    assertFalse(pool.tryAcquire(DX));
+    assertTrue("A step that needs no memory is not held up by the others.",
+        pool.tryAcquire(ResourceProfile.SUBPROCESS));
+
+    pool.release(DX);
+    assertTrue(pool.tryAcquire(DX));
+  }
+
+  @Test
+  public void testStepThatNeedsMoreThanTheCapacityRunsOnItsOwn() {
+    ResourcePool pool = new ResourcePool(new ResourceProfile(
+        /* cores */ 2,
+        /* memoryMegabytes */ 512,
+        /* heapMegabytes */ 512,
+        /* subprocesses */ 2));
+
+    assertTrue(pool.tryAcquire(DX));
+    assertFalse(pool.tryAcquire(DX));
+
+    pool.release(DX);
+    assertTrue(pool.getSaturatedResources(DX).isEmpty());
+  }
+
+  @Test
+  public void testInProcessStepsAreLimitedByTheHeapRatherThanThePhysicalMemory() {
+    ResourcePool pool = new ResourcePool(new ResourceProfile(
+        /* cores */ 8,
+        /* memoryMegabytes */ 1024,
+        /* heapMegabytes */ 512,
+        /* subprocesses */ 8));
+
+    assertTrue(pool.tryAcquire(DX));
+    assertTrue("The subprocess does not use the heap.", pool.tryAcquire(JAVAC_IN_MEMORY));
+    assertTrue(pool.tryAcquire(JAVAC_IN_MEMORY));
+    assertEquals(ImmutableSet.of(ResourcePool.Resource.HEAP),
+        pool.getSaturatedResources(JAVAC_IN_MEMORY));
+    assertFalse(pool.tryAcquire(JAVAC_IN_MEMORY));
+  }
+
+  @Test(timeout = 10000)
+  public void testLargeStepIsNotStarvedByAStreamOfSmallOnes() throws InterruptedException {
+    ResourcePool pool = new ResourcePool(new ResourceProfile(
+        /* cores */ 4,
+        /* memoryMegabytes */ 1024,
+        /* heapMegabytes */ 1024,
+        /* subprocesses */ 4));
+    ResourceProfile ndkBuild = new ResourceProfile(
+        /* cores */ 4,
+        /* memoryMegabytes */ 0,
+        /* heapMegabytes */ 0,
+        /* subprocesses */ 1);
+    List<String> acquired = new CopyOnWriteArrayList<>();
+    assertTrue(pool.tryAcquire(JAVAC_IN_MEMORY));
+    assertTrue(pool.tryAcquire(JAVAC_IN_MEMORY));
+
+    Thread ndkBuildStep = startAcquiring(pool, ndkBuild, "ndk-build", acquired);
+    awaitWaiting(ndkBuildStep);
+    Thread javacStep = startAcquiring(pool, JAVAC_IN_MEMORY, "javac", acquired);
+    awaitWaiting(javacStep);
+
+    // Cores keep being freed, but none of the steps that ask for one after ndk-build gets it.
+    for (int i = 0; i < 10; i++) {
+      assertFalse(pool.tryAcquire(JAVAC_IN_MEMORY));
+    }
+    assertEquals("Steps queued behind ndk-build wait for what it is waiting for.",
+        ImmutableSet.of(ResourcePool.Resource.CORES),
+        pool.getSaturatedResources(JAVAC_IN_MEMORY));
+    pool.release(JAVAC_IN_MEMORY);
+    assertFalse(pool.tryAcquire(JAVAC_IN_MEMORY));
+    pool.release(JAVAC_IN_MEMORY);
+
+    ndkBuildStep.join();
+    pool.release(ndkBuild);
+    javacStep.join();
+    assertEquals(ImmutableList.of("ndk-build", "javac"), acquired);
+  }
+
+  @Test
+  public void testUnlimitedPoolAdmitsEverything() {
+    ResourcePool pool = ResourcePool.createUnlimited();
+    for (int i = 0; i < 1000; i++) {
+      assertTrue(pool.tryAcquire(DX));
+    }
+  }
+
+  @Test
+  public void testCompositeStepNeedsTheMostOfEachResource() {
+    CompositeStep step = new CompositeStep(ImmutableList.<Step>of(
+        new ProfiledStep(new ResourceProfile(1, 1024, 0, 0)),
+        new FakeStep("fake", "fake", 0),
+        new ProfiledStep(new ResourceProfile(4, 256, 128, 1))));
+
+    assertEquals(new ResourceProfile(4, 1024, 128, 1), step.getResourceProfile());
+  }
+
+  private static class ProfiledStep extends FakeStep implements HasResourceProfile {
+    private final ResourceProfile resourceProfile;
+
+    public ProfiledStep(ResourceProfile resourceProfile) {
+      super("profiled", "profiled", 0);
+      this.resourceProfile = resourceProfile;
+    }
+
+    @Override
+    public ResourceProfile getResourceProfile() {
+      return resourceProfile;
+    }
+  }
+
+  private static Thread startAcquiring(
+      final ResourcePool pool,
+      final ResourceProfile profile,
+      final String name,
+      final List<String> acquired) {
+    Thread thread = new Thread(name) {
+      @Override
+      public void run() {
+        try {
+          pool.acquire(profile);
+          acquired.add(name);
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    };
+    thread.start();
+    return thread;
+  }
+
+  private static void awaitWaiting(Thread thread) throws InterruptedException {
+    while (thread.getState() != Thread.State.WAITING) {
+      Thread.sleep(1);
+    }
+  }
+}
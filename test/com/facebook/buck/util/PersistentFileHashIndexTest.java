@@ -0,0 +1,141 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import static com.facebook.buck.testutil.WatchEvents.createPathEvent;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.facebook.buck.testutil.TestConsole;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.nio.file.attribute.FileTime;
+
+public class PersistentFileHashIndexTest {
+
+  private static final HashCode HASH = HashCode.fromInt(42);
+
+  @Rule public TemporaryFolder tmp = new TemporaryFolder();
+
+  private Path indexFile;
+  private Path source;
+
+  @Before
+  public void setUp() throws IOException {
+    indexFile = tmp.getRoot().toPath().resolve("buck-out/cache/file_hashes");
+    source = writeSource("Foo.java", "class Foo {}");
+  }
+
+  @Test
+  public void testHashesSurviveSaveAndLoad() throws IOException {
+    PersistentFileHashIndex index = PersistentFileHashIndex.load(indexFile);
+    index.put(Paths.get("Foo.java"), readAttributes(source), HASH);
+    index.save();
+
+    PersistentFileHashIndex reloaded = PersistentFileHashIndex.load(indexFile);
+    assertEquals(1, reloaded.size());
+    assertEquals(Optional.of(HASH), reloaded.get(Paths.get("Foo.java"), readAttributes(source)));
+  }
+
+  @Test
+  public void testChangedFileIsNotServedFromIndex() throws IOException {
+    PersistentFileHashIndex index = PersistentFileHashIndex.load(indexFile);
+    index.put(Paths.get("Foo.java"), readAttributes(source), HASH);
+
+    Files.write(source, "class Foo { int bar; }".getBytes(Charsets.UTF_8));
+    setAge(source, /* ageMillis */ 60000);
+
+    assertFalse(index.get(Paths.get("Foo.java"), readAttributes(source)).isPresent());
+  }
+
+  @Test
+  public void testRecentlyModifiedFileIsNotRecorded() throws IOException {
+    Files.setLastModifiedTime(source, FileTime.fromMillis(System.currentTimeMillis()));
+
+    PersistentFileHashIndex index = PersistentFileHashIndex.load(indexFile);
+    index.put(Paths.get("Foo.java"), readAttributes(source), HASH);
+
+    assertEquals(0, index.size());
+  }
+
+  @Test
+  public void testCorruptIndexIsTreatedAsEmpty() throws IOException {
+    Files.createDirectories(indexFile.getParent());
+    Files.write(indexFile, new byte[] {0x42, 0x48, 0x49, 0x58, 0, 0, 0, 1, 0x7F});
+
+    PersistentFileHashIndex index = PersistentFileHashIndex.load(indexFile);
+    assertEquals(0, index.size());
+
+    index.put(Paths.get("Foo.java"), readAttributes(source), HASH);
+    index.save();
+    assertEquals(1, PersistentFileHashIndex.load(indexFile).size());
+  }
+
+  @Test
+  public void testFileHashCacheReadsAndUpdatesIndex() throws IOException {
+    ProjectFilesystem filesystem = new ProjectFilesystem(tmp.getRoot());
+    PersistentFileHashIndex index = PersistentFileHashIndex.load(indexFile);
+    index.put(Paths.get("Foo.java"), readAttributes(source), HASH);
+    Path bar = writeSource("Bar.java", "class Bar {}");
+
+    DefaultFileHashCache cache =
+        new DefaultFileHashCache(filesystem, new TestConsole(), Optional.of(index));
+    assertEquals("The recorded hash should be used rather than the file's contents.",
+        HASH,
+        cache.get(Paths.get("Foo.java")));
+    assertEquals(Hashing.sha1().hashBytes("class Bar {}".getBytes(Charsets.UTF_8)),
+        cache.get(Paths.get("Bar.java")));
+    assertEquals(Optional.of(cache.get(Paths.get("Bar.java"))),
+        index.get(Paths.get("Bar.java"), readAttributes(bar)));
+
+    cache.onFileSystemChange(
+        createPathEvent(new File("Foo.java"), StandardWatchEventKinds.ENTRY_MODIFY));
+    assertFalse(index.get(Paths.get("Foo.java"), readAttributes(source)).isPresent());
+    assertTrue(index.get(Paths.get("Bar.java"), readAttributes(bar)).isPresent());
+  }
+
+  private Path writeSource(String name, String contents) throws IOException {
+    Path path = tmp.getRoot().toPath().resolve(name);
+    Files.write(path, contents.getBytes(Charsets.UTF_8));
+    setAge(path, /* ageMillis */ 120000);
+    return path;
+  }
+
+  private static void setAge(Path path, long ageMillis) throws IOException {
+    Files.setLastModifiedTime(path, FileTime.fromMillis(System.currentTimeMillis() - ageMillis));
+  }
+
+  private static BasicFileAttributes readAttributes(Path path) throws IOException {
+    return Files.readAttributes(path, BasicFileAttributes.class);
+  }
+}
@@ -0,0 +1,295 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.facebook.buck.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Suppliers;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Sets;
+import com.google.common.eventbus.EventBus;
+import com.google.common.eventbus.Subscribe;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PipedInputStream;
+import java.io.PipedOutputStream;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.util.List;
+import java.util.Set;
+
+public class WatchmanSubscriptionWatcherTest {
+
+  @Rule public TemporaryFolder projectRoot = new TemporaryFolder();
+
+  private FakeWatchman watchman;
+  private List<WatchEvent<?>> events;
+  private EventBus eventBus;
+
+  @Before
+  public void setUp() throws IOException {
+    watchman = new FakeWatchman(projectRoot.getRoot().toPath());
+    events = Lists.newArrayList();
+    eventBus = new EventBus();
+    eventBus.register(new Object() {
+      @Subscribe
+      public void onFileSystemChange(WatchEvent<?> event) {
+        events.add(event);
+      }
+    });
+  }
+
+  @After
+  public void tearDown() throws IOException {
+    watchman.stop();
+  }
+
+  @Test
+  public void whenFilesChangeThenEventsArePostedWithoutTheCookies() throws IOException {
+    WatchmanSubscriptionWatcher watcher = createWatcher(/* overflow */ 200);
+    watcher.postEvents();
+    assertTrue("The initial listing of the project should not be reported.", events.isEmpty());
+
+    watchman.addChange("{\"name\": \"foo/bar/baz\", \"exists\": true, \"type\": \"f\"}");
+    watchman.addChange("{\"name\": \"foo/bar/boz\", \"new\": true, \"type\": \"f\"}");
+    watcher.postEvents();
+
+    assertEquals(2, events.size());
+    assertEquals("foo/bar/baz", events.get(0).context().toString());
+    assertEquals(StandardWatchEventKinds.ENTRY_MODIFY, events.get(0).kind());
+    assertEquals("foo/bar/boz", events.get(1).context().toString());
+    assertEquals(StandardWatchEventKinds.ENTRY_CREATE, events.get(1).kind());
+    assertEquals("The subscription should be set up only once.", 1, watchman.getNumStarts());
+  }
+
+  @Test
+  public void whenTooManyChangesThenOverflowEventGenerated() throws IOException {
+    WatchmanSubscriptionWatcher watcher = createWatcher(/* overflow */ 1);
+    watcher.postEvents();
+
+    watchman.addChange("{\"name\": \"foo/bar/baz\"}");
+    watchman.addChange("{\"name\": \"foo/bar/boz\"}");
+    watcher.postEvents();
+
+    assertEquals(1, events.size());
+    assertEquals(StandardWatchEventKinds.OVERFLOW, events.get(0).kind());
+
+    events.clear();
+    watchman.addChange("{\"name\": \"foo/bar/baz\"}");
+    watcher.postEvents();
+    assertEquals("Changes after the overflow should be reported one by one again.",
+        "foo/bar/baz",
+        events.get(0).context().toString());
+  }
+
+  @Test
+  public void whenWatchmanStartsOverThenOverflowEventGenerated() throws IOException {
+    WatchmanSubscriptionWatcher watcher = createWatcher(/* overflow */ 200);
+    watcher.postEvents();
+
+    watchman.setFreshInstance();
+    watchman.addChange("{\"name\": \"foo/bar/baz\"}");
+    watcher.postEvents();
+
+    assertEquals(1, events.size());
+    assertEquals(StandardWatchEventKinds.OVERFLOW, events.get(0).kind());
+  }
+
+  @Test
+  public void whenWatchmanExitsThenWatchmanWatcherExceptionThrown() throws IOException {
+    WatchmanSubscriptionWatcher watcher = createWatcher(/* overflow */ 200);
+    watcher.postEvents();
+
+    watchman.stop();
+    try {
+      watcher.postEvents();
+      fail("Should have thrown WatchmanWatcherException.");
+    } catch (WatchmanWatcherException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Watchman"));
+    }
+  }
+
+  @Test
+  public void whenCookieIsNotReportedThenWatchmanWatcherExceptionThrown() throws IOException {
+    WatchmanSubscriptionWatcher watcher = createWatcher(/* overflow */ 200);
+    watchman.setUnresponsive();
+    try {
+      watcher.postEvents();
+      fail("Should have thrown WatchmanWatcherException.");
+    } catch (WatchmanWatcherException e) {
+      assertTrue(e.getMessage(), e.getMessage().startsWith("Timed out"));
+    }
+    assertEquals("The cookie should have been deleted.", 0, projectRoot.getRoot().list().length);
+  }
+
+  private WatchmanSubscriptionWatcher createWatcher(int overflow) {
+    return new WatchmanSubscriptionWatcher(
+        Suppliers.<Process>ofInstance(watchman),
+        eventBus,
+        overflow,
+        projectRoot.getRoot().toPath(),
+        /* syncTimeoutMillis */ 500);
+  }
+
+  /**
+   * Reports the cookies that the watcher creates, along with the changes added since the last
+   * one, as watchman would.
+   */
+  private static class FakeWatchman extends Process implements Runnable {
+    private final Path root;
+    private final PipedInputStream output;
+    private final PipedOutputStream outputWriter;
+    private final ByteArrayOutputStream input;
+    private final List<String> changes;
+    private final Set<String> reportedCookies;
+    private final Thread thread;
+    private volatile boolean isRunning;
+    private boolean isFreshInstance;
+    private boolean isUnresponsive;
+    private int numStarts;
+
+    public FakeWatchman(Path root) throws IOException {
+      this.root = root;
+      this.output = new PipedInputStream();
+      this.outputWriter = new PipedOutputStream(output);
+      this.input = new ByteArrayOutputStream();
+      this.changes = Lists.newArrayList();
+      this.reportedCookies = Sets.newHashSet();
+      this.thread = new Thread(this);
+      this.isRunning = true;
+    }
+
+    public synchronized void addChange(String file) {
+      changes.add(file);
+    }
+
+    public synchronized void setFreshInstance() {
+      isFreshInstance = true;
+    }
+
+    public synchronized void setUnresponsive() {
+      isUnresponsive = true;
+    }
+
+    public synchronized int getNumStarts() {
+      return numStarts;
+    }
+
+    public void stop() throws IOException {
+      isRunning = false;
+      try {
+        thread.join();
+      } catch (InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+      outputWriter.close();
+    }
+
+    @Override
+    public void run() {
+      try {
+        write("{\"version\": \"2.9.2\", \"subscribe\": \"buckd\", \"clock\": \"c:0:1\"}");
+        write("{\"subscription\": \"buckd\", \"is_fresh_instance\": true, " +
+            "\"files\": [{\"name\": \"BUCK\", \"new\": true}]}");
+        while (isRunning) {
+          for (String name : root.toFile().list()) {
+            if (name.startsWith(".buckd-sync-") && reportedCookies.add(name)) {
+              reportCookie(name);
+            }
+          }
+          Thread.sleep(5);
+        }
+      } catch (IOException | InterruptedException e) {
+        throw new RuntimeException(e);
+      }
+    }
+
+    private void reportCookie(String cookie) throws IOException {
+      List<String> files;
+      boolean freshInstance;
+      synchronized (this) {
+        if (isUnresponsive) {
+          return;
+        }
+        files = ImmutableList.<String>builder()
+            .addAll(changes)
+            .add("{\"name\": \"" + cookie + "\", \"new\": true, \"type\": \"f\"}")
+            .build();
+        freshInstance = isFreshInstance;
+        changes.clear();
+        isFreshInstance = false;
+      }
+      write("{\"subscription\": \"buckd\", \"is_fresh_instance\": " + freshInstance + ", " +
+          "\"files\": [" + Joiner.on(", ").join(files) + "]}");
+    }
+
+    private void write(String message) throws IOException {
+      outputWriter.write((message + "\n").getBytes(Charsets.UTF_8));
+      outputWriter.flush();
+    }
+
+    @Override
+    public OutputStream getOutputStream() {
+      synchronized (this) {
+        numStarts++;
+      }
+      thread.start();
+      return input;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+      return output;
+    }
+
+    @Override
+    public InputStream getErrorStream() {
+      return new ByteArrayInputStream(new byte[0]);
+    }
+
+    @Override
+    public int waitFor() {
+      return 0;
+    }
+
+    @Override
+    public int exitValue() {
+      return 0;
+    }
+
+    @Override
+    public void destroy() {
+      isRunning = false;
+    }
+  }
+}
@@ -39,6 +39,7 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.nio.file.Path;
+import java.nio.file.Paths;
 import java.nio.file.StandardWatchEventKinds;
 import java.nio.file.WatchEvent;
 
@@ -207,6 +208,74 @@ public class WatchmanWatcherTest {
         eventCapture.getValue().kind());
   }
 
+  @Test
+  public void whenDirectoryIsModifiedThenNoEventIsGenerated() throws IOException {
+    String watchmanOutput = Joiner.on('\n').join(
+        "{\"files\": [",
+            "{",
+                "\"name\": \"foo/bar\",",
+                "\"type\": \"d\"",
+            "},",
+            "{",
+                "\"name\": \"foo/baz\",",
+                "\"new\": true,",
+                "\"type\": \"d\"",
+            "}",
+        "]}");
+    Capture<WatchEvent<Path>> eventCapture = new Capture<>();
+    EventBus eventBus = createStrictMock(EventBus.class);
+    eventBus.post(capture(eventCapture));
+    Process process = createWaitForProcessMock(watchmanOutput);
+    replay(eventBus, process);
+    WatchmanWatcher watcher = createWatcher(eventBus, process);
+    watcher.postEvents();
+    verify(eventBus, process);
+    assertEquals("Only the creation of the directory should be reported.",
+        "foo/baz",
+        eventCapture.getValue().context().toString());
+    assertEquals(StandardWatchEventKinds.ENTRY_CREATE, eventCapture.getValue().kind());
+  }
+
+  @Test
+  public void whenFreshInstanceThenOverflowEventGenerated() throws IOException {
+    String watchmanOutput = Joiner.on('\n').join(
+        "{",
+        "\"clock\": \"c:1386170113:26390:5:50273\",",
+        "\"is_fresh_instance\": true,",
+        "\"files\": [{\"name\": \"foo/bar/baz\"}]",
+        "}");
+    Capture<WatchEvent<Path>> eventCapture = new Capture<>();
+    EventBus eventBus = createStrictMock(EventBus.class);
+    eventBus.post(capture(eventCapture));
+    Process process = createWaitForProcessMock(watchmanOutput);
+    replay(eventBus, process);
+    WatchmanWatcher watcher = createWatcher(eventBus, process);
+    watcher.postEvents();
+    verify(eventBus, process);
+    assertEquals("Should be overflow event.",
+        StandardWatchEventKinds.OVERFLOW,
+        eventCapture.getValue().kind());
+  }
+
+  @Test
+  public void whenQueriedAgainThenChangesSinceTheLastClockAreRequested() throws IOException {
+    String watchmanOutput = Joiner.on('\n').join(
+        "{",
+        "\"clock\": \"c:1386170113:26390:5:50273\",",
+        "\"files\": []",
+        "}");
+    EventBus eventBus = createStrictMock(EventBus.class);
+    Process process = createWaitForProcessMock(watchmanOutput);
+    replay(eventBus, process);
+    WatchmanWatcher watcher = createWatcher(eventBus, process);
+    assertTrue("The first query should use the daemon's named cursor.",
+        watcher.createQuery().contains("\"since\": \"n:buckd\""));
+    watcher.postEvents();
+    verify(eventBus, process);
+    assertTrue("The next query should start from the clock of the last one.",
+        watcher.createQuery().contains("\"since\": \"c:1386170113:26390:5:50273\""));
+  }
+
   @Test
   public void whenWatchmanFailsThenHumanReadableExceptionThrown() throws IOException {
     String watchmanOutput = "";
@@ -236,7 +305,7 @@ public class WatchmanWatcherTest {
         Suppliers.ofInstance(process),
         eventBus,
         overflow,
-        "" /* query */);
+        Paths.get("/path/to/project"));
   }
 
   private Process createProcessMock(String output) {
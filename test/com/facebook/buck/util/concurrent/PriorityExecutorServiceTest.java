@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014-present Facebook, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may
+ * not use this file except in compliance with the License. You may obtain
+ * a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations
+ * under the License.
+ */
+
+
+package com.facebook.buck.util.concurrent;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+public class PriorityExecutorServiceTest {
+
+  private PriorityExecutorService executorService;
+  private List<String> order;
+
+  @Before
+  public void setUp() {
+    executorService = new PriorityExecutorService("PriorityExecutorServiceTest", 1);
+    order = Collections.synchronizedList(Lists.<String>newArrayList());
+  }
+
+  @After
+  public void tearDown() {
+    executorService.shutdownNow();
+  }
+
+  @Test
+  public void testQueuedTasksRunInOrderOfPriorityThenSubmission() throws InterruptedException {
+    // Keep the only thread busy until every task has been queued.
+    final CountDownLatch release = new CountDownLatch(1);
+    executorService.execute(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+
+    executorService.withPriority(1).execute(record("low"));
+    executorService.withPriority(3).execute(record("high-first"));
+    executorService.withPriority(2).execute(record("medium"));
+    executorService.withPriority(3).execute(record("high-second"));
+    executorService.submit(record("default"));
+    release.countDown();
+
+    executorService.shutdown();
+    assertTrue(executorService.awaitTermination(5, TimeUnit.SECONDS));
+    assertEquals(
+        ImmutableList.of("default", "high-first", "high-second", "medium", "low"),
+        order);
+  }
+
+  @Test
+  public void testShutdownNowReturnsTheQueuedTasks() throws InterruptedException {
+    final CountDownLatch started = new CountDownLatch(1);
+    final CountDownLatch release = new CountDownLatch(1);
+    executorService.execute(new Runnable() {
+      @Override
+      public void run() {
+        started.countDown();
+        try {
+          release.await();
+        } catch (InterruptedException e) {
+          Thread.currentThread().interrupt();
+        }
+      }
+    });
+    Runnable queued = record("queued");
+    executorService.execute(queued, 1);
+    started.await();
+
+    assertEquals(ImmutableList.of(queued), executorService.shutdownNow());
+    assertTrue(executorService.awaitTermination(5, TimeUnit.SECONDS));
+    assertTrue(order.isEmpty());
+  }
+
+  private Runnable record(final String name) {
+    return new Runnable() {
+      @Override
+      public void run() {
+        order.add(name);
+      }
+    };
+  }
+}